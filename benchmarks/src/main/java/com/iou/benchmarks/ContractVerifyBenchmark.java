@@ -0,0 +1,76 @@
+package com.iou.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.TransactionForContract;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.iou.benchmarks.IOUFixtures.*;
+import static java.util.Collections.emptyList;
+
+/**
+ * Measures [IOUContract.verify] for each transaction shape the contract accepts, for both the Java and the Kotlin
+ * contract, with a growing number of IOUs per transaction. Settle only exists in the Kotlin contract; its
+ * transactions pay every IOU off in full with a single cash output.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ContractVerifyBenchmark {
+    @Param({"1", "10", "100", "1000"})
+    public int outputs;
+
+    private final com.iou.java.contract.IOUContract javaContract = new com.iou.java.contract.IOUContract();
+    private final com.iou.kotlin.contract.IOUContract kotlinContract = new com.iou.kotlin.contract.IOUContract();
+
+    private TransactionForContract javaCreateTx;
+    private TransactionForContract javaTransferTx;
+    private TransactionForContract kotlinCreateTx;
+    private TransactionForContract kotlinTransferTx;
+    private TransactionForContract kotlinSettleTx;
+
+    @Setup
+    public void setup() {
+        final List<com.iou.java.state.IOUState> javaIOUs = javaIOUs(outputs, alice, bob);
+        javaCreateTx = tx(emptyList(), javaIOUs, new com.iou.java.contract.IOUContract.Create(), keysAB);
+        javaTransferTx = tx(javaIOUs, javaTransferred(javaIOUs, charlie),
+                new com.iou.java.contract.IOUContract.Transfer(), keysABC);
+
+        final List<com.iou.kotlin.state.IOUState> kotlinIOUs = kotlinIOUs(outputs, alice, bob);
+        kotlinCreateTx = tx(emptyList(), kotlinIOUs, new com.iou.kotlin.contract.IOUContract.Commands.Create(), keysAB);
+        kotlinTransferTx = tx(kotlinIOUs, kotlinTransferred(kotlinIOUs, charlie),
+                new com.iou.kotlin.contract.IOUContract.Commands.Transfer(), keysABC);
+        kotlinSettleTx = tx(kotlinIOUs, ImmutableList.of(cashPaying(kotlinIOUs, bob)),
+                new com.iou.kotlin.contract.IOUContract.Commands.Settle(), keysAB);
+    }
+
+    @Benchmark
+    public void javaCreate() {
+        javaContract.verify(javaCreateTx);
+    }
+
+    @Benchmark
+    public void javaTransfer() {
+        javaContract.verify(javaTransferTx);
+    }
+
+    @Benchmark
+    public void kotlinCreate() {
+        kotlinContract.verify(kotlinCreateTx);
+    }
+
+    @Benchmark
+    public void kotlinTransfer() {
+        kotlinContract.verify(kotlinTransferTx);
+    }
+
+    @Benchmark
+    public void kotlinSettle() {
+        kotlinContract.verify(kotlinSettleTx);
+    }
+}
@@ -0,0 +1,104 @@
+package com.iou.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.contracts.asset.Cash;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.AuthenticatedObject;
+import net.corda.core.contracts.CommandData;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.Issued;
+import net.corda.core.contracts.PartyAndReference;
+import net.corda.core.contracts.TransactionForContract;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.CompositeKey;
+import net.corda.core.crypto.Party;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.serialization.OpaqueBytes;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+
+import static java.util.Collections.emptyList;
+import static net.corda.testing.CoreTestUtils.*;
+
+/**
+ * Parties, states and transactions shared by the benchmarks. Transactions are built as [TransactionForContract]s
+ * directly, so that the benchmarks measure the contract alone rather than resolution or signature checking.
+ */
+final class IOUFixtures {
+    static final Party alice = getALICE();
+    static final Party bob = getBOB();
+    static final Party charlie = getCHARLIE();
+
+    static final Currency USD = Currency.getInstance("USD");
+
+    static final CompositeKey[] keysAB = { getALICE_PUBKEY(), getBOB_PUBKEY() };
+    static final CompositeKey[] keysABC = { getALICE_PUBKEY(), getBOB_PUBKEY(), getCHARLIE_PUBKEY() };
+
+    private IOUFixtures() {}
+
+    static List<com.iou.java.state.IOUState> javaIOUs(int count, Party sender, Party recipient) {
+        final com.iou.java.contract.IOUContract contract = new com.iou.java.contract.IOUContract();
+        final List<com.iou.java.state.IOUState> ious = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ious.add(new com.iou.java.state.IOUState(i + 1, sender, recipient, contract, new UniqueIdentifier()));
+        }
+        return ious;
+    }
+
+    static List<com.iou.kotlin.state.IOUState> kotlinIOUs(int count, Party sender, Party recipient) {
+        final com.iou.kotlin.contract.IOUContract contract = new com.iou.kotlin.contract.IOUContract();
+        final List<com.iou.kotlin.state.IOUState> ious = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ious.add(new com.iou.kotlin.state.IOUState(i + 1, sender, recipient, contract, 0, new UniqueIdentifier()));
+        }
+        return ious;
+    }
+
+    /** The same IOUs, moved to [newRecipient] while keeping their linearIds. */
+    static List<com.iou.java.state.IOUState> javaTransferred(List<com.iou.java.state.IOUState> ious, Party newRecipient) {
+        final List<com.iou.java.state.IOUState> transferred = new ArrayList<>(ious.size());
+        for (com.iou.java.state.IOUState iou : ious) {
+            transferred.add(new com.iou.java.state.IOUState(
+                    iou.getIouValue(), iou.getSender(), newRecipient, iou.getContract(), iou.getLinearId()));
+        }
+        return transferred;
+    }
+
+    /** The same IOUs, moved to [newRecipient] while keeping their linearIds. */
+    static List<com.iou.kotlin.state.IOUState> kotlinTransferred(List<com.iou.kotlin.state.IOUState> ious, Party newRecipient) {
+        final List<com.iou.kotlin.state.IOUState> transferred = new ArrayList<>(ious.size());
+        for (com.iou.kotlin.state.IOUState iou : ious) {
+            transferred.add(new com.iou.kotlin.state.IOUState(
+                    iou.getIouValue(), iou.getSender(), newRecipient, iou.getContract(), iou.getPaid(), iou.getLinearId()));
+        }
+        return transferred;
+    }
+
+    /** Cash owned by [owner] that pays off every one of [ious] in full. */
+    static Cash.State cashPaying(List<com.iou.kotlin.state.IOUState> ious, Party owner) {
+        long quantity = 0;
+        for (com.iou.kotlin.state.IOUState iou : ious) {
+            quantity += iou.getOutstanding() * com.iou.kotlin.contract.IOUContract.CASH_UNITS_PER_IOU_UNIT;
+        }
+        final Issued<Currency> token = new Issued<>(new PartyAndReference(alice, new OpaqueBytes(new byte[]{1})), USD);
+        return new Cash.State(new Amount<>(quantity, token), owner.getOwningKey());
+    }
+
+    static TransactionForContract tx(List<? extends ContractState> inputs,
+                                     List<? extends ContractState> outputs,
+                                     CommandData command,
+                                     CompositeKey... signers) {
+        final AuthenticatedObject<CommandData> authenticatedCommand =
+                new AuthenticatedObject<>(ImmutableList.copyOf(signers), emptyList(), command);
+        return new TransactionForContract(
+                ImmutableList.copyOf(inputs),
+                ImmutableList.copyOf(outputs),
+                emptyList(),
+                ImmutableList.of(authenticatedCommand),
+                SecureHash.randomSHA256(),
+                null,
+                null);
+    }
+}
@@ -0,0 +1,71 @@
+package com.iou.benchmarks;
+
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.contracts.UniqueIdentifier;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.PublicKey;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.iou.benchmarks.IOUFixtures.*;
+import static net.corda.testing.CoreTestUtils.getBOB_PUBKEY;
+import static net.corda.testing.CoreTestUtils.getCHARLIE_PUBKEY;
+
+/**
+ * Measures [IOUState] construction and [IOUState.isRelevant], which the vault calls for every output it records.
+ * Relevance is measured both for a state we are a participant of and for one we are not.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class IOUStateBenchmark {
+    private final com.iou.java.contract.IOUContract javaContract = new com.iou.java.contract.IOUContract();
+    private final com.iou.kotlin.contract.IOUContract kotlinContract = new com.iou.kotlin.contract.IOUContract();
+    private final UniqueIdentifier linearId = new UniqueIdentifier();
+
+    private final Set<PublicKey> recipientKeys = ImmutableSet.of(getBOB_PUBKEY().getSingleKey());
+    private final Set<PublicKey> otherKeys = ImmutableSet.of(getCHARLIE_PUBKEY().getSingleKey());
+
+    private com.iou.java.state.IOUState javaState;
+    private com.iou.kotlin.state.IOUState kotlinState;
+
+    @Setup
+    public void setup() {
+        javaState = javaIOUs(1, alice, bob).get(0);
+        kotlinState = kotlinIOUs(1, alice, bob).get(0);
+    }
+
+    @Benchmark
+    public com.iou.java.state.IOUState javaConstruction() {
+        return new com.iou.java.state.IOUState(1, alice, bob, javaContract, linearId);
+    }
+
+    @Benchmark
+    public com.iou.kotlin.state.IOUState kotlinConstruction() {
+        return new com.iou.kotlin.state.IOUState(1, alice, bob, kotlinContract, 0, linearId);
+    }
+
+    @Benchmark
+    public boolean javaIsRelevant() {
+        return javaState.isRelevant(recipientKeys);
+    }
+
+    @Benchmark
+    public boolean javaIsNotRelevant() {
+        return javaState.isRelevant(otherKeys);
+    }
+
+    @Benchmark
+    public boolean kotlinIsRelevant() {
+        return kotlinState.isRelevant(recipientKeys);
+    }
+
+    @Benchmark
+    public boolean kotlinIsNotRelevant() {
+        return kotlinState.isRelevant(otherKeys);
+    }
+}
@@ -0,0 +1,84 @@
+package com.iou.benchmarks;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.iou.java.plugin.IOUJavaPlugin;
+import com.iou.kotlin.plugin.IOUKotlinPlugin;
+import net.corda.core.serialization.KryoKt;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static com.iou.benchmarks.IOUFixtures.*;
+
+/**
+ * Measures Kryo round-trips of [IOUState] using a Kryo instance configured the way RPC configures it: Corda's
+ * defaults plus the types registered by the CorDapp plugins.
+ *
+ * The serialized size of each state does not vary, so it is measured once per run rather than per invocation, and
+ * printed at the end of the run. When the `iou.bench.sizesFile` system property is set, as the `jmh` task does, the
+ * sizes are also written to that file as properties, next to the JMH results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    private final Output output = new Output(4096, -1);
+    private final Properties sizes = new Properties();
+
+    private Kryo kryo;
+    private com.iou.java.state.IOUState javaState;
+    private com.iou.kotlin.state.IOUState kotlinState;
+
+    @Setup
+    public void setup() {
+        kryo = KryoKt.createKryo(new Kryo());
+        new IOUJavaPlugin().registerRPCKryoTypes(kryo);
+        new IOUKotlinPlugin().registerRPCKryoTypes(kryo);
+
+        javaState = javaIOUs(1, alice, bob).get(0);
+        kotlinState = kotlinIOUs(1, alice, bob).get(0);
+        sizes.setProperty("javaSerializedBytes", Integer.toString(serialize(javaState)));
+        sizes.setProperty("kotlinSerializedBytes", Integer.toString(serialize(kotlinState)));
+    }
+
+    @TearDown
+    public void reportSizes() throws IOException {
+        System.out.println("Serialized sizes: " + sizes);
+        final String file = System.getProperty("iou.bench.sizesFile");
+        if (file == null) return;
+        try (Writer writer = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)) {
+            sizes.store(writer, "Serialized IOUState sizes, in bytes");
+        }
+    }
+
+    @Benchmark
+    public Object javaRoundTrip() {
+        return deserialize(serialize(javaState));
+    }
+
+    @Benchmark
+    public Object kotlinRoundTrip() {
+        return deserialize(serialize(kotlinState));
+    }
+
+    private int serialize(Object state) {
+        output.clear();
+        kryo.writeClassAndObject(output, state);
+        return output.position();
+    }
+
+    private Object deserialize(int length) {
+        return kryo.readClassAndObject(new Input(output.getBuffer(), 0, length));
+    }
+}
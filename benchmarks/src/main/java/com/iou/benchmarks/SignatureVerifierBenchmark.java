@@ -0,0 +1,41 @@
+package com.iou.benchmarks;
+
+import com.iou.java.flow.SignatureVerifier;
+import net.corda.core.crypto.CryptoUtils;
+import net.corda.core.crypto.DigitalSignature;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures [SignatureVerifier.verify] over a growing number of signatures, from the handful on a typical IOU
+ * transaction to a large batch, so that the cost the flows pay per signature can be tracked between releases.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SignatureVerifierBenchmark {
+    @Param({"1", "2", "4", "8", "16", "64"})
+    public int signatures;
+
+    private final byte[] content = "IOU".getBytes(StandardCharsets.UTF_8);
+    private List<DigitalSignature.WithKey> sigs;
+
+    @Setup
+    public void setup() {
+        sigs = new ArrayList<>(signatures);
+        for (int i = 0; i < signatures; i++) sigs.add(CryptoUtils.signWithECDSA(CryptoUtils.generateKeyPair(), content));
+    }
+
+    @Benchmark
+    public void verify() throws SignatureException {
+        SignatureVerifier.verify(content, sigs);
+    }
+}
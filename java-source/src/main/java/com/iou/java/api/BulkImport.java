@@ -0,0 +1,225 @@
+package com.iou.java.api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.iou.java.contract.IOUContract;
+import com.iou.java.flow.IOUCreation.IOUCreationFlow;
+import com.iou.java.state.IOUState;
+import net.corda.core.crypto.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.FlowHandle;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Imports IOUs from us to our counterparties from a stream of rows, which is read incrementally. Rows are grouped per
+ * counterparty into batches of up to [BATCH_SIZE] IOUs, each issued in one [IOUCreationFlow].
+ *
+ * At most [MAX_FLOWS_PER_COUNTERPARTY] flows run per counterparty, and [MAX_FLOWS] in all. While they are all busy we
+ * stop reading, which holds back the client's upload, so neither the rows waiting here nor the flows checkpointed on
+ * the node grow with the size of the import.
+ *
+ * Rows fail if they cannot be parsed or if their batch's flow fails. The first [MAX_REPORTED_FAILURES] failures are
+ * kept, along with the import's progress, for [status].
+ */
+public class BulkImport {
+    public static final int BATCH_SIZE = 100;
+    public static final int MAX_FLOWS_PER_COUNTERPARTY = 4;
+    public static final int MAX_FLOWS = 32;
+    public static final int MAX_REPORTED_FAILURES = 1000;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private interface LineParser {
+        void parse(long number, String line);
+    }
+
+    private static class Row {
+        private final long number;
+        private final int value;
+
+        private Row(long number, int value) {
+            this.number = number;
+            this.value = value;
+        }
+    }
+
+    private static class Counterparty {
+        private final Party party;
+        private final List<Row> pending = new ArrayList<>(BATCH_SIZE);
+        private final Semaphore flows = new Semaphore(MAX_FLOWS_PER_COUNTERPARTY);
+
+        private Counterparty(Party party) {
+            this.party = party;
+        }
+    }
+
+    private final String id;
+    private final CordaRPCOps services;
+    private final Party me;
+    private final Semaphore flows = new Semaphore(MAX_FLOWS);
+    // Only used by the thread reading the rows. Unknown names map to null, so each name is looked up once.
+    private final Map<String, Counterparty> counterparties = new HashMap<>();
+
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong rowsIssued = new AtomicLong();
+    private final AtomicLong rowsFailed = new AtomicLong();
+    private final AtomicInteger flowsRunning = new AtomicInteger();
+    private final Queue<Map<String, Object>> failures = new ConcurrentLinkedQueue<>();
+    private volatile boolean finishedReading = false;
+
+    public BulkImport(String id, CordaRPCOps services) {
+        this.id = id;
+        this.services = services;
+        this.me = services.nodeIdentity().getLegalIdentity();
+    }
+
+    public String getId() { return id; }
+
+    /** Reads rows of `counterparty,value`, optionally under a header row. */
+    public void readCsv(InputStream input) throws IOException {
+        read(input, (number, line) -> {
+            final int comma = line.lastIndexOf(',');
+            final String counterparty = comma < 0 ? line : line.substring(0, comma).trim();
+            if (number == 1 && counterparty.equalsIgnoreCase("counterparty")) return;
+            rowsRead.incrementAndGet();
+            add(number, counterparty, comma < 0 ? null : parseInt(line.substring(comma + 1).trim()));
+        });
+    }
+
+    /** Reads one JSON object of the form `{"counterparty": ..., "value": ...}` per line. */
+    public void readNdjson(InputStream input) throws IOException {
+        read(input, (number, line) -> {
+            rowsRead.incrementAndGet();
+            final JsonNode row;
+            try {
+                row = MAPPER.readTree(line);
+            } catch (IOException e) {
+                fail(number, "Invalid JSON: " + e.getMessage());
+                return;
+            }
+            final JsonNode counterparty = row.get("counterparty");
+            final JsonNode value = row.get("value");
+            add(number,
+                    counterparty != null ? counterparty.asText() : "",
+                    value != null && value.canConvertToInt() ? value.asInt() : null);
+        });
+    }
+
+    private static Integer parseInt(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void read(InputStream input, LineParser parser) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            long number = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                if (!line.trim().isEmpty()) parser.parse(number, line);
+            }
+        } finally {
+            for (Counterparty counterparty : counterparties.values()) {
+                if (counterparty != null && !counterparty.pending.isEmpty()) submit(counterparty);
+            }
+            finishedReading = true;
+        }
+    }
+
+    private void add(long number, String name, Integer value) {
+        if (value == null || value <= 0) {
+            fail(number, "The value must be a positive integer.");
+            return;
+        }
+        if (!counterparties.containsKey(name)) {
+            final Party party = services.partyFromName(name);
+            counterparties.put(name, party != null ? new Counterparty(party) : null);
+        }
+        final Counterparty counterparty = counterparties.get(name);
+        if (counterparty == null) {
+            fail(number, "Unknown counterparty: " + name);
+            return;
+        }
+        counterparty.pending.add(new Row(number, value));
+        if (counterparty.pending.size() == BATCH_SIZE) submit(counterparty);
+    }
+
+    private void submit(Counterparty counterparty) {
+        final List<Row> rows = new ArrayList<>(counterparty.pending);
+        counterparty.pending.clear();
+        counterparty.flows.acquireUninterruptibly();
+        flows.acquireUninterruptibly();
+
+        final List<IOUState> ious = new ArrayList<>(rows.size());
+        for (Row row : rows) ious.add(new IOUState(row.value, me, counterparty.party, new IOUContract()));
+        final FlowHandle<?> handle;
+        try {
+            handle = services.startFlowDynamic(IOUCreationFlow.Initiator.class, ious, counterparty.party);
+        } catch (RuntimeException e) {
+            flows.release();
+            counterparty.flows.release();
+            for (Row row : rows) fail(row.number, e.getMessage() != null ? e.getMessage() : e.toString());
+            return;
+        }
+        handle.getProgress().subscribe().unsubscribe();
+        flowsRunning.incrementAndGet();
+
+        final ListenableFuture<?> result = handle.getReturnValue();
+        result.addListener(() -> {
+            try {
+                result.get();
+                rowsIssued.addAndGet(rows.size());
+            } catch (ExecutionException e) {
+                final String error = e.getCause() != null ? e.getCause().getMessage() : e.toString();
+                for (Row row : rows) fail(row.number, error);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                flowsRunning.decrementAndGet();
+                flows.release();
+                counterparty.flows.release();
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void fail(long number, String error) {
+        if (rowsFailed.incrementAndGet() <= MAX_REPORTED_FAILURES) {
+            failures.add(ImmutableMap.of("row", number, "error", String.valueOf(error)));
+        }
+    }
+
+    public Map<String, Object> status() {
+        final int running = flowsRunning.get();
+        final Map<String, Object> status = new LinkedHashMap<>();
+        status.put("id", id);
+        status.put("done", finishedReading && running == 0);
+        status.put("rowsRead", rowsRead.get());
+        status.put("rowsIssued", rowsIssued.get());
+        status.put("rowsFailed", rowsFailed.get());
+        status.put("flowsRunning", running);
+        status.put("failures", new ArrayList<>(failures));
+        return status;
+    }
+}
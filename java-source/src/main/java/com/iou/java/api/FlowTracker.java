@@ -0,0 +1,60 @@
+package com.iou.java.api;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ListenableFuture;
+import net.corda.core.messaging.FlowHandle;
+import net.corda.core.transactions.SignedTransaction;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the flows started through the API, so that clients can poll for a flow's outcome rather than hold a
+ * request, and a webserver thread, open for the lifetime of the flow. A flow is forgotten once nobody has asked after
+ * it for [RETENTION_HOURS].
+ */
+public class FlowTracker {
+    public static final long RETENTION_HOURS = 1;
+
+    private final Cache<String, ListenableFuture<?>> flows = CacheBuilder.newBuilder()
+            .expireAfterAccess(RETENTION_HOURS, TimeUnit.HOURS)
+            .build();
+
+    public String track(FlowHandle<?> handle) {
+        final String id = handle.getId().getUuid().toString();
+        flows.put(id, handle.getReturnValue());
+        // We only report the outcome, so we stop the node streaming us the flow's progress.
+        handle.getProgress().subscribe().unsubscribe();
+        return id;
+    }
+
+    public ListenableFuture<?> get(String id) {
+        return flows.getIfPresent(id);
+    }
+
+    /** The flow's status, and once it has completed, the id of the transaction it returned or the error it threw. */
+    public Map<String, Object> status(String id, ListenableFuture<?> result) {
+        final Map<String, Object> status = new LinkedHashMap<>();
+        status.put("flowId", id);
+        if (!result.isDone()) {
+            status.put("status", "RUNNING");
+            return status;
+        }
+        try {
+            final Object returned = result.get();
+            status.put("status", "COMPLETED");
+            status.put("txId", returned instanceof SignedTransaction ? ((SignedTransaction) returned).getId().toString() : null);
+        } catch (ExecutionException e) {
+            status.put("status", "FAILED");
+            status.put("error", e.getCause() != null ? e.getCause().getMessage() : e.toString());
+        } catch (InterruptedException e) {
+            // Cannot happen, as the result is already done.
+            Thread.currentThread().interrupt();
+            status.put("status", "RUNNING");
+        }
+        return status;
+    }
+}
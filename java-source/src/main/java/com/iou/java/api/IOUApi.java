@@ -1,26 +1,274 @@
 package com.iou.java.api;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.iou.java.contract.IOUContract;
 import com.iou.java.flow.IOUCreation.IOUCreationFlow;
+import com.iou.java.flow.IOUTransfer.IOUTransferFlow;
 import com.iou.java.state.IOUState;
-import net.corda.core.contracts.ContractState;
 import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
 import net.corda.core.crypto.Party;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowLogic;
 import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.FlowHandle;
 import net.corda.core.transactions.SignedTransaction;
+import org.glassfish.jersey.server.ChunkedOutput;
+import rx.Observable;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 // This API is accessible from /api/iou. All paths you specify are relative to this root.
 @Path("iou")
 public class IOUApi {
+    public static final int MAX_PAGE_SIZE = 1000;
+    public static final int MAX_WAIT_SECONDS = 60;
+
+    private static final Pattern STATE_REF = Pattern.compile("([0-9A-Fa-f]+)\\((\\d+)\\)");
+
     private final CordaRPCOps services;
+    private final IOUEventHub events;
+    private final FlowTracker flows = new FlowTracker();
+    private final Cache<String, BulkImport> imports = CacheBuilder.newBuilder()
+            .expireAfterAccess(FlowTracker.RETENTION_HOURS, TimeUnit.HOURS)
+            .build();
 
     public IOUApi(CordaRPCOps services) {
         this.services = services;
+        // The node sends its whole vault along with each new subscription to its updates, which we drop straight
+        // away. The subscription is only held while a client is streaming.
+        this.events = new IOUEventHub(Observable.defer(() -> services.vaultAndUpdates().getSecond()).share());
+    }
+
+    /**
+     * Returns a page of the IOUs in our vault, in linearId order, optionally filtered by lender, borrower, value range
+     * and linearId. The response holds the page's IOUs and a `nextCursor`, which is passed as `cursor` to fetch the
+     * following page and is null on the last one.
+     *
+     * The page is picked on the node, which sends us only its IOUs, and its JSON is written to the response as each
+     * IOU is serialised, rather than built up in memory first.
+     */
+    @GET
+    @Path("ious")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getIOUs(@QueryParam("lender") String lender,
+                            @QueryParam("borrower") String borrower,
+                            @QueryParam("minValue") Integer minValue,
+                            @QueryParam("maxValue") Integer maxValue,
+                            @QueryParam("linearId") String linearId,
+                            @QueryParam("cursor") String cursor,
+                            @QueryParam("limit") @DefaultValue("100") int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) throw badRequest("limit must be between 1 and " + MAX_PAGE_SIZE + ".");
+        final IOUQuery query = new IOUQuery(lender, borrower, minValue, maxValue, parseUUID("linearId", linearId));
+
+        final UUID after = parseUUID("cursor", cursor);
+        final IOUQuery.Page page = after == null
+                ? onNode(IOUQuery.PageFlow.class, query, limit)
+                : onNode(IOUQuery.PageFlow.class, query, after, limit);
+        final List<StateAndRef<IOUState>> ious = page.getIous();
+        final String nextCursor = page.getNextCursor() != null ? page.getNextCursor().toString() : null;
+
+        final StreamingOutput body = output -> {
+            try (JsonGenerator generator = IOUJson.FACTORY.createGenerator(output)) {
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("ious");
+                for (StateAndRef<IOUState> iou : ious) IOUJson.write(generator, iou);
+                generator.writeEndArray();
+                generator.writeStringField("nextCursor", nextCursor);
+                generator.writeEndObject();
+            }
+        };
+        return Response.ok(body).build();
+    }
+
+    /**
+     * Streams IOUs as they are produced and consumed in our vault, as server-sent events of type `produced` and
+     * `consumed`. A client which falls behind either misses events, and is sent a `dropped` event with the number
+     * missed, or is disconnected if it passes `onOverflow=disconnect`. No webserver thread is held while streaming;
+     * see [IOUEventHub].
+     */
+    @GET
+    @Path("stream")
+    @Produces("text/event-stream")
+    public Response stream(@QueryParam("onOverflow") @DefaultValue("drop") String onOverflow) {
+        final IOUEventHub.OverflowPolicy policy;
+        switch (onOverflow) {
+            case "drop": policy = IOUEventHub.OverflowPolicy.DROP; break;
+            case "disconnect": policy = IOUEventHub.OverflowPolicy.DISCONNECT; break;
+            default: throw badRequest("onOverflow must be 'drop' or 'disconnect'.");
+        }
+        final ChunkedOutput<String> output = new ChunkedOutput<>(String.class);
+        events.connect(policy, output);
+        return Response.ok(output).header("Cache-Control", "no-cache").build();
+    }
+
+    /**
+     * Starts issuing an IOU of [value] from us to [counterparty]. Returns 202 as soon as the flow has started, with
+     * the flow's id and the location at which to poll for its outcome.
+     */
+    @POST
+    @Path("create")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response create(@QueryParam("counterparty") String counterparty, @QueryParam("value") Integer value) {
+        if (value == null || value <= 0) throw badRequest("value must be a positive integer.");
+        final Party otherParty = party("counterparty", counterparty);
+        final IOUState iou = new IOUState(value, services.nodeIdentity().getLegalIdentity(), otherParty, new IOUContract());
+        return accepted(services.startFlowDynamic(IOUCreationFlow.Initiator.class, iou, otherParty));
+    }
+
+    /**
+     * Starts transferring the IOU at [stateRef], written as `<txhash>(<index>)` like the `ref` of the IOUs listed by
+     * [getIOUs], to [newRecipient]. Returns 202 as soon as the flow has started, like [create].
+     */
+    @POST
+    @Path("transfer")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response transfer(@QueryParam("stateRef") String stateRef, @QueryParam("newRecipient") String newRecipient) {
+        final Matcher match = STATE_REF.matcher(stateRef != null ? stateRef : "");
+        if (!match.matches()) throw badRequest("Invalid stateRef: " + stateRef);
+        final StateRef ref = new StateRef(SecureHash.parse(match.group(1)), Integer.parseInt(match.group(2)));
+        return accepted(services.startFlowDynamic(IOUTransferFlow.Initiator.class, ref, party("newRecipient", newRecipient)));
+    }
+
+    /**
+     * Returns the status of a flow started through this API and, once it has completed, the id of its transaction or
+     * its error. With `wait`, the response is held until the flow completes or `wait` seconds pass, without holding a
+     * webserver thread meanwhile.
+     */
+    @GET
+    @Path("flows/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void flowStatus(@PathParam("id") String id,
+                           @QueryParam("wait") @DefaultValue("0") int wait,
+                           @Suspended AsyncResponse response) {
+        final ListenableFuture<?> result = flows.get(id);
+        if (result == null) {
+            response.resume(Response.status(Response.Status.NOT_FOUND).entity("Unknown flow " + id + ".").build());
+        } else if (result.isDone() || wait <= 0) {
+            response.resume(flows.status(id, result));
+        } else {
+            response.setTimeout(Math.min(wait, MAX_WAIT_SECONDS), TimeUnit.SECONDS);
+            response.setTimeoutHandler(timedOut -> timedOut.resume(flows.status(id, result)));
+            result.addListener(() -> response.resume(flows.status(id, result)), MoreExecutors.directExecutor());
+        }
+    }
+
+    /**
+     * Issues IOUs from us to our counterparties, one per row of `counterparty,value`, streamed as CSV. The request
+     * completes once every row has been read and handed to a flow; see [BulkImport] for how the flows are batched and
+     * paced. Progress is listed by [bulkImports] during the upload, and by [bulkStatus] once the response gives the id.
+     */
+    @POST
+    @Path("bulk")
+    @Consumes("text/csv")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response bulkCsv(InputStream body) throws IOException {
+        final BulkImport job = startImport();
+        job.readCsv(body);
+        return imported(job);
+    }
+
+    /** As [bulkCsv], for rows streamed as newline-delimited JSON objects with `counterparty` and `value` fields. */
+    @POST
+    @Path("bulk")
+    @Consumes("application/x-ndjson")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response bulkNdjson(InputStream body) throws IOException {
+        final BulkImport job = startImport();
+        job.readNdjson(body);
+        return imported(job);
+    }
+
+    /** The status of every recent bulk import, including any still being uploaded. */
+    @GET
+    @Path("bulk")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<Map<String, Object>> bulkImports() {
+        final List<Map<String, Object>> statuses = new ArrayList<>();
+        for (BulkImport job : imports.asMap().values()) statuses.add(job.status());
+        return statuses;
+    }
+
+    @GET
+    @Path("bulk/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response bulkStatus(@PathParam("id") String id) {
+        final BulkImport job = imports.getIfPresent(id);
+        if (job == null) return Response.status(Response.Status.NOT_FOUND).entity("Unknown import " + id + ".").build();
+        return Response.ok(job.status()).build();
+    }
+
+    private BulkImport startImport() {
+        final BulkImport job = new BulkImport(UUID.randomUUID().toString(), services);
+        imports.put(job.getId(), job);
+        return job;
+    }
+
+    private static Response imported(BulkImport job) {
+        return Response.accepted(job.status()).header("Location", "/api/iou/bulk/" + job.getId()).build();
+    }
+
+    private Response accepted(FlowHandle<?> handle) {
+        final String id = flows.track(handle);
+        return Response.accepted(ImmutableMap.of("flowId", id))
+                .header("Location", "/api/iou/flows/" + id)
+                .build();
+    }
+
+    private Party party(String name, String value) {
+        if (value == null) throw badRequest(name + " is required.");
+        final Party party = services.partyFromName(value);
+        if (party == null) throw badRequest("Unknown " + name + ": " + value);
+        return party;
+    }
+
+    /**
+     * Runs [flow] on the node and returns its result. The API runs in its own process, so this is how it reads state
+     * which only the node holds.
+     */
+    private <T> T onNode(Class<? extends FlowLogic<T>> flow, Object... args) {
+        final FlowHandle<T> handle = services.startFlowDynamic(flow, args);
+        handle.getProgress().subscribe().unsubscribe();
+        try {
+            return handle.getReturnValue().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WebApplicationException(e, Response.Status.SERVICE_UNAVAILABLE);
+        } catch (ExecutionException e) {
+            throw new WebApplicationException(e.getCause(), Response.Status.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private static UUID parseUUID(String name, String value) {
+        if (value == null) return null;
+        try {
+            return UUID.fromString(value);
+        } catch (IllegalArgumentException e) {
+            throw badRequest("Invalid " + name + ": " + value);
+        }
+    }
+
+    private static WebApplicationException badRequest(String message) {
+        return new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).entity(message).build());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,184 @@
+package com.iou.java.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.iou.java.state.IOUState;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.node.services.Vault;
+import org.glassfish.jersey.server.ChunkedOutput;
+import rx.Observable;
+import rx.Subscription;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fans IOU vault [updates] out to any number of server-sent event clients. The hub subscribes to [updates] when the
+ * first client connects and unsubscribes when the last one leaves. Each event is serialised once, whatever the number
+ * of clients.
+ *
+ * No thread is held per client. An update is put into every client's bounded buffer on the thread which delivers it,
+ * without blocking, and each client's buffer is drained into its [ChunkedOutput] by a task on the shared [writers].
+ * A client which falls so far behind that its buffer fills either misses the events that do not fit, and is told how
+ * many it missed, or is disconnected, according to its [OverflowPolicy]. That is decided as the update is delivered.
+ *
+ * Every [KEEPALIVE_SECONDS] an idle client is sent a keepalive comment, which is also how we notice a client has gone.
+ */
+public class IOUEventHub {
+    public static final int BUFFER_SIZE = 1024;
+    public static final long KEEPALIVE_SECONDS = 15;
+    public static final int WRITER_THREADS = 4;
+
+    private static final String KEEPALIVE = ": keepalive\n\n";
+
+    public enum OverflowPolicy { DROP, DISCONNECT }
+
+    private final Observable<Vault.Update> updates;
+    private final Executor writers;
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    private Subscription subscription;
+    private Subscription keepalives;
+
+    public IOUEventHub(Observable<Vault.Update> updates) {
+        this(updates, Executors.newFixedThreadPool(WRITER_THREADS,
+                new ThreadFactoryBuilder().setNameFormat("iou-event-writer-%d").setDaemon(true).build()));
+    }
+
+    public IOUEventHub(Observable<Vault.Update> updates, Executor writers) {
+        this.updates = updates;
+        this.writers = writers;
+    }
+
+    /** The number of clients connected. */
+    public int getConnected() {
+        return clients.size();
+    }
+
+    /** Streams IOU events to [output] from now on, until the client goes away or [Client.close] is called. */
+    public Client connect(OverflowPolicy policy, ChunkedOutput<String> output) {
+        final Client client = new Client(policy, output);
+        synchronized (this) {
+            clients.add(client);
+            if (subscription == null) {
+                subscription = updates.subscribe(this::publish, error -> disconnectAll());
+                keepalives = Observable.interval(KEEPALIVE_SECONDS, TimeUnit.SECONDS)
+                        .subscribe(tick -> clients.forEach(Client::keepalive));
+            }
+        }
+        return client;
+    }
+
+    private synchronized void disconnected(Client client) {
+        if (!clients.remove(client) || !clients.isEmpty()) return;
+        release();
+    }
+
+    private synchronized void release() {
+        if (subscription != null) subscription.unsubscribe();
+        if (keepalives != null) keepalives.unsubscribe();
+        subscription = null;
+        keepalives = null;
+    }
+
+    private void publish(Vault.Update update) {
+        if (clients.isEmpty()) return;
+        for (StateAndRef<ContractState> stateAndRef : update.getConsumed()) broadcast(event("consumed", stateAndRef));
+        for (StateAndRef<ContractState> stateAndRef : update.getProduced()) broadcast(event("produced", stateAndRef));
+    }
+
+    private void broadcast(String event) {
+        if (event == null) return;
+        for (Client client : clients) client.offer(event);
+    }
+
+    /** The vault updates have failed, e.g. because the node went away. The next client to connect resubscribes. */
+    private void disconnectAll() {
+        release();
+        for (Client client : clients) client.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String event(String type, StateAndRef<ContractState> stateAndRef) {
+        if (!(stateAndRef.getState().getData() instanceof IOUState)) return null;
+        final StringWriter json = new StringWriter();
+        try (JsonGenerator generator = IOUJson.FACTORY.createGenerator(json)) {
+            IOUJson.write(generator, (StateAndRef<IOUState>) (StateAndRef<?>) stateAndRef);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not serialise " + stateAndRef.getRef(), e);
+        }
+        return "event: " + type + "\ndata: " + json + "\n\n";
+    }
+
+    public class Client {
+        private final OverflowPolicy policy;
+        private final ChunkedOutput<String> output;
+        private final BlockingQueue<String> buffer = new ArrayBlockingQueue<>(BUFFER_SIZE);
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Client(OverflowPolicy policy, ChunkedOutput<String> output) {
+            this.policy = policy;
+            this.output = output;
+        }
+
+        /** Buffers [event] and schedules it to be written. Never blocks, so it is safe on the thread delivering updates. */
+        public void offer(String event) {
+            if (closed.get()) return;
+            if (!buffer.offer(event)) {
+                switch (policy) {
+                    case DROP: dropped.incrementAndGet(); break;
+                    case DISCONNECT: close(); return;
+                }
+            }
+            drain();
+        }
+
+        public void keepalive() {
+            if (buffer.isEmpty() && buffer.offer(KEEPALIVE)) drain();
+        }
+
+        public void close() {
+            if (!closed.compareAndSet(false, true)) return;
+            disconnected(this);
+            try {
+                output.close();
+            } catch (IOException e) {
+                // The client has already gone.
+            }
+        }
+
+        /** Starts a task writing out the buffer, unless one is already running; only one runs per client at a time. */
+        private void drain() {
+            if (!closed.get() && draining.compareAndSet(false, true)) writers.execute(this::write);
+        }
+
+        private void write() {
+            try {
+                String event;
+                while (!closed.get() && (event = buffer.poll()) != null) {
+                    final long missed = dropped.getAndSet(0);
+                    if (missed > 0) output.write("event: dropped\ndata: " + missed + "\n\n");
+                    output.write(event);
+                }
+            } catch (IOException e) {
+                // The client has disconnected.
+                close();
+            } finally {
+                draining.set(false);
+            }
+            // An event buffered after our last poll, but before we were done, would otherwise wait for the next one.
+            if (!buffer.isEmpty()) drain();
+        }
+    }
+}
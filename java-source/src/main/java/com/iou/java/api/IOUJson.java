@@ -0,0 +1,29 @@
+package com.iou.java.api;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.iou.java.state.IOUState;
+import net.corda.core.contracts.StateAndRef;
+
+import java.io.IOException;
+
+/**
+ * Writes IOUs field by field to a [JsonGenerator], so that responses can be streamed to the client as they are
+ * produced instead of being mapped to a tree and serialised in one go.
+ */
+public final class IOUJson {
+    public static final JsonFactory FACTORY = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private IOUJson() {}
+
+    public static void write(JsonGenerator generator, StateAndRef<IOUState> stateAndRef) throws IOException {
+        final IOUState iou = stateAndRef.getState().getData();
+        generator.writeStartObject();
+        generator.writeStringField("linearId", iou.getLinearId().getId().toString());
+        generator.writeStringField("ref", stateAndRef.getRef().toString());
+        generator.writeStringField("lender", iou.getRecipient().getName());
+        generator.writeStringField("borrower", iou.getSender().getName());
+        generator.writeNumberField("value", iou.getIouValue());
+        generator.writeEndObject();
+    }
+}
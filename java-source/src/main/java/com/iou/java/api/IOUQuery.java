@@ -0,0 +1,136 @@
+package com.iou.java.api;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.iou.java.service.IOUQueryService;
+import com.iou.java.state.IOUState;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.crypto.Party;
+import net.corda.core.flows.FlowLogic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.UUID;
+
+/**
+ * The filters accepted by the IOU query endpoints; a null filter matches every IOU. The lender of an IOU is its
+ * recipient and the borrower is its sender.
+ *
+ * The web API runs in its own process, so it pages through the IOUs by starting a [PageFlow] on the node over RPC.
+ */
+public class IOUQuery {
+    public static final Comparator<StateAndRef<IOUState>> BY_LINEAR_ID =
+            Comparator.comparing(stateAndRef -> stateAndRef.getState().getData().getLinearId().getId());
+
+    private final String lender;
+    private final String borrower;
+    private final Integer minValue;
+    private final Integer maxValue;
+    private final UUID linearId;
+
+    public IOUQuery(String lender, String borrower, Integer minValue, Integer maxValue, UUID linearId) {
+        this.lender = lender;
+        this.borrower = borrower;
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+        this.linearId = linearId;
+    }
+
+    public boolean matches(IOUState iou) {
+        return (lender == null || iou.getRecipient().getName().equals(lender)) &&
+                (borrower == null || iou.getSender().getName().equals(borrower)) &&
+                (minValue == null || iou.getIouValue() >= minValue) &&
+                (maxValue == null || iou.getIouValue() <= maxValue) &&
+                (linearId == null || iou.getLinearId().getId().equals(linearId));
+    }
+
+    /**
+     * The first [limit] IOUs in [states] which match and whose linearId comes after [cursor], in linearId order.
+     *
+     * The page is picked in a single pass with a heap bounded to [limit], so memory grows with the page rather than
+     * with the number of matches, and a cursor remains valid while IOUs are issued or consumed between pages.
+     */
+    @SuppressWarnings("unchecked")
+    public List<StateAndRef<IOUState>> page(Iterable<StateAndRef<ContractState>> states, UUID cursor, int limit) {
+        final PriorityQueue<StateAndRef<IOUState>> heap =
+                new PriorityQueue<>(limit + 1, Collections.reverseOrder(BY_LINEAR_ID));
+        for (StateAndRef<ContractState> stateAndRef : states) {
+            final ContractState state = stateAndRef.getState().getData();
+            if (!(state instanceof IOUState)) continue;
+            final IOUState iou = (IOUState) state;
+            if (cursor != null && iou.getLinearId().getId().compareTo(cursor) <= 0) continue;
+            if (!matches(iou)) continue;
+            heap.add((StateAndRef<IOUState>) (StateAndRef<?>) stateAndRef);
+            if (heap.size() > limit) heap.poll();
+        }
+        final List<StateAndRef<IOUState>> page = new ArrayList<>(heap);
+        page.sort(BY_LINEAR_ID);
+        return page;
+    }
+
+    /** A page of IOUs, and the cursor with which to fetch the next one, which is null on the last page. */
+    public static class Page {
+        private final List<StateAndRef<IOUState>> ious;
+        private final UUID nextCursor;
+
+        public Page(List<StateAndRef<IOUState>> ious, UUID nextCursor) {
+            this.ious = ious;
+            this.nextCursor = nextCursor;
+        }
+
+        public List<StateAndRef<IOUState>> getIous() { return ious; }
+        public UUID getNextCursor() { return nextCursor; }
+    }
+
+    /**
+     * Returns the first [limit] IOUs matching [query] whose linearId comes after [cursor], read off the node's
+     * [IOUQueryService] on the node, so that only the page is sent over RPC.
+     */
+    public static class PageFlow extends FlowLogic<Page> {
+        private final IOUQuery query;
+        private final UUID cursor;
+        private final int limit;
+
+        public PageFlow(IOUQuery query, UUID cursor, int limit) {
+            this.query = query;
+            this.cursor = cursor;
+            this.limit = limit;
+        }
+
+        public PageFlow(IOUQuery query, int limit) {
+            this(query, null, limit);
+        }
+
+        @Suspendable
+        @Override
+        public Page call() {
+            // We ask for one more IOU than the page holds to learn whether there is a next page.
+            final List<StateAndRef<IOUState>> page = read(IOUQueryService.of(getServiceHub()), limit + 1);
+            if (page.size() <= limit) return new Page(page, null);
+            final List<StateAndRef<IOUState>> onPage = new ArrayList<>(page.subList(0, limit));
+            return new Page(onPage, onPage.get(limit - 1).getState().getData().getLinearId().getId());
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<StateAndRef<IOUState>> read(IOUQueryService index, int limit) {
+            if (query.linearId != null) {
+                final StateAndRef<IOUState> head = index.byLinearId(query.linearId);
+                if (head == null) return new ArrayList<>();
+                return query.page(Collections.singletonList((StateAndRef<ContractState>) (StateAndRef<?>) head), cursor, limit);
+            }
+            final Party sender = query.borrower == null ? null : party(query.borrower);
+            final Party recipient = query.lender == null ? null : party(query.lender);
+            if ((query.borrower != null && sender == null) || (query.lender != null && recipient == null)) {
+                return new ArrayList<>();
+            }
+            return index.page(sender, recipient, query.minValue, query.maxValue, cursor, limit, query::matches);
+        }
+
+        private Party party(String name) {
+            return getServiceHub().getIdentityService().partyFromName(name);
+        }
+    }
+}
@@ -5,8 +5,16 @@ import net.corda.core.contracts.AuthenticatedObject;
 import net.corda.core.contracts.CommandData;
 import net.corda.core.contracts.Contract;
 import net.corda.core.contracts.TransactionForContract;
+import net.corda.core.contracts.TransactionForContract.InOutGroup;
+import net.corda.core.contracts.TypeOnlyCommandData;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.CompositeKey;
 import net.corda.core.crypto.SecureHash;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import static net.corda.core.contracts.ContractsDSL.requireSingleCommand;
 import static net.corda.core.contracts.ContractsDSL.requireThat;
 
@@ -14,11 +22,84 @@ public class IOUContract implements Contract {
     /**
      * The verify() function of all the states' contracts must not throw an exception for a transaction to be
      * considered valid.
+     *
+     * The IOU states in the transaction are grouped by [IOUState.linearId] once, and every group is then checked
+     * against the transaction's IOU command in a single pass. Commands belonging to other contracts are ignored here
+     * and verified by their own contracts.
      */
     @Override
-    public void verify(TransactionForContract tx) {}
+    public void verify(TransactionForContract tx) {
+        final AuthenticatedObject<Commands> command = requireSingleCommand(tx.getCommands(), Commands.class);
+        final Set<CompositeKey> signers = new HashSet<>(command.getSigners());
+        final List<InOutGroup<IOUState, UniqueIdentifier>> groups =
+                tx.groupStates(IOUState.class, IOUState::getLinearId);
+
+        if (command.getValue() instanceof Create) {
+            requireThat(require -> {
+                require.by("At least one output state should be created.", !groups.isEmpty());
+                for (InOutGroup<IOUState, UniqueIdentifier> group : groups) {
+                    require.by("No inputs should be consumed when issuing an IOU.", group.getInputs().isEmpty());
+                    require.by("Only one output state should be created.", group.getOutputs().size() == 1);
+                    final IOUState output = group.getOutputs().get(0);
+                    require.by("The IOU's value must be non-negative.", output.getIouValue() > 0);
+                    require.by("All of the participants must be signers.",
+                            signers.containsAll(output.getParticipants()));
+                }
+                return null;
+            });
+        } else if (command.getValue() instanceof Transfer) {
+            requireThat(require -> {
+                require.by("At least one IOU should be transferred.", !groups.isEmpty());
+                for (InOutGroup<IOUState, UniqueIdentifier> group : groups) {
+                    require.by("One input should be consumed when transferring an IOU.", group.getInputs().size() == 1);
+                    require.by("Only one output state should be created.", group.getOutputs().size() == 1);
+                    final IOUState input = group.getInputs().get(0);
+                    final IOUState output = group.getOutputs().get(0);
+                    require.by("The IOU's value must be non-negative.", output.getIouValue() > 0);
+                    require.by("The input and output IOUs must have the same value.",
+                            input.getIouValue() == output.getIouValue());
+                    require.by("The input and output IOUs must have the same sender.",
+                            input.getSender().equals(output.getSender()));
+                    require.by("The input and output IOUs must have different recipients.",
+                            !input.getRecipient().equals(output.getRecipient()));
+                    require.by("All of the participants must be signers.",
+                            signers.containsAll(input.getParticipants()));
+                    require.by("All of the participants must be signers.",
+                            signers.containsAll(output.getParticipants()));
+                }
+                return null;
+            });
+        } else if (command.getValue() instanceof Compact) {
+            requireThat(require -> {
+                require.by("At least one IOU should be compacted.", !groups.isEmpty());
+
+                // An IOU is compacted in two transactions: one consumes it, and one with no inputs reissues it, so that
+                // the reissued IOU's backchain starts afresh. The contract cannot link the two, but as with issuance
+                // neither can be done without the signatures of both the sender and the recipient.
+                int exits = 0;
+                for (InOutGroup<IOUState, UniqueIdentifier> group : groups) {
+                    if (!group.getInputs().isEmpty()) exits++;
+                }
+                require.by("IOUs must either all be consumed or all be reissued.", exits == 0 || exits == groups.size());
+                for (InOutGroup<IOUState, UniqueIdentifier> group : groups) {
+                    require.by("Each IOU must be either consumed or reissued.",
+                            group.getInputs().size() + group.getOutputs().size() == 1);
+                    final IOUState iou = group.getInputs().isEmpty() ? group.getOutputs().get(0) : group.getInputs().get(0);
+                    require.by("The IOU's value must be non-negative.", iou.getIouValue() > 0);
+                    require.by("All of the participants must be signers.",
+                            signers.containsAll(iou.getParticipants()));
+                }
+                return null;
+            });
+        }
+    }
+
+    public interface Commands extends CommandData {}
+    public static class Create extends TypeOnlyCommandData implements Commands {}
+    public static class Transfer extends TypeOnlyCommandData implements Commands {}
+    public static class Compact extends TypeOnlyCommandData implements Commands {}
 
     /** This is a reference to the underlying legal contract template and associated parameters. */
     private final SecureHash legalContractReference = SecureHash.sha256("IOU contract template and params");
     @Override public final SecureHash getLegalContractReference() { return legalContractReference; }
-}
\ No newline at end of file
+}
@@ -0,0 +1,57 @@
+package com.iou.java.flow.IOUCompaction;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.iou.java.state.IOUState;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.Party;
+import net.corda.core.node.PluginServiceHub;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the backchains of the IOUs we have issued bounded. Whenever one of them moves on to a new version (e.g. it is
+ * transferred), [IOUCompactionFlow] is started to compact it if its chain is now more than [MAX_DEPTH] transactions
+ * deep. The reissued version starts a new chain, so it does not trigger another compaction.
+ *
+ * Only the sender compacts, so the two parties to an IOU never race to do it, and an IOU is never compacted by two
+ * flows at once.
+ */
+public class AutoCompaction {
+    public static final int DEFAULT_MAX_DEPTH = 50;
+
+    /** Set with the `iou.compaction.maxDepth` system property. Zero or less turns automatic compaction off. */
+    public static final int MAX_DEPTH = Integer.getInteger("iou.compaction.maxDepth", DEFAULT_MAX_DEPTH);
+
+    public static class Service {
+        private final Set<UniqueIdentifier> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+        public Service(PluginServiceHub services) {
+            if (MAX_DEPTH <= 0) return;
+            final Party me = services.getMyInfo().getLegalIdentity();
+            services.getVaultService().getUpdates().subscribe(update -> {
+                final Set<UniqueIdentifier> replaced = new HashSet<>();
+                for (StateAndRef<ContractState> consumed : update.getConsumed()) {
+                    if (consumed.getState().getData() instanceof IOUState) {
+                        replaced.add(((IOUState) consumed.getState().getData()).getLinearId());
+                    }
+                }
+                for (StateAndRef<ContractState> produced : update.getProduced()) {
+                    if (!(produced.getState().getData() instanceof IOUState)) continue;
+                    final IOUState iou = (IOUState) produced.getState().getData();
+                    final UniqueIdentifier linearId = iou.getLinearId();
+                    if (!iou.getSender().equals(me) || !replaced.contains(linearId) || !inFlight.add(linearId)) continue;
+                    final StateRef ref = produced.getRef();
+                    services.invokeFlowAsync(IOUCompactionFlow.Initiator.class, ref, MAX_DEPTH)
+                            .getResultFuture()
+                            .addListener(() -> inFlight.remove(linearId), MoreExecutors.directExecutor());
+                }
+            });
+        }
+    }
+}
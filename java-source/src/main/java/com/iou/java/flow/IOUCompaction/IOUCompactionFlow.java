@@ -0,0 +1,215 @@
+package com.iou.java.flow.IOUCompaction;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableSet;
+import com.iou.java.contract.IOUContract;
+import com.iou.java.flow.SignatureVerifier;
+import com.iou.java.state.IOUState;
+import kotlin.Pair;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.contracts.TransactionType;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.DigitalSignature;
+import net.corda.core.crypto.Party;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.node.ServiceHub;
+import net.corda.core.node.services.ReadOnlyTransactionStorage;
+import net.corda.core.transactions.LedgerTransaction;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.transactions.WireTransaction;
+import net.corda.flows.FinalityFlow;
+
+import java.security.KeyPair;
+import java.security.SignatureException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+public class IOUCompactionFlow {
+    /**
+     * Compacts the IOU at [stateRef], of which we must be the sender, if its chain of transactions is more than
+     * [maxDepth] deep (so always, with the default of 0). The IOU is consumed by one transaction and reissued, with the
+     * same linearId and value, by a second one with no inputs. Whoever next resolves the IOU then only needs the
+     * reissuing transaction, rather than every transfer since it was created.
+     *
+     * The recipient signs both transactions before either is recorded, and we only complete the reissue once the
+     * notary has signed the exit. As the IOU's issuer, we are trusted to finish the reissue just as we are trusted to
+     * pay the IOU back.
+     *
+     * Returns the reference of the IOU's current version: the reissued one, or [stateRef] if it was left alone.
+     */
+    public static class Initiator extends FlowLogic<StateRef> {
+        private final StateRef stateRef;
+        private final int maxDepth;
+
+        public Initiator(StateRef stateRef, int maxDepth) {
+            this.stateRef = stateRef;
+            this.maxDepth = maxDepth;
+        }
+
+        public Initiator(StateRef stateRef) {
+            this(stateRef, 0);
+        }
+
+        @Suspendable
+        @Override
+        public StateRef call() throws FlowException {
+            final Party me = getServiceHub().getMyInfo().getLegalIdentity();
+            final KeyPair myKey = getServiceHub().getLegalIdentityKey();
+
+            // Stage 1 - Retrieving the IOU and measuring its chain.
+            final StateAndRef<IOUState> input = getServiceHub().toStateAndRef(stateRef);
+            final IOUState iou = input.getState().getData();
+            if (!iou.getSender().equals(me)) {
+                throw new IllegalArgumentException("Only the sender of an IOU, who reissues it, may compact it.");
+            }
+            if (chainDepth(getServiceHub(), stateRef, maxDepth) <= maxDepth) return stateRef;
+
+            // Stage 2 - Generating and verifying the exit and reissue transactions.
+            final Party notary = input.getState().getNotary();
+            final TransactionBuilder exit = new TransactionType.General.Builder(notary);
+            exit.addInputState(input);
+            exit.addCommand(new Command(new IOUContract.Compact(), iou.getParticipants()));
+            final TransactionBuilder reissue = new TransactionType.General.Builder(notary);
+            reissue.addOutputState(iou, notary);
+            reissue.addCommand(new Command(new IOUContract.Compact(), iou.getParticipants()));
+            exit.toWireTransaction().toLedgerTransaction(getServiceHub()).verify();
+            reissue.toWireTransaction().toLedgerTransaction(getServiceHub()).verify();
+
+            // Stage 3 - Gathering the recipient's signatures. The reissue is sent without ours, so that only we can
+            // complete it.
+            final SignedTransaction exitTx = exit.signWith(myKey).toSignedTransaction(false);
+            final SignedTransaction reissueTx = reissue.toSignedTransaction(false);
+            @SuppressWarnings("unchecked")
+            final Pair<DigitalSignature.WithKey, DigitalSignature.WithKey> signatures =
+                    sendAndReceive(Pair.class, iou.getRecipient(), new Pair<>(exitTx, reissueTx)).unwrap(pair -> pair);
+            checkSignature(signatures.getFirst(), exitTx, iou.getRecipient());
+            checkSignature(signatures.getSecond(), reissueTx, iou.getRecipient());
+
+            // Stage 4 - Notarising and recording the exit, and only then the reissue.
+            final Set<Party> participants = ImmutableSet.of(me, iou.getRecipient());
+            subFlow(new FinalityFlow(exitTx.plus(signatures.getFirst()), participants));
+            final SignedTransaction signedReissueTx =
+                    reissueTx.plus(reissueTx.signWithECDSA(myKey)).plus(signatures.getSecond());
+            subFlow(new FinalityFlow(signedReissueTx, participants));
+            return new StateRef(signedReissueTx.getId(), 0);
+        }
+
+        private static void checkSignature(DigitalSignature.WithKey signature, SignedTransaction stx, Party party)
+                throws FlowException {
+            if (!party.getOwningKey().getKeys().contains(signature.getBy())) {
+                throw new FlowException(party + " did not sign with its own key.");
+            }
+            try {
+                signature.verifyWithECDSA(stx.getId().getBytes());
+            } catch (SignatureException e) {
+                throw new FlowException("Invalid signature from " + party + ".", e);
+            }
+        }
+    }
+
+    public static class Acceptor extends FlowLogic<Void> {
+        private final Party otherParty;
+
+        public Acceptor(Party otherParty) {
+            this.otherParty = otherParty;
+        }
+
+        @Suspendable
+        @Override
+        public Void call() throws FlowException {
+            final Party me = getServiceHub().getMyInfo().getLegalIdentity();
+            @SuppressWarnings("unchecked")
+            final Pair<SignedTransaction, SignedTransaction> proposal =
+                    receive(Pair.class, otherParty).unwrap(pair -> pair);
+            final SignedTransaction exitTx = proposal.getFirst();
+            final SignedTransaction reissueTx = proposal.getSecond();
+
+            // Only the sender has signed the exit so far, and nobody the reissue.
+            final Party notary = exitTx.getTx().getNotary();
+            if (notary == null) throw new FlowException("Transaction " + exitTx.getId() + " has no notary.");
+            try {
+                SignatureVerifier.verifySignatures(exitTx, me.getOwningKey(), notary.getOwningKey());
+            } catch (SignatureException e) {
+                throw new FlowException("Invalid signature on the proposed IOU compaction.", e);
+            }
+            final LedgerTransaction exit = exitTx.getTx().toLedgerTransaction(getServiceHub());
+            final LedgerTransaction reissue = reissueTx.getTx().toLedgerTransaction(getServiceHub());
+            exit.verify();
+            reissue.verify();
+
+            // The reissue must recreate exactly the IOUs the exit consumes, with the same notary, and they must all be
+            // IOUs owed to us by the sender.
+            if (!exit.getOutputs().isEmpty() || !reissue.getInputs().isEmpty()
+                    || exit.getInputs().size() != reissue.getOutputs().size()) {
+                throw new FlowException("Transaction " + reissueTx.getId() + " does not reissue what " + exitTx.getId() + " consumes.");
+            }
+            final Map<UniqueIdentifier, TransactionState<ContractState>> consumed = new HashMap<>();
+            for (StateAndRef<ContractState> input : exit.getInputs()) {
+                if (!(input.getState().getData() instanceof IOUState)) {
+                    throw new FlowException("Transaction " + exitTx.getId() + " consumes a state other than an IOU.");
+                }
+                final IOUState iou = (IOUState) input.getState().getData();
+                if (!iou.getSender().equals(otherParty) || !iou.getRecipient().equals(me)) {
+                    throw new FlowException("Transaction " + exitTx.getId() + " consumes an IOU " + otherParty + " does not owe us.");
+                }
+                consumed.put(iou.getLinearId(), input.getState());
+            }
+            for (TransactionState<ContractState> output : reissue.getOutputs()) {
+                final TransactionState<ContractState> input = output.getData() instanceof IOUState
+                        ? consumed.remove(((IOUState) output.getData()).getLinearId()) : null;
+                if (input == null || !isReissueOf(output, input)) {
+                    throw new FlowException("Transaction " + reissueTx.getId() + " does not reissue what " + exitTx.getId() + " consumes.");
+                }
+            }
+
+            final KeyPair myKey = getServiceHub().getLegalIdentityKey();
+            send(otherParty, new Pair<>(exitTx.signWithECDSA(myKey), reissueTx.signWithECDSA(myKey)));
+            return null;
+        }
+
+        private static boolean isReissueOf(TransactionState<ContractState> output, TransactionState<ContractState> input) {
+            final IOUState reissued = (IOUState) output.getData();
+            final IOUState original = (IOUState) input.getData();
+            return output.getNotary().equals(input.getNotary())
+                    && reissued.getIouValue() == original.getIouValue()
+                    && reissued.getSender().equals(original.getSender())
+                    && reissued.getRecipient().equals(original.getRecipient());
+        }
+    }
+
+    /**
+     * The number of transactions in the history of the IOU at [stateRef], counted back through its previous versions
+     * to the transaction which issued it (or last reissued it). The backchains of other states it was transacted with
+     * are not counted. Stops once past [limit], so a long chain costs no more to check than one just over the limit.
+     */
+    public static int chainDepth(ServiceHub services, StateRef stateRef, int limit) {
+        final ReadOnlyTransactionStorage storage = services.getStorageService().getValidatedTransactions();
+        int depth = 0;
+        StateRef ref = stateRef;
+        while (ref != null && depth <= limit) {
+            final SignedTransaction stx = storage.getTransaction(ref.getTxhash());
+            if (stx == null) break;
+            final WireTransaction tx = stx.getTx();
+            final UniqueIdentifier linearId = ((IOUState) tx.getOutputs().get(ref.getIndex()).getData()).getLinearId();
+            depth++;
+            ref = null;
+            for (StateRef input : tx.getInputs()) {
+                final SignedTransaction previous = storage.getTransaction(input.getTxhash());
+                if (previous == null) continue;
+                final ContractState state = previous.getTx().getOutputs().get(input.getIndex()).getData();
+                if (state instanceof IOUState && ((IOUState) state).getLinearId().equals(linearId)) {
+                    ref = input;
+                    break;
+                }
+            }
+        }
+        return depth;
+    }
+}
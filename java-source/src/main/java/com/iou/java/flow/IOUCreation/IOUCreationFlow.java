@@ -1,10 +1,13 @@
 package com.iou.java.flow.IOUCreation;
 
 import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.iou.java.contract.IOUContract;
+import com.iou.java.flow.SignatureVerifier;
 import com.iou.java.state.IOUState;
 import net.corda.core.contracts.Command;
+import net.corda.core.contracts.TransactionState;
 import net.corda.core.contracts.TransactionType;
 import net.corda.core.crypto.CompositeKey;
 import net.corda.core.crypto.CryptoUtilities;
@@ -19,23 +22,53 @@ import net.corda.flows.FinalityFlow;
 
 import java.security.KeyPair;
 import java.security.SignatureException;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
-import static kotlin.collections.CollectionsKt.single;
-
 public class IOUCreationFlow {
+    /**
+     * Issues one or more IOUs to [otherParty] in a single transaction. All of the IOUs in the batch must be between us
+     * and [otherParty], so that one counterparty signature, one notarisation and one finality broadcast cover them all.
+     */
     public static class Initiator extends FlowLogic<SignedTransaction> {
-        private final IOUState iou;
+        private final List<IOUState> ious;
         private final Party otherParty;
 
-        public Initiator(IOUState iou, Party otherParty) {
-            this.iou = iou;
+        public Initiator(List<IOUState> ious, Party otherParty) {
+            this.ious = ious;
             this.otherParty = otherParty;
         }
 
+        public Initiator(IOUState iou, Party otherParty) {
+            this(ImmutableList.of(iou), otherParty);
+        }
+
         @Suspendable
-        public SignedTransaction call() {
-            return null;
+        public SignedTransaction call() throws FlowException {
+            if (ious.isEmpty()) throw new IllegalArgumentException("At least one IOU must be issued.");
+
+            // Obtain a reference to the notary and parties we want to use. With several notaries on the network, any of
+            // them will do, which spreads the IOUs, and so the notarisation of their transfers, across them all.
+            final Party notary = getServiceHub().getNetworkMapCache().getAnyNotary(null);
+            if (notary == null) throw new FlowException("There is no notary on the network.");
+            final KeyPair me = getServiceHub().getLegalIdentityKey();
+
+            // Stage 1 - Generating an unsigned transaction
+            final Set<CompositeKey> signers = new LinkedHashSet<>();
+            for (IOUState iou : ious) signers.addAll(iou.getParticipants());
+            final Command txCommand = new Command(new IOUContract.Create(), ImmutableList.copyOf(signers));
+            final TransactionBuilder unsignedTx = new TransactionType.General.Builder(notary);
+            for (IOUState iou : ious) unsignedTx.addOutputState(iou);
+            unsignedTx.addCommand(txCommand);
+
+            // Stage 2 - Verifying the transaction
+            unsignedTx.toWireTransaction().toLedgerTransaction(getServiceHub()).verify();
+
+            // Stage 3 - Signing the transaction
+            final SignedTransaction partSignedTx = unsignedTx.signWith(me).toSignedTransaction(false);
+
+            return sendAndReceive(SignedTransaction.class, otherParty, partSignedTx).unwrap(tx -> tx);
         }
     }
 
@@ -48,8 +81,41 @@ public class IOUCreationFlow {
 
         @Suspendable
         @Override
-        public Void call() {
+        public Void call() throws FlowException {
+            final KeyPair me = getServiceHub().getLegalIdentityKey();
+            final Party myIdentity = getServiceHub().getMyInfo().getLegalIdentity();
+
+            final SignedTransaction inboundPartSignedTx = receive(SignedTransaction.class, otherParty).unwrap(tx -> {
+                // The initiator may pick any notary on the network, so we check that the one it picked is one.
+                final Party notary = tx.getTx().getNotary();
+                if (notary == null || getServiceHub().getNetworkMapCache().getNotaryNodes().stream()
+                        .noneMatch(node -> node.getNotaryIdentity().equals(notary))) {
+                    throw new FlowException("Transaction " + tx.getId() + " does not name a notary on the network.");
+                }
+                final WireTransaction wireTx;
+                try {
+                    wireTx = SignatureVerifier.verifySignatures(tx, CryptoUtilities.getComposite(me.getPublic()), notary.getOwningKey());
+                } catch (SignatureException e) {
+                    throw new FlowException("Invalid signature on the proposed IOU transaction.", e);
+                }
+                wireTx.toLedgerTransaction(getServiceHub()).verify();
+                // The contract has checked every IOU in the batch, we only need to check they are all ours.
+                for (TransactionState<?> output : wireTx.getOutputs()) {
+                    final IOUState iou = (IOUState) output.getData();
+                    if (!iou.isBetween(myIdentity, otherParty)) {
+                        throw new FlowException(
+                                "Every IOU in the batch must be between " + myIdentity + " and " + otherParty + ".");
+                    }
+                }
+                return tx;
+            });
+
+            final DigitalSignature.WithKey mySignature = inboundPartSignedTx.signWithECDSA(me);
+            final SignedTransaction counterpartySignedTx = inboundPartSignedTx.plus(mySignature);
+
+            send(otherParty, counterpartySignedTx);
+            subFlow(new FinalityFlow(counterpartySignedTx, ImmutableSet.of(myIdentity, otherParty)));
             return null;
         }
     }
-}
\ No newline at end of file
+}
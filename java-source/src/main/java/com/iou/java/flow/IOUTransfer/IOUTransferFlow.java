@@ -4,6 +4,7 @@ import co.paralleluniverse.fibers.Suspendable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.iou.java.contract.IOUContract;
+import com.iou.java.flow.SignatureVerifier;
 import com.iou.java.state.IOUState;
 import net.corda.core.contracts.*;
 import net.corda.core.crypto.CompositeKey;
@@ -17,24 +18,105 @@ import net.corda.flows.FinalityFlow;
 
 import java.io.FileNotFoundException;
 import java.security.KeyPair;
+import java.security.SignatureException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
 import static kotlin.collections.CollectionsKt.single;
 
 public class IOUTransferFlow {
+    public static final Duration DEFAULT_SIGNATURE_TIMEOUT = Duration.ofSeconds(30);
+
+    /** How long after the signing deadline the transaction's time-window stays open, for it to be notarised. */
+    public static final Duration NOTARISATION_SLACK = Duration.ofSeconds(30);
+
+    /**
+     * Transfers the IOU at [stateRef], of which we must be the recipient, to [newRecipient]. The IOU's sender and the
+     * new recipient each sign (answered by [IOUTransferSubflow.Acceptor]) before the transaction is notarised and
+     * recorded by all three parties.
+     *
+     * The transaction is sent to both signers before waiting on either, so gathering the signatures takes as long as
+     * the slower of the two round-trips rather than both. Each signer has [signatureTimeout] to answer, and a late
+     * signature is refused by the signer or by us, so nothing is recorded. The transaction's time-window stays open
+     * for [NOTARISATION_SLACK] after that deadline, so that a transfer signed just in time can still be notarised.
+     *
+     * Flows in this Corda version cannot time out a receive, so a signer which never answers leaves the flow waiting;
+     * see the README for how to handle one.
+     */
     public static class Initiator extends FlowLogic<SignedTransaction> {
         private final StateRef stateRef;
         private final Party newRecipient;
+        private final Duration signatureTimeout;
 
-        public Initiator(StateRef stateRef, Party newRecipient) {
+        public Initiator(StateRef stateRef, Party newRecipient, Duration signatureTimeout) {
             this.stateRef = stateRef;
             this.newRecipient = newRecipient;
+            this.signatureTimeout = signatureTimeout;
+        }
+
+        public Initiator(StateRef stateRef, Party newRecipient) {
+            this(stateRef, newRecipient, DEFAULT_SIGNATURE_TIMEOUT);
         }
 
         @Suspendable
         public SignedTransaction call() throws FlowException {
-            return null;
+            final Party me = getServiceHub().getMyInfo().getLegalIdentity();
+            final KeyPair myKey = getServiceHub().getLegalIdentityKey();
+
+            // Stage 1 - Retrieving the IOU to transfer.
+            final StateAndRef<IOUState> input = getServiceHub().toStateAndRef(stateRef);
+            final IOUState iou = input.getState().getData();
+            if (!iou.getRecipient().equals(me)) {
+                throw new IllegalArgumentException("Only the recipient of an IOU may transfer it.");
+            }
+
+            // Stage 2 - Generating and verifying the transaction.
+            final List<CompositeKey> signers = ImmutableList.of(
+                    iou.getSender().getOwningKey(), me.getOwningKey(), newRecipient.getOwningKey());
+            final Instant now = getServiceHub().getClock().instant();
+            final Instant deadline = now.plus(signatureTimeout);
+            final TransactionBuilder builder = new TransactionType.General.Builder(input.getState().getNotary());
+            builder.addInputState(input);
+            builder.addOutputState(new IOUState(
+                    iou.getIouValue(), iou.getSender(), newRecipient, iou.getContract(), iou.getLinearId()));
+            builder.addCommand(new Command(new IOUContract.Transfer(), signers));
+            builder.setTime(new Timestamp(now, deadline.plus(NOTARISATION_SLACK)));
+            builder.toWireTransaction().toLedgerTransaction(getServiceHub()).verify();
+
+            // Stage 3 - Signing the transaction and gathering the other parties' signatures.
+            final SignedTransaction partSignedTx = builder.signWith(myKey).toSignedTransaction(false);
+            final Set<Party> counterparties = new LinkedHashSet<>(Arrays.asList(iou.getSender(), newRecipient));
+            counterparties.remove(me);
+            for (Party party : counterparties) send(party, partSignedTx);
+            final List<DigitalSignature.WithKey> signatures = new ArrayList<>();
+            for (Party party : counterparties) {
+                final DigitalSignature.WithKey signature =
+                        receive(DigitalSignature.WithKey.class, party).unwrap(sig -> sig);
+                if (getServiceHub().getClock().instant().isAfter(deadline)) {
+                    throw new FlowException(party + " did not sign within " + signatureTimeout + ".");
+                }
+                if (!party.getOwningKey().getKeys().contains(signature.getBy())) {
+                    throw new FlowException(party + " did not sign with its own key.");
+                }
+                signatures.add(signature);
+            }
+            try {
+                SignatureVerifier.verify(partSignedTx.getId().getBytes(), signatures);
+            } catch (SignatureException e) {
+                throw new FlowException("Invalid signature on the IOU transfer.", e);
+            }
+            SignedTransaction signedTx = partSignedTx;
+            for (DigitalSignature.WithKey signature : signatures) signedTx = signedTx.plus(signature);
+
+            // Stage 4 - Notarising and recording the transaction.
+            final Set<Party> participants = ImmutableSet.of(iou.getSender(), me, newRecipient);
+            subFlow(new FinalityFlow(signedTx, participants));
+            return signedTx;
         }
     }
-}
\ No newline at end of file
+}
@@ -2,24 +2,40 @@ package com.iou.java.flow.IOUTransfer;
 
 import co.paralleluniverse.fibers.Suspendable;
 import com.google.common.collect.ImmutableSet;
+import com.iou.java.flow.SignatureVerifier;
 import com.iou.java.state.IOUState;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.Timestamp;
 import net.corda.core.contracts.TransactionResolutionException;
+import net.corda.core.contracts.TransactionState;
 import net.corda.core.crypto.CompositeKey;
 import net.corda.core.crypto.DigitalSignature;
 import net.corda.core.crypto.Party;
 import net.corda.core.crypto.SecureHash;
 import net.corda.core.flows.FlowException;
 import net.corda.core.flows.FlowLogic;
+import net.corda.core.transactions.LedgerTransaction;
 import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.WireTransaction;
 import net.corda.flows.ResolveTransactionsFlow;
 
 import java.io.FileNotFoundException;
 import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 import static kotlin.collections.CollectionsKt.single;
 
 public class IOUTransferSubflow {
+    /**
+     * Asks [otherParty] to sign [stx], a transfer of an IOU they are a party to, and returns their signature. Only the
+     * signing key is checked here: the caller verifies the signatures it gathers together, with [SignatureVerifier].
+     */
     public static class Initiator extends FlowLogic<DigitalSignature.WithKey> {
         private final SignedTransaction stx;
         private final Party otherParty;
@@ -31,7 +47,12 @@ public class IOUTransferSubflow {
 
         @Suspendable
         public DigitalSignature.WithKey call() throws FlowException {
-            return null;
+            final DigitalSignature.WithKey signature =
+                    sendAndReceive(DigitalSignature.WithKey.class, otherParty, stx).unwrap(sig -> sig);
+            if (!otherParty.getOwningKey().getKeys().contains(signature.getBy())) {
+                throw new FlowException(otherParty + " did not sign with its own key.");
+            }
+            return signature;
         }
     }
 
@@ -45,7 +66,64 @@ public class IOUTransferSubflow {
         @Suspendable
         @Override
         public Void call() throws FlowException {
+            final Party me = getServiceHub().getMyInfo().getLegalIdentity();
+            final SignedTransaction stx = receive(SignedTransaction.class, otherParty).unwrap(tx -> tx);
+
+            // A transfer's time-window closes a notarisation slack after the initiator stops waiting for signatures.
+            final WireTransaction wtx = stx.getTx();
+            final Timestamp timestamp = wtx.getTimestamp();
+            if (timestamp != null && timestamp.getBefore() != null && getServiceHub().getClock().instant()
+                    .isAfter(timestamp.getBefore().minus(IOUTransferFlow.NOTARISATION_SLACK))) {
+                throw new FlowException("The deadline for signing transaction " + stx.getId() + " has passed.");
+            }
+
+            // The other parties sign separately, so only the transferring recipient's signature must be present.
+            final Set<CompositeKey> allowedToBeMissing = new LinkedHashSet<>();
+            for (Command command : wtx.getCommands()) allowedToBeMissing.addAll(command.getSigners());
+            allowedToBeMissing.remove(otherParty.getOwningKey());
+            allowedToBeMissing.add(wtx.getNotary().getOwningKey());
+            try {
+                SignatureVerifier.verifySignatures(stx, allowedToBeMissing.toArray(new CompositeKey[0]));
+            } catch (SignatureException e) {
+                throw new FlowException("Invalid signature on the proposed IOU transfer.", e);
+            }
+
+            resolveInputs(stx);
+            final LedgerTransaction ltx = wtx.toLedgerTransaction(getServiceHub());
+            ltx.verify();
+            boolean involvesUs = false;
+            for (StateAndRef<ContractState> input : ltx.getInputs()) {
+                if (!(input.getState().getData() instanceof IOUState)) continue;
+                final IOUState iou = (IOUState) input.getState().getData();
+                if (!iou.getRecipient().equals(otherParty)) {
+                    throw new FlowException("Transaction " + stx.getId() + " transfers an IOU not held by " + otherParty + ".");
+                }
+                if (iou.getSender().equals(me)) involvesUs = true;
+            }
+            for (TransactionState<ContractState> output : ltx.getOutputs()) {
+                if (output.getData() instanceof IOUState && ((IOUState) output.getData()).getRecipient().equals(me)) {
+                    involvesUs = true;
+                }
+            }
+            if (!involvesUs) throw new FlowException("Transaction " + stx.getId() + " does not involve us.");
+
+            send(otherParty, stx.signWithECDSA(getServiceHub().getLegalIdentityKey()));
             return null;
         }
+
+        /**
+         * Resolves the backchains of the transactions [stx] consumes. Those we have already verified are skipped
+         * without a lookup in storage or a request to [otherParty], and the rest are requested in a single batch, so
+         * transferring a long-lived IOU only fetches the part of its history that is new to us.
+         */
+        @Suspendable
+        private void resolveInputs(SignedTransaction stx) throws FlowException {
+            final List<SecureHash> inputTxIds = new ArrayList<>();
+            for (StateRef input : stx.getTx().getInputs()) inputTxIds.add(input.getTxhash());
+            final Set<SecureHash> missing = ResolutionCache.of(getServiceHub()).missing(inputTxIds);
+            if (missing.isEmpty()) return;
+            subFlow(new ResolveTransactionsFlow(missing, otherParty));
+            ResolutionCache.of(getServiceHub()).record(missing);
+        }
     }
-}
\ No newline at end of file
+}
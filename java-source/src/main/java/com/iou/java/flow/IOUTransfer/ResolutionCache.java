@@ -0,0 +1,86 @@
+package com.iou.java.flow.IOUTransfer;
+
+import net.corda.core.crypto.Party;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.node.PluginServiceHub;
+import net.corda.core.node.ServiceHub;
+import net.corda.core.node.services.ReadOnlyTransactionStorage;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the ids of the transactions this node has already verified, so that resolving the backchain of a
+ * transaction we are asked to sign can skip every part of it we already hold, without asking the counterparty or
+ * re-verifying anything.
+ *
+ * The node's validated transaction storage is the persistent record of what we have verified. This is a bounded,
+ * least-recently-used index over it: ids are added as transactions are recorded, and an id missing from the index is
+ * looked up in the storage, so nothing is forgotten across restarts or evictions, only made slower to find.
+ */
+public class ResolutionCache {
+    public static final int DEFAULT_MAX_SIZE = 100000;
+
+    private static final Map<Party, ResolutionCache> instances = new ConcurrentHashMap<>();
+
+    private final ReadOnlyTransactionStorage storage;
+    private final Map<SecureHash, Boolean> verified;
+
+    public ResolutionCache(ReadOnlyTransactionStorage storage, int maxSize) {
+        this.storage = storage;
+        this.verified = new LinkedHashMap<SecureHash, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SecureHash, Boolean> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public boolean isVerified(SecureHash id) {
+        synchronized (verified) {
+            if (verified.containsKey(id)) return true;
+        }
+        if (storage.getTransaction(id) == null) return false;
+        record(Collections.singleton(id));
+        return true;
+    }
+
+    /** Those of [ids] which we have not verified, which must be resolved from the counterparty. */
+    public Set<SecureHash> missing(Iterable<SecureHash> ids) {
+        final Set<SecureHash> missing = new LinkedHashSet<>();
+        for (SecureHash id : ids) {
+            if (!isVerified(id)) missing.add(id);
+        }
+        return missing;
+    }
+
+    public void record(Iterable<SecureHash> ids) {
+        synchronized (verified) {
+            for (SecureHash id : ids) verified.put(id, true);
+        }
+    }
+
+    public static ResolutionCache of(ServiceHub services) {
+        final Party me = services.getMyInfo().getLegalIdentity();
+        final ResolutionCache cache = instances.get(me);
+        if (cache == null) throw new IllegalStateException("No resolution cache is running for " + me + ".");
+        return cache;
+    }
+
+    /**
+     * Builds the node's [ResolutionCache] and keeps it up to date as transactions are recorded. Flows look it up with
+     * [of], as each node in the JVM (e.g. in a [MockNetwork]) has its own.
+     */
+    public static class Service {
+        public Service(PluginServiceHub services) {
+            final ReadOnlyTransactionStorage storage = services.getStorageService().getValidatedTransactions();
+            final ResolutionCache cache = new ResolutionCache(storage, DEFAULT_MAX_SIZE);
+            storage.getUpdates().subscribe(stx -> cache.record(Collections.singleton(stx.getId())));
+            instances.put(services.getMyInfo().getLegalIdentity(), cache);
+        }
+    }
+}
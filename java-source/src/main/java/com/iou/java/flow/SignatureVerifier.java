@@ -0,0 +1,52 @@
+package com.iou.java.flow;
+
+import net.corda.core.crypto.CompositeKey;
+import net.corda.core.crypto.DigitalSignature;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.WireTransaction;
+
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.util.*;
+
+/**
+ * Checks the signatures gathered by the IOU flows, one after another on the flow's thread, stopping at the first
+ * invalid one.
+ *
+ * They are not handed to a thread pool: the flow's thread could only block while the pool worked, which holds up every
+ * other flow on the node, and a flow may only wait without blocking by suspending, which the platform allows for
+ * messages alone. A transaction carries a handful of signatures, and checking them takes about as long as handing them
+ * over would. Nothing here suspends, so it can be called from a flow with no effect on its checkpoints.
+ */
+public class SignatureVerifier {
+    private SignatureVerifier() {}
+
+    /** Verifies that each of [signatures] is a valid signature over [content], throwing [SignatureException] if not. */
+    public static void verify(byte[] content, Collection<DigitalSignature.WithKey> signatures) throws SignatureException {
+        for (DigitalSignature.WithKey signature : signatures) signature.verifyWithECDSA(content);
+    }
+
+    /**
+     * Equivalent to [SignedTransaction.verifySignatures]: every signature present must be valid, and every key which
+     * must sign the transaction has signed it except [allowedToBeMissing].
+     */
+    public static WireTransaction verifySignatures(SignedTransaction stx, CompositeKey... allowedToBeMissing)
+            throws SignatureException {
+        final SecureHash id = stx.getId();
+        verify(id.getBytes(), stx.getSigs());
+        final Set<PublicKey> signedBy = new HashSet<>();
+        for (DigitalSignature.WithKey signature : stx.getSigs()) signedBy.add(signature.getBy());
+        final Set<CompositeKey> missing = new LinkedHashSet<>();
+        for (CompositeKey key : stx.getTx().getMustSign()) {
+            if (!key.isFulfilledBy(signedBy)) missing.add(key);
+        }
+        missing.removeAll(Arrays.asList(allowedToBeMissing));
+        if (!missing.isEmpty()) {
+            final List<String> descriptions = new ArrayList<>();
+            for (CompositeKey key : missing) descriptions.add(key.toString());
+            throw new SignedTransaction.SignaturesMissingException(missing, descriptions, id);
+        }
+        return stx.getTx();
+    }
+}
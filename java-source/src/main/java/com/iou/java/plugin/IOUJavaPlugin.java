@@ -1,15 +1,24 @@
 package com.iou.java.plugin;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.google.common.collect.ImmutableMap;
 import com.iou.java.api.IOUApi;
+import com.iou.java.api.IOUQuery;
 import com.iou.java.contract.IOUContract;
+import com.iou.java.flow.IOUCompaction.AutoCompaction;
+import com.iou.java.flow.IOUCompaction.IOUCompactionFlow;
 import com.iou.java.flow.IOUCreation.IOUCreationFlow;
+import com.iou.java.flow.IOUTransfer.IOUTransferFlow;
+import com.iou.java.flow.IOUTransfer.ResolutionCache;
+import com.iou.java.service.IOUQueryService;
 import com.iou.java.service.IOUService;
 import com.iou.java.state.IOUState;
 import net.corda.core.contracts.AuthenticatedObject;
+import net.corda.core.contracts.StateRef;
 import net.corda.core.contracts.Timestamp;
 import net.corda.core.contracts.TransactionType;
 import net.corda.core.contracts.TransactionVerificationException;
+import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.crypto.Party;
 import net.corda.core.messaging.CordaRPCOps;
 import net.corda.core.node.CordaPluginRegistry;
@@ -38,11 +47,28 @@ public class IOUJavaPlugin extends CordaPluginRegistry {
      * This map also acts as a white list. If a flow is invoked via the API and not registered correctly
      * here, then the flow state machine will _not_ invoke the flow. Instead, an exception will be raised.
      */
-    private final Map<String, Set<String>> requiredFlows = Collections.singletonMap(
+    private final Map<String, Set<String>> requiredFlows = ImmutableMap.of(
             IOUCreationFlow.Initiator.class.getName(),
             new HashSet<>(Arrays.asList(
                     IOUState.class.getName(),
+                    List.class.getName(),
                     Party.class.getName()
+            )),
+            IOUTransferFlow.Initiator.class.getName(),
+            new HashSet<>(Arrays.asList(
+                    StateRef.class.getName(),
+                    Party.class.getName()
+            )),
+            IOUCompactionFlow.Initiator.class.getName(),
+            new HashSet<>(Arrays.asList(
+                    StateRef.class.getName(),
+                    Integer.class.getName()
+            )),
+            IOUQuery.PageFlow.class.getName(),
+            new HashSet<>(Arrays.asList(
+                    IOUQuery.class.getName(),
+                    UUID.class.getName(),
+                    Integer.class.getName()
             )));
 
     /**
@@ -50,7 +76,11 @@ public class IOUJavaPlugin extends CordaPluginRegistry {
      * factories that would be used when an initiating party attempts to communicate with our node using a particular
      * flow. See the [ExampleService.Service] class for an implementation which sets up a
      */
-    private final List<Function<PluginServiceHub, ?>> servicePlugins = Collections.singletonList(IOUService::new);
+    private final List<Function<PluginServiceHub, ?>> servicePlugins = Arrays.asList(
+            IOUService::new,
+            IOUQueryService.Service::new,
+            ResolutionCache.Service::new,
+            AutoCompaction.Service::new);
 
     /**
      * A list of directories in the resources directory that will be served by Jetty under /web.
@@ -66,17 +96,21 @@ public class IOUJavaPlugin extends CordaPluginRegistry {
      * Register required types with Kryo (our serialisation framework).
      */
     @Override public boolean registerRPCKryoTypes(Kryo kryo) {
-        kryo.register(IOUState.class);
+        kryo.register(IOUState.class, new IOUSerializers.IOUStateSerializer());
         kryo.register(IOUContract.class);
         kryo.register(TransactionVerificationException.ContractRejection.class);
         kryo.register(LedgerTransaction.class);
         kryo.register(AuthenticatedObject.class);
-        // Uncomment once you've added the Create command constraint.
-        // kryo.register(IOUContract.Create.class);
-        // Uncomment once you've added the Transfer command constraint.
-        // kryo.register(IOUContract.Commands.Transfer::class.java);
+        kryo.register(IOUContract.Create.class, new IOUSerializers.CommandSerializer<>(IOUContract.Create::new));
+        kryo.register(IOUContract.Transfer.class, new IOUSerializers.CommandSerializer<>(IOUContract.Transfer::new));
+        kryo.register(IOUContract.Compact.class, new IOUSerializers.CommandSerializer<>(IOUContract.Compact::new));
         kryo.register(Timestamp.class);
         kryo.register(TransactionType.General.class);
+        kryo.register(UniqueIdentifier.class, new IOUSerializers.UniqueIdentifierSerializer());
+        // The arguments and results of the flows the web API reads the node's state with.
+        kryo.register(IOUQuery.class);
+        kryo.register(IOUQuery.Page.class);
+        kryo.register(UUID.class);
         return true;
     }
 }
\ No newline at end of file
@@ -0,0 +1,146 @@
+package com.iou.java.plugin;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.ObjectMap;
+import com.iou.java.contract.IOUContract;
+import com.iou.java.state.IOUState;
+import net.corda.core.contracts.CommandData;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.CompositeKey;
+import net.corda.core.crypto.Party;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Compact Kryo serializers for the types our RPC payloads are made of, registered by [IOUJavaPlugin]. Each writes a
+ * fixed sequence of fields with no field names or class names, and integers as varints.
+ */
+public final class IOUSerializers {
+    private IOUSerializers() {}
+
+    /**
+     * Writes an [IOUState]. The contract is stateless and is not written at all. The parties are written through
+     * [PartyReferences], so that the many IOUs between the same parties in a vault query repeat only a small index.
+     */
+    public static class IOUStateSerializer extends Serializer<IOUState> {
+        public IOUStateSerializer() {
+            super(false, true);
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, IOUState iou) {
+            output.writeVarInt(iou.getIouValue(), true);
+            PartyReferences.write(kryo, output, iou.getSender());
+            PartyReferences.write(kryo, output, iou.getRecipient());
+            UniqueIdentifierSerializer.writeId(output, iou.getLinearId());
+        }
+
+        @Override
+        public IOUState read(Kryo kryo, Input input, Class<IOUState> type) {
+            final int iouValue = input.readVarInt(true);
+            final Party sender = PartyReferences.read(kryo, input);
+            final Party recipient = PartyReferences.read(kryo, input);
+            final UniqueIdentifier linearId = UniqueIdentifierSerializer.readId(input);
+            return new IOUState(iouValue, sender, recipient, new IOUContract(), linearId);
+        }
+    }
+
+    /** Writes a [UniqueIdentifier] as its optional external id followed by the two halves of its UUID. */
+    public static class UniqueIdentifierSerializer extends Serializer<UniqueIdentifier> {
+        public UniqueIdentifierSerializer() {
+            super(false, true);
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, UniqueIdentifier linearId) {
+            writeId(output, linearId);
+        }
+
+        @Override
+        public UniqueIdentifier read(Kryo kryo, Input input, Class<UniqueIdentifier> type) {
+            return readId(input);
+        }
+
+        static void writeId(Output output, UniqueIdentifier linearId) {
+            output.writeString(linearId.getExternalId());
+            output.writeLong(linearId.getId().getMostSignificantBits());
+            output.writeLong(linearId.getId().getLeastSignificantBits());
+        }
+
+        static UniqueIdentifier readId(Input input) {
+            final String externalId = input.readString();
+            return new UniqueIdentifier(externalId, new UUID(input.readLong(), input.readLong()));
+        }
+    }
+
+    /** Writes nothing for a command which carries no data; the registered class id alone identifies it. */
+    public static class CommandSerializer<T extends CommandData> extends Serializer<T> {
+        private final Supplier<T> create;
+
+        public CommandSerializer(Supplier<T> create) {
+            super(false, true);
+            this.create = create;
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, T command) {}
+
+        @Override
+        public T read(Kryo kryo, Input input, Class<T> type) {
+            return create.get();
+        }
+    }
+
+    /**
+     * Writes each distinct [Party] in full once per serialised object graph, and as the index of that first occurrence
+     * thereafter. The tables live in Kryo's graph context, which Kryo clears between top-level objects.
+     */
+    static final class PartyReferences {
+        private static final String WRITTEN = "com.iou.java.plugin.PartyReferences.written";
+        private static final String READ = "com.iou.java.plugin.PartyReferences.read";
+
+        private PartyReferences() {}
+
+        @SuppressWarnings("unchecked")
+        static void write(Kryo kryo, Output output, Party party) {
+            final ObjectMap<Object, Object> context = kryo.getGraphContext();
+            Map<Party, Integer> written = (Map<Party, Integer>) context.get(WRITTEN);
+            if (written == null) {
+                written = new HashMap<>();
+                context.put(WRITTEN, written);
+            }
+            final Integer index = written.get(party);
+            if (index != null) {
+                output.writeVarInt(index + 1, true);
+                return;
+            }
+            output.writeVarInt(0, true);
+            output.writeString(party.getName());
+            kryo.writeClassAndObject(output, party.getOwningKey());
+            written.put(party, written.size());
+        }
+
+        @SuppressWarnings("unchecked")
+        static Party read(Kryo kryo, Input input) {
+            final ObjectMap<Object, Object> context = kryo.getGraphContext();
+            List<Party> read = (List<Party>) context.get(READ);
+            if (read == null) {
+                read = new ArrayList<>();
+                context.put(READ, read);
+            }
+            final int reference = input.readVarInt(true);
+            if (reference > 0) return read.get(reference - 1);
+            final Party party = new Party(input.readString(), (CompositeKey) kryo.readClassAndObject(input));
+            read.add(party);
+            return party;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.iou.java.service;
+
+import com.iou.java.state.IOUState;
+import kotlin.Pair;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.crypto.Party;
+import net.corda.core.node.PluginServiceHub;
+import net.corda.core.node.ServiceHub;
+import net.corda.core.node.services.Vault;
+import rx.Observable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Indexes the unconsumed IOUs in a node's vault by linearId, by sender and recipient, and by value, so that a [page]
+ * in linearId order only visits the IOUs of the index which narrows it most, stopping as soon as it is full, rather
+ * than scanning the whole vault. The web API reaches it through [IOUQuery.PageFlow].
+ *
+ * Each IOU is held once; the indices only refer to it. The index is kept up to date incrementally from vault updates
+ * and rebuilt from the vault when the node starts. Results are copies, so callers may iterate them while the vault
+ * moves on.
+ */
+public class IOUQueryService {
+    private static final Comparator<StateAndRef<IOUState>> BY_LINEAR_ID =
+            Comparator.comparing(stateAndRef -> stateAndRef.getState().getData().getLinearId().getId());
+
+    private static final Map<Party, IOUQueryService> instances = new ConcurrentHashMap<>();
+
+    private final Object lock = new Object();
+    // Every index keeps its IOUs in linearId order, so that a page can be read off it in order from a cursor.
+    private final TreeMap<UUID, StateAndRef<IOUState>> heads = new TreeMap<>();
+    private final TreeMap<Integer, TreeMap<UUID, StateAndRef<IOUState>>> values = new TreeMap<>();
+    private final Map<Party, TreeMap<UUID, StateAndRef<IOUState>>> sentBy = new HashMap<>();
+    private final Map<Party, TreeMap<UUID, StateAndRef<IOUState>>> heldBy = new HashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public void add(Iterable<StateAndRef<ContractState>> states) {
+        synchronized (lock) {
+            for (StateAndRef<ContractState> stateAndRef : states) {
+                if (!(stateAndRef.getState().getData() instanceof IOUState)) continue;
+                final StateAndRef<IOUState> iouRef = (StateAndRef<IOUState>) (StateAndRef<?>) stateAndRef;
+                final IOUState iou = iouRef.getState().getData();
+                final UUID id = iou.getLinearId().getId();
+                final StateAndRef<IOUState> previous = heads.put(id, iouRef);
+                if (previous != null) unindex(previous);
+                values.computeIfAbsent(iou.getIouValue(), value -> new TreeMap<>()).put(id, iouRef);
+                sentBy.computeIfAbsent(iou.getSender(), party -> new TreeMap<>()).put(id, iouRef);
+                heldBy.computeIfAbsent(iou.getRecipient(), party -> new TreeMap<>()).put(id, iouRef);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void remove(Iterable<StateAndRef<ContractState>> states) {
+        synchronized (lock) {
+            for (StateAndRef<ContractState> stateAndRef : states) {
+                if (!(stateAndRef.getState().getData() instanceof IOUState)) continue;
+                final UUID id = ((IOUState) stateAndRef.getState().getData()).getLinearId().getId();
+                // A later version of the IOU may already have replaced this one.
+                final StateAndRef<IOUState> head = heads.get(id);
+                if (head == null || !head.getRef().equals(stateAndRef.getRef())) continue;
+                heads.remove(id);
+                unindex((StateAndRef<IOUState>) (StateAndRef<?>) stateAndRef);
+            }
+        }
+    }
+
+    public void update(Vault.Update update) {
+        remove(update.getConsumed());
+        add(update.getProduced());
+    }
+
+    private void unindex(StateAndRef<IOUState> stateAndRef) {
+        final IOUState iou = stateAndRef.getState().getData();
+        final UUID id = iou.getLinearId().getId();
+        removeFrom(values, iou.getIouValue(), id);
+        removeFrom(sentBy, iou.getSender(), id);
+        removeFrom(heldBy, iou.getRecipient(), id);
+    }
+
+    private static <K> void removeFrom(Map<K, TreeMap<UUID, StateAndRef<IOUState>>> index, K key, UUID id) {
+        final TreeMap<UUID, StateAndRef<IOUState>> ious = index.get(key);
+        if (ious == null) return;
+        ious.remove(id);
+        if (ious.isEmpty()) index.remove(key);
+    }
+
+    /** The unconsumed version of the IOU whose linearId has the id [id], or null if we hold none. */
+    public StateAndRef<IOUState> byLinearId(UUID id) {
+        synchronized (lock) {
+            return heads.get(id);
+        }
+    }
+
+    /**
+     * The first [limit] unconsumed IOUs sent by [sender], held by [recipient], with a value between [minValue] and
+     * [maxValue] inclusive, and accepted by [filter], whose linearId comes after [cursor], in linearId order. A null
+     * bound matches every IOU.
+     *
+     * Given a value bound, only the IOUs in that range are visited: each value's IOUs are read in linearId order from the
+     * cursor, at most until [limit] of them match, and merged. Otherwise, given a party, only that party's IOUs are
+     * visited, in order, and the scan stops once the page is full.
+     */
+    public List<StateAndRef<IOUState>> page(Party sender,
+                                            Party recipient,
+                                            Integer minValue,
+                                            Integer maxValue,
+                                            UUID cursor,
+                                            int limit,
+                                            Predicate<IOUState> filter) {
+        final Predicate<IOUState> accept = iou ->
+                (sender == null || iou.getSender().equals(sender)) &&
+                (recipient == null || iou.getRecipient().equals(recipient)) &&
+                (minValue == null || iou.getIouValue() >= minValue) &&
+                (maxValue == null || iou.getIouValue() <= maxValue) &&
+                filter.test(iou);
+        synchronized (lock) {
+            if (minValue != null || maxValue != null) {
+                final int min = minValue == null ? Integer.MIN_VALUE : minValue;
+                final int max = maxValue == null ? Integer.MAX_VALUE : maxValue;
+                if (min > max) return new ArrayList<>();
+                final List<StateAndRef<IOUState>> merged = new ArrayList<>();
+                for (TreeMap<UUID, StateAndRef<IOUState>> ious : values.subMap(min, true, max, true).values()) {
+                    merged.addAll(page(ious, cursor, limit, accept));
+                }
+                merged.sort(BY_LINEAR_ID);
+                return new ArrayList<>(merged.subList(0, Math.min(limit, merged.size())));
+            }
+            final TreeMap<UUID, StateAndRef<IOUState>> ordered =
+                    sender != null ? sentBy.get(sender) : recipient != null ? heldBy.get(recipient) : heads;
+            if (ordered == null) return new ArrayList<>();
+            return page(ordered, cursor, limit, accept);
+        }
+    }
+
+    private static List<StateAndRef<IOUState>> page(TreeMap<UUID, StateAndRef<IOUState>> ordered,
+                                                    UUID cursor,
+                                                    int limit,
+                                                    Predicate<IOUState> accept) {
+        final List<StateAndRef<IOUState>> page = new ArrayList<>(Math.min(limit, ordered.size()));
+        final SortedMap<UUID, StateAndRef<IOUState>> from = cursor == null ? ordered : ordered.tailMap(cursor, false);
+        for (StateAndRef<IOUState> stateAndRef : from.values()) {
+            if (!accept.test(stateAndRef.getState().getData())) continue;
+            page.add(stateAndRef);
+            if (page.size() == limit) break;
+        }
+        return page;
+    }
+
+    public static IOUQueryService of(ServiceHub services) {
+        final Party me = services.getMyInfo().getLegalIdentity();
+        final IOUQueryService index = instances.get(me);
+        if (index == null) throw new IllegalStateException("No IOU query service is running for " + me + ".");
+        return index;
+    }
+
+    /**
+     * Builds the node's [IOUQueryService] from the vault and keeps it up to date. Flows look it up with [of], as each
+     * node in the JVM (e.g. in a [MockNetwork]) has its own.
+     */
+    public static class Service {
+        public Service(PluginServiceHub services) {
+            final IOUQueryService index = new IOUQueryService();
+            final Pair<Vault, Observable<Vault.Update>> tracked = services.getVaultService().track();
+            index.add(tracked.getFirst().getStates());
+            tracked.getSecond().subscribe(index::update);
+            instances.put(services.getMyInfo().getLegalIdentity(), index);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.iou.java.service;
 
+import com.iou.java.flow.IOUCompaction.IOUCompactionFlow;
 import com.iou.java.flow.IOUCreation.IOUCreationFlow;
+import com.iou.java.flow.IOUTransfer.IOUTransferFlow;
 import com.iou.java.flow.IOUTransfer.IOUTransferSubflow;
 import kotlin.jvm.JvmClassMappingKt;
 import net.corda.core.node.PluginServiceHub;
@@ -25,5 +27,13 @@ public class IOUService {
                 JvmClassMappingKt.getKotlinClass(IOUTransferSubflow.Initiator.class),
                 IOUTransferSubflow.Acceptor::new
         );
+        services.registerFlowInitiator(
+                JvmClassMappingKt.getKotlinClass(IOUTransferFlow.Initiator.class),
+                IOUTransferSubflow.Acceptor::new
+        );
+        services.registerFlowInitiator(
+                JvmClassMappingKt.getKotlinClass(IOUCompactionFlow.Initiator.class),
+                IOUCompactionFlow.Acceptor::new
+        );
     }
 }
\ No newline at end of file
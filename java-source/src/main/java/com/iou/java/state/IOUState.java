@@ -1,33 +1,83 @@
 package com.iou.java.state;
 
+import com.google.common.collect.ImmutableList;
 import com.iou.java.contract.IOUContract;
-import kotlin.collections.EmptyList;
 import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.LinearState;
+import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.crypto.CompositeKey;
 import net.corda.core.crypto.Party;
 
+import java.security.PublicKey;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Stream;
-
-import static java.util.Collections.emptyList;
-import static java.util.stream.Collectors.toList;
+import java.util.Set;
 
 /**
  * The state object recording IOU agreements between two parties.
  *
  * A state must implement [ContractState] or one of its descendants.
  *
- *  * @param contract the contract which governs which transactions are valid for this state object.
+ * @param iouValue the value of the IOU.
+ * @param sender the party issuing the IOU.
+ * @param recipient the party receiving and approving the IOU.
+ * @param contract the contract which governs which transactions are valid for this state object.
+ * @param linearId the identifier shared by every version of this IOU.
  */
-public class IOUState implements ContractState {
+public class IOUState implements LinearState {
+    private final int iouValue;
+    private final Party sender;
+    private final Party recipient;
     private final IOUContract contract;
+    private final UniqueIdentifier linearId;
+
+    // Both are derived from sender and recipient on first use and then reused. They are transient so they are not
+    // serialized with the state; a deserialized copy, or a racing first call, simply derives an equal value again.
+    private transient List<CompositeKey> participants;
+    private transient PublicKey[] participantKeys;
 
-    public IOUState(IOUContract contract) {
+    public IOUState(int iouValue, Party sender, Party recipient, IOUContract contract, UniqueIdentifier linearId) {
+        this.iouValue = iouValue;
+        this.sender = sender;
+        this.recipient = recipient;
         this.contract = contract;
+        this.linearId = linearId;
+    }
+
+    public IOUState(int iouValue, Party sender, Party recipient, IOUContract contract) {
+        this(iouValue, sender, recipient, contract, new UniqueIdentifier());
     }
 
+    public int getIouValue() { return iouValue; }
+    public Party getSender() { return sender; }
+    public Party getRecipient() { return recipient; }
     @Override public IOUContract getContract() { return contract; }
+    @Override public UniqueIdentifier getLinearId() { return linearId; }
     @Override public List<CompositeKey> getParticipants() {
-        return emptyList();
+        List<CompositeKey> participants = this.participants;
+        if (participants == null) {
+            participants = ImmutableList.of(sender.getOwningKey(), recipient.getOwningKey());
+            this.participants = participants;
+        }
+        return participants;
+    }
+
+    @Override public boolean isRelevant(Set<? extends PublicKey> ourKeys) {
+        PublicKey[] keys = participantKeys;
+        if (keys == null) {
+            final List<PublicKey> flattened = new ArrayList<>();
+            for (CompositeKey participant : getParticipants()) flattened.addAll(participant.getKeys());
+            keys = flattened.toArray(new PublicKey[flattened.size()]);
+            participantKeys = keys;
+        }
+        for (PublicKey key : keys) {
+            if (ourKeys.contains(key)) return true;
+        }
+        return false;
+    }
+
+    /** Whether this IOU is between [a] and [b], in either direction. */
+    public boolean isBetween(Party a, Party b) {
+        return (sender.equals(a) && recipient.equals(b)) || (sender.equals(b) && recipient.equals(a));
     }
-}
\ No newline at end of file
+}
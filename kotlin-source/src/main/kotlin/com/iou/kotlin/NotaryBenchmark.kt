@@ -0,0 +1,237 @@
+package com.iou.kotlin
+
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.MoreExecutors
+import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.flow.FlowMetrics
+import com.iou.kotlin.flow.IOUCreation.IOUCreationFlow
+import com.iou.kotlin.flow.IOUTransfer.IOUTransferFlow
+import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.StateRef
+import net.corda.core.crypto.SecureHash
+import net.corda.core.getOrThrow
+import net.corda.core.messaging.CordaRPCOps
+import net.corda.core.node.services.ServiceInfo
+import net.corda.core.transactions.SignedTransaction
+import net.corda.node.driver.DriverDSLExposedInterface
+import net.corda.node.driver.NodeHandle
+import net.corda.node.driver.driver
+import net.corda.node.services.User
+import net.corda.node.services.startFlowPermission
+import net.corda.node.services.transactions.SimpleNotaryService
+import net.corda.node.services.transactions.ValidatingNotaryService
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+
+/**
+ * Runs the same IOU workload against each notary setup in turn, on the topology started by [main], and prints the
+ * latency and throughput of each phase:
+ *
+ * 1. NodeA issues IOUs to NodeB. Issuance consumes nothing and is not timestamped, so it is not notarised, and gives
+ *    the cost of a flow without a notary to compare against.
+ * 2. NodeB transfers each of them to NodeC. A transfer consumes the IOU and is timestamped, so every one is notarised.
+ *
+ * Next to each phase's flow latencies is the time its flows spent in their `notarise` stage, as timed by [FlowMetrics]
+ * on the node which finalised the transaction, and read from every node over RPC once the phase is over. An issuance
+ * is finalised by NodeB's [IOUCreationFlow.Acceptor], and its stage shows the cost of finality with nothing to notarise.
+ *
+ * The setups to run are given as arguments (all of them by default), and the workload with the `iou.bench.ious` and
+ * `iou.bench.concurrency` system properties. Each setup starts its own nodes, so the results are independent.
+ */
+object NotaryBenchmark {
+    const val DEFAULT_IOUS = 200
+    const val DEFAULT_CONCURRENCY = 16
+    const val RECORDING_TIMEOUT_SECONDS = 120L
+
+    private const val NOTARISE_STAGE = ".notarise"
+
+    enum class NotarySetup {
+        /** A single notary which verifies every transaction and its backchain, as started by [main]. */
+        VALIDATING,
+        /** A single notary which only checks the transaction's inputs have not been consumed already. */
+        NON_VALIDATING,
+        /** A cluster of three notaries, sharing one identity and replicating their commit log with Raft. */
+        RAFT_CLUSTER,
+        /** Two independent validating notaries, over which the IOUs are spread as they are issued. */
+        TWO_NOTARIES
+    }
+
+    /** How long the flows of a phase spent notarising, as timed on the node which ran them. */
+    data class StageTiming(val count: Long, val p50Millis: Double, val p99Millis: Double) {
+        companion object {
+            /** For a flow which did not time the stage, e.g. because none of its runs were sampled. */
+            val NONE = StageTiming(0, 0.0, 0.0)
+        }
+    }
+
+    data class PhaseResult(val flows: Int,
+                           val failed: Int,
+                           val seconds: Double,
+                           val p50Millis: Double,
+                           val p99Millis: Double,
+                           val notarise: StageTiming = StageTiming.NONE) {
+        val throughput: Double get() = (flows - failed) / seconds
+    }
+
+    data class ScenarioResult(val setup: NotarySetup, val issuance: PhaseResult, val transfer: PhaseResult)
+
+    private val user = User("bench", "bench", permissions = setOf(
+            startFlowPermission<IOUCreationFlow.Initiator>(),
+            startFlowPermission<IOUTransferFlow.Initiator>(),
+            startFlowPermission<FlowMetrics.Snapshot>()))
+
+    fun run(setup: NotarySetup, ious: Int, concurrency: Int): ScenarioResult {
+        return driver(isDebug = false) {
+            startNotaries(setup)
+            val (nodeA, nodeB, nodeC) = Futures.allAsList(
+                    startNode("NodeA", rpcUsers = listOf(user)),
+                    startNode("NodeB", rpcUsers = listOf(user)),
+                    startNode("NodeC", rpcUsers = listOf(user))).getOrThrow()
+            val a = rpc(nodeA)
+            val b = rpc(nodeB)
+            val c = rpc(nodeC)
+            val partyA = nodeA.nodeInfo.legalIdentity
+            val partyB = nodeB.nodeInfo.legalIdentity
+            val partyC = nodeC.nodeInfo.legalIdentity
+
+            val (txsRecordedByB, recordedByB) = b.verifiedTransactions()
+            val issued = ArrayList<SignedTransaction>()
+            val issuance = measure((1..ious).toList(), concurrency) {
+                val iou = IOUState(1, partyA, partyB, IOUContract())
+                val future = a.startFlowDynamic(IOUCreationFlow.Initiator::class.java, iou, partyB).returnValue
+                future.addListener(Runnable {
+                    try {
+                        synchronized(issued) { issued.add(future.get()) }
+                    } catch (e: ExecutionException) {
+                        // Counted as a failed issuance by measure, and not transferred.
+                    }
+                }, MoreExecutors.directExecutor())
+                future
+            }
+
+            // An issuance flow completes before NodeB has recorded the IOU, so we wait until it has them all.
+            val pending = Collections.newSetFromMap(ConcurrentHashMap<SecureHash, Boolean>())
+            synchronized(issued) { issued.mapTo(pending) { it.id } }
+            val allRecorded = CountDownLatch(1)
+            val onRecorded = { id: SecureHash -> if (pending.remove(id) && pending.isEmpty()) allRecorded.countDown() }
+            recordedByB.subscribe { onRecorded(it.id) }
+            txsRecordedByB.forEach { onRecorded(it.id) }
+            if (pending.isEmpty()) allRecorded.countDown()
+            if (!allRecorded.await(RECORDING_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                throw IllegalStateException("NodeB did not record ${pending.size} issued IOUs.")
+
+            val transfer = measure(synchronized(issued) { issued.toList() }, concurrency) { stx ->
+                b.startFlowDynamic(IOUTransferFlow.Initiator::class.java, StateRef(stx.id, 0), partyC).returnValue
+            }
+            val notarise = notariseStages(listOf(a, b, c))
+            ScenarioResult(setup,
+                    // Issuances are finalised by NodeB's acceptor, and transfers by their initiator.
+                    issuance.copy(notarise = notarise["IOUCreationFlow.Acceptor"] ?: StageTiming.NONE),
+                    transfer.copy(notarise = notarise["IOUTransferFlow.Initiator"] ?: StageTiming.NONE))
+        }
+    }
+
+    /**
+     * The `notarise` stage of every flow which timed one on any of [nodes], by flow. Each flow class only finalises on one
+     * of our nodes, e.g. [IOUCreationFlow.Acceptor] on NodeB, so no flow's timings are recorded by two.
+     */
+    private fun notariseStages(nodes: List<CordaRPCOps>): Map<String, StageTiming> {
+        val stages = HashMap<String, StageTiming>()
+        for (node in nodes) {
+            val metrics = node.startFlowDynamic(FlowMetrics.Snapshot::class.java).returnValue.getOrThrow()
+            for ((name, values) in metrics) {
+                if (!name.endsWith(NOTARISE_STAGE)) continue
+                stages[name.removeSuffix(NOTARISE_STAGE)] = StageTiming(
+                        values["count"]!!.toLong(), values["p50Millis"]!!.toDouble(), values["p99Millis"]!!.toDouble())
+            }
+        }
+        return stages
+    }
+
+    private fun DriverDSLExposedInterface.startNotaries(setup: NotarySetup) {
+        when (setup) {
+            NotarySetup.VALIDATING -> startNode("Controller", setOf(ServiceInfo(ValidatingNotaryService.type))).getOrThrow()
+            NotarySetup.NON_VALIDATING -> startNode("Controller", setOf(ServiceInfo(SimpleNotaryService.type))).getOrThrow()
+            NotarySetup.RAFT_CLUSTER -> startNotaryCluster("Raft", clusterSize = 3).getOrThrow()
+            NotarySetup.TWO_NOTARIES -> Futures.allAsList(
+                    startNode("ControllerA", setOf(ServiceInfo(ValidatingNotaryService.type))),
+                    startNode("ControllerB", setOf(ServiceInfo(ValidatingNotaryService.type)))).getOrThrow()
+        }
+    }
+
+    private fun rpc(node: NodeHandle): CordaRPCOps {
+        val client = node.rpcClientToNode()
+        client.start(user.username, user.password)
+        return client.proxy()
+    }
+
+    /**
+     * Starts a flow for each of [inputs] with [start], with at most [concurrency] running at once, and times how long
+     * each takes to complete. A flow fails if it throws, is not started because no other flow completed within
+     * [RECORDING_TIMEOUT_SECONDS], or has not completed that long after the last one was started.
+     */
+    private fun <T> measure(inputs: List<T>, concurrency: Int, start: (T) -> ListenableFuture<*>): PhaseResult {
+        val inFlight = Semaphore(concurrency)
+        val latencies = Collections.synchronizedList(ArrayList<Long>())
+        val done = CountDownLatch(inputs.size)
+        val started = System.nanoTime()
+        for (input in inputs) {
+            // A flow is only started once another completes, so flows which never complete fail the rest, not hang.
+            if (!inFlight.tryAcquire(RECORDING_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                done.countDown()
+                continue
+            }
+            val flowStarted = System.nanoTime()
+            val future = start(input)
+            future.addListener(Runnable {
+                try {
+                    future.get()
+                    latencies.add(System.nanoTime() - flowStarted)
+                } catch (e: ExecutionException) {
+                    // Counted as failed, having no latency.
+                } finally {
+                    inFlight.release()
+                    done.countDown()
+                }
+            }, MoreExecutors.directExecutor())
+        }
+        done.await(RECORDING_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        val seconds = (System.nanoTime() - started) / 1e9
+        val sorted = synchronized(latencies) { latencies.toLongArray() }
+        Arrays.sort(sorted)
+        return PhaseResult(inputs.size, inputs.size - sorted.size, seconds, percentile(sorted, 0.5), percentile(sorted, 0.99))
+    }
+
+    private fun percentile(sorted: LongArray, fraction: Double): Double {
+        if (sorted.isEmpty()) return 0.0
+        val rank = Math.max(Math.ceil(fraction * sorted.size).toInt(), 1)
+        return sorted[rank - 1] / 1e6
+    }
+
+    fun report(results: List<ScenarioResult>): String {
+        val lines = ArrayList<String>()
+        lines.add(String.format("%-15s %-9s %6s %7s %10s %10s %10s %14s %14s", "setup", "phase", "flows", "failed", "flows/s",
+                "p50 ms", "p99 ms", "notarise p50", "notarise p99"))
+        for (result in results) {
+            for ((phase, r) in listOf("issue" to result.issuance, "transfer" to result.transfer)) {
+                lines.add(String.format("%-15s %-9s %6d %7d %10.1f %10.1f %10.1f %14.1f %14.1f",
+                        result.setup, phase, r.flows, r.failed, r.throughput, r.p50Millis, r.p99Millis,
+                        r.notarise.p50Millis, r.notarise.p99Millis))
+            }
+        }
+        return lines.joinToString("\n")
+    }
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val setups = if (args.isEmpty()) NotarySetup.values().toList() else args.map { NotarySetup.valueOf(it.toUpperCase()) }
+        val ious = Integer.getInteger("iou.bench.ious", DEFAULT_IOUS)
+        val concurrency = Integer.getInteger("iou.bench.concurrency", DEFAULT_CONCURRENCY)
+        println(report(setups.map { run(it, ious, concurrency) }))
+    }
+}
@@ -0,0 +1,329 @@
+package com.iou.kotlin
+
+import com.google.common.net.HostAndPort
+import com.google.common.util.concurrent.Futures
+import com.iou.kotlin.flow.IOUCreation.IOUCreationFlow
+import com.iou.kotlin.flow.IOUTransfer.IOUTransferFlow
+import com.iou.kotlin.state.IOUState
+import net.corda.core.crypto.Party
+import net.corda.core.getOrThrow
+import net.corda.core.messaging.CordaRPCOps
+import net.corda.core.node.services.ServiceInfo
+import net.corda.node.driver.NodeHandle
+import net.corda.node.driver.driver
+import net.corda.node.services.User
+import net.corda.node.services.startFlowPermission
+import net.corda.node.services.transactions.ValidatingNotaryService
+import java.io.File
+import java.net.HttpURLConnection
+import java.net.URL
+import java.util.*
+import java.util.concurrent.*
+
+/**
+ * Drives [com.iou.kotlin.api.IOUApi] over HTTP on the topology started by [main], with real messaging, databases and
+ * webservers, and prints a report which can be compared between builds.
+ *
+ * Each request asks one node's webserver to issue an IOU to the next node, round the three of them. Requests are
+ * sent at [Config.ratePerSecond], with at most [Config.concurrency] awaiting completion at once. A request completes
+ * when the counterparty's vault records its IOU, as seen through the counterparty's RPC vault updates; each IOU is
+ * given a distinct value so that the update can be matched to its request. As in the load harness, latency is
+ * measured from when a request was due to be sent, so a run which cannot keep up shows in its latencies.
+ *
+ * Node CPU time and memory are read from `/proc` for each node's process, as the nodes do not expose JMX. The memory
+ * figure is therefore the process's peak resident set size (RSS), not its Java heap: it also counts metaspace, thread
+ * stacks, code caches and heap the JVM has reserved but not yet used, and is reported as RSS.
+ */
+class RestBenchmark(val config: Config) {
+    /** What to run. Read from the `iou.rest.*` system properties by [Config.fromSystemProperties]. */
+    data class Config(val requests: Int = 1000,
+                      val ratePerSecond: Double = 50.0,
+                      val concurrency: Int = 32,
+                      val recordingTimeoutSeconds: Long = 120) {
+        init {
+            require(requests > 0) { "At least one request must be sent." }
+            require(ratePerSecond > 0) { "The rate must be positive." }
+            require(concurrency > 0) { "The concurrency must be positive." }
+        }
+
+        companion object {
+            fun fromSystemProperties(): Config {
+                val defaults = Config()
+                return Config(
+                        requests = Integer.getInteger("iou.rest.requests", defaults.requests),
+                        ratePerSecond = System.getProperty("iou.rest.ratePerSecond")?.toDouble() ?: defaults.ratePerSecond,
+                        concurrency = Integer.getInteger("iou.rest.concurrency", defaults.concurrency),
+                        recordingTimeoutSeconds = java.lang.Long.getLong("iou.rest.recordingTimeoutSeconds", defaults.recordingTimeoutSeconds))
+            }
+        }
+    }
+
+    /** The CPU time used by a node's process over the run, and its peak resident set size (not heap) while sampled. */
+    data class NodeUsage(val name: String, val cpuSeconds: Double, val peakRssMegabytes: Double)
+
+    data class Report(val config: Config,
+                      val elapsedSeconds: Double,
+                      val completed: Int,
+                      val failed: Int,
+                      val acceptedP50Millis: Double,
+                      val acceptedP99Millis: Double,
+                      val recordedP50Millis: Double,
+                      val recordedP99Millis: Double,
+                      val recordedP999Millis: Double,
+                      val nodes: List<NodeUsage>) {
+        val throughput: Double get() = completed / elapsedSeconds
+
+        /** The results as `name=value` lines in a fixed order, to be kept and diffed between builds. */
+        fun toProperties(): String {
+            val values = linkedMapOf<String, Any>(
+                    "requests" to config.requests,
+                    "ratePerSecond" to config.ratePerSecond,
+                    "concurrency" to config.concurrency,
+                    "elapsedSeconds" to elapsedSeconds,
+                    "completed" to completed,
+                    "failed" to failed,
+                    "throughput" to throughput,
+                    "accepted.p50Millis" to acceptedP50Millis,
+                    "accepted.p99Millis" to acceptedP99Millis,
+                    "recorded.p50Millis" to recordedP50Millis,
+                    "recorded.p99Millis" to recordedP99Millis,
+                    "recorded.p999Millis" to recordedP999Millis)
+            for (node in nodes) {
+                values["${node.name}.cpuSeconds"] = node.cpuSeconds
+                values["${node.name}.peakRssMegabytes"] = node.peakRssMegabytes
+            }
+            return values.map { "${it.key}=${it.value}" }.joinToString("\n")
+        }
+
+        override fun toString(): String {
+            val lines = ArrayList<String>()
+            lines.add(String.format("%d requests at %.1f/s, concurrency %d: %d recorded, %d failed, %.1f IOUs/s over %.1f s",
+                    config.requests, config.ratePerSecond, config.concurrency, completed, failed, throughput, elapsedSeconds))
+            lines.add(String.format("%-10s %10s %10s %10s", "", "p50 ms", "p99 ms", "p999 ms"))
+            lines.add(String.format("%-10s %10.1f %10.1f %10s", "accepted", acceptedP50Millis, acceptedP99Millis, "-"))
+            lines.add(String.format("%-10s %10.1f %10.1f %10.1f", "recorded", recordedP50Millis, recordedP99Millis, recordedP999Millis))
+            lines.add(String.format("%-12s %10s %14s", "node", "cpu s", "peak RSS MB"))
+            for (node in nodes) lines.add(String.format("%-12s %10.1f %14.1f", node.name, node.cpuSeconds, node.peakRssMegabytes))
+            lines.add("(peak RSS is the node process's resident memory from /proc, not its Java heap)")
+            return lines.joinToString("\n")
+        }
+    }
+
+    private val user = User("bench", "bench", permissions = setOf(
+            startFlowPermission<IOUCreationFlow.Initiator>(),
+            startFlowPermission<IOUTransferFlow.Initiator>()))
+
+    fun run(): Report {
+        return driver(isDebug = false) {
+            startNode("Controller", setOf(ServiceInfo(ValidatingNotaryService.type))).getOrThrow()
+            val nodes = Futures.allAsList(
+                    startNode("NodeA", rpcUsers = listOf(user)),
+                    startNode("NodeB", rpcUsers = listOf(user)),
+                    startNode("NodeC", rpcUsers = listOf(user))).getOrThrow()
+            val webservers = Futures.allAsList(nodes.map { startWebserver(it) }).getOrThrow()
+            val usage = nodes.map { ProcessSampler(it.nodeInfo.legalIdentity.name, it.process) }
+            measure(nodes, webservers, usage)
+        }
+    }
+
+    private fun measure(nodes: List<NodeHandle>, webservers: List<HostAndPort>, usage: List<ProcessSampler>): Report {
+        val pending = ConcurrentHashMap<Int, Long>()
+        val recorded = Collections.synchronizedList(ArrayList<Long>())
+        val accepted = Collections.synchronizedList(ArrayList<Long>())
+        val failures = Collections.synchronizedList(ArrayList<String>())
+        val inFlight = Semaphore(config.concurrency)
+        val done = CountDownLatch(config.requests)
+
+        // Each counterparty reports the IOUs its vault records; the value identifies the request which issued it.
+        for (node in nodes) {
+            val me = node.nodeInfo.legalIdentity
+            rpc(node).vaultAndUpdates().second.subscribe { update ->
+                val now = System.nanoTime()
+                for (produced in update.produced) {
+                    val iou = produced.state.data as? IOUState ?: continue
+                    if (iou.recipient != me) continue
+                    val due = pending.remove(iou.iouValue) ?: continue
+                    recorded.add(now - due)
+                    inFlight.release()
+                    done.countDown()
+                }
+            }
+        }
+
+        val parties = nodes.map { it.nodeInfo.legalIdentity }
+        val http = Executors.newFixedThreadPool(config.concurrency)
+        val interval = (TimeUnit.SECONDS.toNanos(1) / config.ratePerSecond).toLong()
+        usage.forEach { it.start() }
+        val start = System.nanoTime()
+        try {
+            for (i in 0 until config.requests) {
+                val due = start + i * interval
+                val wait = due - System.nanoTime()
+                if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait)
+                val value = i + 1
+                // A request is only sent once another completes, so one which never completes is a failure, not a hang.
+                if (!inFlight.tryAcquire(config.recordingTimeoutSeconds, TimeUnit.SECONDS)) {
+                    failures.add("IOU $value was not sent: ${config.concurrency} requests were still in flight after ${config.recordingTimeoutSeconds} s.")
+                    done.countDown()
+                    continue
+                }
+                val webserver = webservers[i % webservers.size]
+                val counterparty = parties[(i + 1) % parties.size]
+                pending[value] = due
+                http.execute {
+                    val failure = create(webserver, counterparty, value)
+                    if (failure == null) {
+                        accepted.add(System.nanoTime() - due)
+                    } else if (pending.remove(value) != null) {
+                        failures.add(failure)
+                        inFlight.release()
+                        done.countDown()
+                    }
+                }
+            }
+            if (!done.await(config.recordingTimeoutSeconds, TimeUnit.SECONDS)) {
+                for (value in pending.keys.toList()) {
+                    if (pending.remove(value) != null) failures.add("IOU $value was not recorded within ${config.recordingTimeoutSeconds} s.")
+                }
+            }
+        } finally {
+            http.shutdownNow()
+        }
+        val elapsed = (System.nanoTime() - start) / 1e9
+        usage.forEach { it.stop() }
+        failures.take(MAX_FAILURES_SHOWN).forEach { System.err.println(it) }
+
+        val acceptedSorted = sorted(accepted)
+        val recordedSorted = sorted(recorded)
+        return Report(config, elapsed, recordedSorted.size, failures.size,
+                percentile(acceptedSorted, 0.5), percentile(acceptedSorted, 0.99),
+                percentile(recordedSorted, 0.5), percentile(recordedSorted, 0.99), percentile(recordedSorted, 0.999),
+                usage.map { it.usage() })
+    }
+
+    /** Asks [webserver] to issue an IOU of [value] to [counterparty]. Returns why it refused, or null if it accepted. */
+    private fun create(webserver: HostAndPort, counterparty: Party, value: Int): String? {
+        val url = URL("http://$webserver/api/iou/create?counterparty=${counterparty.name}&value=$value")
+        try {
+            val connection = url.openConnection() as HttpURLConnection
+            connection.requestMethod = "POST"
+            connection.connectTimeout = HTTP_TIMEOUT_MILLIS
+            connection.readTimeout = HTTP_TIMEOUT_MILLIS
+            val status = connection.responseCode
+            val stream = if (status < 400) connection.inputStream else connection.errorStream
+            val body = stream?.use { it.reader().readText() } ?: ""
+            return if (status == HttpURLConnection.HTTP_ACCEPTED) null else "$url answered $status: $body"
+        } catch (e: Exception) {
+            return "$url failed: $e"
+        }
+    }
+
+    private fun rpc(node: NodeHandle): CordaRPCOps {
+        val client = node.rpcClientToNode()
+        client.start(user.username, user.password)
+        return client.proxy()
+    }
+
+    /**
+     * Samples the CPU time and resident memory of a node's process from `/proc`. Where the process id or `/proc` is
+     * not available, e.g. off Linux, the usage is reported as -1.
+     */
+    private class ProcessSampler(val name: String, process: Process) {
+        private val stat: File?
+        private val status: File?
+        @Volatile private var running = true
+        @Volatile private var peakResidentKilobytes = -1L
+        private var startCpuTicks = -1L
+        private var endCpuTicks = -1L
+        private val thread = Thread {
+            while (running) {
+                peakResidentKilobytes = Math.max(peakResidentKilobytes, residentKilobytes())
+                Thread.sleep(SAMPLE_INTERVAL_MILLIS)
+            }
+        }
+
+        init {
+            val pid = pidOf(process)
+            stat = if (pid == null) null else File("/proc/$pid/stat").takeIfReadable()
+            status = if (pid == null) null else File("/proc/$pid/status").takeIfReadable()
+        }
+
+        fun start() {
+            startCpuTicks = cpuTicks()
+            thread.isDaemon = true
+            thread.start()
+        }
+
+        fun stop() {
+            running = false
+            thread.join()
+            endCpuTicks = cpuTicks()
+        }
+
+        fun usage(): NodeUsage {
+            val cpuSeconds = if (startCpuTicks < 0 || endCpuTicks < 0) -1.0 else (endCpuTicks - startCpuTicks).toDouble() / CLOCK_TICKS_PER_SECOND
+            val residentMegabytes = if (peakResidentKilobytes < 0) -1.0 else peakResidentKilobytes / 1024.0
+            return NodeUsage(name, cpuSeconds, residentMegabytes)
+        }
+
+        /** User plus system time, the 14th and 15th fields of `stat`, counted after the parenthesised command name. */
+        private fun cpuTicks(): Long {
+            val line = read(stat) ?: return -1
+            val fields = line.substring(line.lastIndexOf(')') + 2).split(' ')
+            return fields[11].toLong() + fields[12].toLong()
+        }
+
+        private fun residentKilobytes(): Long {
+            val line = read(status)?.lines()?.firstOrNull { it.startsWith("VmRSS:") } ?: return -1
+            return line.substringAfter(':').trim().substringBefore(' ').toLong()
+        }
+
+        private fun read(file: File?): String? = try {
+            file?.readText()
+        } catch (e: Exception) {
+            null
+        }
+
+        private fun File.takeIfReadable(): File? = if (canRead()) this else null
+
+        /** [Process] only exposes its id from Java 9, so on Java 8 it is read from the UNIX implementation's field. */
+        private fun pidOf(process: Process): Int? = try {
+            val field = process.javaClass.getDeclaredField("pid")
+            field.isAccessible = true
+            field.getInt(process)
+        } catch (e: Exception) {
+            null
+        }
+    }
+
+    companion object {
+        const val SAMPLE_INTERVAL_MILLIS = 500L
+        const val HTTP_TIMEOUT_MILLIS = 30000
+        const val MAX_FAILURES_SHOWN = 10
+
+        /** The kernel's USER_HZ, which `/proc` counts CPU time in. It is 100 on every common Linux platform. */
+        const val CLOCK_TICKS_PER_SECOND = 100.0
+
+        private fun sorted(latencies: List<Long>): LongArray {
+            val sorted = synchronized(latencies) { latencies.toLongArray() }
+            Arrays.sort(sorted)
+            return sorted
+        }
+
+        /** The nearest-rank percentile of [sorted] nanosecond latencies, in milliseconds. */
+        fun percentile(sorted: LongArray, fraction: Double): Double {
+            if (sorted.isEmpty()) return 0.0
+            val rank = Math.max(Math.ceil(fraction * sorted.size).toInt(), 1)
+            return sorted[rank - 1] / 1e6
+        }
+
+        /** Runs the benchmark and prints its report, also writing it to the file named by `iou.rest.out` if set. */
+        @JvmStatic
+        fun main(args: Array<String>) {
+            val report = RestBenchmark(Config.fromSystemProperties()).run()
+            println(report)
+            val out = System.getProperty("iou.rest.out")
+            if (out != null) File(out).writeText(report.toProperties() + "\n")
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.iou.kotlin.api
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.google.common.util.concurrent.MoreExecutors
+import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.flow.IOUCreation.IOUCreationFlow
+import com.iou.kotlin.state.IOUState
+import net.corda.core.crypto.Party
+import net.corda.core.messaging.CordaRPCOps
+import java.io.InputStream
+import java.util.*
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Semaphore
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Imports IOUs from us to our counterparties from a stream of rows, which is read incrementally. Rows are grouped per
+ * counterparty into batches of up to [BATCH_SIZE] IOUs, each issued in one [IOUCreationFlow].
+ *
+ * At most [MAX_FLOWS_PER_COUNTERPARTY] flows run per counterparty, and [MAX_FLOWS] in all. While they are all busy we
+ * stop reading, which holds back the client's upload, so neither the rows waiting here nor the flows checkpointed on
+ * the node grow with the size of the import.
+ *
+ * Rows fail if they cannot be parsed or if their batch's flow fails. The first [MAX_REPORTED_FAILURES] failures are
+ * kept, along with the import's progress, for [status].
+ */
+class BulkImport(val id: String, private val services: CordaRPCOps) {
+    companion object {
+        const val BATCH_SIZE = 100
+        const val MAX_FLOWS_PER_COUNTERPARTY = 4
+        const val MAX_FLOWS = 32
+        const val MAX_REPORTED_FAILURES = 1000
+
+        private val mapper = ObjectMapper()
+    }
+
+    private class Row(val number: Long, val value: Int)
+
+    private class Counterparty(val party: Party) {
+        val pending = ArrayList<Row>(BATCH_SIZE)
+        val flows = Semaphore(MAX_FLOWS_PER_COUNTERPARTY)
+    }
+
+    private val me = services.nodeIdentity().legalIdentity
+    private val flows = Semaphore(MAX_FLOWS)
+    // Only used by the thread reading the rows. Unknown names map to null, so each name is looked up once.
+    private val counterparties = HashMap<String, Counterparty?>()
+
+    private val rowsRead = AtomicLong()
+    private val rowsIssued = AtomicLong()
+    private val rowsFailed = AtomicLong()
+    private val flowsRunning = AtomicInteger()
+    private val failures = ConcurrentLinkedQueue<Map<String, Any>>()
+    @Volatile private var finishedReading = false
+
+    /** Reads rows of `counterparty,value`, optionally under a header row. */
+    fun readCsv(input: InputStream) {
+        read(input) { number, line ->
+            val comma = line.lastIndexOf(',')
+            val counterparty = if (comma < 0) line else line.substring(0, comma).trim()
+            if (number == 1L && counterparty.equals("counterparty", ignoreCase = true)) return@read
+            rowsRead.incrementAndGet()
+            val value = if (comma < 0) null else parseInt(line.substring(comma + 1).trim())
+            add(number, counterparty, value)
+        }
+    }
+
+    /** Reads one JSON object of the form `{"counterparty": ..., "value": ...}` per line. */
+    fun readNdjson(input: InputStream) {
+        read(input) { number, line ->
+            rowsRead.incrementAndGet()
+            val row = try {
+                mapper.readTree(line)
+            } catch (e: Exception) {
+                fail(number, "Invalid JSON: ${e.message}")
+                return@read
+            }
+            val value = row.get("value")
+            add(number, row.get("counterparty")?.asText() ?: "", if (value != null && value.canConvertToInt()) value.asInt() else null)
+        }
+    }
+
+    private fun parseInt(value: String): Int? {
+        return try {
+            value.toInt()
+        } catch (e: NumberFormatException) {
+            null
+        }
+    }
+
+    private fun read(input: InputStream, parse: (Long, String) -> Unit) {
+        try {
+            var number = 0L
+            input.bufferedReader(Charsets.UTF_8).forEachLine { line ->
+                number++
+                if (line.isNotBlank()) parse(number, line)
+            }
+        } finally {
+            for (counterparty in counterparties.values) {
+                if (counterparty != null && counterparty.pending.isNotEmpty()) submit(counterparty)
+            }
+            finishedReading = true
+        }
+    }
+
+    private fun add(number: Long, name: String, value: Int?) {
+        if (value == null || value <= 0) return fail(number, "The value must be a positive integer.")
+        if (name !in counterparties) counterparties[name] = services.partyFromName(name)?.let { Counterparty(it) }
+        val counterparty = counterparties[name] ?: return fail(number, "Unknown counterparty: $name")
+        counterparty.pending.add(Row(number, value))
+        if (counterparty.pending.size == BATCH_SIZE) submit(counterparty)
+    }
+
+    private fun submit(counterparty: Counterparty) {
+        val rows = ArrayList(counterparty.pending)
+        counterparty.pending.clear()
+        counterparty.flows.acquire()
+        flows.acquire()
+
+        val ious = rows.map { IOUState(it.value, me, counterparty.party, IOUContract()) }
+        val handle = try {
+            services.startFlowDynamic(IOUCreationFlow.Initiator::class.java, ious, counterparty.party)
+        } catch (e: Exception) {
+            flows.release()
+            counterparty.flows.release()
+            for (row in rows) fail(row.number, e.message ?: e.toString())
+            return
+        }
+        handle.progress.subscribe().unsubscribe()
+        flowsRunning.incrementAndGet()
+
+        val result = handle.returnValue
+        result.addListener(Runnable {
+            try {
+                result.get()
+                rowsIssued.addAndGet(rows.size.toLong())
+            } catch (e: ExecutionException) {
+                for (row in rows) fail(row.number, e.cause?.message ?: e.toString())
+            } finally {
+                flowsRunning.decrementAndGet()
+                flows.release()
+                counterparty.flows.release()
+            }
+        }, MoreExecutors.directExecutor())
+    }
+
+    private fun fail(number: Long, error: String) {
+        if (rowsFailed.incrementAndGet() <= MAX_REPORTED_FAILURES) failures.add(mapOf("row" to number, "error" to error))
+    }
+
+    fun status(): Map<String, Any> {
+        val running = flowsRunning.get()
+        return mapOf(
+                "id" to id,
+                "done" to (finishedReading && running == 0),
+                "rowsRead" to rowsRead.get(),
+                "rowsIssued" to rowsIssued.get(),
+                "rowsFailed" to rowsFailed.get(),
+                "flowsRunning" to running,
+                "failures" to failures.toList())
+    }
+}
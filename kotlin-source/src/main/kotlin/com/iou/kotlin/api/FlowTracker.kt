@@ -0,0 +1,45 @@
+package com.iou.kotlin.api
+
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import com.google.common.util.concurrent.ListenableFuture
+import net.corda.core.messaging.FlowHandle
+import net.corda.core.transactions.SignedTransaction
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+
+/**
+ * Keeps track of the flows started through the API, so that clients can poll for a flow's outcome rather than hold a
+ * request, and a webserver thread, open for the lifetime of the flow. A flow is forgotten once nobody has asked after
+ * it for [RETENTION_HOURS].
+ */
+class FlowTracker {
+    companion object {
+        const val RETENTION_HOURS = 1L
+    }
+
+    private val flows: Cache<String, ListenableFuture<*>> = CacheBuilder.newBuilder()
+            .expireAfterAccess(RETENTION_HOURS, TimeUnit.HOURS)
+            .build()
+
+    fun track(handle: FlowHandle<*>): String {
+        val id = handle.id.uuid.toString()
+        flows.put(id, handle.returnValue)
+        // We only report the outcome, so we stop the node streaming us the flow's progress.
+        handle.progress.subscribe().unsubscribe()
+        return id
+    }
+
+    operator fun get(id: String): ListenableFuture<*>? = flows.getIfPresent(id)
+
+    /** The flow's status, and once it has completed, the id of the transaction it returned or the error it threw. */
+    fun status(id: String, result: ListenableFuture<*>): Map<String, Any?> {
+        if (!result.isDone) return mapOf("flowId" to id, "status" to "RUNNING")
+        return try {
+            val txId = (result.get() as? SignedTransaction)?.id?.toString()
+            mapOf("flowId" to id, "status" to "COMPLETED", "txId" to txId)
+        } catch (e: ExecutionException) {
+            mapOf("flowId" to id, "status" to "FAILED", "error" to (e.cause?.message ?: e.toString()))
+        }
+    }
+}
@@ -1,14 +1,322 @@
 package com.iou.kotlin.api
 
 import com.iou.kotlin.contract.IOUContract
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import com.google.common.util.concurrent.MoreExecutors
+import com.iou.kotlin.flow.FlowMetrics
 import com.iou.kotlin.flow.IOUCreation.IOUCreationFlow
+import com.iou.kotlin.flow.IOUTransfer.IOUTransferFlow
+import com.iou.kotlin.service.IOUPositionCache
 import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.StateRef
+import net.corda.core.crypto.Party
+import net.corda.core.crypto.SecureHash
+import net.corda.core.flows.FlowLogic
+import net.corda.core.getOrThrow
 import net.corda.core.messaging.CordaRPCOps
+import net.corda.core.messaging.FlowHandle
+import org.glassfish.jersey.server.ChunkedOutput
+import rx.Observable
+import java.io.InputStream
+import java.util.*
 import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
 import javax.ws.rs.*
+import javax.ws.rs.container.AsyncResponse
+import javax.ws.rs.container.Suspended
+import javax.ws.rs.core.Context
+import javax.ws.rs.core.EntityTag
 import javax.ws.rs.core.MediaType
+import javax.ws.rs.core.Request
 import javax.ws.rs.core.Response
+import javax.ws.rs.core.StreamingOutput
 
 // This API is accessible from /api/iou. All paths you specify are relative to this root.
 @javax.ws.rs.Path("iou")
-class IOUApi(val services: CordaRPCOps)
\ No newline at end of file
+class IOUApi(val services: CordaRPCOps) {
+    companion object {
+        const val MAX_PAGE_SIZE = 1000
+        const val MAX_WAIT_SECONDS = 60
+
+        private val stateRefPattern = Regex("([0-9A-Fa-f]+)\\((\\d+)\\)")
+    }
+
+    private val me: Party by lazy { services.nodeIdentity().legalIdentity }
+    // One subscription to the node's vault updates, shared by everything here which follows them and held only while
+    // any of them does. The node sends its whole vault along with each new subscription, which we drop straight away.
+    private val vaultUpdates = Observable.defer { services.vaultAndUpdates().second }.share()
+    private val events = IOUEventHub(vaultUpdates)
+    private val versions = VaultVersion(vaultUpdates)
+    private val reads = RequestCoalescer()
+    private val flows = FlowTracker()
+    private val imports: Cache<String, BulkImport> = CacheBuilder.newBuilder()
+            .expireAfterAccess(FlowTracker.RETENTION_HOURS, TimeUnit.HOURS)
+            .build()
+
+    /**
+     * Returns a page of the IOUs in our vault, in linearId order, optionally filtered by lender, borrower, value range
+     * and linearId. The response holds the page's IOUs and a `nextCursor`, which is passed as `cursor` to fetch the
+     * following page and is null on the last one.
+     *
+     * The page is picked on the node, which sends us only its IOUs, and its JSON is written to the response as each
+     * IOU is serialised, rather than built up in memory first. The response is tagged with the [VaultVersion] it was
+     * read at, and a request whose `If-None-Match` holds the current version is answered 304 without reading the
+     * vault. Identical requests made at the same time share one read.
+     */
+    @GET
+    @Path("ious")
+    @Produces(MediaType.APPLICATION_JSON)
+    fun getIOUs(@QueryParam("lender") lender: String?,
+                @QueryParam("borrower") borrower: String?,
+                @QueryParam("minValue") minValue: Int?,
+                @QueryParam("maxValue") maxValue: Int?,
+                @QueryParam("linearId") linearId: String?,
+                @QueryParam("cursor") cursor: String?,
+                @QueryParam("limit") @DefaultValue("100") limit: Int,
+                @Context request: Request): Response {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) throw badRequest("limit must be between 1 and $MAX_PAGE_SIZE.")
+        val query = IOUQuery(lender, borrower, minValue, maxValue, parseUUID("linearId", linearId))
+        val after = parseUUID("cursor", cursor)
+        val version = versions.current()
+        request.evaluatePreconditions(version)?.let { return it.tag(version).build() }
+
+        val key = listOf("ious", lender, borrower, minValue, maxValue, linearId, cursor, limit, version)
+        val (ious, nextCursor) = reads.coalesce(key) {
+            if (after == null) onNode(IOUQuery.PageFlow::class.java, query, limit)
+            else onNode(IOUQuery.PageFlow::class.java, query, after, limit)
+        }
+
+        val body = StreamingOutput { output ->
+            IOUJson.factory.createGenerator(output).use { generator ->
+                generator.writeStartObject()
+                generator.writeArrayFieldStart("ious")
+                for (iou in ious) IOUJson.write(generator, iou)
+                generator.writeEndArray()
+                generator.writeStringField("nextCursor", nextCursor?.toString())
+                generator.writeEndObject()
+            }
+        }
+        return Response.ok(body).tag(version).header("Cache-Control", "no-cache").build()
+    }
+
+    /**
+     * Returns our position against every counterparty with which we have an unconsumed IOU: the amount outstanding on
+     * the IOUs it sent us (`owed`) and on those we sent it (`owing`), their difference (`net`) and the number of IOUs.
+     * Positions only change with the IOUs, so the response is tagged with the [VaultVersion] as [getIOUs] is.
+     */
+    @GET
+    @Path("positions")
+    @Produces(MediaType.APPLICATION_JSON)
+    fun positions(@Context request: Request): Response {
+        return tagged(request) { version ->
+            val positions = reads.coalesce(listOf("positions", version)) { onNode(IOUPositionCache.PositionsFlow::class.java) }
+            positions.map { positionJson(it.key, it.value) }
+        }
+    }
+
+    /** As [positions], for the single counterparty named [name]; every amount is zero if there are no IOUs between us. */
+    @GET
+    @Path("positions/{name}")
+    @Produces(MediaType.APPLICATION_JSON)
+    fun position(@PathParam("name") name: String, @Context request: Request): Response {
+        return tagged(request) { version ->
+            val counterparty = reads.coalesce(listOf("party", name)) { party("name", name) }
+            val position = reads.coalesce(listOf("positions", counterparty, version)) {
+                onNode(IOUPositionCache.PositionFlow::class.java, counterparty)
+            }
+            positionJson(counterparty, position)
+        }
+    }
+
+    /**
+     * Rebuilds every position from the vault and compares it to the cached one, returning the counterparties whose
+     * positions differ. The check runs on the node, next to its vault. See [IOUPositionCache.check] for why a mismatch
+     * while flows are running may be transient.
+     */
+    @GET
+    @Path("positions/check")
+    @Produces(MediaType.APPLICATION_JSON)
+    fun checkPositions(): Map<String, Any> {
+        val mismatches = reads.coalesce(listOf("check", versions.current())) { onNode(IOUPositionCache.CheckFlow::class.java) }
+        return mapOf(
+                "consistent" to mismatches.isEmpty(),
+                "mismatches" to mismatches.map {
+                    mapOf("counterparty" to it.counterparty.name,
+                            "cached" to positionJson(it.counterparty, it.cached),
+                            "rebuilt" to positionJson(it.counterparty, it.rebuilt))
+                })
+    }
+
+    /**
+     * Returns the stage timings and completion rates of our node's flows recorded by [FlowMetrics], by metric name,
+     * e.g. `IOUTransferFlow.Initiator.notarise`. They are also published over JMX by the node.
+     */
+    @GET
+    @Path("metrics")
+    @Produces(MediaType.APPLICATION_JSON)
+    fun metrics() = onNode(FlowMetrics.Snapshot::class.java)
+
+    /**
+     * Streams IOUs as they are produced and consumed in our vault, as server-sent events of type `produced` and
+     * `consumed`. A client which falls behind either misses events, and is sent a `dropped` event with the number
+     * missed, or is disconnected if it passes `onOverflow=disconnect`. No webserver thread is held while streaming;
+     * see [IOUEventHub].
+     */
+    @GET
+    @Path("stream")
+    @Produces("text/event-stream")
+    fun stream(@QueryParam("onOverflow") @DefaultValue("drop") onOverflow: String): Response {
+        val policy = when (onOverflow) {
+            "drop" -> IOUEventHub.OverflowPolicy.DROP
+            "disconnect" -> IOUEventHub.OverflowPolicy.DISCONNECT
+            else -> throw badRequest("onOverflow must be 'drop' or 'disconnect'.")
+        }
+        val output = ChunkedOutput<String>(String::class.java)
+        events.connect(policy, output)
+        return Response.ok(output).header("Cache-Control", "no-cache").build()
+    }
+
+    /**
+     * Starts issuing an IOU of [value] from us to [counterparty]. Returns 202 as soon as the flow has started, with
+     * the flow's id and the location at which to poll for its outcome.
+     */
+    @POST
+    @Path("create")
+    @Produces(MediaType.APPLICATION_JSON)
+    fun create(@QueryParam("counterparty") counterparty: String?, @QueryParam("value") value: Int?): Response {
+        if (value == null || value <= 0) throw badRequest("value must be a positive integer.")
+        val otherParty = party("counterparty", counterparty)
+        val iou = IOUState(value, me, otherParty, IOUContract())
+        return accepted(services.startFlowDynamic(IOUCreationFlow.Initiator::class.java, iou, otherParty))
+    }
+
+    /**
+     * Starts transferring the IOU at [stateRef], written as `<txhash>(<index>)` like the `ref` of the IOUs listed by
+     * [getIOUs], to [newRecipient]. Returns 202 as soon as the flow has started, like [create].
+     */
+    @POST
+    @Path("transfer")
+    @Produces(MediaType.APPLICATION_JSON)
+    fun transfer(@QueryParam("stateRef") stateRef: String?, @QueryParam("newRecipient") newRecipient: String?): Response {
+        val match = stateRefPattern.matchEntire(stateRef ?: "") ?: throw badRequest("Invalid stateRef: $stateRef")
+        val ref = StateRef(SecureHash.parse(match.groupValues[1]), match.groupValues[2].toInt())
+        return accepted(services.startFlowDynamic(IOUTransferFlow.Initiator::class.java, ref, party("newRecipient", newRecipient)))
+    }
+
+    /**
+     * Returns the status of a flow started through this API and, once it has completed, the id of its transaction or
+     * its error. With `wait`, the response is held until the flow completes or `wait` seconds pass, without holding a
+     * webserver thread meanwhile.
+     */
+    @GET
+    @Path("flows/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    fun flowStatus(@PathParam("id") id: String,
+                   @QueryParam("wait") @DefaultValue("0") wait: Int,
+                   @Suspended response: AsyncResponse) {
+        val result = flows[id]
+        if (result == null) {
+            response.resume(Response.status(Response.Status.NOT_FOUND).entity("Unknown flow $id.").build())
+        } else if (result.isDone || wait <= 0) {
+            response.resume(flows.status(id, result))
+        } else {
+            response.setTimeout(Math.min(wait, MAX_WAIT_SECONDS).toLong(), TimeUnit.SECONDS)
+            response.setTimeoutHandler { it.resume(flows.status(id, result)) }
+            result.addListener(Runnable { response.resume(flows.status(id, result)) }, MoreExecutors.directExecutor())
+        }
+    }
+
+    /**
+     * Issues IOUs from us to our counterparties, one per row of `counterparty,value`, streamed as CSV. The request
+     * completes once every row has been read and handed to a flow; see [BulkImport] for how the flows are batched and
+     * paced. Progress is listed by [bulkImports] during the upload, and by [bulkStatus] once the response gives the id.
+     */
+    @POST
+    @Path("bulk")
+    @Consumes("text/csv")
+    @Produces(MediaType.APPLICATION_JSON)
+    fun bulkCsv(body: InputStream): Response = bulk { it.readCsv(body) }
+
+    /** As [bulkCsv], for rows streamed as newline-delimited JSON objects with `counterparty` and `value` fields. */
+    @POST
+    @Path("bulk")
+    @Consumes("application/x-ndjson")
+    @Produces(MediaType.APPLICATION_JSON)
+    fun bulkNdjson(body: InputStream): Response = bulk { it.readNdjson(body) }
+
+    /** The status of every recent bulk import, including any still being uploaded. */
+    @GET
+    @Path("bulk")
+    @Produces(MediaType.APPLICATION_JSON)
+    fun bulkImports() = imports.asMap().values.map { it.status() }
+
+    @GET
+    @Path("bulk/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    fun bulkStatus(@PathParam("id") id: String): Response {
+        val job = imports.getIfPresent(id) ?: return Response.status(Response.Status.NOT_FOUND).entity("Unknown import $id.").build()
+        return Response.ok(job.status()).build()
+    }
+
+    private fun bulk(read: (BulkImport) -> Unit): Response {
+        val job = BulkImport(UUID.randomUUID().toString(), services)
+        imports.put(job.id, job)
+        read(job)
+        return Response.accepted(job.status()).header("Location", "/api/iou/bulk/${job.id}").build()
+    }
+
+    private fun accepted(handle: FlowHandle<*>): Response {
+        val id = flows.track(handle)
+        return Response.accepted(mapOf("flowId" to id))
+                .header("Location", "/api/iou/flows/$id")
+                .build()
+    }
+
+    /**
+     * Runs [flow] on the node and returns its result. The API runs in its own process, so this is how it reads state
+     * which only the node holds, such as its services.
+     */
+    private fun <T : Any> onNode(flow: Class<out FlowLogic<T>>, vararg args: Any?): T {
+        val handle = services.startFlowDynamic(flow, *args)
+        handle.progress.subscribe().unsubscribe()
+        return handle.returnValue.getOrThrow()
+    }
+
+    /**
+     * Answers 304 if the request's `If-None-Match` holds the current [VaultVersion], and otherwise builds the body with
+     * [read], which is given that version so that it can coalesce reads of it, tagged with that version.
+     */
+    private fun tagged(request: Request, read: (EntityTag) -> Any): Response {
+        val version = versions.current()
+        request.evaluatePreconditions(version)?.let { return it.tag(version).build() }
+        return Response.ok(read(version)).tag(version).header("Cache-Control", "no-cache").build()
+    }
+
+    private fun positionJson(counterparty: Party, position: IOUPositionCache.Position): Map<String, Any> {
+        return mapOf(
+                "counterparty" to counterparty.name,
+                "owed" to position.owed,
+                "owing" to position.owing,
+                "net" to position.net,
+                "count" to position.count)
+    }
+
+    private fun party(name: String, value: String?): Party {
+        return services.partyFromName(value ?: throw badRequest("$name is required."))
+                ?: throw badRequest("Unknown $name: $value")
+    }
+
+    private fun parseUUID(name: String, value: String?): UUID? {
+        if (value == null) return null
+        try {
+            return UUID.fromString(value)
+        } catch (e: IllegalArgumentException) {
+            throw badRequest("Invalid $name: $value")
+        }
+    }
+
+    private fun badRequest(message: String): WebApplicationException {
+        return WebApplicationException(Response.status(Response.Status.BAD_REQUEST).entity(message).build())
+    }
+}
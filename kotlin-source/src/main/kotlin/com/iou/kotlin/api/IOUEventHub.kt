@@ -0,0 +1,162 @@
+package com.iou.kotlin.api
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.ContractState
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.node.services.Vault
+import org.glassfish.jersey.server.ChunkedOutput
+import rx.Observable
+import rx.Subscription
+import java.io.IOException
+import java.io.StringWriter
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Fans IOU vault [updates] out to any number of server-sent event clients. The hub subscribes to [updates] when the
+ * first client connects and unsubscribes when the last one leaves. Each event is serialised once, whatever the number
+ * of clients.
+ *
+ * No thread is held per client. An update is put into every client's bounded buffer on the thread which delivers it,
+ * without blocking, and each client's buffer is drained into its [ChunkedOutput] by a task on the shared [writers].
+ * A client which falls so far behind that its buffer fills either misses the events that do not fit, and is told how
+ * many it missed, or is disconnected, according to its [OverflowPolicy]. That is decided as the update is delivered.
+ *
+ * Every [KEEPALIVE_SECONDS] an idle client is sent a keepalive comment, which is also how we notice a client has gone.
+ */
+class IOUEventHub(private val updates: Observable<Vault.Update>, private val writers: Executor = defaultWriters()) {
+    companion object {
+        const val BUFFER_SIZE = 1024
+        const val KEEPALIVE_SECONDS = 15L
+        const val WRITER_THREADS = 4
+
+        private const val KEEPALIVE = ": keepalive\n\n"
+
+        private fun defaultWriters(): Executor = Executors.newFixedThreadPool(WRITER_THREADS,
+                ThreadFactoryBuilder().setNameFormat("iou-event-writer-%d").setDaemon(true).build())
+    }
+
+    enum class OverflowPolicy { DROP, DISCONNECT }
+
+    private val clients = CopyOnWriteArrayList<Client>()
+    private var subscription: Subscription? = null
+    private var keepalives: Subscription? = null
+
+    /** The number of clients connected. */
+    val connected: Int get() = clients.size
+
+    /** Streams IOU events to [output] from now on, until the client goes away or [Client.close] is called. */
+    fun connect(policy: OverflowPolicy, output: ChunkedOutput<String>): Client {
+        val client = Client(policy, output)
+        synchronized(this) {
+            clients.add(client)
+            if (subscription == null) {
+                subscription = updates.subscribe({ publish(it) }, { disconnectAll() })
+                keepalives = Observable.interval(KEEPALIVE_SECONDS, TimeUnit.SECONDS).subscribe { clients.forEach { it.keepalive() } }
+            }
+        }
+        return client
+    }
+
+    private fun disconnected(client: Client) {
+        synchronized(this) {
+            if (!clients.remove(client) || clients.isNotEmpty()) return
+            release()
+        }
+    }
+
+    private fun release() {
+        subscription?.unsubscribe()
+        keepalives?.unsubscribe()
+        subscription = null
+        keepalives = null
+    }
+
+    private fun publish(update: Vault.Update) {
+        if (clients.isEmpty()) return
+        for (stateAndRef in update.consumed) event("consumed", stateAndRef)?.let { broadcast(it) }
+        for (stateAndRef in update.produced) event("produced", stateAndRef)?.let { broadcast(it) }
+    }
+
+    private fun broadcast(event: String) {
+        for (client in clients) client.offer(event)
+    }
+
+    /** The vault updates have failed, e.g. because the node went away. The next client to connect resubscribes. */
+    private fun disconnectAll() {
+        synchronized(this) { release() }
+        for (client in clients) client.close()
+    }
+
+    private fun event(type: String, stateAndRef: StateAndRef<ContractState>): String? {
+        if (stateAndRef.state.data !is IOUState) return null
+        val json = StringWriter()
+        IOUJson.factory.createGenerator(json).use { generator ->
+            @Suppress("UNCHECKED_CAST")
+            IOUJson.write(generator, stateAndRef as StateAndRef<IOUState>)
+        }
+        return "event: $type\ndata: $json\n\n"
+    }
+
+    inner class Client(private val policy: OverflowPolicy, private val output: ChunkedOutput<String>) {
+        private val buffer = ArrayBlockingQueue<String>(BUFFER_SIZE)
+        private val dropped = AtomicLong()
+        private val draining = AtomicBoolean()
+        private val closed = AtomicBoolean()
+
+        /** Buffers [event] and schedules it to be written. Never blocks, so it is safe on the thread delivering updates. */
+        fun offer(event: String) {
+            if (closed.get()) return
+            if (!buffer.offer(event)) {
+                when (policy) {
+                    OverflowPolicy.DROP -> dropped.incrementAndGet()
+                    OverflowPolicy.DISCONNECT -> return close()
+                }
+            }
+            drain()
+        }
+
+        fun keepalive() {
+            if (buffer.isEmpty() && buffer.offer(KEEPALIVE)) drain()
+        }
+
+        fun close() {
+            if (!closed.compareAndSet(false, true)) return
+            disconnected(this)
+            try {
+                output.close()
+            } catch (e: IOException) {
+                // The client has already gone.
+            }
+        }
+
+        /** Starts a task writing out the buffer, unless one is already running; only one runs per client at a time. */
+        private fun drain() {
+            if (!closed.get() && draining.compareAndSet(false, true)) writers.execute { write() }
+        }
+
+        private fun write() {
+            try {
+                while (!closed.get()) {
+                    val event = buffer.poll() ?: break
+                    val missed = dropped.getAndSet(0)
+                    if (missed > 0) output.write("event: dropped\ndata: $missed\n\n")
+                    output.write(event)
+                }
+            } catch (e: IOException) {
+                // The client has disconnected.
+                close()
+            } finally {
+                draining.set(false)
+            }
+            // An event buffered after our last poll, but before we were done, would otherwise wait for the next one.
+            if (buffer.isNotEmpty()) drain()
+        }
+    }
+}
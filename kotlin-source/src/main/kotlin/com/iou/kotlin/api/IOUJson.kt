@@ -0,0 +1,26 @@
+package com.iou.kotlin.api
+
+import com.fasterxml.jackson.core.JsonFactory
+import com.fasterxml.jackson.core.JsonGenerator
+import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.StateAndRef
+
+/**
+ * Writes IOUs field by field to a [JsonGenerator], so that responses can be streamed to the client as they are
+ * produced instead of being mapped to a tree and serialised in one go.
+ */
+object IOUJson {
+    val factory: JsonFactory = JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+
+    fun write(generator: JsonGenerator, stateAndRef: StateAndRef<IOUState>) {
+        val iou = stateAndRef.state.data
+        generator.writeStartObject()
+        generator.writeStringField("linearId", iou.linearId.id.toString())
+        generator.writeStringField("ref", stateAndRef.ref.toString())
+        generator.writeStringField("lender", iou.recipient.name)
+        generator.writeStringField("borrower", iou.sender.name)
+        generator.writeNumberField("value", iou.iouValue)
+        generator.writeNumberField("paid", iou.paid)
+        generator.writeEndObject()
+    }
+}
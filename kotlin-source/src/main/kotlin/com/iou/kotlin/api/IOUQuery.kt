@@ -0,0 +1,83 @@
+package com.iou.kotlin.api
+
+import co.paralleluniverse.fibers.Suspendable
+import com.iou.kotlin.service.IOUQueryService
+import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.ContractState
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.flows.FlowLogic
+import java.util.*
+
+/**
+ * The filters accepted by the IOU query endpoints; a null filter matches every IOU. The lender of an IOU is its
+ * recipient and the borrower is its sender, who settles it.
+ *
+ * The web API runs in its own process, so it pages through the IOUs by starting a [PageFlow] on the node over RPC.
+ */
+class IOUQuery(val lender: String?,
+               val borrower: String?,
+               val minValue: Int?,
+               val maxValue: Int?,
+               val linearId: UUID?) {
+    fun matches(iou: IOUState): Boolean {
+        return (lender == null || iou.recipient.name == lender) &&
+                (borrower == null || iou.sender.name == borrower) &&
+                (minValue == null || iou.iouValue >= minValue) &&
+                (maxValue == null || iou.iouValue <= maxValue) &&
+                (linearId == null || iou.linearId.id == linearId)
+    }
+
+    /**
+     * The first [limit] IOUs in [states] which match and whose linearId comes after [cursor], in linearId order.
+     *
+     * The page is picked in a single pass with a heap bounded to [limit], so memory grows with the page rather than
+     * with the number of matches, and a cursor remains valid while IOUs are issued or consumed between pages.
+     */
+    fun page(states: Iterable<StateAndRef<ContractState>>, cursor: UUID?, limit: Int): List<StateAndRef<IOUState>> {
+        val heap = PriorityQueue<StateAndRef<IOUState>>(limit + 1, Collections.reverseOrder(byLinearId))
+        for (stateAndRef in states) {
+            val iou = stateAndRef.state.data as? IOUState ?: continue
+            if (cursor != null && iou.linearId.id <= cursor) continue
+            if (!matches(iou)) continue
+            @Suppress("UNCHECKED_CAST")
+            heap.add(stateAndRef as StateAndRef<IOUState>)
+            if (heap.size > limit) heap.poll()
+        }
+        return heap.sortedWith(byLinearId)
+    }
+
+    /** A page of IOUs, and the cursor with which to fetch the next one, which is null on the last page. */
+    data class Page(val ious: List<StateAndRef<IOUState>>, val nextCursor: UUID?)
+
+    /**
+     * Returns the first [limit] IOUs matching [query] whose linearId comes after [cursor], read from the node's
+     * [IOUQueryService], so that only the page is sent over RPC. A query by value range or by party only visits the
+     * IOUs in that range or of that party.
+     */
+    class PageFlow(val query: IOUQuery, val cursor: UUID?, val limit: Int) : FlowLogic<Page>() {
+        constructor(query: IOUQuery, limit: Int) : this(query, null, limit)
+
+        @Suspendable
+        override fun call(): Page {
+            // We ask for one more IOU than the page holds to learn whether there is a next page.
+            val page = read(IOUQueryService.of(serviceHub), limit + 1)
+            val onPage = page.take(limit)
+            return Page(onPage, if (page.size > limit) onPage.last().state.data.linearId.id else null)
+        }
+
+        private fun read(index: IOUQueryService, limit: Int): List<StateAndRef<IOUState>> {
+            if (query.linearId != null) return query.page(listOfNotNull(index.byLinearId(query.linearId)), cursor, limit)
+            val sender = query.borrower?.let { party(it) ?: return emptyList() }
+            val recipient = query.lender?.let { party(it) ?: return emptyList() }
+            return index.page(sender, recipient, query.minValue, query.maxValue, cursor, limit) { query.matches(it) }
+        }
+
+        private fun party(name: String) = serviceHub.identityService.partyFromName(name)
+    }
+
+    companion object {
+        val byLinearId = Comparator<StateAndRef<IOUState>> { a, b ->
+            a.state.data.linearId.id.compareTo(b.state.data.linearId.id)
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.iou.kotlin.api
+
+import com.google.common.util.concurrent.SettableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+
+/**
+ * Lets identical requests which arrive while one is being answered share its answer, so that a burst of clients asking
+ * for the same thing costs one round of RPC calls to the node rather than one per client.
+ *
+ * Only requests in flight at the same time are shared: nothing is kept once the answer has been handed out. Callers
+ * include in the key whatever the answer depends on, such as the [VaultVersion] it was read at.
+ */
+class RequestCoalescer {
+    private val inFlight = ConcurrentHashMap<Any, SettableFuture<Any?>>()
+
+    /**
+     * Returns the answer to the request identified by [key], calling [load] for it unless an identical request is
+     * already doing so, in which case its answer, or the exception it threw, is shared.
+     */
+    fun <T> coalesce(key: Any, load: () -> T): T {
+        val mine = SettableFuture.create<Any?>()
+        val existing = inFlight.putIfAbsent(key, mine)
+        if (existing != null) {
+            try {
+                @Suppress("UNCHECKED_CAST")
+                return existing.get() as T
+            } catch (e: ExecutionException) {
+                throw e.cause ?: e
+            }
+        }
+        try {
+            val answer = load()
+            mine.set(answer)
+            return answer
+        } catch (e: Throwable) {
+            mine.setException(e)
+            throw e
+        } finally {
+            inFlight.remove(key, mine)
+        }
+    }
+
+    /** How many distinct requests are being answered right now. */
+    val size: Int get() = inFlight.size
+}
@@ -0,0 +1,45 @@
+package com.iou.kotlin.api
+
+import com.iou.kotlin.state.IOUState
+import net.corda.core.node.services.Vault
+import rx.Observable
+import rx.Subscription
+import java.util.*
+import java.util.concurrent.atomic.AtomicLong
+import javax.ws.rs.core.EntityTag
+
+/**
+ * A version of the IOUs in the node's vault, which advances whenever a vault update produces or consumes an IOU. Read
+ * endpoints tag their responses with it, so that a client which already holds the current version is answered 304.
+ *
+ * The version is counted from a single subscription to the node's vault [updates], made on first use. Each subscription
+ * starts a new epoch, so that neither a restarted webserver nor one which lost its subscription, and so may have missed
+ * updates, can hand out a tag which an earlier response already carried.
+ */
+class VaultVersion(private val updates: Observable<Vault.Update>) {
+    private val random = Random()
+    private val count = AtomicLong()
+    private var subscription: Subscription? = null
+    private var epoch = 0L
+
+    /** The current version, as an entity tag. Read it before reading the vault, so that a tag is never newer than its body. */
+    fun current(): EntityTag {
+        synchronized(this) {
+            if (subscription == null) {
+                epoch = random.nextLong() and Long.MAX_VALUE
+                subscription = updates.subscribe({ advance(it) }, { lost() })
+            }
+            return EntityTag("${java.lang.Long.toString(epoch, 36)}-${count.get()}")
+        }
+    }
+
+    private fun advance(update: Vault.Update) {
+        if (update.produced.any { it.state.data is IOUState } || update.consumed.any { it.state.data is IOUState })
+            count.incrementAndGet()
+    }
+
+    /** The subscription has failed, e.g. because the node went away. The next read resubscribes, in a new epoch. */
+    private fun lost() {
+        synchronized(this) { subscription = null }
+    }
+}
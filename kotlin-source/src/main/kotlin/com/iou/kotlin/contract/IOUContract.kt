@@ -1,55 +1,158 @@
 package com.iou.kotlin.contract
 
 import com.iou.kotlin.state.IOUState
+import net.corda.contracts.asset.Cash
 import net.corda.core.contracts.*
+import net.corda.core.crypto.CompositeKey
+import net.corda.core.crypto.Party
 import net.corda.core.crypto.SecureHash
+import java.util.*
 
 class IOUContract : Contract {
     /**
      * The verify() function of all the states' contracts must not throw an exception for a transaction to be
      * considered valid.
+     *
+     * The IOU states in the transaction are grouped by [IOUState.linearId] once, and every group is then checked
+     * against the transaction's IOU command in a single pass. Commands belonging to other contracts (e.g. cash) are
+     * ignored here and verified by their own contracts.
      */
     override fun verify(tx: TransactionForContract) {
-//        tx.commands.requireSingleCommand<Commands.Create>()
+        val command = tx.commands.requireSingleCommand<Commands>()
+        val signers = command.signers.toSet()
+        val groups = tx.groupStates(IOUState::linearId)
 
-        requireThat {
-            "Command should be included" by (tx.commands.isNotEmpty())
-        }
-
-        tx.commands.forEach {
-            val commandData = it.value
-            if (commandData is Commands.Create) {
-                requireThat {
-                    "No inputs should be consumed when issuing an IOU." by (tx.inputs.isEmpty())
-                    "Only one output state should be created." by (tx.outputs.size == 1)
-                    val output = tx.outputs.single() as IOUState
+        when (command.value) {
+            is Commands.Create -> requireThat {
+                "At least one output state should be created." by (groups.isNotEmpty())
+                for ((inputs, outputs) in groups) {
+                    "No inputs should be consumed when issuing an IOU." by (inputs.isEmpty())
+                    "Only one output state should be created." by (outputs.size == 1)
+                    val output = outputs.single()
                     "The IOU's value must be non-negative." by (output.iouValue > 0)
-                    "All of the participants must be signers." by (tx.commands.single().signers.containsAll(output.participants))
+                    "All of the participants must be signers." by (signers.containsAll(output.participants))
                 }
             }
-            else if (commandData is Commands.Transfer) {
-                requireThat {
-                    "One input should be consumed when transferring an IOU." by (tx.inputs.size == 1)
-                    "Failed requirement: Only one output state should be created." by (tx.outputs.size == 1)
-                    val output = tx.outputs.single() as IOUState
-                    val input = tx.inputs.single() as IOUState
+            is Commands.Transfer -> requireThat {
+                "At least one IOU should be transferred." by (groups.isNotEmpty())
+                for ((inputs, outputs) in groups) {
+                    "One input should be consumed when transferring an IOU." by (inputs.size == 1)
+                    "Only one output state should be created." by (outputs.size == 1)
+                    val input = inputs.single()
+                    val output = outputs.single()
                     "The IOU's value must be non-negative." by (output.iouValue > 0)
                     "The input and output IOUs must have the same value." by (input.iouValue == output.iouValue)
                     "The input and output IOUs must have the same sender." by (input.sender == output.sender)
                     "The input and output IOUs must have different recipients." by (input.recipient != output.recipient)
-                    "All of the participants must be signers." by (it.signers.containsAll(tx.inputs.single().participants))
-                    "All of the participants must be signers." by (it.signers.containsAll(tx.outputs.single().participants))
+                    "All of the participants must be signers." by (signers.containsAll(input.participants))
+                    "All of the participants must be signers." by (signers.containsAll(output.participants))
+                }
+            }
+            is Commands.Compact -> requireThat {
+                "At least one IOU should be compacted." by (groups.isNotEmpty())
+
+                // An IOU is compacted in two transactions: one consumes it, and one with no inputs reissues it, so that
+                // the reissued IOU's backchain starts afresh. The contract cannot link the two, but as with issuance
+                // neither can be done without the signatures of both the sender and the recipient.
+                val exits = groups.count { it.inputs.isNotEmpty() }
+                "IOUs must either all be consumed or all be reissued." by (exits == 0 || exits == groups.size)
+                for ((inputs, outputs) in groups) {
+                    "Each IOU must be either consumed or reissued." by (inputs.size + outputs.size == 1)
+                    val iou = inputs.singleOrNull() ?: outputs.single()
+                    "The IOU's value must be non-negative." by (iou.iouValue > 0)
+                    "All of the participants must be signers." by (signers.containsAll(iou.participants))
+                }
+            }
+            is Commands.Net -> requireThat {
+                "At least one IOU should be netted." by (groups.any { it.inputs.isNotEmpty() })
+
+                // The IOUs consumed are replaced by residual IOUs. Every party must be owed (or owe) as much overall
+                // afterwards as before, counting only the amounts outstanding on the IOUs consumed.
+                val before = HashMap<Party, Long>()
+                val after = HashMap<Party, Long>()
+                val pairs = HashSet<Set<Party>>()
+                val residuals = ArrayList<IOUState>()
+                for ((inputs, outputs) in groups) {
+                    "Each IOU must be either netted or a residual." by (inputs.size + outputs.size == 1)
+                    val input = inputs.singleOrNull()
+                    val iou = input ?: outputs.single()
+                    "All of the participants must be signers." by (signers.containsAll(iou.participants))
+                    if (input != null) {
+                        before.addPosition(input.sender, input.recipient, input.outstanding.toLong())
+                    } else {
+                        "Residual IOUs must have a positive value." by (iou.iouValue > 0)
+                        "Residual IOUs must not have been paid." by (iou.paid == 0)
+                        "A residual IOU must be between two different parties." by (iou.sender != iou.recipient)
+                        "There must be at most one residual IOU per pair of parties." by (pairs.add(setOf(iou.sender, iou.recipient)))
+                        after.addPosition(iou.sender, iou.recipient, iou.iouValue.toLong())
+                        residuals += iou
+                    }
+                }
+                "Residual IOUs must be between parties to the netted IOUs." by
+                        (residuals.all { it.sender in before && it.recipient in before })
+                "Netting must preserve every party's net position." by
+                        (before.filterValues { it != 0L } == after.filterValues { it != 0L })
+            }
+            is Commands.Settle -> requireThat {
+                "At least one IOU should be settled." by (groups.isNotEmpty())
+
+                // Several IOUs, possibly with different recipients, may be settled together. The amounts settled are
+                // accumulated per recipient and then matched against the cash that recipient receives.
+                val settledByRecipient = HashMap<CompositeKey, Long>()
+                for ((inputs, outputs) in groups) {
+                    "There must be one input IOU." by (inputs.size == 1)
+                    "There must be at most one output IOU." by (outputs.size <= 1)
+                    val input = inputs.single()
+                    "All of the participants must be signers." by (signers.containsAll(input.participants))
+                    val output = outputs.singleOrNull()
+                    val settled = if (output == null) input.outstanding else {
+                        // Compared field by field: the states' contracts are distinct instances once deserialised.
+                        "The only property which may change is 'paid'." by (output.iouValue == input.iouValue &&
+                                output.sender == input.sender && output.recipient == input.recipient &&
+                                output.linearId == input.linearId)
+                        "The amount settled cannot be more than the amount outstanding." by (output.paid <= input.iouValue)
+                        "There must be no output IOU as it has been fully settled." by (output.paid < input.iouValue)
+                        "The amount settled must be positive." by (output.paid > input.paid)
+                        output.paid - input.paid
+                    }
+                    val recipient = input.recipient.owningKey
+                    settledByRecipient[recipient] = (settledByRecipient[recipient] ?: 0L) + settled
+                }
+
+                // Cash paid to each owner, summed once over the outputs.
+                val cashPaid = HashMap<CompositeKey, Long>()
+                for (output in tx.outputs) {
+                    if (output is Cash.State) cashPaid[output.owner] = (cashPaid[output.owner] ?: 0L) + output.amount.quantity
+                }
+                "There must be output cash." by (cashPaid.isNotEmpty())
+                for ((recipient, settled) in settledByRecipient) {
+                    val paid = cashPaid[recipient] ?: 0L
+                    "There must be output cash paid to the recipient." by (paid > 0)
+                    "The cash paid to the recipient must equal the amount settled." by (paid == settled * CASH_UNITS_PER_IOU_UNIT)
                 }
             }
         }
+    }
+
+    /** Adds [amount], owed by [sender] to [recipient], to each party's net position. */
+    private fun HashMap<Party, Long>.addPosition(sender: Party, recipient: Party, amount: Long) {
+        this[recipient] = (this[recipient] ?: 0L) + amount
+        this[sender] = (this[sender] ?: 0L) - amount
+    }
 
+    companion object {
+        /** IOU values are whole currency units, whereas cash amounts are counted in hundredths (e.g. cents). */
+        const val CASH_UNITS_PER_IOU_UNIT = 100L
     }
 
     interface Commands : CommandData {
         class Create : TypeOnlyCommandData(), Commands
         class Transfer : TypeOnlyCommandData(), Commands
+        class Settle : TypeOnlyCommandData(), Commands
+        class Compact : TypeOnlyCommandData(), Commands
+        class Net : TypeOnlyCommandData(), Commands
     }
 
     /** This is a reference to the underlying legal contract template and associated parameters.  */
     override val legalContractReference = SecureHash.sha256("IOU contract template and params")
-}
\ No newline at end of file
+}
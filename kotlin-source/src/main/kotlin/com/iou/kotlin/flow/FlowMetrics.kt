@@ -0,0 +1,104 @@
+package com.iou.kotlin.flow
+
+import co.paralleluniverse.fibers.Suspendable
+import com.codahale.metrics.JmxReporter
+import com.codahale.metrics.MetricRegistry
+import net.corda.core.flows.FlowLogic
+import java.util.*
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+
+/**
+ * Times the stages of our flows (building, verifying and signing transactions, waiting on counterparties, notarising
+ * and finalising) into a histogram per flow and stage, together with a meter of how often each flow completes.
+ *
+ * The metrics are published over JMX, in the `com.iou.kotlin.flows` domain, and returned over RPC by the [Snapshot]
+ * flow, which backs the web API's `/metrics`. They are kept for the whole JVM, so when several nodes run in one (e.g.
+ * in a [MockNetwork]) their flows are timed together.
+ *
+ * Each histogram keeps a bounded, exponentially decaying sample of its timings, so recording one is a few hundred
+ * nanoseconds and memory does not grow with the number of flows. To cut that further, only a fraction of flow runs,
+ * set with the `iou.metrics.sampleRate` system property, are timed; the rest only count towards the meters.
+ */
+object FlowMetrics {
+    const val DEFAULT_SAMPLE_RATE = 1.0
+    const val JMX_DOMAIN = "com.iou.kotlin.flows"
+
+    val sampleRate: Double = System.getProperty("iou.metrics.sampleRate")?.toDouble() ?: DEFAULT_SAMPLE_RATE
+
+    val registry = MetricRegistry()
+
+    init {
+        JmxReporter.forRegistry(registry)
+                .inDomain(JMX_DOMAIN)
+                .convertDurationsTo(TimeUnit.MILLISECONDS)
+                .build()
+                .start()
+    }
+
+    /** Starts timing a run of [flow], whose metrics are named after its class, e.g. `IOUCreationFlow.Initiator`. */
+    fun start(flow: FlowLogic<*>): Stopwatch {
+        val name = flow.javaClass.name.substringAfterLast('.').replace('$', '.')
+        return Stopwatch(name, sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate)
+    }
+
+    /**
+     * Every histogram and meter recorded so far, by name: the count and the 50th, 99th and 99.9th percentile in
+     * milliseconds of each stage, and the count and one-minute rate per second of each flow's completions.
+     */
+    fun snapshot(): Map<String, Map<String, Number>> {
+        val metrics = TreeMap<String, Map<String, Number>>()
+        for ((name, timer) in registry.timers) {
+            val timings = timer.snapshot
+            metrics[name] = linkedMapOf<String, Number>(
+                    "count" to timer.count,
+                    "p50Millis" to toMillis(timings.median),
+                    "p99Millis" to toMillis(timings.get99thPercentile()),
+                    "p999Millis" to toMillis(timings.get999thPercentile()))
+        }
+        for ((name, meter) in registry.meters) {
+            metrics[name] = linkedMapOf<String, Number>("count" to meter.count, "oneMinuteRate" to meter.oneMinuteRate)
+        }
+        return metrics
+    }
+
+    private fun toMillis(nanos: Double) = nanos / TimeUnit.MILLISECONDS.toNanos(1)
+
+    /**
+     * Returns the node's [snapshot]. The web API runs in its own process, where no flows run, so it reads the node's
+     * metrics by starting this flow over RPC.
+     */
+    class Snapshot : FlowLogic<Map<String, Map<String, Number>>>() {
+        @Suspendable
+        override fun call() = snapshot()
+    }
+
+    /**
+     * Times the stages of one flow run. Each call to [stage] records the time since the previous one (or since the run
+     * started) as that stage, so it is called as each stage ends.
+     *
+     * A stopwatch is held by its flow, so it is checkpointed with it. When a flow is restored after the node restarts,
+     * the stage it resumes in is timed against the new process's clock, and is dropped if that makes it negative.
+     */
+    class Stopwatch(val flow: String, val sampled: Boolean) {
+        private val started = System.nanoTime()
+        private var lastStage = started
+
+        fun stage(name: String) {
+            if (!sampled) return
+            val now = System.nanoTime()
+            record(name, now - lastStage)
+            lastStage = now
+        }
+
+        /** Records the run as completed, and its total time as the `total` stage. */
+        fun finish() {
+            registry.meter(MetricRegistry.name(flow, "completed")).mark()
+            if (sampled) record("total", System.nanoTime() - started)
+        }
+
+        private fun record(stage: String, nanos: Long) {
+            if (nanos >= 0) registry.timer(MetricRegistry.name(flow, stage)).update(nanos, TimeUnit.NANOSECONDS)
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.iou.kotlin.flow.IOUCompaction
+
+import com.google.common.util.concurrent.MoreExecutors
+import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.UniqueIdentifier
+import net.corda.core.node.PluginServiceHub
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Keeps the backchains of the IOUs we have issued bounded. Whenever one of them moves on to a new version (e.g. it is
+ * transferred), [IOUCompactionFlow] is started to compact it if its chain is now more than [maxDepth] transactions
+ * deep. The reissued version starts a new chain, so it does not trigger another compaction.
+ *
+ * Only the sender compacts, so the two parties to an IOU never race to do it, and an IOU is never compacted by two
+ * flows at once.
+ */
+object AutoCompaction {
+    const val DEFAULT_MAX_DEPTH = 50
+
+    /** Set with the `iou.compaction.maxDepth` system property. Zero or less turns automatic compaction off. */
+    val maxDepth: Int = Integer.getInteger("iou.compaction.maxDepth", DEFAULT_MAX_DEPTH)
+
+    class Service(services: PluginServiceHub) {
+        private val inFlight = Collections.newSetFromMap(ConcurrentHashMap<UniqueIdentifier, Boolean>())
+
+        init {
+            val me = services.myInfo.legalIdentity
+            if (maxDepth > 0) services.vaultService.updates.subscribe { update ->
+                val replaced = update.consumed.mapNotNull { (it.state.data as? IOUState)?.linearId }.toSet()
+                for (produced in update.produced) {
+                    val iou = produced.state.data as? IOUState ?: continue
+                    if (iou.sender != me || iou.linearId !in replaced || !inFlight.add(iou.linearId)) continue
+                    val future = services.invokeFlowAsync(IOUCompactionFlow.Initiator::class.java, produced.ref, maxDepth)
+                    future.resultFuture.addListener(Runnable { inFlight.remove(iou.linearId) }, MoreExecutors.directExecutor())
+                }
+            }
+        }
+    }
+}
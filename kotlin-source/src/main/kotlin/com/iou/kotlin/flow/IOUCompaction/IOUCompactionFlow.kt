@@ -0,0 +1,150 @@
+package com.iou.kotlin.flow.IOUCompaction
+
+import co.paralleluniverse.fibers.Suspendable
+import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.flow.SignatureVerifier
+import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.Command
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.contracts.StateRef
+import net.corda.core.contracts.TransactionState
+import net.corda.core.contracts.TransactionType
+import net.corda.core.contracts.UniqueIdentifier
+import net.corda.core.crypto.DigitalSignature
+import net.corda.core.crypto.Party
+import net.corda.core.flows.FlowException
+import net.corda.core.flows.FlowLogic
+import net.corda.core.node.ServiceHub
+import net.corda.core.transactions.SignedTransaction
+import net.corda.flows.FinalityFlow
+import java.util.*
+
+object IOUCompactionFlow {
+    /**
+     * Compacts the IOU at [stateRef], of which we must be the sender, if its chain of transactions is more than
+     * [maxDepth] deep (so always, with the default of 0). The IOU is consumed by one transaction and reissued, with the
+     * same linearId, value and amount paid, by a second one with no inputs. Whoever next resolves the IOU then only
+     * needs the reissuing transaction, rather than every transfer since it was created.
+     *
+     * The recipient signs both transactions before either is recorded, and we only complete the reissue once the
+     * notary has signed the exit. As the IOU's issuer, we are trusted to finish the reissue just as we are trusted to
+     * pay the IOU back.
+     *
+     * Returns the reference of the IOU's current version: the reissued one, or [stateRef] if it was left alone.
+     */
+    class Initiator(val stateRef: StateRef, val maxDepth: Int) : FlowLogic<StateRef>() {
+        constructor(stateRef: StateRef) : this(stateRef, 0)
+
+        @Suspendable
+        override fun call(): StateRef {
+            val me = serviceHub.myInfo.legalIdentity
+            val myKey = serviceHub.legalIdentityKey
+
+            // Stage 1 - Retrieving the IOU and measuring its chain.
+            val input: StateAndRef<IOUState> = serviceHub.toStateAndRef(stateRef)
+            val iou = input.state.data
+            require(iou.sender == me) { "Only the sender of an IOU, who reissues it, may compact it." }
+            if (chainDepth(serviceHub, stateRef, maxDepth) <= maxDepth) return stateRef
+
+            // Stage 2 - Generating and verifying the exit and reissue transactions.
+            val notary = input.state.notary
+            val exit = TransactionType.General.Builder(notary)
+            exit.addInputState(input)
+            exit.addCommand(Command(IOUContract.Commands.Compact(), iou.participants))
+            val reissue = TransactionType.General.Builder(notary)
+            reissue.addOutputState(iou, notary)
+            reissue.addCommand(Command(IOUContract.Commands.Compact(), iou.participants))
+            exit.toWireTransaction().toLedgerTransaction(serviceHub).verify()
+            reissue.toWireTransaction().toLedgerTransaction(serviceHub).verify()
+
+            // Stage 3 - Gathering the recipient's signatures. The reissue is sent without ours, so that only we can
+            // complete it.
+            val exitTx = exit.signWith(myKey).toSignedTransaction(false)
+            val reissueTx = reissue.toSignedTransaction(false)
+            val signatures = sendAndReceive<Pair<DigitalSignature.WithKey, DigitalSignature.WithKey>>(
+                    iou.recipient, Pair(exitTx, reissueTx)).unwrap { it }
+            checkSignature(signatures.first, exitTx, iou.recipient)
+            checkSignature(signatures.second, reissueTx, iou.recipient)
+
+            // Stage 4 - Notarising and recording the exit, and only then the reissue.
+            val participants = setOf(me, iou.recipient)
+            subFlow(FinalityFlow(exitTx + signatures.first, participants))
+            val signedReissueTx = reissueTx + reissueTx.signWithECDSA(myKey) + signatures.second
+            subFlow(FinalityFlow(signedReissueTx, participants))
+            return StateRef(signedReissueTx.id, 0)
+        }
+
+        private fun checkSignature(signature: DigitalSignature.WithKey, stx: SignedTransaction, party: Party) {
+            if (signature.by !in party.owningKey.keys) throw FlowException("$party did not sign with its own key.")
+            signature.verifyWithECDSA(stx.id.bytes)
+        }
+    }
+
+    class Acceptor(val otherParty: Party) : FlowLogic<Unit>() {
+
+        @Suspendable
+        override fun call() {
+            val me = serviceHub.myInfo.legalIdentity
+            val (exitTx, reissueTx) = receive<Pair<SignedTransaction, SignedTransaction>>(otherParty).unwrap { it }
+
+            // Only the sender has signed the exit so far, and nobody the reissue.
+            val notary = exitTx.tx.notary ?: throw FlowException("Transaction ${exitTx.id} has no notary.")
+            SignatureVerifier.verifySignatures(exitTx, me.owningKey, notary.owningKey)
+            val exit = exitTx.tx.toLedgerTransaction(serviceHub)
+            val reissue = reissueTx.tx.toLedgerTransaction(serviceHub)
+            exit.verify()
+            reissue.verify()
+
+            // The reissue must recreate exactly the IOUs the exit consumes, with the same notary, and they must all be
+            // IOUs owed to us by the sender. The IOUs are matched by linearId and compared field by field, as the
+            // states' contracts are distinct instances once deserialised.
+            if (exit.outputs.isNotEmpty() || reissue.inputs.isNotEmpty() || exit.inputs.size != reissue.outputs.size)
+                throw FlowException("Transaction ${reissueTx.id} does not reissue what ${exitTx.id} consumes.")
+            val consumed = HashMap<UniqueIdentifier, TransactionState<IOUState>>()
+            for (input in exit.inputs) {
+                val iou = input.state.data as? IOUState
+                if (iou == null || iou.sender != otherParty || iou.recipient != me)
+                    throw FlowException("Transaction ${exitTx.id} consumes a state other than an IOU $otherParty owes us.")
+                @Suppress("UNCHECKED_CAST")
+                consumed[iou.linearId] = input.state as TransactionState<IOUState>
+            }
+            for (output in reissue.outputs) {
+                val iou = output.data as? IOUState
+                val original = if (iou == null) null else consumed.remove(iou.linearId)
+                if (iou == null || original == null || !isReissueOf(iou, output.notary, original))
+                    throw FlowException("Transaction ${reissueTx.id} does not reissue what ${exitTx.id} consumes.")
+            }
+
+            val myKey = serviceHub.legalIdentityKey
+            send(otherParty, Pair(exitTx.signWithECDSA(myKey), reissueTx.signWithECDSA(myKey)))
+        }
+
+        private fun isReissueOf(reissued: IOUState, notary: Party, original: TransactionState<IOUState>): Boolean {
+            val iou = original.data
+            return notary == original.notary && reissued.iouValue == iou.iouValue && reissued.paid == iou.paid &&
+                    reissued.sender == iou.sender && reissued.recipient == iou.recipient
+        }
+    }
+
+    /**
+     * The number of transactions in the history of the IOU at [stateRef], counted back through its previous versions
+     * to the transaction which issued it (or last reissued it). The backchains of cash or other states it was
+     * transacted with are not counted. Stops once past [limit], so a long chain costs no more to check than one just
+     * over the limit.
+     */
+    fun chainDepth(services: ServiceHub, stateRef: StateRef, limit: Int): Int {
+        val storage = services.storageService.validatedTransactions
+        var depth = 0
+        var ref: StateRef? = stateRef
+        while (ref != null && depth <= limit) {
+            val tx = storage.getTransaction(ref.txhash)?.tx ?: break
+            val linearId = (tx.outputs[ref.index].data as IOUState).linearId
+            depth++
+            ref = tx.inputs.firstOrNull {
+                val previous = storage.getTransaction(it.txhash)?.tx?.outputs?.get(it.index)?.data
+                previous is IOUState && previous.linearId == linearId
+            }
+        }
+        return depth
+    }
+}
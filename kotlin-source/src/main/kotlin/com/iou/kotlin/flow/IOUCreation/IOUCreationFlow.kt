@@ -2,37 +2,73 @@ package com.iou.kotlin.flow.IOUCreation
 
 import co.paralleluniverse.fibers.Suspendable
 import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.flow.FlowMetrics
+import com.iou.kotlin.flow.IOUFinality.IOUFinalityFlow
+import com.iou.kotlin.flow.SignatureVerifier
 import com.iou.kotlin.state.IOUState
 import net.corda.core.contracts.Command
 import net.corda.core.contracts.TransactionType
 import net.corda.core.crypto.Party
 import net.corda.core.crypto.composite
+import net.corda.core.flows.FlowException
 import net.corda.core.flows.FlowLogic
 import net.corda.core.transactions.SignedTransaction
-import net.corda.flows.FinalityFlow
 
 object IOUCreationFlow {
-    class Initiator(val iou: IOUState, val otherParty: Party) : FlowLogic<SignedTransaction>() {
+    /**
+     * Issues one or more IOUs to [otherParty] in a single transaction. All of the IOUs in the batch must be between us
+     * and [otherParty], so that one counterparty signature, one notarisation and one finality broadcast cover them all.
+     *
+     * The IOUs are dropped once the transaction is built, as it holds them from then on, so the checkpoints taken while
+     * we wait for [otherParty] do not carry them twice.
+     */
+    class Initiator(ious: List<IOUState>, val otherParty: Party) : FlowLogic<SignedTransaction>() {
+        constructor(iou: IOUState, otherParty: Party) : this(listOf(iou), otherParty)
+
+        private var ious: List<IOUState>? = ious
 
         @Suspendable
         override fun call(): SignedTransaction {
-            // Obtain a reference to the notary and parties we want to use.
-            val notary = serviceHub.networkMapCache.notaryNodes.single().notaryIdentity
+            val stopwatch = FlowMetrics.start(this)
+            val partSignedTx = buildAndSign(stopwatch)
+
+            val txFromCounterparty = sendAndReceive(SignedTransaction::class.java, otherParty, partSignedTx).unwrap { tx -> tx }
+            stopwatch.stage("counterparty")
+            stopwatch.finish()
+
+            return txFromCounterparty
+        }
+
+        /**
+         * Builds, verifies and signs the transaction issuing [ious]. This does not suspend, so the builder, the ledger
+         * transaction and our key pair stay out of the checkpoint taken when the transaction is sent.
+         */
+        private fun buildAndSign(stopwatch: FlowMetrics.Stopwatch): SignedTransaction {
+            val ious = this.ious ?: throw IllegalStateException("The IOUs have already been issued.")
+            require(ious.isNotEmpty()) { "At least one IOU must be issued." }
+
+            // Obtain a reference to the notary and parties we want to use. With several notaries on the network, any of
+            // them will do, which spreads the IOUs, and so the notarisation of their transfers, across them all.
+            val notary = serviceHub.networkMapCache.getAnyNotary() ?: throw FlowException("There is no notary on the network.")
             val me = serviceHub.legalIdentityKey
 
             // Stage 1 - Generating an unsigned transaction
-            val txCommand = Command(IOUContract.Commands.Create(), iou.participants)
-            val unsignedTx = TransactionType.General.Builder(notary).withItems(iou, txCommand)
+            val signers = ious.flatMap { it.participants }.distinct()
+            val txCommand = Command(IOUContract.Commands.Create(), signers)
+            val unsignedTx = TransactionType.General.Builder(notary)
+            ious.forEach { unsignedTx.addOutputState(it) }
+            unsignedTx.addCommand(txCommand)
+            stopwatch.stage("build")
 
             // Stage 2 - Verifying the transaction
             unsignedTx.toWireTransaction().toLedgerTransaction(serviceHub).verify()
+            stopwatch.stage("verify")
 
             // Stage 3 - Signing the transaction
-            val partSignedTx = unsignedTx.signWith(serviceHub.legalIdentityKey).toSignedTransaction(false)
-
-            val txFromCounterparty = sendAndReceive(SignedTransaction::class.java, otherParty, partSignedTx).unwrap { tx -> tx }
-
-            return txFromCounterparty
+            val partSignedTx = unsignedTx.signWith(me).toSignedTransaction(false)
+            stopwatch.stage("sign")
+            this.ious = null
+            return partSignedTx
         }
     }
 
@@ -40,24 +76,39 @@ object IOUCreationFlow {
 
         @Suspendable
         override fun call() {
-            // Obtain a reference to the notary we want to use.
-            val me = serviceHub.legalIdentityKey
-            val notary = serviceHub.networkMapCache.notaryNodes.single().notaryIdentity
+            val stopwatch = FlowMetrics.start(this)
+            val inboundPartSignedTx = receive<SignedTransaction>(otherParty).unwrap { tx -> verify(tx) }
+            stopwatch.stage("verify")
 
-            val inboundPartSignedTx = receive<SignedTransaction>(otherParty).unwrap {
-                tx ->
-                    val wireTx = tx.verifySignatures(me.public.composite, notary!!.owningKey)
-                    wireTx.toLedgerTransaction(serviceHub).verify()
-                tx
-            }
-
-            val mySignature = inboundPartSignedTx.signWithECDSA(me)
-            val counterpartySignedTxn = inboundPartSignedTx + mySignature
+            val counterpartySignedTxn = inboundPartSignedTx + inboundPartSignedTx.signWithECDSA(serviceHub.legalIdentityKey)
+            stopwatch.stage("sign")
 
             send(otherParty, counterpartySignedTxn)
+            stopwatch.stage("counterparty")
             val allParticipants = setOf(serviceHub.myInfo.legalIdentity, otherParty)
-            subFlow(FinalityFlow(counterpartySignedTxn, allParticipants))
+            subFlow(IOUFinalityFlow(counterpartySignedTxn, allParticipants, stopwatch))
+            stopwatch.finish()
+        }
 
+        /**
+         * Checks [tx] issues only IOUs between us and [otherParty], and returns it. This does not suspend, so the wire
+         * and ledger transactions it builds stay out of our checkpoints.
+         */
+        private fun verify(tx: SignedTransaction): SignedTransaction {
+            val myIdentity = serviceHub.myInfo.legalIdentity
+            // The initiator may pick any notary on the network, so we check that the one it picked is one.
+            val notary = tx.tx.notary
+            if (notary == null || serviceHub.networkMapCache.notaryNodes.none { it.notaryIdentity == notary })
+                throw FlowException("Transaction ${tx.id} does not name a notary on the network.")
+            val wireTx = SignatureVerifier.verifySignatures(tx, serviceHub.legalIdentityKey.public.composite, notary.owningKey)
+            wireTx.toLedgerTransaction(serviceHub).verify()
+            // The contract has checked every IOU in the batch, we only need to check they are all ours.
+            for (output in wireTx.outputs) {
+                val iou = output.data as IOUState
+                if (!iou.isBetween(myIdentity, otherParty))
+                    throw FlowException("Every IOU in the batch must be between $myIdentity and $otherParty.")
+            }
+            return tx
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,228 @@
+package com.iou.kotlin.flow.IOUFinality
+
+import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.MoreExecutors
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import net.corda.core.crypto.Party
+import net.corda.core.crypto.SecureHash
+import net.corda.core.node.PluginServiceHub
+import net.corda.core.node.ServiceHub
+import net.corda.core.transactions.SignedTransaction
+import net.corda.node.utilities.JDBCHashSet
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Sends the transactions whose finality was deferred by [IOUFinalityFlow] to their other participants, in batches.
+ *
+ * Transactions are queued per recipient. A recipient's queue is sent as one [IOUBroadcastFlow.Sender] message once
+ * it holds [maxBatchSize] transactions, or [batchWindowMillis] after the first of them was queued, whichever comes
+ * first. Only one batch per recipient is in flight at a time, so transactions reach each recipient in the order they
+ * were recorded, and those queued meanwhile go out together as soon as it is acknowledged.
+ *
+ * A transaction stays queued until its recipient acknowledges it. Those not acknowledged, e.g. because the recipient
+ * was unreachable, are put back at the front of the queue and sent again after a delay which doubles with each failed
+ * attempt, up to [MAX_RETRY_DELAY_MILLIS]. A transaction which the recipient answered for but could not record, e.g.
+ * because it failed to verify there, is sent at most [MAX_ATTEMPTS] times. It is then taken out of the queue, so that
+ * it no longer holds back the transactions behind it, and is only listed by [failed] until the node restarts.
+ *
+ * Each transaction's delivery to each recipient is also persisted, in the [TABLE_NAME] table keyed by transaction id
+ * and recipient, as part of the flow which recorded the transaction, and deleted by [IOUBroadcastFlow.Sender] as part
+ * of the flow which received the recipient's acknowledgement. Deliveries still pending when the node stopped are
+ * queued again, from the node's transaction storage, when it restarts, including those which had failed. A batch in
+ * flight at the time is sent again, and the recipient acknowledges any transaction in it which it had already recorded.
+ *
+ * It must be created inside a database transaction, as the node does for its plugin services.
+ */
+class BatchedBroadcast(private val services: PluginServiceHub,
+                       val batchWindowMillis: Long,
+                       val maxBatchSize: Int) {
+    private val lock = Any()
+    private val queued = HashMap<Party, LinkedHashMap<SecureHash, SignedTransaction>>()
+    private val inFlight = HashMap<Party, Int>()
+    private val failures = HashMap<Party, Int>()
+    private val attempts = HashMap<PendingDelivery, Int>()
+    private val undeliverable = HashMap<Party, LinkedHashMap<SecureHash, SignedTransaction>>()
+    private val pending = JDBCHashSet<PendingDelivery>(TABLE_NAME)
+    private val scheduler = Executors.newSingleThreadScheduledExecutor(
+            ThreadFactoryBuilder().setNameFormat("iou-batched-broadcast-%d").setDaemon(true).build())
+
+    /** A transaction which [recipient] has yet to acknowledge, as persisted until it does. */
+    data class PendingDelivery(val txId: SecureHash, val recipient: Party)
+
+    init {
+        val storage = services.storageService.validatedTransactions
+        val recipients = synchronized(lock) {
+            for (delivery in pending) {
+                val stx = storage.getTransaction(delivery.txId) ?: continue
+                queued.getOrPut(delivery.recipient) { LinkedHashMap() }[stx.id] = stx
+            }
+            queued.keys.toList()
+        }
+        recipients.forEach { schedule(it, batchWindowMillis) }
+    }
+
+    /**
+     * Queues [stx], which we have notarised and recorded, to be sent to each of [recipients]. Called from the flow which
+     * recorded it, so that the deliveries are persisted in the same database transaction.
+     */
+    fun enqueue(stx: SignedTransaction, recipients: Set<Party>) {
+        val full = ArrayList<Party>()
+        synchronized(lock) {
+            for (recipient in recipients) {
+                pending.add(PendingDelivery(stx.id, recipient))
+                val queue = queued.getOrPut(recipient) { LinkedHashMap() }
+                val wasEmpty = queue.isEmpty()
+                queue[stx.id] = stx
+                if (queue.size >= maxBatchSize) full.add(recipient)
+                else if (wasEmpty) schedule(recipient, batchWindowMillis)
+            }
+        }
+        full.forEach { flush(it) }
+    }
+
+    /** Sends the next batch queued for [recipient] now, unless one is already in flight. */
+    fun flush(recipient: Party) {
+        val batch = synchronized(lock) {
+            if (recipient in inFlight) return
+            val queue = queued[recipient] ?: return
+            val next = queue.values.take(maxBatchSize)
+            if (next.isEmpty()) return
+            next.forEach { queue.remove(it.id) }
+            inFlight[recipient] = next.size
+            next
+        }
+        val future = try {
+            services.invokeFlowAsync(IOUBroadcastFlow.Sender::class.java, recipient, batch).resultFuture
+        } catch (e: Exception) {
+            completed(recipient, batch, null)
+            return
+        }
+        future.addListener(Runnable { completed(recipient, batch, future) }, MoreExecutors.directExecutor())
+    }
+
+    /** Sends the next batch queued for every recipient now. */
+    fun flushAll() {
+        val recipients = synchronized(lock) { queued.keys.toList() }
+        recipients.forEach { flush(it) }
+    }
+
+    /**
+     * Forgets the deliveries of [txIds], which [recipient] has acknowledged. Called from the flow which received the
+     * acknowledgement, so that they are deleted in its database transaction.
+     */
+    fun acknowledged(recipient: Party, txIds: List<SecureHash>) {
+        synchronized(lock) {
+            for (txId in txIds) {
+                pending.remove(PendingDelivery(txId, recipient))
+                undeliverable[recipient]?.remove(txId)
+            }
+        }
+    }
+
+    /** How many transactions each recipient has yet to acknowledge, whether queued, in flight or [failed]. */
+    fun unacknowledged(): Map<Party, Int> {
+        synchronized(lock) {
+            val counts = HashMap<Party, Int>()
+            for ((recipient, queue) in queued) if (queue.isNotEmpty()) counts[recipient] = queue.size
+            for ((recipient, count) in inFlight) counts[recipient] = (counts[recipient] ?: 0) + count
+            for ((recipient, txs) in undeliverable) if (txs.isNotEmpty()) counts[recipient] = (counts[recipient] ?: 0) + txs.size
+            return counts
+        }
+    }
+
+    /** The transactions each recipient could not record in [MAX_ATTEMPTS] attempts, which are no longer being sent. */
+    fun failed(): Map<Party, List<SecureHash>> {
+        synchronized(lock) {
+            val ids = HashMap<Party, List<SecureHash>>()
+            for ((recipient, txs) in undeliverable) if (txs.isNotEmpty()) ids[recipient] = txs.keys.toList()
+            return ids
+        }
+    }
+
+    private fun completed(recipient: Party, batch: List<SignedTransaction>, future: ListenableFuture<List<SecureHash>>?) {
+        // Null if the recipient did not answer, in which case no transaction in the batch is to blame.
+        val acknowledged = try {
+            future?.get()?.toSet()
+        } catch (e: ExecutionException) {
+            null
+        }
+        val delay = synchronized(lock) {
+            inFlight.remove(recipient)
+            val queue = queued.getOrPut(recipient) { LinkedHashMap() }
+            val unacknowledged = ArrayList<SignedTransaction>()
+            for (stx in batch) {
+                val delivery = PendingDelivery(stx.id, recipient)
+                if (acknowledged == null) {
+                    unacknowledged.add(stx)
+                } else if (stx.id in acknowledged) {
+                    attempts.remove(delivery)
+                } else {
+                    val tries = (attempts[delivery] ?: 0) + 1
+                    if (tries < MAX_ATTEMPTS) {
+                        attempts[delivery] = tries
+                        unacknowledged.add(stx)
+                    } else {
+                        attempts.remove(delivery)
+                        undeliverable.getOrPut(recipient) { LinkedHashMap() }[stx.id] = stx
+                    }
+                }
+            }
+            if (unacknowledged.isNotEmpty()) {
+                val rest = ArrayList(queue.values)
+                queue.clear()
+                for (stx in unacknowledged + rest) queue[stx.id] = stx
+                val retries = (failures[recipient] ?: 0) + 1
+                failures[recipient] = retries
+                Math.min(batchWindowMillis shl Math.min(retries, 20), MAX_RETRY_DELAY_MILLIS)
+            } else {
+                failures.remove(recipient)
+                if (queue.isEmpty()) return
+                // What was queued while this batch was in flight has already waited, so it goes out straight away.
+                0L
+            }
+        }
+        schedule(recipient, delay)
+    }
+
+    private fun schedule(recipient: Party, delayMillis: Long) {
+        scheduler.schedule(Runnable { flush(recipient) }, delayMillis, TimeUnit.MILLISECONDS)
+    }
+
+    /**
+     * Runs the node's [BatchedBroadcast]. Flows look it up with [of], as each node in the JVM (e.g. in a
+     * [MockNetwork]) has its own.
+     */
+    class Service(services: PluginServiceHub) {
+        init {
+            instances[services.myInfo.legalIdentity] = BatchedBroadcast(services, configuredBatchWindowMillis, configuredMaxBatchSize)
+        }
+    }
+
+    companion object {
+        const val DEFAULT_BATCH_WINDOW_MILLIS = 100L
+        const val DEFAULT_MAX_BATCH_SIZE = 100
+        const val MAX_RETRY_DELAY_MILLIS = 60000L
+        const val MAX_ATTEMPTS = 5
+        const val TABLE_NAME = "iou_pending_deliveries"
+
+        /** Set with the `iou.finality.deferred` system property. Off by default, so flows wait for every broadcast. */
+        val deferByDefault: Boolean = java.lang.Boolean.getBoolean("iou.finality.deferred")
+
+        /** Set with the `iou.finality.batchWindowMillis` system property. */
+        val configuredBatchWindowMillis: Long = java.lang.Long.getLong("iou.finality.batchWindowMillis", DEFAULT_BATCH_WINDOW_MILLIS)
+
+        /** Set with the `iou.finality.maxBatchSize` system property. */
+        val configuredMaxBatchSize: Int = Integer.getInteger("iou.finality.maxBatchSize", DEFAULT_MAX_BATCH_SIZE)
+
+        private val instances = ConcurrentHashMap<Party, BatchedBroadcast>()
+
+        fun of(services: ServiceHub): BatchedBroadcast {
+            val me = services.myInfo.legalIdentity
+            return instances[me] ?: throw IllegalStateException("No batched broadcast is running for $me.")
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.iou.kotlin.flow.IOUFinality
+
+import co.paralleluniverse.fibers.Suspendable
+import com.iou.kotlin.flow.SignatureVerifier
+import net.corda.core.crypto.Party
+import net.corda.core.crypto.SecureHash
+import net.corda.core.flows.FlowException
+import net.corda.core.flows.FlowLogic
+import net.corda.core.transactions.SignedTransaction
+import net.corda.flows.ResolveTransactionsFlow
+import java.security.SignatureException
+import java.util.*
+
+object IOUBroadcastFlow {
+    /**
+     * Sends [transactions], which we have notarised and recorded, to [recipient] in one message, and returns the ids of
+     * those it acknowledges having recorded. Their pending deliveries are deleted as part of this flow, and
+     * [BatchedBroadcast] sends again any it does not acknowledge, up to [BatchedBroadcast.MAX_ATTEMPTS] times.
+     */
+    class Sender(val recipient: Party, val transactions: List<SignedTransaction>) : FlowLogic<List<SecureHash>>() {
+
+        @Suspendable
+        override fun call(): List<SecureHash> {
+            val acknowledged = sendAndReceive<List<SecureHash>>(recipient, transactions).unwrap { it }
+            BatchedBroadcast.of(serviceHub).acknowledged(recipient, acknowledged)
+            return acknowledged
+        }
+    }
+
+    class Receiver(val otherParty: Party) : FlowLogic<Unit>() {
+
+        @Suspendable
+        override fun call() {
+            val stxs = receive<List<SignedTransaction>>(otherParty).unwrap { it }
+
+            // The transactions are recorded in the order they were sent, so one which depends on an earlier one in the
+            // batch finds it already recorded. One we already hold, from an earlier attempt, is only acknowledged. One
+            // we cannot record is left unacknowledged, rather than failing the rest of the batch.
+            val storage = serviceHub.storageService.validatedTransactions
+            val recorded = ArrayList<SecureHash>()
+            for (stx in stxs) {
+                if (storage.getTransaction(stx.id) == null) {
+                    try {
+                        SignatureVerifier.verifySignatures(stx)
+                        subFlow(ResolveTransactionsFlow(stx, otherParty))
+                    } catch (e: SignatureException) {
+                        continue
+                    } catch (e: FlowException) {
+                        continue
+                    }
+                    serviceHub.recordTransactions(listOf(stx))
+                }
+                recorded.add(stx.id)
+            }
+            send(otherParty, recorded)
+        }
+    }
+}
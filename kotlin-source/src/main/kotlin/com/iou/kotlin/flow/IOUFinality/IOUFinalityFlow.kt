@@ -0,0 +1,49 @@
+package com.iou.kotlin.flow.IOUFinality
+
+import co.paralleluniverse.fibers.Suspendable
+import com.iou.kotlin.flow.FlowMetrics
+import net.corda.core.crypto.Party
+import net.corda.core.flows.FlowLogic
+import net.corda.core.transactions.SignedTransaction
+import net.corda.flows.BroadcastTransactionFlow
+import net.corda.flows.NotaryFlow
+
+/**
+ * Notarises [transaction] if it needs it, records it, and sends it to [participants], as [FinalityFlow] does, but
+ * records notarising and finalising (recording and broadcasting) as separate stages of the caller's [stopwatch].
+ * Returns the notarised transaction.
+ *
+ * With [deferBroadcast], the flow returns as soon as the transaction is notarised and recorded by us, and leaves
+ * sending it to the other participants to the node's [BatchedBroadcast], which batches it with the other transactions
+ * bound for the same participant and retries until each has acknowledged it.
+ */
+class IOUFinalityFlow(val transaction: SignedTransaction,
+                      val participants: Set<Party>,
+                      val stopwatch: FlowMetrics.Stopwatch,
+                      val deferBroadcast: Boolean) : FlowLogic<SignedTransaction>() {
+    constructor(transaction: SignedTransaction, participants: Set<Party>, stopwatch: FlowMetrics.Stopwatch)
+            : this(transaction, participants, stopwatch, BatchedBroadcast.deferByDefault)
+
+    @Suspendable
+    override fun call(): SignedTransaction {
+        val notarised = if (needsNotarySignature(transaction)) transaction + subFlow(NotaryFlow.Client(transaction)) else transaction
+        stopwatch.stage("notarise")
+
+        serviceHub.recordTransactions(listOf(notarised))
+        if (deferBroadcast) {
+            BatchedBroadcast.of(serviceHub).enqueue(notarised, participants - serviceHub.myInfo.legalIdentity)
+        } else {
+            subFlow(BroadcastTransactionFlow(notarised, participants))
+        }
+        stopwatch.stage("finalise")
+        return notarised
+    }
+
+    /** Only transactions which consume states or are timestamped need a notary, and only if it has not signed yet. */
+    private fun needsNotarySignature(stx: SignedTransaction): Boolean {
+        val wtx = stx.tx
+        val notary = wtx.notary ?: return false
+        if (wtx.inputs.isEmpty() && wtx.timestamp == null) return false
+        return stx.sigs.none { it.by in notary.owningKey.keys }
+    }
+}
@@ -0,0 +1,132 @@
+package com.iou.kotlin.flow.IOUNetting
+
+import co.paralleluniverse.fibers.Suspendable
+import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.flow.IOUTransfer.ResolutionCache
+import com.iou.kotlin.flow.SignatureVerifier
+import com.iou.kotlin.service.IOUQueryService
+import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.Command
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.contracts.StateRef
+import net.corda.core.contracts.TransactionType
+import net.corda.core.crypto.DigitalSignature
+import net.corda.core.crypto.Party
+import net.corda.core.crypto.SecureHash
+import net.corda.core.flows.FlowException
+import net.corda.core.flows.FlowLogic
+import net.corda.core.node.ServiceHub
+import net.corda.core.transactions.SignedTransaction
+import net.corda.flows.FinalityFlow
+import net.corda.flows.ResolveTransactionsFlow
+import java.util.*
+
+object IOUNettingFlow {
+    /**
+     * Nets every unconsumed IOU between any two of us and [counterparties], in one transaction which consumes them all
+     * and issues the residual IOUs computed by [Netting.residuals]: at most one per pair of parties, and at most one
+     * fewer than the number of parties in all.
+     *
+     * Each party only holds the IOUs it is a party to, so every counterparty is asked for its IOUs between members
+     * before waiting on any reply, and their backchains are resolved from whoever sent them. The transaction is then
+     * sent to every counterparty before waiting on any signature.
+     */
+    class Initiator(val counterparties: Set<Party>) : FlowLogic<SignedTransaction>() {
+
+        @Suspendable
+        override fun call(): SignedTransaction {
+            val me = serviceHub.myInfo.legalIdentity
+            require(counterparties.isNotEmpty() && me !in counterparties) { "IOUs must be netted with other parties." }
+            val members = counterparties + me
+
+            // Stage 1 - Gathering the IOUs between members.
+            for (party in counterparties) send(party, members)
+            val refs = LinkedHashSet<StateRef>()
+            iousBetween(serviceHub, members).mapTo(refs) { it.ref }
+            for (party in counterparties) {
+                val theirs = receive<List<StateRef>>(party).unwrap { it }
+                resolve(theirs.filter { refs.add(it) }.map { it.txhash }.toSet(), party)
+            }
+            val inputs = refs.map { serviceHub.toStateAndRef<IOUState>(it) }
+            if (inputs.isEmpty()) throw FlowException("There are no IOUs to net between $members.")
+            if (inputs.any { it.state.data.sender !in members || it.state.data.recipient !in members })
+                throw FlowException("Only IOUs between $members may be netted.")
+            val notary = inputs.map { it.state.notary }.distinct().singleOrNull()
+                    ?: throw FlowException("The IOUs to net must all have the same notary.")
+
+            // Stage 2 - Generating and verifying the transaction.
+            val residuals = Netting.residuals(Netting.netPositions(inputs.map { it.state.data }))
+            if (residuals.any { it.amount > Int.MAX_VALUE }) throw FlowException("A residual IOU is too large to issue.")
+            val builder = TransactionType.General.Builder(notary)
+            inputs.forEach { builder.addInputState(it) }
+            for (residual in residuals) {
+                builder.addOutputState(IOUState(residual.amount.toInt(), residual.debtor, residual.creditor, IOUContract()))
+            }
+            val parties = inputs.flatMap { listOf(it.state.data.sender, it.state.data.recipient) }.toSet()
+            builder.addCommand(Command(IOUContract.Commands.Net(), parties.map { it.owningKey }))
+            builder.toWireTransaction().toLedgerTransaction(serviceHub).verify()
+
+            // Stage 3 - Signing the transaction and gathering the other parties' signatures.
+            val partSignedTx = builder.signWith(serviceHub.legalIdentityKey).toSignedTransaction(false)
+            for (party in counterparties) send(party, partSignedTx)
+            val signatures = counterparties.map { party ->
+                val signature = receive<DigitalSignature.WithKey>(party).unwrap { it }
+                if (signature.by !in party.owningKey.keys) throw FlowException("$party did not sign with its own key.")
+                signature
+            }
+            SignatureVerifier.verify(partSignedTx.id.bytes, signatures)
+            val signedTx = signatures.fold(partSignedTx) { stx, signature -> stx + signature }
+
+            // Stage 4 - Notarising and recording the transaction.
+            subFlow(FinalityFlow(signedTx, members))
+            return signedTx
+        }
+
+        @Suspendable
+        private fun resolve(txIds: Set<SecureHash>, from: Party) {
+            val missing = ResolutionCache.of(serviceHub).missing(txIds)
+            if (missing.isEmpty()) return
+            subFlow(ResolveTransactionsFlow(missing, from))
+            ResolutionCache.of(serviceHub).record(missing)
+        }
+    }
+
+    class Acceptor(val otherParty: Party) : FlowLogic<Unit>() {
+
+        @Suspendable
+        override fun call() {
+            val me = serviceHub.myInfo.legalIdentity
+            val members = receive<Set<Party>>(otherParty).unwrap { members ->
+                if (me !in members || otherParty !in members) throw FlowException("We are not netting with $otherParty.")
+                members
+            }
+            send(otherParty, iousBetween(serviceHub, members).map { it.ref })
+
+            val stx = receive<SignedTransaction>(otherParty).unwrap { it }
+            val wtx = stx.tx
+            val missing = ResolutionCache.of(serviceHub).missing(wtx.inputs.map { it.txhash })
+            if (missing.isNotEmpty()) {
+                subFlow(ResolveTransactionsFlow(missing, otherParty))
+                ResolutionCache.of(serviceHub).record(missing)
+            }
+
+            // Every party to the netted IOUs signs in parallel with us, so only the initiator must have signed.
+            val allowedToBeMissing = wtx.commands.flatMap { it.signers }.filter { it != otherParty.owningKey }
+            SignatureVerifier.verifySignatures(stx, *(allowedToBeMissing + wtx.notary!!.owningKey).toTypedArray())
+            val ltx = wtx.toLedgerTransaction(serviceHub)
+            ltx.verify()
+            if (ltx.commands.none { it.value is IOUContract.Commands.Net })
+                throw FlowException("Transaction ${stx.id} does not net IOUs.")
+            val ious = ltx.inputs.map { it.state.data } + ltx.outputs.map { it.data }
+            if (ious.any { it !is IOUState || it.sender !in members || it.recipient !in members })
+                throw FlowException("Transaction ${stx.id} involves states other than IOUs between $members.")
+
+            send(otherParty, stx.signWithECDSA(serviceHub.legalIdentityKey))
+        }
+    }
+
+    /** The unconsumed IOUs in our vault whose sender and recipient are both [members]. */
+    private fun iousBetween(services: ServiceHub, members: Set<Party>): List<StateAndRef<IOUState>> {
+        return IOUQueryService.of(services).between(members)
+    }
+}
@@ -0,0 +1,80 @@
+package com.iou.kotlin.flow.IOUNetting
+
+import com.iou.kotlin.state.IOUState
+import net.corda.core.crypto.Party
+import java.util.*
+
+/**
+ * Works out what is left to pay once a set of IOUs is netted: each party's net position, and a small set of residual
+ * obligations which settles every position.
+ */
+object Netting {
+    /** [debtor] owes [creditor] [amount]. */
+    data class Obligation(val debtor: Party, val creditor: Party, val amount: Long)
+
+    /** What is left of a party's position while residual obligations are being matched against it. */
+    private class Position(val party: Party, var amount: Long)
+
+    /** Largest first, and by name between equal amounts, so that the same positions always net the same way. */
+    private val largestFirst = Comparator<Position> { a, b ->
+        val byAmount = b.amount.compareTo(a.amount)
+        if (byAmount != 0) byAmount else a.party.name.compareTo(b.party.name)
+    }
+
+    /** Each party's net position over [ious]: what it is owed less what it owes, counting amounts outstanding. */
+    fun netPositions(ious: Iterable<IOUState>): Map<Party, Long> {
+        val positions = HashMap<Party, Long>()
+        for (iou in ious) {
+            positions[iou.recipient] = (positions[iou.recipient] ?: 0L) + iou.outstanding
+            positions[iou.sender] = (positions[iou.sender] ?: 0L) - iou.outstanding
+        }
+        return positions
+    }
+
+    /**
+     * The residual obligations which settle [positions], which must sum to zero.
+     *
+     * Debtors and creditors whose positions cancel out exactly are paired first. The rest are matched largest debtor
+     * to largest creditor, and each match closes at least one of the two positions. That leaves at most one obligation
+     * per pair of parties, and at most N - 1 in total for N parties with a position. Finding the fewest obligations
+     * possible is NP-hard in general, as it means splitting the positions into as many zero-sum groups as possible.
+     * This takes O(N log N) time in the number of parties, however many IOUs the positions were computed from.
+     */
+    fun residuals(positions: Map<Party, Long>): List<Obligation> {
+        require(positions.values.sum() == 0L) { "Net positions must sum to zero." }
+        val creditors = ArrayList<Position>()
+        val debtors = ArrayList<Position>()
+        for ((party, amount) in positions) {
+            if (amount > 0) creditors.add(Position(party, amount))
+            if (amount < 0) debtors.add(Position(party, -amount))
+        }
+        Collections.sort(creditors, largestFirst)
+        Collections.sort(debtors, largestFirst)
+        val obligations = ArrayList<Obligation>()
+
+        val creditorsByAmount = HashMap<Long, ArrayDeque<Position>>()
+        for (creditor in creditors) creditorsByAmount.getOrPut(creditor.amount) { ArrayDeque() }.add(creditor)
+        for (debtor in debtors) {
+            val creditor = creditorsByAmount[debtor.amount]?.poll() ?: continue
+            obligations.add(Obligation(debtor.party, creditor.party, debtor.amount))
+            debtor.amount = 0
+            creditor.amount = 0
+        }
+
+        val openCreditors = PriorityQueue(Math.max(creditors.size, 1), largestFirst)
+        val openDebtors = PriorityQueue(Math.max(debtors.size, 1), largestFirst)
+        creditors.filterTo(openCreditors) { it.amount > 0 }
+        debtors.filterTo(openDebtors) { it.amount > 0 }
+        while (openDebtors.isNotEmpty()) {
+            val debtor = openDebtors.poll()
+            val creditor = openCreditors.poll()
+            val amount = Math.min(debtor.amount, creditor.amount)
+            obligations.add(Obligation(debtor.party, creditor.party, amount))
+            debtor.amount -= amount
+            creditor.amount -= amount
+            if (debtor.amount > 0) openDebtors.add(debtor)
+            if (creditor.amount > 0) openCreditors.add(creditor)
+        }
+        return obligations
+    }
+}
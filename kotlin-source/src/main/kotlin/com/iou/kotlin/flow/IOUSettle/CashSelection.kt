@@ -0,0 +1,108 @@
+package com.iou.kotlin.flow.IOUSettle
+
+import net.corda.contracts.asset.Cash
+import net.corda.core.contracts.*
+import net.corda.core.crypto.CompositeKey
+import net.corda.core.crypto.Party
+import net.corda.core.node.PluginServiceHub
+import net.corda.core.node.ServiceHub
+import net.corda.core.node.services.Vault
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * An in-memory index of the cash owned by [owner], by issuer and currency, from which flows select coins without
+ * scanning the vault. It is kept up to date incrementally from vault updates.
+ *
+ * Selected coins are soft-locked against the selecting flow's lock id, so that concurrent settlements never pick the
+ * same coin. A lock lasts until the coin is consumed, or until the flow releases it (e.g. because it failed).
+ */
+class CashSelection(private val owner: CompositeKey) {
+    private val lock = Any()
+    private val coins = HashMap<Issued<Currency>, LinkedHashMap<StateRef, StateAndRef<Cash.State>>>()
+    private val softLocks = HashMap<StateRef, UUID>()
+
+    fun add(states: Iterable<StateAndRef<ContractState>>) {
+        synchronized(lock) {
+            for (stateAndRef in states) {
+                val cash = stateAndRef.state.data as? Cash.State ?: continue
+                if (cash.owner != owner) continue
+                @Suppress("UNCHECKED_CAST")
+                coins.getOrPut(cash.amount.token) { LinkedHashMap() }[stateAndRef.ref] = stateAndRef as StateAndRef<Cash.State>
+            }
+        }
+    }
+
+    fun remove(states: Iterable<StateAndRef<ContractState>>) {
+        synchronized(lock) {
+            for (stateAndRef in states) {
+                val cash = stateAndRef.state.data as? Cash.State ?: continue
+                coins[cash.amount.token]?.remove(stateAndRef.ref)
+                softLocks.remove(stateAndRef.ref)
+            }
+        }
+    }
+
+    fun update(update: Vault.Update) {
+        remove(update.consumed)
+        add(update.produced)
+    }
+
+    /**
+     * Selects and soft-locks unlocked coins in [currency] worth at least [quantity], largest first so that few are
+     * consumed. Throws [InsufficientBalanceException] without locking anything if there is not enough unlocked cash.
+     */
+    fun select(currency: Currency, quantity: Long, lockId: UUID): List<StateAndRef<Cash.State>> {
+        synchronized(lock) {
+            val candidates = ArrayList<StateAndRef<Cash.State>>()
+            for ((token, byRef) in coins) {
+                if (token.product != currency) continue
+                byRef.values.filterTo(candidates) { it.ref !in softLocks }
+            }
+            candidates.sortByDescending { it.state.data.amount.quantity }
+
+            val selected = ArrayList<StateAndRef<Cash.State>>()
+            var selectedQuantity = 0L
+            for (coin in candidates) {
+                if (selectedQuantity >= quantity) break
+                selected.add(coin)
+                selectedQuantity += coin.state.data.amount.quantity
+            }
+            if (selectedQuantity < quantity) throw InsufficientBalanceException(Amount(quantity - selectedQuantity, currency))
+
+            for (coin in selected) softLocks[coin.ref] = lockId
+            return selected
+        }
+    }
+
+    /** Releases every coin soft-locked against [lockId] which has not been consumed. */
+    fun release(lockId: UUID) {
+        synchronized(lock) {
+            softLocks.values.removeAll { it == lockId }
+        }
+    }
+
+    /**
+     * Builds the node's [CashSelection] from the vault and keeps it up to date. Flows look it up with [of], as each
+     * node in the JVM (e.g. in a [MockNetwork]) has its own.
+     */
+    class Service(services: PluginServiceHub) {
+        init {
+            val me = services.myInfo.legalIdentity
+            val selection = CashSelection(me.owningKey)
+            val (vault, updates) = services.vaultService.track()
+            selection.add(vault.states)
+            updates.subscribe { selection.update(it) }
+            instances[me] = selection
+        }
+    }
+
+    companion object {
+        private val instances = ConcurrentHashMap<Party, CashSelection>()
+
+        fun of(services: ServiceHub): CashSelection {
+            val me = services.myInfo.legalIdentity
+            return instances[me] ?: throw IllegalStateException("No cash selection service is running for $me.")
+        }
+    }
+}
@@ -2,26 +2,202 @@ package com.iou.kotlin.flow.IOUSettle
 
 import co.paralleluniverse.fibers.Suspendable
 import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.flow.FlowMetrics
+import com.iou.kotlin.flow.IOUFinality.IOUFinalityFlow
+import com.iou.kotlin.flow.SignatureVerifier
+import com.iou.kotlin.service.IOUQueryService
 import com.iou.kotlin.state.IOUState
+import net.corda.contracts.asset.Cash
 import net.corda.core.contracts.*
+import net.corda.core.crypto.CompositeKey
 import net.corda.core.crypto.DigitalSignature
 import net.corda.core.crypto.Party
-import net.corda.core.crypto.SecureHash
+import net.corda.core.flows.FlowException
 import net.corda.core.flows.FlowLogic
-import net.corda.core.node.services.linearHeadsOfType
 import net.corda.core.transactions.SignedTransaction
-import net.corda.core.transactions.TransactionBuilder
-import net.corda.flows.FinalityFlow
 import net.corda.flows.ResolveTransactionsFlow
+import java.util.*
 
 object IOUSettleFlow {
-    class Initiator(val linearId: UniqueIdentifier, val amount: Int) : FlowLogic<Unit>() {
+    const val DEFAULT_MAX_IOUS_PER_TRANSACTION = 100
+
+    /**
+     * Settles several IOUs on which we are the sender, paying each recipient in cash. [amounts] maps each IOU's
+     * linearId to the amount to pay off; paying the full outstanding amount consumes the IOU.
+     *
+     * Cash is taken from the node's [CashSelection] rather than read from the vault. The IOUs are settled in as few
+     * transactions as possible, each covering at most [maxIOUsPerTransaction] IOUs. Every recipient is sent all of the
+     * transactions it has to sign in one message, and the messages to all recipients are sent before waiting on any reply, so the signatures are
+     * gathered in parallel rather than one recipient after another.
+     */
+    class Initiator(val amounts: Map<UniqueIdentifier, Int>,
+                    val maxIOUsPerTransaction: Int) : FlowLogic<List<SignedTransaction>>() {
+        constructor(amounts: Map<UniqueIdentifier, Int>) : this(amounts, DEFAULT_MAX_IOUS_PER_TRANSACTION)
+        constructor(linearId: UniqueIdentifier, amount: Int) : this(mapOf(linearId to amount))
+
         @Suspendable
-        override fun call() {}
+        override fun call(): List<SignedTransaction> {
+            require(amounts.isNotEmpty()) { "At least one IOU must be settled." }
+            require(maxIOUsPerTransaction > 0) { "At least one IOU must be settled per transaction." }
+            val stopwatch = FlowMetrics.start(this)
+
+            val notary = serviceHub.networkMapCache.notaryNodes.single().notaryIdentity
+            val me = serviceHub.myInfo.legalIdentity
+
+            // Coins are soft-locked in our cash selection as each transaction is built, and released again if we
+            // fail; those spent by the settlement are dropped from the selection once the transactions are recorded.
+            val lockId = UUID.randomUUID()
+            try {
+                // Stages 1 and 2 - Looking up the IOUs, then building and signing one transaction per chunk of them.
+                val settlements = prepare(me, notary, lockId, stopwatch)
+
+                // Stage 3 - Gathering the recipients' signatures in parallel.
+                val txsByRecipient = LinkedHashMap<Party, MutableList<Int>>()
+                settlements.forEachIndexed { index, settlement ->
+                    settlement.recipients.forEach { txsByRecipient.getOrPut(it) { ArrayList() }.add(index) }
+                }
+                for ((recipient, indices) in txsByRecipient) send(recipient, indices.map { settlements[it].stx })
+                val signedTxs = settlements.map { it.stx }.toTypedArray()
+                for ((recipient, indices) in txsByRecipient) {
+                    val signatures = receive<List<DigitalSignature.WithKey>>(recipient).unwrap { it }
+                    if (signatures.size != indices.size) throw FlowException("$recipient did not sign every transaction sent.")
+                    indices.forEachIndexed { i, index -> signedTxs[index] = signedTxs[index] + signatures[i] }
+                }
+                stopwatch.stage("counterparty")
+
+                // Stage 4 - Notarising and recording every transaction, each timed as a stage of its own.
+                val settled = signedTxs.mapIndexed { index, stx ->
+                    SignatureVerifier.verifySignatures(stx, notary.owningKey)
+                    stopwatch.stage("verifySignatures")
+                    subFlow(IOUFinalityFlow(stx, setOf(me) + settlements[index].recipients, stopwatch))
+                    stx
+                }
+                stopwatch.finish()
+                return settled
+            } finally {
+                CashSelection.of(serviceHub).release(lockId)
+            }
+        }
+
+        /**
+         * Looks up the IOUs to settle and builds the transactions settling them. This does not suspend, so the IOUs,
+         * the coins and the builders stay out of the checkpoints taken while we gather signatures: only each signed
+         * transaction and who must sign it are carried across.
+         */
+        private fun prepare(me: Party, notary: Party, lockId: UUID, stopwatch: FlowMetrics.Stopwatch): List<Settlement> {
+            val index = IOUQueryService.of(serviceHub)
+            val ious = amounts.map { entry ->
+                val iouRef = index.byLinearId(entry.key) ?: throw IllegalArgumentException("IOU with linearId ${entry.key} not found.")
+                val iou = iouRef.state.data
+                require(iou.sender == me) { "Only the sender of an IOU may settle it." }
+                require(entry.value > 0 && entry.value <= iou.outstanding) { "Cannot settle ${entry.value} of ${iou.outstanding} outstanding." }
+                iouRef
+            }
+            stopwatch.stage("lookup")
+
+            val settlements = chunked(ious).map { chunk ->
+                val stx = buildSettlement(chunk, lockId, notary)
+                Settlement(stx, recipientsOf(stx, ious))
+            }
+            stopwatch.stage("build")
+            return settlements
+        }
+
+        /**
+         * Builds and signs the transaction settling [chunk], paying for it with coins selected (and soft-locked
+         * against [lockId]) from our [CashSelection]. Any remainder of the last coin drawn is returned to us as change.
+         */
+        private fun buildSettlement(chunk: List<StateAndRef<IOUState>>, lockId: UUID, notary: Party): SignedTransaction {
+            val me = serviceHub.myInfo.legalIdentity
+            val total = chunk.sumBy { amounts[it.state.data.linearId]!! } * IOUContract.CASH_UNITS_PER_IOU_UNIT
+            val coins = CashSelection.of(serviceHub).select(USD, total, lockId).iterator()
+
+            val builder = TransactionType.General.Builder(notary)
+            val signers = LinkedHashSet<CompositeKey>()
+            val paidTo = LinkedHashMap<Pair<CompositeKey, Issued<Currency>>, Long>()
+            var coin: CashAllocation? = null
+            for (iouRef in chunk) {
+                val iou = iouRef.state.data
+                val amount = amounts[iou.linearId]!!
+                builder.addInputState(iouRef)
+                if (amount < iou.outstanding) builder.addOutputState(iou.pay(amount))
+                signers.addAll(iou.participants)
+
+                // Draw the payment from our coins, keeping each part in the currency and issuer it came from.
+                var due = amount * IOUContract.CASH_UNITS_PER_IOU_UNIT
+                while (due > 0) {
+                    if (coin == null || coin.remaining == 0L) {
+                        coin = CashAllocation(coins.next())
+                        builder.addInputState(coin.ref)
+                    }
+                    val part = Math.min(due, coin.remaining)
+                    coin.remaining -= part
+                    due -= part
+                    val key = Pair(iou.recipient.owningKey, coin.ref.state.data.amount.token)
+                    paidTo[key] = (paidTo[key] ?: 0L) + part
+                }
+            }
+            if (coin != null && coin.remaining > 0L) {
+                val token = coin.ref.state.data.amount.token
+                builder.addOutputState(Cash.State(Amount(coin.remaining, token), me.owningKey))
+            }
+            for ((key, quantity) in paidTo) builder.addOutputState(Cash.State(Amount(quantity, key.second), key.first))
+            builder.addCommand(Command(Cash.Commands.Move(), me.owningKey))
+            builder.addCommand(Command(IOUContract.Commands.Settle(), signers.toList()))
+
+            builder.toWireTransaction().toLedgerTransaction(serviceHub).verify()
+            return builder.signWith(serviceHub.legalIdentityKey).toSignedTransaction(false)
+        }
+
+        private fun chunked(ious: List<StateAndRef<IOUState>>): List<List<StateAndRef<IOUState>>> {
+            return (0..(ious.size - 1) / maxIOUsPerTransaction).map { i ->
+                ious.subList(i * maxIOUsPerTransaction, Math.min((i + 1) * maxIOUsPerTransaction, ious.size))
+            }
+        }
+
+        private fun recipientsOf(stx: SignedTransaction, ious: List<StateAndRef<IOUState>>): Set<Party> {
+            val inputs = stx.tx.inputs.toHashSet()
+            return ious.filter { it.ref in inputs }.map { it.state.data.recipient }.toSet()
+        }
+    }
+
+    /** A settlement transaction signed by us, and the [recipients] who have yet to sign it. */
+    private class Settlement(val stx: SignedTransaction, val recipients: Set<Party>)
+
+    /** Tracks how much of a cash state is still unallocated while payments are drawn from it. */
+    private class CashAllocation(val ref: StateAndRef<Cash.State>) {
+        var remaining: Long = ref.state.data.amount.quantity
     }
 
     class Acceptor(private val otherParty: Party) : FlowLogic<Unit>() {
         @Suspendable
-        override fun call() {}
+        override fun call() {
+            val stxs = receive<List<SignedTransaction>>(otherParty).unwrap { it }
+
+            val signatures = stxs.map { stx ->
+                subFlow(ResolveTransactionsFlow(stx, otherParty))
+                checkSettlement(stx)
+                stx.signWithECDSA(serviceHub.legalIdentityKey)
+            }
+
+            send(otherParty, signatures)
+        }
+
+        /**
+         * Checks [stx], whose backchain we have resolved, settles IOUs owed to us by [otherParty]. This does not
+         * suspend, so the wire and ledger transactions stay out of the checkpoints taken while the next one resolves.
+         */
+        private fun checkSettlement(stx: SignedTransaction) {
+            val me = serviceHub.myInfo.legalIdentity
+            // The other recipients sign in parallel with us, so only the sender's signature must be present.
+            val wtx = stx.tx
+            val allowedToBeMissing = wtx.commands.flatMap { it.signers }.filter { it != otherParty.owningKey }
+            SignatureVerifier.verifySignatures(stx, *(allowedToBeMissing + wtx.notary!!.owningKey).toTypedArray())
+            val ltx = wtx.toLedgerTransaction(serviceHub)
+            ltx.verify()
+            val ours = ltx.inputs.map { it.state.data }.filterIsInstance<IOUState>().filter { it.recipient == me }
+            if (ours.isEmpty() || ours.any { it.sender != otherParty })
+                throw FlowException("Transaction ${stx.id} does not settle IOUs owed to us by $otherParty.")
+        }
     }
-}
\ No newline at end of file
+}
@@ -2,20 +2,103 @@ package com.iou.kotlin.flow.IOUTransfer
 
 import co.paralleluniverse.fibers.Suspendable
 import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.flow.FlowMetrics
+import com.iou.kotlin.flow.IOUFinality.IOUFinalityFlow
+import com.iou.kotlin.flow.SignatureVerifier
 import com.iou.kotlin.state.IOUState
 import net.corda.core.contracts.Command
 import net.corda.core.contracts.StateAndRef
 import net.corda.core.contracts.StateRef
+import net.corda.core.contracts.Timestamp
 import net.corda.core.contracts.TransactionType
+import net.corda.core.crypto.DigitalSignature
 import net.corda.core.crypto.Party
+import net.corda.core.flows.FlowException
 import net.corda.core.flows.FlowLogic
 import net.corda.core.transactions.SignedTransaction
-import net.corda.flows.FinalityFlow
+import java.time.Duration
+import java.time.Instant
 
 object IOUTransferFlow {
-    class Initiator(val stateRef: StateRef, val newRecipient: Party) : FlowLogic<Unit>() {
+    val DEFAULT_SIGNATURE_TIMEOUT: Duration = Duration.ofSeconds(30)
+
+    /** How long after the signing deadline the transaction's time-window stays open, for it to be notarised. */
+    val NOTARISATION_SLACK: Duration = Duration.ofSeconds(30)
+
+    /**
+     * Transfers the IOU at [stateRef], of which we must be the recipient, to [newRecipient]. The IOU's sender and the
+     * new recipient each sign (answered by [IOUTransferSubflow.Acceptor]) before the transaction is notarised and
+     * recorded by all three parties.
+     *
+     * The transaction is sent to both signers before waiting on either, so gathering the signatures takes as long as
+     * the slower of the two round-trips rather than both. Each signer has [signatureTimeout] to answer, and a late
+     * signature is refused by the signer or by us, so nothing is recorded. The transaction's time-window stays open
+     * for [NOTARISATION_SLACK] after that deadline, so that a transfer signed just in time can still be notarised.
+     *
+     * Flows in this Corda version cannot time out a receive, so a signer which never answers leaves the flow waiting;
+     * see the README for how to handle one.
+     */
+    class Initiator(val stateRef: StateRef,
+                    val newRecipient: Party,
+                    val signatureTimeout: Duration) : FlowLogic<SignedTransaction>() {
+        constructor(stateRef: StateRef, newRecipient: Party) : this(stateRef, newRecipient, DEFAULT_SIGNATURE_TIMEOUT)
 
         @Suspendable
-        override fun call() {}
+        override fun call(): SignedTransaction {
+            val me = serviceHub.myInfo.legalIdentity
+            val stopwatch = FlowMetrics.start(this)
+            val proposal = propose(me, stopwatch)
+            val partSignedTx = proposal.stx
+
+            // Stage 3 - Gathering the other parties' signatures.
+            for (party in proposal.counterparties) send(party, partSignedTx)
+            val signatures = proposal.counterparties.map { party ->
+                val signature = receive<DigitalSignature.WithKey>(party).unwrap { it }
+                if (serviceHub.clock.instant() > proposal.deadline) throw FlowException("$party did not sign within $signatureTimeout.")
+                if (signature.by !in party.owningKey.keys) throw FlowException("$party did not sign with its own key.")
+                signature
+            }
+            stopwatch.stage("counterparty")
+            SignatureVerifier.verify(partSignedTx.id.bytes, signatures)
+            val signedTx = signatures.fold(partSignedTx) { stx, signature -> stx + signature }
+            stopwatch.stage("verifySignatures")
+
+            // Stage 4 - Notarising and recording the transaction.
+            subFlow(IOUFinalityFlow(signedTx, proposal.counterparties.toSet() + me, stopwatch))
+            stopwatch.finish()
+            return signedTx
+        }
+
+        /**
+         * Builds, verifies and signs the transfer. This does not suspend, so the IOU loaded from [stateRef], the builder
+         * and the ledger transaction stay out of the checkpoints taken while we wait for signatures: only the signed
+         * transaction and who must sign it are carried across.
+         */
+        private fun propose(me: Party, stopwatch: FlowMetrics.Stopwatch): Proposal {
+            // Stage 1 - Retrieving the IOU to transfer.
+            val input: StateAndRef<IOUState> = serviceHub.toStateAndRef(stateRef)
+            val iou = input.state.data
+            require(iou.recipient == me) { "Only the recipient of an IOU may transfer it." }
+
+            // Stage 2 - Generating, verifying and signing the transaction.
+            val signers = listOf(iou.sender.owningKey, me.owningKey, newRecipient.owningKey)
+            val now = serviceHub.clock.instant()
+            val deadline = now + signatureTimeout
+            val builder = TransactionType.General.Builder(input.state.notary)
+            builder.addInputState(input)
+            builder.addOutputState(iou.copy(recipient = newRecipient))
+            builder.addCommand(Command(IOUContract.Commands.Transfer(), signers))
+            builder.setTime(Timestamp(now, deadline + NOTARISATION_SLACK))
+            stopwatch.stage("build")
+            builder.toWireTransaction().toLedgerTransaction(serviceHub).verify()
+            stopwatch.stage("verify")
+            val partSignedTx = builder.signWith(serviceHub.legalIdentityKey).toSignedTransaction(false)
+            stopwatch.stage("sign")
+            val counterparties = listOf(iou.sender, newRecipient).distinct().filter { it != me }
+            return Proposal(partSignedTx, counterparties, deadline)
+        }
     }
-}
\ No newline at end of file
+
+    /** A transfer signed by its initiator, the [counterparties] who have yet to sign it, and by when they must. */
+    private class Proposal(val stx: SignedTransaction, val counterparties: List<Party>, val deadline: Instant)
+}
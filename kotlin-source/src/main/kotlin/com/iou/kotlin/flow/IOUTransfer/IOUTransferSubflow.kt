@@ -1,23 +1,97 @@
 package com.iou.kotlin.flow.IOUTransfer
 
 import co.paralleluniverse.fibers.Suspendable
+import com.iou.kotlin.flow.FlowMetrics
+import com.iou.kotlin.flow.SignatureVerifier
 import com.iou.kotlin.state.IOUState
 import net.corda.core.crypto.DigitalSignature
 import net.corda.core.crypto.Party
+import net.corda.core.crypto.SecureHash
+import net.corda.core.flows.FlowException
 import net.corda.core.flows.FlowLogic
 import net.corda.core.transactions.SignedTransaction
 import net.corda.flows.ResolveTransactionsFlow
 
 object IOUTransferSubflow {
-    class Initiator(val stx: SignedTransaction, val otherParty: Party) : FlowLogic<Unit>() {
+    /**
+     * Asks [otherParty] to sign [stx], a transfer of an IOU they are a party to, and returns their signature. Only the
+     * signing key is checked here: the caller verifies the signatures it gathers together, with [SignatureVerifier].
+     */
+    class Initiator(val stx: SignedTransaction, val otherParty: Party) : FlowLogic<DigitalSignature.WithKey>() {
 
         @Suspendable
-        override fun call() {}
+        override fun call(): DigitalSignature.WithKey {
+            val stopwatch = FlowMetrics.start(this)
+            val signature = sendAndReceive<DigitalSignature.WithKey>(otherParty, stx).unwrap { it }
+            stopwatch.stage("counterparty")
+            if (signature.by !in otherParty.owningKey.keys) throw FlowException("$otherParty did not sign with its own key.")
+            stopwatch.finish()
+            return signature
+        }
     }
 
     class Acceptor(private val otherParty: Party) : FlowLogic<Unit>() {
 
         @Suspendable
-        override fun call() {}
+        override fun call() {
+            val stopwatch = FlowMetrics.start(this)
+            val stx = receive<SignedTransaction>(otherParty).unwrap { it }
+            stopwatch.stage("counterparty")
+            val inputTxIds = checkProposal(stx)
+            stopwatch.stage("verifySignatures")
+
+            resolveInputs(inputTxIds)
+            stopwatch.stage("resolve")
+            checkTransfer(stx)
+            stopwatch.stage("verify")
+
+            val signature = stx.signWithECDSA(serviceHub.legalIdentityKey)
+            stopwatch.stage("sign")
+            send(otherParty, signature)
+            stopwatch.finish()
+        }
+
+        /**
+         * Checks [stx] is still within its time-window and carries the signatures it should, and returns the ids of the
+         * transactions its inputs come from. Like [checkTransfer], this does not suspend, so the deserialised wire and
+         * ledger transactions are rebuilt when needed rather than carried in our checkpoints alongside [stx].
+         */
+        private fun checkProposal(stx: SignedTransaction): List<SecureHash> {
+            // A transfer's time-window closes a notarisation slack after the initiator stops waiting for signatures.
+            val wtx = stx.tx
+            val deadline = wtx.timestamp?.before?.minus(IOUTransferFlow.NOTARISATION_SLACK)
+            if (deadline != null && serviceHub.clock.instant() > deadline)
+                throw FlowException("The deadline for signing transaction ${stx.id} has passed.")
+
+            // The other parties sign separately, so only the transferring recipient's signature must be present.
+            val allowedToBeMissing = wtx.commands.flatMap { it.signers }.filter { it != otherParty.owningKey }
+            SignatureVerifier.verifySignatures(stx, *(allowedToBeMissing + wtx.notary!!.owningKey).toTypedArray())
+            return wtx.inputs.map { it.txhash }.distinct()
+        }
+
+        /** Checks [stx], whose inputs we have resolved, is a valid transfer of IOUs held by [otherParty] involving us. */
+        private fun checkTransfer(stx: SignedTransaction) {
+            val me = serviceHub.myInfo.legalIdentity
+            val ltx = stx.tx.toLedgerTransaction(serviceHub)
+            ltx.verify()
+            val transferred = ltx.inputs.map { it.state.data }.filterIsInstance<IOUState>()
+            val received = ltx.outputs.map { it.data }.filterIsInstance<IOUState>()
+            if (transferred.any { it.recipient != otherParty } ||
+                    (transferred.none { it.sender == me } && received.none { it.recipient == me }))
+                throw FlowException("Transaction ${stx.id} is not a transfer of IOUs held by $otherParty involving us.")
+        }
+
+        /**
+         * Resolves the backchains of the transactions [inputTxIds]. Those we have already verified are skipped
+         * without a lookup in storage or a request to [otherParty], and the rest are requested in a single batch, so
+         * transferring a long-lived IOU only fetches the part of its history that is new to us.
+         */
+        @Suspendable
+        private fun resolveInputs(inputTxIds: List<SecureHash>) {
+            val missing = ResolutionCache.of(serviceHub).missing(inputTxIds)
+            if (missing.isEmpty()) return
+            subFlow(ResolveTransactionsFlow(missing, otherParty))
+            ResolutionCache.of(serviceHub).record(missing)
+        }
     }
-}
\ No newline at end of file
+}
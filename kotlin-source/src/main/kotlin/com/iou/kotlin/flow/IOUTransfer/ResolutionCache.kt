@@ -0,0 +1,66 @@
+package com.iou.kotlin.flow.IOUTransfer
+
+import net.corda.core.crypto.Party
+import net.corda.core.crypto.SecureHash
+import net.corda.core.node.PluginServiceHub
+import net.corda.core.node.ServiceHub
+import net.corda.core.node.services.ReadOnlyTransactionStorage
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Remembers the ids of the transactions this node has already verified, so that resolving the backchain of a
+ * transaction we are asked to sign can skip every part of it we already hold, without asking the counterparty or
+ * re-verifying anything.
+ *
+ * The node's validated transaction storage is the persistent record of what we have verified. This is a bounded,
+ * least-recently-used index over it: ids are added as transactions are recorded, and an id missing from the index is
+ * looked up in the storage, so nothing is forgotten across restarts or evictions, only made slower to find.
+ */
+class ResolutionCache(private val storage: ReadOnlyTransactionStorage, private val maxSize: Int) {
+    private val verified = object : LinkedHashMap<SecureHash, Unit>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<SecureHash, Unit>?) = size > maxSize
+    }
+
+    fun isVerified(id: SecureHash): Boolean {
+        synchronized(verified) {
+            if (verified.containsKey(id)) return true
+        }
+        if (storage.getTransaction(id) == null) return false
+        record(listOf(id))
+        return true
+    }
+
+    /** Those of [ids] which we have not verified, which must be resolved from the counterparty. */
+    fun missing(ids: Iterable<SecureHash>): Set<SecureHash> = ids.filterNotTo(LinkedHashSet()) { isVerified(it) }
+
+    fun record(ids: Iterable<SecureHash>) {
+        synchronized(verified) {
+            for (id in ids) verified[id] = Unit
+        }
+    }
+
+    /**
+     * Builds the node's [ResolutionCache] and keeps it up to date as transactions are recorded. Flows look it up with
+     * [of], as each node in the JVM (e.g. in a [MockNetwork]) has its own.
+     */
+    class Service(services: PluginServiceHub) {
+        init {
+            val storage = services.storageService.validatedTransactions
+            val cache = ResolutionCache(storage, DEFAULT_MAX_SIZE)
+            storage.updates.subscribe { cache.record(listOf(it.id)) }
+            instances[services.myInfo.legalIdentity] = cache
+        }
+    }
+
+    companion object {
+        const val DEFAULT_MAX_SIZE = 100000
+
+        private val instances = ConcurrentHashMap<Party, ResolutionCache>()
+
+        fun of(services: ServiceHub): ResolutionCache {
+            val me = services.myInfo.legalIdentity
+            return instances[me] ?: throw IllegalStateException("No resolution cache is running for $me.")
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.iou.kotlin.flow
+
+import net.corda.core.crypto.CompositeKey
+import net.corda.core.crypto.DigitalSignature
+import net.corda.core.transactions.SignedTransaction
+import net.corda.core.transactions.WireTransaction
+import java.security.SignatureException
+
+/**
+ * Checks the signatures gathered by the IOU flows, one after another on the flow's thread, stopping at the first
+ * invalid one.
+ *
+ * They are not handed to a thread pool: the flow's thread could only block while the pool worked, which holds up every
+ * other flow on the node, and a flow may only wait without blocking by suspending, which the platform allows for
+ * messages alone. A transaction carries a handful of signatures, and checking them takes about as long as handing them
+ * over would. Nothing here suspends, so it can be called from a flow with no effect on its checkpoints.
+ */
+object SignatureVerifier {
+    /** Verifies that each of [signatures] is a valid signature over [content], throwing [SignatureException] if not. */
+    fun verify(content: ByteArray, signatures: Collection<DigitalSignature.WithKey>) {
+        for (signature in signatures) signature.verifyWithECDSA(content)
+    }
+
+    /**
+     * Equivalent to [SignedTransaction.verifySignatures]: every signature present must be valid, and every key which
+     * must sign the transaction has signed it except [allowedToBeMissing].
+     */
+    fun verifySignatures(stx: SignedTransaction, vararg allowedToBeMissing: CompositeKey): WireTransaction {
+        verify(stx.id.bytes, stx.sigs)
+        val signedBy = stx.sigs.map { it.by }.toSet()
+        val missing = stx.tx.mustSign.filter { !it.isFulfilledBy(signedBy) }.toSet() - allowedToBeMissing
+        if (missing.isNotEmpty())
+            throw SignedTransaction.SignaturesMissingException(missing, missing.map { it.toString() }, stx.id)
+        return stx.tx
+    }
+}
@@ -2,17 +2,31 @@ package com.iou.kotlin.plugin
 
 import com.esotericsoftware.kryo.Kryo
 import com.iou.kotlin.api.IOUApi
+import com.iou.kotlin.api.IOUQuery
 import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.flow.FlowMetrics
+import com.iou.kotlin.flow.IOUCompaction.AutoCompaction
+import com.iou.kotlin.flow.IOUCompaction.IOUCompactionFlow
 import com.iou.kotlin.flow.IOUCreation.IOUCreationFlow
+import com.iou.kotlin.flow.IOUFinality.BatchedBroadcast
+import com.iou.kotlin.flow.IOUFinality.IOUBroadcastFlow
+import com.iou.kotlin.flow.IOUNetting.IOUNettingFlow
+import com.iou.kotlin.flow.IOUSettle.CashSelection
 import com.iou.kotlin.flow.IOUSettle.IOUSettleFlow
 import com.iou.kotlin.flow.IOUSettle.SelfIssueCashFlow
+import com.iou.kotlin.flow.IOUTransfer.IOUTransferFlow
+import com.iou.kotlin.flow.IOUTransfer.ResolutionCache
+import com.iou.kotlin.service.IOUPositionCache
+import com.iou.kotlin.service.IOUQueryService
 import com.iou.kotlin.service.IOUService
 import com.iou.kotlin.state.IOUState
 import net.corda.contracts.asset.Cash
 import net.corda.core.contracts.*
 import net.corda.core.crypto.Party
 import net.corda.core.node.CordaPluginRegistry
+import net.corda.core.node.PluginServiceHub
 import net.corda.core.transactions.LedgerTransaction
+import java.util.*
 import java.util.function.Function
 
 class IOUKotlinPlugin : CordaPluginRegistry() {
@@ -35,16 +49,32 @@ class IOUKotlinPlugin : CordaPluginRegistry() {
      * here, then the flow state machine will _not_ invoke the flow. Instead, an exception will be raised.
      */
     override val requiredFlows = mapOf(
-            IOUCreationFlow.Initiator::class.java.name to setOf(IOUState::class.java.name, Party::class.java.name),
+            IOUCreationFlow.Initiator::class.java.name to setOf(IOUState::class.java.name, List::class.java.name, Party::class.java.name),
+            IOUTransferFlow.Initiator::class.java.name to setOf(StateRef::class.java.name, Party::class.java.name),
+            IOUCompactionFlow.Initiator::class.java.name to setOf(StateRef::class.java.name, Int::class.java.name),
+            IOUNettingFlow.Initiator::class.java.name to setOf(Set::class.java.name),
+            IOUBroadcastFlow.Sender::class.java.name to setOf(Party::class.java.name, List::class.java.name),
             SelfIssueCashFlow::class.java.name to setOf(Int::class.java.name),
-            IOUSettleFlow.Initiator::class.java.name to setOf(UniqueIdentifier::class.java.name, Int::class.java.name))
+            IOUSettleFlow.Initiator::class.java.name to setOf(UniqueIdentifier::class.java.name, Int::class.java.name, Map::class.java.name),
+            FlowMetrics.Snapshot::class.java.name to emptySet<String>(),
+            IOUQuery.PageFlow::class.java.name to setOf(IOUQuery::class.java.name, UUID::class.java.name, Int::class.java.name),
+            IOUPositionCache.PositionsFlow::class.java.name to emptySet<String>(),
+            IOUPositionCache.PositionFlow::class.java.name to setOf(Party::class.java.name),
+            IOUPositionCache.CheckFlow::class.java.name to emptySet<String>())
 
     /**
      * A list of long lived services to be hosted within the node. Typically you would use these to register flow
      * factories that would be used when an initiating party attempts to communicate with our node using a particular
      * flow. See the [ExampleService.Service] class for an implementation which sets up a
      */
-    override val servicePlugins = listOf(Function(IOUService::Service))
+    override val servicePlugins: List<Function<PluginServiceHub, out Any>> = listOf(
+            Function(IOUService::Service),
+            Function(CashSelection::Service),
+            Function(ResolutionCache::Service),
+            Function(AutoCompaction::Service),
+            Function(IOUQueryService::Service),
+            Function(IOUPositionCache::Service),
+            Function(BatchedBroadcast::Service))
 
     /**
      * A list of directories in the resources directory that will be served by Jetty under /web.
@@ -55,18 +85,29 @@ class IOUKotlinPlugin : CordaPluginRegistry() {
      * Register required types with Kryo (our serialisation framework).
      */
     override fun registerRPCKryoTypes(kryo: Kryo): Boolean {
-        kryo.register(IOUState::class.java)
+        kryo.register(IOUState::class.java, IOUStateSerializer)
         kryo.register(IOUContract::class.java)
-        // kryo.register(IOUContract.Commands.Create::class.java)
-        // kryo.register(IOUContract.Commands.Transfer::class.java)
-        // kryo.register(IOUContract.Commands.Settle::class.java)
+        kryo.register(IOUContract.Commands.Create::class.java, CommandSerializer { IOUContract.Commands.Create() })
+        kryo.register(IOUContract.Commands.Transfer::class.java, CommandSerializer { IOUContract.Commands.Transfer() })
+        kryo.register(IOUContract.Commands.Settle::class.java, CommandSerializer { IOUContract.Commands.Settle() })
+        kryo.register(IOUContract.Commands.Compact::class.java, CommandSerializer { IOUContract.Commands.Compact() })
+        kryo.register(IOUContract.Commands.Net::class.java, CommandSerializer { IOUContract.Commands.Net() })
         kryo.register(Cash.Commands.Move::class.java)
         kryo.register(TransactionVerificationException.ContractRejection::class.java)
         kryo.register(LedgerTransaction::class.java)
         kryo.register(AuthenticatedObject::class.java)
         kryo.register(Timestamp::class.java)
         kryo.register(TransactionType.General::class.java)
-        kryo.register(UniqueIdentifier::class.java)
+        kryo.register(UniqueIdentifier::class.java, UniqueIdentifierSerializer)
+        // The arguments and results of the flows the web API reads the node's state with.
+        kryo.register(TreeMap::class.java)
+        kryo.register(LinkedHashMap::class.java)
+        kryo.register(IOUQuery::class.java)
+        kryo.register(IOUQuery.Page::class.java)
+        kryo.register(UUID::class.java)
+        kryo.register(HashMap::class.java)
+        kryo.register(IOUPositionCache.Position::class.java)
+        kryo.register(IOUPositionCache.Mismatch::class.java)
         return true
     }
 }
\ No newline at end of file
@@ -0,0 +1,100 @@
+package com.iou.kotlin.plugin
+
+import com.esotericsoftware.kryo.Kryo
+import com.esotericsoftware.kryo.Serializer
+import com.esotericsoftware.kryo.io.Input
+import com.esotericsoftware.kryo.io.Output
+import com.esotericsoftware.kryo.util.ObjectMap
+import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.CommandData
+import net.corda.core.contracts.UniqueIdentifier
+import net.corda.core.crypto.CompositeKey
+import net.corda.core.crypto.Party
+import java.util.*
+
+/*
+ * Compact Kryo serializers for the types our RPC payloads are made of, registered by [IOUKotlinPlugin]. Each writes a
+ * fixed sequence of fields with no field names or class names, and integers as varints.
+ */
+
+/**
+ * Writes an [IOUState]. The contract is stateless and is not written at all. The parties are written through
+ * [PartyReferences], so that the many IOUs between the same parties in a vault query repeat only a small index.
+ */
+object IOUStateSerializer : Serializer<IOUState>(false, true) {
+    override fun write(kryo: Kryo, output: Output, iou: IOUState) {
+        output.writeVarInt(iou.iouValue, true)
+        output.writeVarInt(iou.paid, true)
+        PartyReferences.write(kryo, output, iou.sender)
+        PartyReferences.write(kryo, output, iou.recipient)
+        UniqueIdentifierSerializer.write(kryo, output, iou.linearId)
+    }
+
+    override fun read(kryo: Kryo, input: Input, type: Class<IOUState>): IOUState {
+        val iouValue = input.readVarInt(true)
+        val paid = input.readVarInt(true)
+        val sender = PartyReferences.read(kryo, input)
+        val recipient = PartyReferences.read(kryo, input)
+        val linearId = UniqueIdentifierSerializer.read(kryo, input, UniqueIdentifier::class.java)
+        return IOUState(iouValue, sender, recipient, IOUContract(), paid, linearId)
+    }
+}
+
+/** Writes a [UniqueIdentifier] as its optional external id followed by the two halves of its UUID. */
+object UniqueIdentifierSerializer : Serializer<UniqueIdentifier>(false, true) {
+    override fun write(kryo: Kryo, output: Output, linearId: UniqueIdentifier) {
+        output.writeString(linearId.externalId)
+        output.writeLong(linearId.id.mostSignificantBits)
+        output.writeLong(linearId.id.leastSignificantBits)
+    }
+
+    override fun read(kryo: Kryo, input: Input, type: Class<UniqueIdentifier>): UniqueIdentifier {
+        val externalId = input.readString()
+        return UniqueIdentifier(externalId, UUID(input.readLong(), input.readLong()))
+    }
+}
+
+/** Writes nothing for a command which carries no data; the registered class id alone identifies it. */
+class CommandSerializer<T : CommandData>(private val create: () -> T) : Serializer<T>(false, true) {
+    override fun write(kryo: Kryo, output: Output, command: T) {}
+
+    override fun read(kryo: Kryo, input: Input, type: Class<T>): T = create()
+}
+
+/**
+ * Writes each distinct [Party] in full once per serialised object graph, and as the index of that first occurrence
+ * thereafter. The tables live in Kryo's graph context, which Kryo clears between top-level objects.
+ */
+object PartyReferences {
+    private const val WRITTEN = "com.iou.kotlin.plugin.PartyReferences.written"
+    private const val READ = "com.iou.kotlin.plugin.PartyReferences.read"
+
+    fun write(kryo: Kryo, output: Output, party: Party) {
+        @Suppress("UNCHECKED_CAST")
+        val context = kryo.graphContext as ObjectMap<Any, Any>
+        @Suppress("UNCHECKED_CAST")
+        val written = context.get(WRITTEN) as HashMap<Party, Int>? ?: HashMap<Party, Int>().apply { context.put(WRITTEN, this) }
+        val index = written[party]
+        if (index != null) {
+            output.writeVarInt(index + 1, true)
+            return
+        }
+        output.writeVarInt(0, true)
+        output.writeString(party.name)
+        kryo.writeClassAndObject(output, party.owningKey)
+        written[party] = written.size
+    }
+
+    fun read(kryo: Kryo, input: Input): Party {
+        @Suppress("UNCHECKED_CAST")
+        val context = kryo.graphContext as ObjectMap<Any, Any>
+        @Suppress("UNCHECKED_CAST")
+        val read = context.get(READ) as ArrayList<Party>? ?: ArrayList<Party>().apply { context.put(READ, this) }
+        val reference = input.readVarInt(true)
+        if (reference > 0) return read[reference - 1]
+        val party = Party(input.readString(), kryo.readClassAndObject(input) as CompositeKey)
+        read.add(party)
+        return party
+    }
+}
@@ -0,0 +1,147 @@
+package com.iou.kotlin.service
+
+import co.paralleluniverse.fibers.Suspendable
+import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.ContractState
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.crypto.Party
+import net.corda.core.flows.FlowLogic
+import net.corda.core.node.PluginServiceHub
+import net.corda.core.node.ServiceHub
+import net.corda.core.node.services.Vault
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Our aggregate position against each counterparty over the unconsumed IOUs between us, kept up to date
+ * incrementally from vault updates so that reading a position is a single hash lookup however many IOUs there are.
+ *
+ * Each counterparty's position is an immutable [Position] replaced atomically in a [ConcurrentHashMap], so updates to
+ * different counterparties never contend, and a reader always sees a position as a whole, never owed from one update
+ * and owing from another.
+ *
+ * The web API runs in its own process, so it reads positions by starting [PositionsFlow], [PositionFlow] or
+ * [CheckFlow] on the node over RPC.
+ */
+class IOUPositionCache(private val me: Party) {
+    /**
+     * What [count] unconsumed IOUs with a counterparty add up to: [owed] is outstanding on the IOUs it sent us, and
+     * [owing] is outstanding on the IOUs we sent it.
+     */
+    data class Position(val owed: Long, val owing: Long, val count: Int) {
+        /** What the counterparty owes us overall, less what we owe it. */
+        val net: Long get() = owed - owing
+
+        operator fun plus(other: Position) = Position(owed + other.owed, owing + other.owing, count + other.count)
+
+        operator fun unaryMinus() = Position(-owed, -owing, -count)
+
+        companion object {
+            val ZERO = Position(0, 0, 0)
+        }
+    }
+
+    /** A counterparty whose cached position differs from the one rebuilt from the vault by [check]. */
+    data class Mismatch(val counterparty: Party, val cached: Position, val rebuilt: Position)
+
+    private val positions = ConcurrentHashMap<Party, Position>()
+
+    fun add(states: Iterable<StateAndRef<ContractState>>) {
+        for (stateAndRef in states) {
+            val iou = stateAndRef.state.data as? IOUState ?: continue
+            apply(iou, positionOf(iou) ?: continue)
+        }
+    }
+
+    fun remove(states: Iterable<StateAndRef<ContractState>>) {
+        for (stateAndRef in states) {
+            val iou = stateAndRef.state.data as? IOUState ?: continue
+            apply(iou, -(positionOf(iou) ?: continue))
+        }
+    }
+
+    fun update(update: Vault.Update) {
+        remove(update.consumed)
+        add(update.produced)
+    }
+
+    /** Our position against [counterparty], which is [Position.ZERO] if there are no IOUs between us. */
+    operator fun get(counterparty: Party): Position = positions[counterparty] ?: Position.ZERO
+
+    /** Our position against every counterparty with which we have an unconsumed IOU. */
+    fun all(): Map<Party, Position> = HashMap(positions)
+
+    /**
+     * Rebuilds our positions from scratch over [states], a snapshot of the vault, and returns every counterparty whose
+     * cached position differs. The snapshot and the cache are not taken atomically, so a mismatch found while IOU flows
+     * are running may only be an update still on its way to the cache; checking again will tell.
+     */
+    fun check(states: Iterable<StateAndRef<ContractState>>): List<Mismatch> {
+        val rebuilt = IOUPositionCache(me)
+        rebuilt.add(states)
+        val expected = rebuilt.all()
+        val cached = all()
+        return (expected.keys + cached.keys).map { party ->
+            Mismatch(party, cached[party] ?: Position.ZERO, expected[party] ?: Position.ZERO)
+        }.filter { it.cached != it.rebuilt }
+    }
+
+    /** What [iou] contributes to our position against its counterparty, or null if we are not a party to it. */
+    private fun positionOf(iou: IOUState): Position? {
+        return when (me) {
+            iou.recipient -> Position(iou.outstanding.toLong(), 0, 1)
+            iou.sender -> Position(0, iou.outstanding.toLong(), 1)
+            else -> null
+        }
+    }
+
+    private fun apply(iou: IOUState, delta: Position) {
+        val counterparty = if (iou.recipient == me) iou.sender else iou.recipient
+        positions.compute(counterparty) { party, old ->
+            val position = (old ?: Position.ZERO) + delta
+            if (position == Position.ZERO) null else position
+        }
+    }
+
+    /** Returns our position against every counterparty, as [all] does. */
+    class PositionsFlow : FlowLogic<Map<Party, Position>>() {
+        @Suspendable
+        override fun call() = of(serviceHub).all()
+    }
+
+    /** Returns our position against [counterparty], as [get] does. */
+    class PositionFlow(val counterparty: Party) : FlowLogic<Position>() {
+        @Suspendable
+        override fun call() = of(serviceHub)[counterparty]
+    }
+
+    /** Checks the cached positions against the node's vault, as [check] does, without sending the vault anywhere. */
+    class CheckFlow : FlowLogic<List<Mismatch>>() {
+        @Suspendable
+        override fun call() = of(serviceHub).check(serviceHub.vaultService.currentVault.states)
+    }
+
+    /**
+     * Builds the node's [IOUPositionCache] from the vault and keeps it up to date. Flows look it up with [of], as each
+     * node in the JVM (e.g. in a [MockNetwork]) has its own.
+     */
+    class Service(services: PluginServiceHub) {
+        init {
+            val me = services.myInfo.legalIdentity
+            val cache = IOUPositionCache(me)
+            val (vault, updates) = services.vaultService.track()
+            cache.add(vault.states)
+            updates.subscribe { cache.update(it) }
+            instances[me] = cache
+        }
+    }
+
+    companion object {
+        private val instances = ConcurrentHashMap<Party, IOUPositionCache>()
+
+        fun of(services: ServiceHub): IOUPositionCache {
+            val me = services.myInfo.legalIdentity
+            return instances[me] ?: throw IllegalStateException("No IOU position cache is running for $me.")
+        }
+    }
+}
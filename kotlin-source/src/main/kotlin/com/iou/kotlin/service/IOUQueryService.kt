@@ -0,0 +1,177 @@
+package com.iou.kotlin.service
+
+import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.ContractState
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.contracts.UniqueIdentifier
+import net.corda.core.crypto.Party
+import net.corda.core.node.PluginServiceHub
+import net.corda.core.node.ServiceHub
+import net.corda.core.node.services.Vault
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Indexes the unconsumed IOUs in a node's vault by linearId, by sender and recipient, and by value. Flows look IOUs up
+ * here rather than loading every linear head in the vault: a lookup by linearId is a map lookup, and a [page] in
+ * linearId order only visits the IOUs of the index which narrows it most, stopping as soon as it is full. The web API
+ * reaches it through [IOUQuery.PageFlow].
+ *
+ * Each IOU is held once; the indices only refer to it. The index is kept up to date incrementally from vault updates,
+ * like [CashSelection], and rebuilt from the vault when the node starts. Results are copies, so callers may iterate
+ * them while the vault moves on.
+ */
+class IOUQueryService {
+    private val lock = Any()
+    // Every index keeps its IOUs in linearId order, so that a page can be read off it in order from a cursor.
+    private val heads = TreeMap<UUID, StateAndRef<IOUState>>()
+    private val values = TreeMap<Int, TreeMap<UUID, StateAndRef<IOUState>>>()
+    private val sentBy = HashMap<Party, TreeMap<UUID, StateAndRef<IOUState>>>()
+    private val heldBy = HashMap<Party, TreeMap<UUID, StateAndRef<IOUState>>>()
+
+    fun add(states: Iterable<StateAndRef<ContractState>>) {
+        synchronized(lock) {
+            for (stateAndRef in states) {
+                val iou = stateAndRef.state.data as? IOUState ?: continue
+                @Suppress("UNCHECKED_CAST")
+                val iouRef = stateAndRef as StateAndRef<IOUState>
+                heads.put(iou.linearId.id, iouRef)?.let { remove(it) }
+                values.getOrPut(iou.iouValue) { TreeMap() }[iou.linearId.id] = iouRef
+                sentBy.getOrPut(iou.sender) { TreeMap() }[iou.linearId.id] = iouRef
+                heldBy.getOrPut(iou.recipient) { TreeMap() }[iou.linearId.id] = iouRef
+            }
+        }
+    }
+
+    fun remove(states: Iterable<StateAndRef<ContractState>>) {
+        synchronized(lock) {
+            for (stateAndRef in states) {
+                val iou = stateAndRef.state.data as? IOUState ?: continue
+                // A later version of the IOU may already have replaced this one.
+                if (heads[iou.linearId.id]?.ref != stateAndRef.ref) continue
+                heads.remove(iou.linearId.id)
+                @Suppress("UNCHECKED_CAST")
+                remove(stateAndRef as StateAndRef<IOUState>)
+            }
+        }
+    }
+
+    private fun remove(stateAndRef: StateAndRef<IOUState>) {
+        val iou = stateAndRef.state.data
+        removeFrom(values, iou.iouValue, iou.linearId.id)
+        removeFrom(sentBy, iou.sender, iou.linearId.id)
+        removeFrom(heldBy, iou.recipient, iou.linearId.id)
+    }
+
+    private fun <K> removeFrom(index: MutableMap<K, TreeMap<UUID, StateAndRef<IOUState>>>, key: K, id: UUID) {
+        val ious = index[key] ?: return
+        ious.remove(id)
+        if (ious.isEmpty()) index.remove(key)
+    }
+
+    fun update(update: Vault.Update) {
+        remove(update.consumed)
+        add(update.produced)
+    }
+
+    /** The unconsumed version of the IOU with [linearId], if we hold it. */
+    fun byLinearId(linearId: UniqueIdentifier): StateAndRef<IOUState>? {
+        val head = byLinearId(linearId.id)
+        return if (head?.state?.data?.linearId == linearId) head else null
+    }
+
+    /** The unconsumed version of the IOU whose linearId has the id [id], whatever its external id. */
+    fun byLinearId(id: UUID): StateAndRef<IOUState>? = synchronized(lock) { heads[id] }
+
+    /**
+     * The first [limit] unconsumed IOUs sent by [sender], held by [recipient], with a value between [minValue] and
+     * [maxValue] inclusive, and accepted by [filter], whose linearId comes after [cursor], in linearId order. A null
+     * bound matches every IOU.
+     *
+     * Given a value bound, only the IOUs in that range are visited: each value's IOUs are read in linearId order from the
+     * cursor, at most until [limit] of them match, and merged. Otherwise, given a party, only that party's IOUs are
+     * visited, in order, and the scan stops once the page is full.
+     */
+    fun page(sender: Party?,
+             recipient: Party?,
+             minValue: Int?,
+             maxValue: Int?,
+             cursor: UUID?,
+             limit: Int,
+             filter: (IOUState) -> Boolean): List<StateAndRef<IOUState>> {
+        val accept = { iou: IOUState ->
+            (sender == null || iou.sender == sender) && (recipient == null || iou.recipient == recipient) &&
+                    (minValue == null || iou.iouValue >= minValue) && (maxValue == null || iou.iouValue <= maxValue) &&
+                    filter(iou)
+        }
+        synchronized(lock) {
+            if (minValue != null || maxValue != null) {
+                val min = minValue ?: Int.MIN_VALUE
+                val max = maxValue ?: Int.MAX_VALUE
+                if (min > max) return emptyList()
+                val merged = ArrayList<StateAndRef<IOUState>>()
+                for (ious in values.subMap(min, true, max, true).values) {
+                    merged.addAll(page(ious, cursor, limit, accept))
+                }
+                Collections.sort(merged, byLinearId)
+                return ArrayList(merged.take(limit))
+            }
+            val ordered = when {
+                sender != null -> sentBy[sender]
+                recipient != null -> heldBy[recipient]
+                else -> heads
+            } ?: return emptyList()
+            return page(ordered, cursor, limit, accept)
+        }
+    }
+
+    private fun page(ordered: TreeMap<UUID, StateAndRef<IOUState>>,
+                     cursor: UUID?,
+                     limit: Int,
+                     accept: (IOUState) -> Boolean): List<StateAndRef<IOUState>> {
+        val page = ArrayList<StateAndRef<IOUState>>(Math.min(limit, ordered.size))
+        for (stateAndRef in (if (cursor == null) ordered else ordered.tailMap(cursor, false)).values) {
+            if (!accept(stateAndRef.state.data)) continue
+            page.add(stateAndRef)
+            if (page.size == limit) break
+        }
+        return page
+    }
+
+    /** The unconsumed IOUs whose sender and recipient are both [members]. */
+    fun between(members: Set<Party>): List<StateAndRef<IOUState>> {
+        synchronized(lock) {
+            return members.flatMap { sender ->
+                sentBy[sender]?.values?.filter { it.state.data.recipient in members } ?: emptyList()
+            }
+        }
+    }
+
+    /**
+     * Builds the node's [IOUQueryService] from the vault and keeps it up to date. Flows look it up with [of], as each
+     * node in the JVM (e.g. in a [MockNetwork]) has its own.
+     */
+    class Service(services: PluginServiceHub) {
+        init {
+            val me = services.myInfo.legalIdentity
+            val index = IOUQueryService()
+            val (vault, updates) = services.vaultService.track()
+            index.add(vault.states)
+            updates.subscribe { index.update(it) }
+            instances[me] = index
+        }
+    }
+
+    companion object {
+        private val byLinearId = Comparator<StateAndRef<IOUState>> { a, b ->
+            a.state.data.linearId.id.compareTo(b.state.data.linearId.id)
+        }
+
+        private val instances = ConcurrentHashMap<Party, IOUQueryService>()
+
+        fun of(services: ServiceHub): IOUQueryService {
+            val me = services.myInfo.legalIdentity
+            return instances[me] ?: throw IllegalStateException("No IOU query service is running for $me.")
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package com.iou.kotlin.service
 
+import com.iou.kotlin.flow.IOUCompaction.IOUCompactionFlow
 import com.iou.kotlin.flow.IOUCreation.IOUCreationFlow
+import com.iou.kotlin.flow.IOUFinality.IOUBroadcastFlow
+import com.iou.kotlin.flow.IOUNetting.IOUNettingFlow
 import com.iou.kotlin.flow.IOUSettle.IOUSettleFlow
+import com.iou.kotlin.flow.IOUTransfer.IOUTransferFlow
 import com.iou.kotlin.flow.IOUTransfer.IOUTransferSubflow
 import net.corda.core.node.PluginServiceHub
 
@@ -21,6 +25,10 @@ object IOUService {
             services.registerFlowInitiator(IOUCreationFlow.Initiator::class) { IOUCreationFlow.Acceptor(it) }
             services.registerFlowInitiator(IOUSettleFlow.Initiator::class) { IOUSettleFlow.Acceptor(it) }
             services.registerFlowInitiator(IOUTransferSubflow.Initiator::class) { IOUTransferSubflow.Acceptor(it) }
+            services.registerFlowInitiator(IOUTransferFlow.Initiator::class) { IOUTransferSubflow.Acceptor(it) }
+            services.registerFlowInitiator(IOUCompactionFlow.Initiator::class) { IOUCompactionFlow.Acceptor(it) }
+            services.registerFlowInitiator(IOUNettingFlow.Initiator::class) { IOUNettingFlow.Acceptor(it) }
+            services.registerFlowInitiator(IOUBroadcastFlow.Sender::class) { IOUBroadcastFlow.Receiver(it) }
         }
     }
 }
\ No newline at end of file
@@ -14,18 +14,40 @@ import java.security.PublicKey
  * A state must implement [ContractState] or one of its descendants.
  *
  * @param contract the contract which governs which transactions are valid for this state object.
+ * @param paid how much of [iouValue] the sender has paid back to the recipient so far.
+ * @param linearId the identifier shared by every version of this IOU, carried over by [copy].
  */
 data class IOUState(
         val iouValue: Int,
         val sender: Party,
         val recipient: Party,
-        override val contract: IOUContract
+        override val contract: IOUContract,
+        val paid: Int = 0,
+        override val linearId: UniqueIdentifier = UniqueIdentifier()
         ) : LinearState {
 
-    override val participants: List<CompositeKey> get() = listOf(sender.owningKey, recipient.owningKey)
-    override val linearId: UniqueIdentifier = UniqueIdentifier()
+    /** The amount still owed by the sender to the recipient. */
+    val outstanding: Int get() = iouValue - paid
+
+    // Both are derived from sender and recipient on first use and then reused. They are transient so they are not
+    // serialized with the state; a deserialized copy, or a racing first call, simply derives an equal value again.
+    @Transient private var participantsCache: List<CompositeKey>? = null
+    @Transient private var participantKeys: Array<PublicKey>? = null
+
+    override val participants: List<CompositeKey>
+        get() = participantsCache ?: listOf(sender.owningKey, recipient.owningKey).apply { participantsCache = this }
+
     override fun isRelevant(ourKeys: Set<PublicKey>): Boolean {
-//        return ourKeys.contains(participants[0].singleKey) || ourKeys.contains(participants[1].singleKey)
-        return ourKeys.intersect(participants.flatMap { it.keys }).isNotEmpty()
+        val keys = participantKeys ?: participants.flatMap { it.keys }.toTypedArray().apply { participantKeys = this }
+        for (key in keys) {
+            if (key in ourKeys) return true
+        }
+        return false
     }
+
+    /** Returns a copy of this IOU with [amount] more paid back. */
+    fun pay(amount: Int): IOUState = copy(paid = paid + amount)
+
+    /** Whether this IOU is between [a] and [b], in either direction. */
+    fun isBetween(a: Party, b: Party): Boolean = (sender == a && recipient == b) || (sender == b && recipient == a)
 }
\ No newline at end of file
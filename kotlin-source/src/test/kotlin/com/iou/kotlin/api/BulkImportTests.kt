@@ -0,0 +1,59 @@
+package com.iou.kotlin.api
+
+import com.iou.kotlin.flow.IOUCreation.IOUCreationFlow
+import com.iou.kotlin.state.IOUState
+import net.corda.testing.node.MockNetwork
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import kotlin.test.assertEquals
+
+class BulkImportTests {
+    lateinit var net: MockNetwork
+    lateinit var a: MockNetwork.MockNode
+    lateinit var b: MockNetwork.MockNode
+    lateinit var job: BulkImport
+
+    @Before
+    fun setup() {
+        net = MockNetwork()
+        val nodes = net.createSomeNodes(2)
+        a = nodes.partyNodes[0]
+        b = nodes.partyNodes[1]
+        net.runNetwork()
+        job = BulkImport("test", nodeRPC(a, IOUCreationFlow.Initiator::class.java))
+    }
+
+    @After
+    fun tearDown() {
+        net.stopNodes()
+    }
+
+    @Test
+    fun badRowsAreReportedAloneWhileTheirBatchmatesAreIssued() {
+        val name = b.info.legalIdentity.name
+        val csv = listOf("counterparty,value", "$name,5", "$name,0", "$name,-2", "$name,seven", "Nobody,3", "$name,7")
+        job.readCsv(csv.joinToString("\n").byteInputStream())
+        net.runNetwork()
+
+        val status = job.status()
+        assertEquals(true, status["done"])
+        assertEquals(6L, status["rowsRead"])
+        assertEquals(2L, status["rowsIssued"])
+        assertEquals(4L, status["rowsFailed"])
+        assertEquals(listOf(3L, 4L, 5L, 6L), (status["failures"] as List<*>).map { (it as Map<*, *>)["row"] })
+        assertEquals(listOf(5, 7), b.services.vaultService.linearHeadsOfType<IOUState>().values.map { it.state.data.iouValue }.sorted())
+    }
+
+    @Test
+    fun ndjsonRowsAreValidatedAsCsvRowsAre() {
+        val name = b.info.legalIdentity.name
+        val rows = listOf("{\"counterparty\": \"$name\", \"value\": 4}", "{\"counterparty\": \"$name\", \"value\": 0}", "not json")
+        job.readNdjson(rows.joinToString("\n").byteInputStream())
+        net.runNetwork()
+
+        val status = job.status()
+        assertEquals(1L, status["rowsIssued"])
+        assertEquals(listOf(2L, 3L), (status["failures"] as List<*>).map { (it as Map<*, *>)["row"] })
+    }
+}
@@ -0,0 +1,48 @@
+package com.iou.kotlin.api
+
+import com.google.common.util.concurrent.SettableFuture
+import net.corda.core.flows.FlowException
+import net.corda.core.flows.StateMachineRunId
+import net.corda.core.messaging.FlowHandle
+import org.junit.Test
+import rx.Observable
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+
+class FlowTrackerTests {
+    private val tracker = FlowTracker()
+
+    @Test
+    fun trackedFlowIsKnownByItsRunId() {
+        val result = SettableFuture.create<Any>()
+        val handle = FlowHandle(StateMachineRunId.createRandom(), Observable.never<String>(), result)
+
+        val id = tracker.track(handle)
+
+        assertEquals(handle.id.uuid.toString(), id)
+        assertSame(result, tracker[id])
+        assertNull(tracker["not-a-flow"])
+    }
+
+    @Test
+    fun statusFollowsTheFlowFromRunningToCompleted() {
+        val result = SettableFuture.create<Any>()
+        val id = tracker.track(FlowHandle(StateMachineRunId.createRandom(), Observable.never<String>(), result))
+
+        assertEquals(mapOf("flowId" to id, "status" to "RUNNING"), tracker.status(id, result))
+        result.set(Unit)
+        // Only flows returning a transaction have a txId to report.
+        assertEquals(mapOf("flowId" to id, "status" to "COMPLETED", "txId" to null), tracker.status(id, result))
+    }
+
+    @Test
+    fun failedFlowReportsItsError() {
+        val result = SettableFuture.create<Any>()
+        val id = tracker.track(FlowHandle(StateMachineRunId.createRandom(), Observable.never<String>(), result))
+
+        result.setException(FlowException("The counterparty refused."))
+
+        assertEquals(mapOf("flowId" to id, "status" to "FAILED", "error" to "The counterparty refused."), tracker.status(id, result))
+    }
+}
@@ -0,0 +1,170 @@
+package com.iou.kotlin.api
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.flow.FlowMetrics
+import com.iou.kotlin.flow.IOUCreation.IOUCreationFlow
+import com.iou.kotlin.service.IOUPositionCache
+import com.iou.kotlin.state.IOUState
+import net.corda.core.getOrThrow
+import net.corda.testing.node.MockNetwork
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import javax.ws.rs.WebApplicationException
+import javax.ws.rs.core.Response
+import javax.ws.rs.core.StreamingOutput
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+
+class IOUApiTests {
+    lateinit var net: MockNetwork
+    lateinit var a: MockNetwork.MockNode
+    lateinit var b: MockNetwork.MockNode
+    lateinit var api: IOUApi
+
+    @Before
+    fun setup() {
+        net = MockNetwork()
+        val nodes = net.createSomeNodes(2)
+        a = nodes.partyNodes[0]
+        b = nodes.partyNodes[1]
+        net.runNetwork()
+        api = IOUApi(nodeRPC(a,
+                IOUCreationFlow.Initiator::class.java,
+                FlowMetrics.Snapshot::class.java,
+                IOUQuery.PageFlow::class.java,
+                IOUPositionCache.PositionsFlow::class.java,
+                IOUPositionCache.PositionFlow::class.java,
+                IOUPositionCache.CheckFlow::class.java))
+    }
+
+    @After
+    fun tearDown() {
+        net.stopNodes()
+    }
+
+    @Test
+    fun createRejectsValuesWhichAreNotPositive() {
+        for (value in listOf(0, -1, null)) {
+            val error = assertFailsWith<WebApplicationException> { api.create(b.info.legalIdentity.name, value) }
+            assertEquals(Response.Status.BAD_REQUEST.statusCode, error.response.status)
+        }
+    }
+
+    @Test
+    fun createAnswers202WithWhereToPollForTheFlow() {
+        val response = api.create(b.info.legalIdentity.name, 1)
+
+        assertEquals(Response.Status.ACCEPTED.statusCode, response.status)
+        val id = flowId(response)
+        assertEquals("/api/iou/flows/$id", response.getHeaderString("Location"))
+    }
+
+    @Test
+    fun pollingReportsTheFlowRunningAndThenItsTransaction() {
+        val id = flowId(api.create(b.info.legalIdentity.name, 1))
+
+        assertEquals("RUNNING", poll(id)["status"])
+        net.runNetwork()
+        val completed = poll(id)
+        assertEquals("COMPLETED", completed["status"])
+        assertNotNull(completed["txId"])
+    }
+
+    @Test
+    fun waitingForAFlowIsAnsweredWhenItCompletes() {
+        val id = flowId(api.create(b.info.legalIdentity.name, 1))
+        val response = RecordingAsyncResponse()
+
+        api.flowStatus(id, 30, response)
+        assertNull(response.resumedWith)
+        assertEquals(30L, response.timeoutSeconds)
+
+        net.runNetwork()
+        assertEquals("COMPLETED", status(response)["status"])
+    }
+
+    @Test
+    fun waitingForAFlowIsAnsweredWithItsStatusOnTimeout() {
+        val id = flowId(api.create(b.info.legalIdentity.name, 1))
+        val response = RecordingAsyncResponse()
+
+        api.flowStatus(id, IOUApi.MAX_WAIT_SECONDS * 10, response)
+        assertEquals(IOUApi.MAX_WAIT_SECONDS.toLong(), response.timeoutSeconds)
+        response.timeOut()
+
+        assertEquals("RUNNING", status(response)["status"])
+    }
+
+    @Test
+    fun pollingAnUnknownFlowIsNotFound() {
+        val response = RecordingAsyncResponse()
+        api.flowStatus("not-a-flow", 0, response)
+
+        assertEquals(Response.Status.NOT_FOUND.statusCode, (response.resumedWith as Response).status)
+    }
+
+    @Test
+    fun metricsAreReadFromTheNode() {
+        val before = completions()
+        api.create(b.info.legalIdentity.name, 1)
+        net.runNetwork()
+
+        assertEquals(before + 1, completions())
+    }
+
+    @Test
+    fun iousArePagedOnTheNode() {
+        val ious = (1..5).map { IOUState(it, a.info.legalIdentity, b.info.legalIdentity, IOUContract()) }
+        val future = a.services.startFlow(IOUCreationFlow.Initiator(ious, b.info.legalIdentity)).resultFuture
+        net.runNetwork()
+        future.getOrThrow()
+
+        val first = page(null, null, 3)
+        assertEquals(3, first["ious"].size())
+        val second = page(null, first["nextCursor"].asText(), 3)
+        assertEquals(2, second["ious"].size())
+        assert(second["nextCursor"].isNull)
+        val paged = (first["ious"] + second["ious"]).map { it["linearId"].asText() }
+        assertEquals(ious.map { it.linearId.id }.sorted().map { it.toString() }, paged)
+
+        val filtered = page(4, null, 10)
+        assertEquals(listOf(4, 5), filtered["ious"].map { it["value"].asInt() }.sorted())
+    }
+
+    @Test
+    fun positionsAreReadFromTheNodesCache() {
+        val ious = listOf(3, 4).map { IOUState(it, a.info.legalIdentity, b.info.legalIdentity, IOUContract()) }
+        val future = a.services.startFlow(IOUCreationFlow.Initiator(ious, b.info.legalIdentity)).resultFuture
+        net.runNetwork()
+        future.getOrThrow()
+
+        val expected = mapOf("counterparty" to b.info.legalIdentity.name, "owed" to 0L, "owing" to 7L, "net" to -7L, "count" to 2)
+        assertEquals(listOf(expected), api.positions(UnconditionalRequest).entity)
+        assertEquals(expected, api.position(b.info.legalIdentity.name, UnconditionalRequest).entity)
+        assertEquals(true, api.checkPositions()["consistent"])
+    }
+
+    private fun page(minValue: Int?, cursor: String?, limit: Int): JsonNode {
+        val response = api.getIOUs(null, null, minValue, null, null, cursor, limit, UnconditionalRequest)
+        val body = java.io.ByteArrayOutputStream()
+        (response.entity as StreamingOutput).write(body)
+        return ObjectMapper().readTree(body.toByteArray())
+    }
+
+    private fun completions() = api.metrics()["IOUCreationFlow.Initiator.completed"]?.get("count")?.toLong() ?: 0L
+
+    private fun flowId(response: Response) = (response.entity as Map<*, *>)["flowId"] as String
+
+    private fun poll(id: String): Map<*, *> {
+        val response = RecordingAsyncResponse()
+        api.flowStatus(id, 0, response)
+        return status(response)
+    }
+
+    private fun status(response: RecordingAsyncResponse) = response.resumedWith as Map<*, *>
+}
@@ -0,0 +1,167 @@
+package com.iou.kotlin.api
+
+import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.ContractState
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.contracts.StateRef
+import net.corda.core.contracts.TransactionState
+import net.corda.core.crypto.SecureHash
+import net.corda.core.node.services.Vault
+import net.corda.testing.DUMMY_NOTARY
+import net.corda.testing.MEGA_CORP
+import net.corda.testing.MINI_CORP
+import org.glassfish.jersey.server.ChunkedOutput
+import org.junit.Before
+import org.junit.Test
+import rx.subjects.PublishSubject
+import java.io.IOException
+import java.util.*
+import java.util.concurrent.Executor
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class IOUEventHubTests {
+    /** Runs the hub's writes only when [run] is called, so that a test can let clients fall behind. */
+    class ManualExecutor : Executor {
+        private val tasks = ArrayDeque<Runnable>()
+
+        override fun execute(command: Runnable) {
+            tasks.add(command)
+        }
+
+        fun run() {
+            while (tasks.isNotEmpty()) tasks.poll().run()
+        }
+    }
+
+    /** A client's output which records what it is sent, or fails every write once [gone] is set. */
+    class RecordingOutput : ChunkedOutput<String>(String::class.java) {
+        val chunks = ArrayList<String>()
+        var gone = false
+        private var closed = false
+
+        override fun write(chunk: String) {
+            if (gone) throw IOException("Broken pipe")
+            chunks.add(chunk)
+        }
+
+        override fun close() {
+            closed = true
+        }
+
+        override fun isClosed() = closed
+
+        fun events(type: String) = chunks.filter { it.startsWith("event: $type\n") }
+    }
+
+    lateinit var updates: PublishSubject<Vault.Update>
+    lateinit var writers: ManualExecutor
+    lateinit var hub: IOUEventHub
+    private var subscribed = 0
+
+    @Before
+    fun setup() {
+        updates = PublishSubject.create()
+        writers = ManualExecutor()
+        subscribed = 0
+        hub = IOUEventHub(updates.doOnSubscribe { subscribed++ }, writers)
+    }
+
+    private fun produce(count: Int) {
+        for (value in 1..count) {
+            val iou = IOUState(value, MEGA_CORP, MINI_CORP, IOUContract())
+            val produced = StateAndRef<ContractState>(TransactionState(iou, DUMMY_NOTARY), StateRef(SecureHash.randomSHA256(), 0))
+            updates.onNext(Vault.Update(emptySet(), setOf(produced)))
+        }
+    }
+
+    @Test
+    fun everyClientIsSentEveryEvent() {
+        val first = RecordingOutput()
+        val second = RecordingOutput()
+        hub.connect(IOUEventHub.OverflowPolicy.DROP, first)
+        hub.connect(IOUEventHub.OverflowPolicy.DROP, second)
+
+        produce(3)
+        writers.run()
+
+        assertEquals(3, first.events("produced").size)
+        assertEquals(first.chunks, second.chunks)
+        assertEquals(1, subscribed)
+    }
+
+    @Test
+    fun aSlowClientIsToldHowManyEventsItMissed() {
+        val output = RecordingOutput()
+        hub.connect(IOUEventHub.OverflowPolicy.DROP, output)
+
+        produce(IOUEventHub.BUFFER_SIZE + 5)
+        writers.run()
+
+        assertEquals(IOUEventHub.BUFFER_SIZE, output.events("produced").size)
+        assertEquals(listOf("event: dropped\ndata: 5\n\n"), output.events("dropped"))
+        assertEquals(1, hub.connected)
+    }
+
+    @Test
+    fun aSlowClientWhichAskedToBeDisconnectedIs() {
+        val slow = RecordingOutput()
+        val fast = RecordingOutput()
+        hub.connect(IOUEventHub.OverflowPolicy.DISCONNECT, slow)
+
+        produce(IOUEventHub.BUFFER_SIZE + 1)
+        assertTrue(slow.isClosed)
+        assertEquals(0, hub.connected)
+
+        hub.connect(IOUEventHub.OverflowPolicy.DROP, fast)
+        produce(1)
+        writers.run()
+        assertEquals(1, fast.events("produced").size)
+        assertTrue(slow.events("dropped").isEmpty())
+    }
+
+    @Test
+    fun theVaultFeedIsOnlyHeldWhileClientsAreConnected() {
+        val first = hub.connect(IOUEventHub.OverflowPolicy.DROP, RecordingOutput())
+        val second = hub.connect(IOUEventHub.OverflowPolicy.DROP, RecordingOutput())
+        assertTrue(updates.hasObservers())
+
+        first.close()
+        assertTrue(updates.hasObservers())
+        second.close()
+        assertFalse(updates.hasObservers())
+
+        hub.connect(IOUEventHub.OverflowPolicy.DROP, RecordingOutput())
+        assertTrue(updates.hasObservers())
+        assertEquals(2, subscribed)
+    }
+
+    @Test
+    fun aClientWhichHasGoneIsDisconnected() {
+        val gone = RecordingOutput()
+        val staying = RecordingOutput()
+        hub.connect(IOUEventHub.OverflowPolicy.DROP, gone)
+        hub.connect(IOUEventHub.OverflowPolicy.DROP, staying)
+        gone.gone = true
+
+        produce(2)
+        writers.run()
+
+        assertTrue(gone.isClosed)
+        assertEquals(1, hub.connected)
+        assertEquals(2, staying.events("produced").size)
+    }
+
+    @Test
+    fun everyClientIsDisconnectedWhenTheVaultFeedFails() {
+        val outputs = listOf(RecordingOutput(), RecordingOutput())
+        outputs.forEach { hub.connect(IOUEventHub.OverflowPolicy.DROP, it) }
+
+        updates.onError(IOException("Lost the node"))
+
+        assertTrue(outputs.all { it.isClosed })
+        assertEquals(0, hub.connected)
+    }
+}
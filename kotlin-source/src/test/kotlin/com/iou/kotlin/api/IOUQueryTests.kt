@@ -0,0 +1,52 @@
+package com.iou.kotlin.api
+
+import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.ContractState
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.contracts.StateRef
+import net.corda.core.contracts.TransactionState
+import net.corda.core.crypto.SecureHash
+import net.corda.testing.DUMMY_NOTARY
+import net.corda.testing.MEGA_CORP
+import net.corda.testing.MINI_CORP
+import org.junit.Test
+import kotlin.test.assertEquals
+
+class IOUQueryTests {
+    val everything = IOUQuery(null, null, null, null, null)
+
+    private fun states(vararg ious: IOUState): List<StateAndRef<ContractState>> {
+        return ious.map { StateAndRef(TransactionState(it, DUMMY_NOTARY), StateRef(SecureHash.randomSHA256(), 0)) }
+    }
+
+    @Test
+    fun pagesAreInLinearIdOrderAndResumeAfterTheCursor() {
+        val vault = states(*Array(10) { IOUState(it + 1, MINI_CORP, MEGA_CORP, IOUContract()) })
+        val ordered = vault.map { (it.state.data as IOUState).linearId.id }.sorted()
+
+        val first = everything.page(vault, null, 4)
+        assertEquals(ordered.subList(0, 4), first.map { it.state.data.linearId.id })
+        val second = everything.page(vault, first.last().state.data.linearId.id, 4)
+        assertEquals(ordered.subList(4, 8), second.map { it.state.data.linearId.id })
+        val last = everything.page(vault, second.last().state.data.linearId.id, 4)
+        assertEquals(ordered.subList(8, 10), last.map { it.state.data.linearId.id })
+    }
+
+    @Test
+    fun filtersByLenderBorrowerAndValue() {
+        val vault = states(
+                IOUState(5, MINI_CORP, MEGA_CORP, IOUContract()),
+                IOUState(50, MINI_CORP, MEGA_CORP, IOUContract()),
+                IOUState(50, MEGA_CORP, MINI_CORP, IOUContract()))
+        val query = IOUQuery(MEGA_CORP.name, MINI_CORP.name, 10, 100, null)
+        assertEquals(listOf(vault[1].ref), query.page(vault, null, 10).map { it.ref })
+    }
+
+    @Test
+    fun filtersByLinearId() {
+        val vault = states(IOUState(1, MINI_CORP, MEGA_CORP, IOUContract()), IOUState(2, MINI_CORP, MEGA_CORP, IOUContract()))
+        val linearId = (vault[1].state.data as IOUState).linearId.id
+        assertEquals(listOf(vault[1].ref), IOUQuery(null, null, null, null, linearId).page(vault, null, 10).map { it.ref })
+    }
+}
@@ -0,0 +1,79 @@
+package com.iou.kotlin.api
+
+import net.corda.core.flows.FlowLogic
+import net.corda.core.messaging.CordaRPCOps
+import net.corda.node.internal.CordaRPCOpsImpl
+import net.corda.node.services.User
+import net.corda.node.services.messaging.CURRENT_RPC_USER
+import net.corda.node.services.startFlowPermission
+import net.corda.testing.node.MockNetwork
+import java.util.*
+import java.util.concurrent.TimeUnit
+import javax.ws.rs.container.AsyncResponse
+import javax.ws.rs.container.TimeoutHandler
+import javax.ws.rs.core.EntityTag
+import javax.ws.rs.core.Request
+import javax.ws.rs.core.Response
+import javax.ws.rs.core.Variant
+
+/**
+ * [node]'s RPC operations, called in-process on the calling thread as an RPC user allowed to start [flows], so that
+ * the web API can be exercised against a [MockNetwork] node as it is against a real one.
+ */
+fun nodeRPC(node: MockNetwork.MockNode, vararg flows: Class<out FlowLogic<*>>): CordaRPCOps {
+    CURRENT_RPC_USER.set(User("test", "test", permissions = flows.map { startFlowPermission(it) }.toSet()))
+    return CordaRPCOpsImpl(node.services, node.smm, node.database)
+}
+
+/** An [AsyncResponse] which records what it was resumed with, and only times out when [timeOut] is called. */
+class RecordingAsyncResponse : AsyncResponse {
+    var resumedWith: Any? = null
+        private set
+    var timeoutSeconds: Long? = null
+        private set
+    private var timeoutHandler: TimeoutHandler? = null
+    private var done = false
+
+    fun timeOut() {
+        timeoutHandler?.handleTimeout(this) ?: cancel()
+    }
+
+    override fun resume(response: Any?): Boolean {
+        if (done) return false
+        resumedWith = response
+        done = true
+        return true
+    }
+
+    override fun resume(response: Throwable?): Boolean = resume(response as Any?)
+    override fun cancel(): Boolean = resume(null as Any?)
+    override fun cancel(retryAfter: Int): Boolean = cancel()
+    override fun cancel(retryAfter: Date?): Boolean = cancel()
+    override fun isSuspended() = !done
+    override fun isCancelled() = done && resumedWith == null
+    override fun isDone() = done
+
+    override fun setTimeout(time: Long, unit: TimeUnit): Boolean {
+        timeoutSeconds = unit.toSeconds(time)
+        return !done
+    }
+
+    override fun setTimeoutHandler(handler: TimeoutHandler?) {
+        timeoutHandler = handler
+    }
+
+    override fun register(callback: Class<*>?): Collection<Class<*>> = emptyList()
+    override fun register(callback: Class<*>?, vararg callbacks: Class<*>?): Map<Class<*>, Collection<Class<*>>> = emptyMap()
+    override fun register(callback: Any?): Collection<Class<*>> = emptyList()
+    override fun register(callback: Any?, vararg callbacks: Any?): Map<Class<*>, Collection<Class<*>>> = emptyMap()
+}
+
+/** A [Request] without preconditions, so that every conditional read is answered in full. */
+object UnconditionalRequest : Request {
+    override fun getMethod() = "GET"
+    override fun selectVariant(variants: List<Variant>?): Variant? = null
+    override fun evaluatePreconditions(eTag: EntityTag?): Response.ResponseBuilder? = null
+    override fun evaluatePreconditions(lastModified: Date?): Response.ResponseBuilder? = null
+    override fun evaluatePreconditions(lastModified: Date?, eTag: EntityTag?): Response.ResponseBuilder? = null
+    override fun evaluatePreconditions(): Response.ResponseBuilder? = null
+}
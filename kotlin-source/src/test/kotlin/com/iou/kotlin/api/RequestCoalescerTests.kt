@@ -0,0 +1,66 @@
+package com.iou.kotlin.api
+
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class RequestCoalescerTests {
+    private val coalescer = RequestCoalescer()
+
+    @Test
+    fun concurrentIdenticalRequestsShareOneLoad() {
+        val loads = AtomicInteger()
+        val loading = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val pool = Executors.newFixedThreadPool(CLIENTS)
+        try {
+            val first = pool.submit<String> {
+                coalescer.coalesce("ious") {
+                    loads.incrementAndGet()
+                    loading.countDown()
+                    release.await()
+                    "page"
+                }
+            }
+            loading.await()
+            val others = (2..CLIENTS).map { pool.submit<String> { coalescer.coalesce("ious") { loads.incrementAndGet(); "other" } } }
+            // The others can only share the first load while it is in flight, so we hold it until they have all joined.
+            Thread.sleep(500)
+            release.countDown()
+
+            assertEquals("page", first.get(5, TimeUnit.SECONDS))
+            for (other in others) assertEquals("page", other.get(5, TimeUnit.SECONDS))
+            assertEquals(1, loads.get())
+            assertEquals(0, coalescer.size)
+        } finally {
+            pool.shutdownNow()
+        }
+    }
+
+    @Test
+    fun requestsWhichDoNotOverlapLoadAgain() {
+        val loads = AtomicInteger()
+        assertEquals(1, coalescer.coalesce("ious") { loads.incrementAndGet() })
+        assertEquals(2, coalescer.coalesce("ious") { loads.incrementAndGet() })
+    }
+
+    @Test
+    fun differentKeysDoNotShare() {
+        assertEquals("a", coalescer.coalesce(listOf("ious", "a")) { "a" })
+        assertEquals("b", coalescer.coalesce(listOf("ious", "b")) { "b" })
+    }
+
+    @Test
+    fun failuresAreRethrownAndNotKept() {
+        assertFailsWith<IllegalStateException> { coalescer.coalesce("ious") { throw IllegalStateException("node unavailable") } }
+        assertEquals("page", coalescer.coalesce("ious") { "page" })
+    }
+
+    companion object {
+        const val CLIENTS = 8
+    }
+}
@@ -0,0 +1,144 @@
+package com.iou.kotlin.flows
+
+import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.flow.FlowMetrics
+import com.iou.kotlin.flow.IOUFinality.BatchedBroadcast
+import com.iou.kotlin.flow.IOUFinality.IOUFinalityFlow
+import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.Command
+import net.corda.core.contracts.TransactionType
+import net.corda.core.getOrThrow
+import net.corda.core.transactions.SignedTransaction
+import net.corda.core.utilities.DUMMY_NOTARY
+import net.corda.node.utilities.databaseTransaction
+import net.corda.testing.node.MockNetwork
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import kotlin.test.assertEquals
+
+class BatchedBroadcastTests {
+    lateinit var net: MockNetwork
+    lateinit var a: MockNetwork.MockNode
+    lateinit var b: MockNetwork.MockNode
+    lateinit var c: MockNetwork.MockNode
+
+    @Before
+    fun setup() {
+        net = MockNetwork()
+        val nodes = net.createSomeNodes(3)
+        a = nodes.partyNodes[0]
+        b = nodes.partyNodes[1]
+        c = nodes.partyNodes[2]
+        net.runNetwork(-1)
+    }
+
+    @After
+    fun tearDown() {
+        net.stopNodes()
+    }
+
+    private fun signedIOU(value: Int, recipient: MockNetwork.MockNode): SignedTransaction {
+        val iou = IOUState(value, a.info.legalIdentity, recipient.info.legalIdentity, IOUContract())
+        return TransactionType.General.Builder(DUMMY_NOTARY)
+                .withItems(iou, Command(IOUContract.Commands.Create(), iou.participants))
+                .signWith(a.services.legalIdentityKey)
+                .signWith(recipient.services.legalIdentityKey)
+                .toSignedTransaction(true)
+    }
+
+    private fun finaliseDeferred(stx: SignedTransaction, recipient: MockNetwork.MockNode) {
+        val participants = setOf(a.info.legalIdentity, recipient.info.legalIdentity)
+        val stopwatch = FlowMetrics.Stopwatch("BatchedBroadcastTests", false)
+        val future = a.services.startFlow(IOUFinalityFlow(stx, participants, stopwatch, true)).resultFuture
+        net.runNetwork(-1)
+        future.getOrThrow()
+    }
+
+    @Test
+    fun deferredTransactionsReachEveryRecipientOnceFlushed() {
+        val toB = listOf(signedIOU(1, b), signedIOU(2, b))
+        val toC = signedIOU(3, c)
+        toB.forEach { finaliseDeferred(it, b) }
+        finaliseDeferred(toC, c)
+        for (stx in toB + toC) assertEquals(stx.id, a.storage.validatedTransactions.getTransaction(stx.id)?.id)
+
+        val broadcast = BatchedBroadcast.of(a.services)
+        broadcast.flushAll()
+        net.runNetwork(-1)
+
+        for (stx in toB) assertEquals(stx.id, b.storage.validatedTransactions.getTransaction(stx.id)?.id)
+        assertEquals(toC.id, c.storage.validatedTransactions.getTransaction(toC.id)?.id)
+        assert(broadcast.unacknowledged().isEmpty())
+    }
+
+    @Test
+    fun transactionsAlreadyHeldAreAcknowledgedAgain() {
+        val stx = signedIOU(1, b)
+        b.services.recordTransactions(listOf(stx))
+        finaliseDeferred(stx, b)
+
+        val broadcast = BatchedBroadcast.of(a.services)
+        broadcast.flushAll()
+        net.runNetwork(-1)
+
+        assert(broadcast.unacknowledged().isEmpty())
+    }
+
+    @Test
+    fun pendingDeliveriesSurviveARestartUntilAcknowledged() {
+        val toB = listOf(signedIOU(1, b), signedIOU(2, b))
+        toB.forEach { finaliseDeferred(it, b) }
+        finaliseDeferred(signedIOU(3, c), c)
+
+        assertEquals(mapOf(b.info.legalIdentity to 2, c.info.legalIdentity to 1), restarted().unacknowledged())
+
+        val broadcast = BatchedBroadcast.of(a.services)
+        broadcast.flush(b.info.legalIdentity)
+        net.runNetwork(-1)
+
+        assertEquals(mapOf(c.info.legalIdentity to 1), restarted().unacknowledged())
+    }
+
+    @Test
+    fun aTransactionTheRecipientCannotRecordStopsBeingSentAfterMaxAttempts() {
+        // Missing b's signature, so b can never record it.
+        val bad = TransactionType.General.Builder(DUMMY_NOTARY)
+                .withItems(IOUState(1, a.info.legalIdentity, b.info.legalIdentity, IOUContract()),
+                        Command(IOUContract.Commands.Create(), listOf(a.info.legalIdentity.owningKey, b.info.legalIdentity.owningKey)))
+                .signWith(a.services.legalIdentityKey)
+                .toSignedTransaction(false)
+        val good = signedIOU(2, b)
+        a.services.recordTransactions(listOf(bad, good))
+        val broadcast = restarted()
+        databaseTransaction(a.database) { listOf(bad, good).forEach { broadcast.enqueue(it, setOf(b.info.legalIdentity)) } }
+
+        broadcast.flush(b.info.legalIdentity)
+        net.runNetwork(-1)
+        assertEquals(good.id, b.storage.validatedTransactions.getTransaction(good.id)?.id)
+        assertEquals(mapOf(b.info.legalIdentity to 1), broadcast.unacknowledged())
+        assert(broadcast.failed().isEmpty())
+
+        for (attempt in 2..BatchedBroadcast.MAX_ATTEMPTS) {
+            broadcast.flush(b.info.legalIdentity)
+            net.runNetwork(-1)
+        }
+        assertEquals(mapOf(b.info.legalIdentity to listOf(bad.id)), broadcast.failed())
+        assertEquals(mapOf(b.info.legalIdentity to 1), broadcast.unacknowledged())
+
+        // It no longer holds back the transactions behind it, but its delivery is still persisted for a restart.
+        val next = signedIOU(3, b)
+        a.services.recordTransactions(listOf(next))
+        databaseTransaction(a.database) { broadcast.enqueue(next, setOf(b.info.legalIdentity)) }
+        broadcast.flush(b.info.legalIdentity)
+        net.runNetwork(-1)
+        assertEquals(next.id, b.storage.validatedTransactions.getTransaction(next.id)?.id)
+        assertEquals(mapOf(b.info.legalIdentity to 1), restarted().unacknowledged())
+    }
+
+    /** What a's broadcast would have left to deliver, had a restarted now. */
+    private fun restarted(): BatchedBroadcast {
+        // The window is long enough that the reloaded deliveries are not sent while the test runs.
+        return databaseTransaction(a.database) { BatchedBroadcast(a.services, 60000L, BatchedBroadcast.DEFAULT_MAX_BATCH_SIZE) }
+    }
+}
@@ -0,0 +1,73 @@
+package com.iou.kotlin.flows
+
+import com.iou.kotlin.flow.IOUSettle.CashSelection
+import net.corda.contracts.asset.Cash
+import net.corda.core.contracts.*
+import net.corda.core.crypto.CompositeKey
+import net.corda.core.crypto.SecureHash
+import net.corda.core.node.services.Vault
+import net.corda.testing.DUMMY_NOTARY
+import net.corda.testing.MEGA_CORP
+import net.corda.testing.MINI_CORP_PUBKEY
+import org.junit.Before
+import org.junit.Test
+import java.util.*
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class CashSelectionTests {
+    lateinit var selection: CashSelection
+
+    private fun coin(quantity: Long, owner: CompositeKey = MINI_CORP_PUBKEY, currency: Currency = USD): StateAndRef<ContractState> {
+        val cash = Cash.State(Amount(quantity, Issued(MEGA_CORP.ref(1), currency)), owner)
+        return StateAndRef(TransactionState(cash, DUMMY_NOTARY), StateRef(SecureHash.randomSHA256(), 0))
+    }
+
+    @Before
+    fun setup() {
+        selection = CashSelection(MINI_CORP_PUBKEY)
+    }
+
+    @Test
+    fun selectsLargestCoinsFirst() {
+        val small = coin(100)
+        val large = coin(500)
+        selection.add(listOf(small, large))
+        val selected = selection.select(USD, 400, UUID.randomUUID())
+        assertEquals(listOf(large.ref), selected.map { it.ref })
+    }
+
+    @Test
+    fun ignoresCashOwnedByOthersAndInOtherCurrencies() {
+        selection.add(listOf(coin(500, MEGA_CORP.owningKey), coin(500, currency = GBP)))
+        assertFailsWith<InsufficientBalanceException> { selection.select(USD, 1, UUID.randomUUID()) }
+    }
+
+    @Test
+    fun lockedCoinsAreNotSelectedAgainUntilReleased() {
+        selection.add(listOf(coin(500)))
+        val firstFlow = UUID.randomUUID()
+        selection.select(USD, 500, firstFlow)
+        assertFailsWith<InsufficientBalanceException> { selection.select(USD, 500, UUID.randomUUID()) }
+        selection.release(firstFlow)
+        assertEquals(1, selection.select(USD, 500, UUID.randomUUID()).size)
+    }
+
+    @Test
+    fun failedSelectionLocksNothing() {
+        selection.add(listOf(coin(100), coin(100)))
+        assertFailsWith<InsufficientBalanceException> { selection.select(USD, 300, UUID.randomUUID()) }
+        assertEquals(2, selection.select(USD, 200, UUID.randomUUID()).size)
+    }
+
+    @Test
+    fun vaultUpdatesAreAppliedIncrementally() {
+        val spent = coin(500)
+        val change = coin(200)
+        selection.add(listOf(spent))
+        selection.select(USD, 500, UUID.randomUUID())
+        selection.update(Vault.Update(setOf(spent), setOf(change)))
+        val selected = selection.select(USD, 200, UUID.randomUUID())
+        assertEquals(change.ref, selected.single().ref)
+    }
+}
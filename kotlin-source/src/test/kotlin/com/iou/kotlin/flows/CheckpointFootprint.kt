@@ -0,0 +1,74 @@
+package com.iou.kotlin.flows
+
+import com.google.common.util.concurrent.ListenableFuture
+import net.corda.core.getOrThrow
+import net.corda.node.utilities.databaseTransaction
+import net.corda.testing.node.MockNetwork
+import java.util.*
+
+/**
+ * Measures the checkpoints written by the flows run across a [MockNetwork], per flow class.
+ *
+ * The network is pumped one round at a time, and after each round the checkpoints of every node running exactly one
+ * flow are measured and put down to that flow's class. A node running several flows at once is skipped for that
+ * round, as its checkpoints cannot be told apart, and so is the peer side of a flow while it waits on us; this
+ * under-samples rather than mis-attributes. A checkpoint holds the whole fiber, so the size of a subflow's state is
+ * counted against the flow which called it.
+ */
+class CheckpointFootprint(private val net: MockNetwork) {
+    /** The checkpoint sizes seen for one flow class, in bytes. */
+    data class Sizes(val samples: Int, val maxBytes: Int, val totalBytes: Long) {
+        val meanBytes: Double get() = totalBytes.toDouble() / samples
+    }
+
+    private val sizes = TreeMap<String, Sizes>()
+
+    /** Runs the network until [future] completes, sampling the checkpoints after each round, and returns its result. */
+    fun <T> run(future: ListenableFuture<T>): T {
+        sample()
+        var rounds = 0
+        while (!future.isDone) {
+            check(++rounds <= MAX_ROUNDS) { "The flow did not complete within $MAX_ROUNDS rounds." }
+            net.runNetwork(1)
+            sample()
+        }
+        return future.getOrThrow()
+    }
+
+    /** The sizes seen for [flowClass], if any of its checkpoints were sampled. */
+    operator fun get(flowClass: Class<*>): Sizes? = sizes[flowClass.name]
+
+    fun all(): Map<String, Sizes> = sizes
+
+    private fun sample() {
+        for (node in net.nodes) {
+            val running = node.smm.allStateMachines
+            if (running.size != 1) continue
+            var bytes = 0
+            databaseTransaction(node.database) {
+                node.checkpointStorage.forEach {
+                    bytes += it.serializedFiber.bytes.size
+                    true
+                }
+            }
+            if (bytes == 0) continue
+            val flow = running.single().javaClass.name
+            val seen = sizes[flow]
+            sizes[flow] = if (seen == null) Sizes(1, bytes, bytes.toLong())
+            else Sizes(seen.samples + 1, Math.max(seen.maxBytes, bytes), seen.totalBytes + bytes)
+        }
+    }
+
+    override fun toString(): String {
+        val lines = ArrayList<String>()
+        lines.add(String.format("%-40s %8s %10s %10s", "flow", "samples", "mean B", "max B"))
+        for ((flow, s) in sizes) {
+            lines.add(String.format("%-40s %8d %10.0f %10d", flow.substringAfterLast('.'), s.samples, s.meanBytes, s.maxBytes))
+        }
+        return lines.joinToString("\n")
+    }
+
+    companion object {
+        const val MAX_ROUNDS = 10000
+    }
+}
@@ -0,0 +1,104 @@
+package com.iou.kotlin.flows
+
+import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.flow.IOUCreation.IOUCreationFlow
+import com.iou.kotlin.flow.IOUSettle.IOUSettleFlow
+import com.iou.kotlin.flow.IOUSettle.SelfIssueCashFlow
+import com.iou.kotlin.flow.IOUTransfer.IOUTransferFlow
+import com.iou.kotlin.flow.IOUTransfer.IOUTransferSubflow
+import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.StateRef
+import net.corda.testing.node.MockNetwork
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+/**
+ * Checks the checkpoints of the IOU flows stay small, so that a flow starting to carry large objects across its
+ * suspension points shows up here. Each flow class has its own budget, a little above what it writes today; the
+ * per-class report is included in the failure message, so that a budget can be moved when a flow has to grow.
+ */
+class CheckpointFootprintTests {
+    lateinit var net: MockNetwork
+    lateinit var a: MockNetwork.MockNode
+    lateinit var b: MockNetwork.MockNode
+    lateinit var c: MockNetwork.MockNode
+    lateinit var footprint: CheckpointFootprint
+
+    @Before
+    fun setup() {
+        net = MockNetwork()
+        val nodes = net.createSomeNodes(3)
+        a = nodes.partyNodes[0]
+        b = nodes.partyNodes[1]
+        c = nodes.partyNodes[2]
+        net.runNetwork(-1)
+        footprint = CheckpointFootprint(net)
+    }
+
+    @After
+    fun tearDown() {
+        net.stopNodes()
+    }
+
+    private fun issueIOUs(count: Int, recipient: MockNetwork.MockNode): List<IOUState> {
+        val ious = (1..count).map { IOUState(it, a.info.legalIdentity, recipient.info.legalIdentity, IOUContract()) }
+        footprint.run(a.services.startFlow(IOUCreationFlow.Initiator(ious, recipient.info.legalIdentity)).resultFuture)
+        return ious
+    }
+
+    private fun assertWithinBudget(vararg flowClasses: Class<*>) {
+        for (flowClass in flowClasses) {
+            val sizes = footprint[flowClass] ?: throw AssertionError("No checkpoints of ${flowClass.name} were sampled.")
+            check(flowClass.name, sizes)
+        }
+        for ((flow, sizes) in footprint.all()) check(flow, sizes)
+    }
+
+    private fun check(flow: String, sizes: CheckpointFootprint.Sizes) {
+        val budget = BUDGETS[flow] ?: DEFAULT_BUDGET_BYTES
+        assert(sizes.maxBytes <= budget) { "$flow wrote a ${sizes.maxBytes} byte checkpoint, over its $budget bytes.\n$footprint" }
+    }
+
+    @Test
+    fun creationCheckpointsStayWithinBudget() {
+        issueIOUs(BATCH_SIZE, b)
+        assertWithinBudget(IOUCreationFlow.Initiator::class.java)
+    }
+
+    @Test
+    fun transferCheckpointsStayWithinBudget() {
+        val iou = IOUState(1, a.info.legalIdentity, b.info.legalIdentity, IOUContract())
+        val stx = footprint.run(a.services.startFlow(IOUCreationFlow.Initiator(iou, b.info.legalIdentity)).resultFuture)
+        footprint.run(b.services.startFlow(IOUTransferFlow.Initiator(StateRef(stx.id, 0), c.info.legalIdentity)).resultFuture)
+        assertWithinBudget(IOUTransferFlow.Initiator::class.java)
+    }
+
+    @Test
+    fun settlementCheckpointsStayWithinBudget() {
+        footprint.run(a.services.startFlow(SelfIssueCashFlow(2 * BATCH_SIZE * BATCH_SIZE)).resultFuture)
+        val ious = issueIOUs(BATCH_SIZE, b) + issueIOUs(BATCH_SIZE, c)
+        val amounts = ious.associate { it.linearId to it.iouValue }
+        footprint.run(a.services.startFlow(IOUSettleFlow.Initiator(amounts)).resultFuture)
+        assertWithinBudget(IOUSettleFlow.Initiator::class.java)
+    }
+
+    companion object {
+        const val BATCH_SIZE = 10
+
+        /**
+         * The most each flow may write in one checkpoint, in bytes, for the workloads above. A checkpoint holds the
+         * whole fiber, so a flow's budget covers its subflows; the initiators carry their batch of [BATCH_SIZE] IOUs.
+         */
+        val BUDGETS = mapOf(
+                IOUCreationFlow.Initiator::class.java.name to 20 * 1024,
+                IOUCreationFlow.Acceptor::class.java.name to 16 * 1024,
+                IOUTransferFlow.Initiator::class.java.name to 16 * 1024,
+                IOUTransferSubflow.Acceptor::class.java.name to 12 * 1024,
+                IOUSettleFlow.Initiator::class.java.name to 28 * 1024,
+                IOUSettleFlow.Acceptor::class.java.name to 16 * 1024)
+
+        /** For the flows without a budget of their own, e.g. those issuing cash. */
+        const val DEFAULT_BUDGET_BYTES = 24 * 1024
+    }
+}
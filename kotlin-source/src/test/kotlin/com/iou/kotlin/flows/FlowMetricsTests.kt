@@ -0,0 +1,81 @@
+package com.iou.kotlin.flows
+
+import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.flow.FlowMetrics
+import com.iou.kotlin.flow.IOUCreation.IOUCreationFlow
+import com.iou.kotlin.flow.IOUTransfer.IOUTransferFlow
+import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.StateRef
+import net.corda.core.getOrThrow
+import net.corda.testing.node.MockNetwork
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import kotlin.test.assertEquals
+
+class FlowMetricsTests {
+    lateinit var net: MockNetwork
+    lateinit var a: MockNetwork.MockNode
+    lateinit var b: MockNetwork.MockNode
+    lateinit var c: MockNetwork.MockNode
+
+    @Before
+    fun setup() {
+        net = MockNetwork()
+        val nodes = net.createSomeNodes(3)
+        a = nodes.partyNodes[0]
+        b = nodes.partyNodes[1]
+        c = nodes.partyNodes[2]
+        net.runNetwork(-1)
+    }
+
+    @After
+    fun tearDown() {
+        net.stopNodes()
+    }
+
+    private fun count(name: String) = FlowMetrics.snapshot()[name]?.get("count")?.toLong() ?: 0L
+
+    @Test
+    fun timesEveryStageOfACreation() {
+        val before = count("IOUCreationFlow.Initiator.completed")
+        val iou = IOUState(1, a.info.legalIdentity, b.info.legalIdentity, IOUContract())
+        val future = a.services.startFlow(IOUCreationFlow.Initiator(iou, b.info.legalIdentity)).resultFuture
+        net.runNetwork(-1)
+        future.getOrThrow()
+
+        assertEquals(before + 1, count("IOUCreationFlow.Initiator.completed"))
+        for (stage in listOf("build", "verify", "sign", "counterparty", "total")) {
+            assert(count("IOUCreationFlow.Initiator.$stage") > 0) { "No $stage timings." }
+        }
+        for (stage in listOf("verify", "sign", "notarise", "finalise")) {
+            assert(count("IOUCreationFlow.Acceptor.$stage") > 0) { "No acceptor $stage timings." }
+        }
+    }
+
+    @Test
+    fun timesNotarisationOfATransfer() {
+        val iou = IOUState(1, a.info.legalIdentity, b.info.legalIdentity, IOUContract())
+        val creation = a.services.startFlow(IOUCreationFlow.Initiator(iou, b.info.legalIdentity)).resultFuture
+        net.runNetwork(-1)
+        val created = creation.getOrThrow()
+
+        val before = count("IOUTransferFlow.Initiator.notarise")
+        val transfer = b.services.startFlow(IOUTransferFlow.Initiator(StateRef(created.id, 0), c.info.legalIdentity)).resultFuture
+        net.runNetwork(-1)
+        transfer.getOrThrow()
+
+        assertEquals(before + 1, count("IOUTransferFlow.Initiator.notarise"))
+    }
+
+    @Test
+    fun unsampledRunsOnlyCount() {
+        val stopwatch = FlowMetrics.Stopwatch("FlowMetricsTests.Unsampled", false)
+        stopwatch.stage("build")
+        stopwatch.finish()
+
+        assertEquals(1, count("FlowMetricsTests.Unsampled.completed"))
+        assertEquals(0, count("FlowMetricsTests.Unsampled.build"))
+        assertEquals(0, count("FlowMetricsTests.Unsampled.total"))
+    }
+}
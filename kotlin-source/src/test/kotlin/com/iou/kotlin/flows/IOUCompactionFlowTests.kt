@@ -0,0 +1,127 @@
+package com.iou.kotlin.flows
+
+import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.flow.IOUCompaction.IOUCompactionFlow
+import com.iou.kotlin.flow.IOUTransfer.IOUTransferFlow
+import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.*
+import net.corda.core.crypto.Party
+import net.corda.core.getOrThrow
+import net.corda.core.node.services.linearHeadsOfType
+import net.corda.core.utilities.DUMMY_NOTARY
+import net.corda.core.utilities.DUMMY_NOTARY_KEY
+import net.corda.testing.node.MockNetwork
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class IOUCompactionFlowTests {
+    lateinit var net: MockNetwork
+    lateinit var a: MockNetwork.MockNode
+    lateinit var b: MockNetwork.MockNode
+    lateinit var c: MockNetwork.MockNode
+
+    @Before
+    fun setup() {
+        net = MockNetwork()
+        val nodes = net.createSomeNodes(3)
+        a = nodes.partyNodes[0]
+        b = nodes.partyNodes[1]
+        c = nodes.partyNodes[2]
+        net.runNetwork(-1)
+    }
+
+    @After
+    fun tearDown() {
+        net.stopNodes()
+    }
+
+    fun insertIOUCreationTransaction(state: IOUState): StateRef {
+        val keysAB = listOf(a.info.legalIdentity.owningKey, b.info.legalIdentity.owningKey)
+        val tx = TransactionType.General.Builder(DUMMY_NOTARY)
+                .withItems(state, Command(IOUContract.Commands.Create(), keysAB))
+                .signWith(a.services.legalIdentityKey)
+                .signWith(b.services.legalIdentityKey)
+                .signWith(DUMMY_NOTARY_KEY)
+                .toSignedTransaction(true)
+
+        for (node in listOf(a, b))
+            node.services.recordTransactions(listOf(tx))
+
+        return StateRef(tx.id, 0)
+    }
+
+    fun transfer(holder: MockNetwork.MockNode, stateRef: StateRef, newRecipient: Party): StateRef {
+        val future = holder.services.startFlow(IOUTransferFlow.Initiator(stateRef, newRecipient)).resultFuture
+        net.runNetwork(-1)
+        return StateRef(future.getOrThrow().id, 0)
+    }
+
+    /** An IOU from A to B which has been passed to C and back, so that its chain is three transactions deep. */
+    fun insertTransferredIOU(): StateRef {
+        val created = insertIOUCreationTransaction(IOUState(10, a.info.legalIdentity, b.info.legalIdentity, IOUContract()))
+        val toC = transfer(b, created, c.info.legalIdentity)
+        return transfer(c, toC, b.info.legalIdentity)
+    }
+
+    @Test
+    fun chainDepthCountsEveryVersionOfTheIOU() {
+        val stateRef = insertTransferredIOU()
+
+        assertEquals(3, IOUCompactionFlow.chainDepth(a.services, stateRef, 10))
+        assertEquals(2, IOUCompactionFlow.chainDepth(a.services, stateRef, 1))
+    }
+
+    @Test
+    fun reissuedIOUHasNoBackchain() {
+        val stateRef = insertTransferredIOU()
+        val iou = a.services.toStateAndRef<IOUState>(stateRef).state.data
+        val future = a.services.startFlow(IOUCompactionFlow.Initiator(stateRef)).resultFuture
+        net.runNetwork(-1)
+        val reissuedRef = future.getOrThrow()
+
+        for (node in listOf(a, b)) {
+            val reissueTx = node.storage.validatedTransactions.getTransaction(reissuedRef.txhash)!!.tx
+            assert(reissueTx.inputs.isEmpty())
+            val reissued = reissueTx.outputs.single().data as IOUState
+            assertEquals(iou.linearId, reissued.linearId)
+            assertEquals(iou.iouValue, reissued.iouValue)
+            assertEquals(iou.sender, reissued.sender)
+            assertEquals(iou.recipient, reissued.recipient)
+            assertEquals(1, IOUCompactionFlow.chainDepth(node.services, reissuedRef, 10))
+        }
+    }
+
+    @Test
+    fun compactedIOUIsConsumed() {
+        val stateRef = insertTransferredIOU()
+        val future = a.services.startFlow(IOUCompactionFlow.Initiator(stateRef)).resultFuture
+        net.runNetwork(-1)
+        val reissuedRef = future.getOrThrow()
+
+        for (node in listOf(a, b)) {
+            val head = node.services.vaultService.linearHeadsOfType<IOUState>().values.single()
+            assertEquals(reissuedRef, head.ref)
+        }
+    }
+
+    @Test
+    fun shallowChainsAreLeftAlone() {
+        val stateRef = insertTransferredIOU()
+        val future = a.services.startFlow(IOUCompactionFlow.Initiator(stateRef, 3)).resultFuture
+        net.runNetwork(-1)
+
+        assertEquals(stateRef, future.getOrThrow())
+    }
+
+    @Test
+    fun onlyTheSenderCanCompact() {
+        val stateRef = insertTransferredIOU()
+        val future = b.services.startFlow(IOUCompactionFlow.Initiator(stateRef)).resultFuture
+        net.runNetwork(-1)
+
+        assertFailsWith<IllegalArgumentException> { future.getOrThrow() }
+    }
+}
@@ -4,6 +4,7 @@ import com.iou.kotlin.contract.IOUContract
 import com.iou.kotlin.flow.IOUCreation.IOUCreationFlow
 import com.iou.kotlin.state.IOUState
 import net.corda.core.contracts.TransactionVerificationException
+import net.corda.core.flows.FlowException
 import net.corda.core.getOrThrow
 import net.corda.core.utilities.DUMMY_NOTARY
 import net.corda.testing.node.MockNetwork
@@ -18,13 +19,15 @@ class IOUFlowTests {
     lateinit var net: MockNetwork
     lateinit var a: MockNetwork.MockNode
     lateinit var b: MockNetwork.MockNode
+    lateinit var c: MockNetwork.MockNode
 
     @Before
     fun setup() {
         net = MockNetwork()
-        val nodes = net.createSomeNodes(2)
+        val nodes = net.createSomeNodes(3)
         a = nodes.partyNodes[0]
         b = nodes.partyNodes[1]
+        c = nodes.partyNodes[2]
         net.runNetwork()
     }
 
@@ -121,4 +124,37 @@ class IOUFlowTests {
             assertEquals(recordedState.linearId, inputState.linearId)
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    fun batchOfIOUsIsRecordedInASingleTransaction() {
+        val states = (1..5).map {
+            IOUState(
+                    it,
+                    a.info.legalIdentity,
+                    b.info.legalIdentity,
+                    IOUContract())
+        }
+        val flow = IOUCreationFlow.Initiator(states, b.info.legalIdentity)
+        val future = a.services.startFlow(flow).resultFuture
+        net.runNetwork()
+        val signedTx = future.getOrThrow()
+
+        for (node in listOf(a, b)) {
+            val recordedTx = node.storage.validatedTransactions.getTransaction(signedTx.id)
+            val recordedStates = recordedTx!!.tx.outputs.map { it.data as IOUState }
+            assertEquals(states.map { it.linearId }, recordedStates.map { it.linearId })
+        }
+    }
+
+    @Test
+    fun acceptorRejectsBatchContainingAThirdParty() {
+        val states = listOf(
+                IOUState(1, a.info.legalIdentity, b.info.legalIdentity, IOUContract()),
+                IOUState(1, a.info.legalIdentity, c.info.legalIdentity, IOUContract()))
+        val flow = IOUCreationFlow.Initiator(states, b.info.legalIdentity)
+        val future = a.services.startFlow(flow).resultFuture
+        net.runNetwork()
+
+        assertFailsWith<FlowException> { future.getOrThrow() }
+    }
+}
@@ -0,0 +1,99 @@
+package com.iou.kotlin.flows
+
+import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.flow.IOUNetting.IOUNettingFlow
+import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.Command
+import net.corda.core.contracts.TransactionType
+import net.corda.core.flows.FlowException
+import net.corda.core.getOrThrow
+import net.corda.core.node.services.linearHeadsOfType
+import net.corda.core.utilities.DUMMY_NOTARY
+import net.corda.core.utilities.DUMMY_NOTARY_KEY
+import net.corda.testing.node.MockNetwork
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class IOUNettingFlowTests {
+    lateinit var net: MockNetwork
+    lateinit var a: MockNetwork.MockNode
+    lateinit var b: MockNetwork.MockNode
+    lateinit var c: MockNetwork.MockNode
+
+    @Before
+    fun setup() {
+        net = MockNetwork()
+        val nodes = net.createSomeNodes(3)
+        a = nodes.partyNodes[0]
+        b = nodes.partyNodes[1]
+        c = nodes.partyNodes[2]
+        net.runNetwork(-1)
+    }
+
+    @After
+    fun tearDown() {
+        net.stopNodes()
+    }
+
+    fun insertIOU(value: Int, sender: MockNetwork.MockNode, recipient: MockNetwork.MockNode) {
+        val iou = IOUState(value, sender.info.legalIdentity, recipient.info.legalIdentity, IOUContract())
+        val tx = TransactionType.General.Builder(DUMMY_NOTARY)
+                .withItems(iou, Command(IOUContract.Commands.Create(), iou.participants))
+                .signWith(sender.services.legalIdentityKey)
+                .signWith(recipient.services.legalIdentityKey)
+                .signWith(DUMMY_NOTARY_KEY)
+                .toSignedTransaction(true)
+
+        for (node in listOf(sender, recipient))
+            node.services.recordTransactions(listOf(tx))
+    }
+
+    fun iousOf(node: MockNetwork.MockNode) = node.services.vaultService.linearHeadsOfType<IOUState>().values.map { it.state.data }
+
+    @Test
+    fun reciprocalIOUsAreReplacedByOneResidual() {
+        insertIOU(10, a, b)
+        insertIOU(4, b, a)
+        insertIOU(3, a, b)
+        val future = a.services.startFlow(IOUNettingFlow.Initiator(setOf(b.info.legalIdentity))).resultFuture
+        net.runNetwork(-1)
+        future.getOrThrow()
+
+        for (node in listOf(a, b)) {
+            val residual = iousOf(node).single()
+            assertEquals(9, residual.iouValue)
+            assertEquals(a.info.legalIdentity, residual.sender)
+            assertEquals(b.info.legalIdentity, residual.recipient)
+        }
+    }
+
+    @Test
+    fun iousBetweenCounterpartiesAreNettedToo() {
+        insertIOU(5, a, b)
+        insertIOU(5, b, c)
+        val counterparties = setOf(b.info.legalIdentity, c.info.legalIdentity)
+        val future = a.services.startFlow(IOUNettingFlow.Initiator(counterparties)).resultFuture
+        net.runNetwork(-1)
+        val signedTx = future.getOrThrow()
+
+        assertEquals(2, signedTx.tx.inputs.size)
+        assert(iousOf(b).isEmpty())
+        for (node in listOf(a, c)) {
+            val residual = iousOf(node).single()
+            assertEquals(5, residual.iouValue)
+            assertEquals(a.info.legalIdentity, residual.sender)
+            assertEquals(c.info.legalIdentity, residual.recipient)
+        }
+    }
+
+    @Test
+    fun nettingNeedsIOUs() {
+        val future = a.services.startFlow(IOUNettingFlow.Initiator(setOf(b.info.legalIdentity))).resultFuture
+        net.runNetwork(-1)
+
+        assertFailsWith<FlowException> { future.getOrThrow() }
+    }
+}
@@ -1,12 +1,17 @@
 package com.iou.kotlin.flows
 
 import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.flow.IOUCreation.IOUCreationFlow
+import com.iou.kotlin.flow.IOUSettle.IOUSettleFlow
+import com.iou.kotlin.flow.IOUSettle.SelfIssueCashFlow
 import com.iou.kotlin.flow.IOUTransfer.IOUTransferFlow
 import com.iou.kotlin.state.IOUState
 import net.corda.core.contracts.*
 import net.corda.core.getOrThrow
+import net.corda.core.node.services.linearHeadsOfType
 import net.corda.core.utilities.DUMMY_NOTARY
 import net.corda.core.utilities.DUMMY_NOTARY_KEY
+import net.corda.node.utilities.databaseTransaction
 import net.corda.testing.node.MockNetwork
 import org.junit.After
 import org.junit.Before
@@ -14,11 +19,13 @@ import org.junit.Test
 import kotlin.test.assertEquals
 import kotlin.test.assertFailsWith
 import kotlin.test.assertNotEquals
+import kotlin.test.assertNull
 
 class IOUSettleFlowTests {
     lateinit var net: MockNetwork
     lateinit var a: MockNetwork.MockNode
     lateinit var b: MockNetwork.MockNode
+    lateinit var c: MockNetwork.MockNode
 
     @Before
     fun setup() {
@@ -26,6 +33,7 @@ class IOUSettleFlowTests {
         val nodes = net.createSomeNodes(3)
         a = nodes.partyNodes[0]
         b = nodes.partyNodes[1]
+        c = nodes.partyNodes[2]
         net.runNetwork(-1)
     }
 
@@ -34,6 +42,79 @@ class IOUSettleFlowTests {
         net.stopNodes()
     }
 
+    private fun issueCash(amount: Int) {
+        val future = a.services.startFlow(SelfIssueCashFlow(amount)).resultFuture
+        net.runNetwork(-1)
+        future.getOrThrow()
+    }
+
+    private fun issueIOU(value: Int, recipient: MockNetwork.MockNode): IOUState {
+        val state = IOUState(value, a.info.legalIdentity, recipient.info.legalIdentity, IOUContract())
+        val future = a.services.startFlow(IOUCreationFlow.Initiator(state, recipient.info.legalIdentity)).resultFuture
+        net.runNetwork(-1)
+        future.getOrThrow()
+        return state
+    }
+
+    @Test
+    fun settlesIOUsWithSeveralRecipientsInOneTransaction() {
+        issueCash(100)
+        val toB = issueIOU(10, b)
+        val toC = issueIOU(20, c)
+
+        val flow = IOUSettleFlow.Initiator(mapOf(toB.linearId to 10, toC.linearId to 5))
+        val future = a.services.startFlow(flow).resultFuture
+        net.runNetwork(-1)
+        val signedTx = future.getOrThrow().single()
+
+        for (node in listOf(a, b, c)) {
+            assertEquals(signedTx.id, node.storage.validatedTransactions.getTransaction(signedTx.id)?.id)
+        }
+        assertNull(b.services.vaultService.linearHeadsOfType<IOUState>()[toB.linearId])
+        assertEquals(5, c.services.vaultService.linearHeadsOfType<IOUState>()[toC.linearId]!!.state.data.paid)
+    }
+
+    @Test
+    fun aPartialSettlementIsVerifiedAndRecordedByTheRecipient() {
+        issueCash(100)
+        val iou = issueIOU(10, b)
+
+        val future = a.services.startFlow(IOUSettleFlow.Initiator(iou.linearId, 4)).resultFuture
+        net.runNetwork(-1)
+        val signedTx = future.getOrThrow().single()
+
+        // The recipient received the transaction over the wire, so its IOUs carry contracts distinct from its inputs'.
+        val recorded = b.storage.validatedTransactions.getTransaction(signedTx.id)!!
+        databaseTransaction(b.database) { recorded.tx.toLedgerTransaction(b.services).verify() }
+        val head = b.services.vaultService.linearHeadsOfType<IOUState>()[iou.linearId]!!.state.data
+        assertEquals(4, head.paid)
+        assertEquals(iou.iouValue, head.iouValue)
+    }
+
+    @Test
+    fun splitsSettlementIntoTransactionsOfAtMostTheGivenSize() {
+        issueCash(100)
+        val ious = listOf(issueIOU(10, b), issueIOU(10, c), issueIOU(10, b))
+
+        val flow = IOUSettleFlow.Initiator(ious.associate { it.linearId to 10 }, 2)
+        val future = a.services.startFlow(flow).resultFuture
+        net.runNetwork(-1)
+
+        assertEquals(2, future.getOrThrow().size)
+        assert(a.services.vaultService.linearHeadsOfType<IOUState>().isEmpty())
+    }
+
+    @Test
+    fun cannotSettleWithoutEnoughCash() {
+        issueCash(5)
+        val iou = issueIOU(10, b)
+
+        val future = a.services.startFlow(IOUSettleFlow.Initiator(iou.linearId, 10)).resultFuture
+        net.runNetwork(-1)
+
+        assertFailsWith<InsufficientBalanceException> { future.getOrThrow() }
+    }
+
 //    fun insertStandardIOUCreationTransaction(): StateRef {
 //        val state = IOUState(1, a.info.legalIdentity, b.info.legalIdentity, IOUContract())
 //
@@ -2,15 +2,19 @@ package com.iou.kotlin.flows
 
 import com.iou.kotlin.contract.IOUContract
 import com.iou.kotlin.flow.IOUTransfer.IOUTransferFlow
+import com.iou.kotlin.flow.IOUTransfer.ResolutionCache
 import com.iou.kotlin.state.IOUState
 import net.corda.core.contracts.*
+import net.corda.core.flows.FlowException
 import net.corda.core.getOrThrow
 import net.corda.core.utilities.DUMMY_NOTARY
 import net.corda.core.utilities.DUMMY_NOTARY_KEY
 import net.corda.testing.node.MockNetwork
+import net.corda.testing.node.TestClock
 import org.junit.After
 import org.junit.Before
 import org.junit.Test
+import java.time.Duration
 import kotlin.test.assertEquals
 import kotlin.test.assertFailsWith
 import kotlin.test.assertNotEquals
@@ -36,123 +40,182 @@ class IOUTransferFlowTests {
         net.stopNodes()
     }
 
-//    fun insertStandardIOUCreationTransaction(): StateRef {
-//        val state = IOUState(1, a.info.legalIdentity, b.info.legalIdentity, IOUContract())
-//
-//        return insertIOUCreationTransaction(state)
-//    }
-//
-//    fun insertIOUCreationTransaction(state: IOUState): StateRef {
-//        val keysAB = listOf(a.info.legalIdentity.owningKey, b.info.legalIdentity.owningKey)
-//        val txCommand = Command(IOUContract.Create(), keysAB)
-//
-//        val tb =  TransactionType.General.Builder(DUMMY_NOTARY).withItems(state, txCommand)
-//
-//        val tx = tb
-//                .signWith(a.services.legalIdentityKey)
-//                .signWith(b.services.legalIdentityKey)
-//                .signWith(DUMMY_NOTARY_KEY)
-//                .toSignedTransaction(true)
-//
-//        for (node in listOf(a, b))
-//            node.services.recordTransactions(listOf(tx))
-//
-//        return StateRef(tx.id, 0)
-//    }
-//
-//    @Test
-//    fun flowReturnsTransactionSignedByTheInitiator() {
-//        val stateRef = insertStandardIOUCreationTransaction()
-//        val flow = IOUTransferFlow.Initiator(stateRef, c.info.legalIdentity)
-//        val future = b.services.startFlow(flow).resultFuture
-//        net.runNetwork(-1)
-//
-//        val signedTx = future.get()
-//        signedTx.verifySignatures(a.info.legalIdentity.owningKey, c.info.legalIdentity.owningKey, DUMMY_NOTARY.owningKey)
-//    }
-//
-//    @Test
-//    fun onlyCurrentIOURecipientCanInitiateFlow() {
-//        val stateRef = insertStandardIOUCreationTransaction()
-//        val flow = IOUTransferFlow.Initiator(stateRef, b.info.legalIdentity)
-//        val future = a.services.startFlow(flow).resultFuture
-//
-//        assertFailsWith<IllegalArgumentException> { future.getOrThrow() }
-//    }
-//
-//    @Test
-//    fun flowRejectsInvalidIOUStates() {
-//        val state = IOUState(-1, a.info.legalIdentity, b.info.legalIdentity, IOUContract())
-//        val stateRef = insertIOUCreationTransaction(state)
-//        val flow = IOUTransferFlow . Initiator (stateRef, c.info.legalIdentity)
-//        val future = b.services.startFlow(flow).resultFuture
-//        net.runNetwork(-1)
-//
-//        assertFailsWith<TransactionVerificationException> { future.getOrThrow() }
-//    }
-//
-//    @Test
-//    fun flowReturnsTransactionSignedByTheOldRecipient() {
-//        val stateRef = insertStandardIOUCreationTransaction()
-//        val flow = IOUTransferFlow.Initiator(stateRef, c.info.legalIdentity)
-//        val future = b.services.startFlow(flow).resultFuture
-//        net.runNetwork(-1)
-//
-//        val signedTx = future.get()
-//        signedTx.verifySignatures(a.info.legalIdentity.owningKey, c.info.legalIdentity.owningKey, DUMMY_NOTARY.owningKey)
-//    }
-//
-//    @Test
-//    fun flowReturnsTransactionSignedByTheNewRecipient() {
-//        val stateRef = insertStandardIOUCreationTransaction()
-//        val flow = IOUTransferFlow.Initiator(stateRef, c.info.legalIdentity)
-//        val future = b.services.startFlow(flow).resultFuture
-//        net.runNetwork(-1)
-//
-//        val signedTx = future.get()
-//        signedTx.verifySignatures(a.info.legalIdentity.owningKey, b.info.legalIdentity.owningKey, DUMMY_NOTARY.owningKey)
-//    }
-//
-//    @Test
-//    fun flowRecordsATransactionInAllPartiesVaults() {
-//        val stateRef = insertStandardIOUCreationTransaction()
-//        val flow = IOUTransferFlow.Initiator(stateRef, c.info.legalIdentity)
-//        val future = b.services.startFlow(flow).resultFuture
-//        net.runNetwork(-1)
-//        val signedTx = future.get()
-//
-//        for (node in listOf(a, b, c)) {
-//            val recordedTxA = node.storage.validatedTransactions.getTransaction(signedTx.id)
-//            assertEquals(signedTx.id, recordedTxA?.id)
-//        }
-//    }
-//
-//    @Test
-//    fun recordedTransactionHasNoInputsAndASingleOutputTheInputIOU() {
-//        val inputState = IOUState(1, a.info.legalIdentity, b.info.legalIdentity, IOUContract())
-//        val stateRef = insertIOUCreationTransaction(inputState)
-//        val flow = IOUTransferFlow.Initiator(stateRef, c.info.legalIdentity)
-//        val future = b.services.startFlow(flow).resultFuture
-//        net.runNetwork(-1)
-//        val signedTx = future.get()
-//
-//        for (node in listOf(a, b, c)) {
-//            val recordedTx = node.storage.validatedTransactions.getTransaction(signedTx.id)
-//
-//            // Test on the number of inputs.
-//            val txInputs = recordedTx?.tx?.inputs
-//            assert(txInputs?.size == 1)
-//
-//            // Test on the number of outputs.
-//            val txOutputs = recordedTx?.tx?.outputs
-//            assert(txOutputs?.size == 1)
-//
-//            // Tests on the output's attributes.
-//            val outputState = txOutputs?.first()?.data as IOUState
-//            assertEquals(inputState.iouValue, outputState.iouValue)
-//            assertEquals(inputState.sender, outputState.sender)
-//            assertEquals(inputState.linearId, outputState.linearId)
-//            assertNotEquals(inputState.recipient, outputState.recipient)
-//        }
-//    }
-}
\ No newline at end of file
+    fun insertStandardIOUCreationTransaction(): StateRef {
+        val state = IOUState(1, a.info.legalIdentity, b.info.legalIdentity, IOUContract())
+
+        return insertIOUCreationTransaction(state)
+    }
+
+    fun insertIOUCreationTransaction(state: IOUState): StateRef {
+        val keysAB = listOf(a.info.legalIdentity.owningKey, b.info.legalIdentity.owningKey)
+        val txCommand = Command(IOUContract.Commands.Create(), keysAB)
+
+        val tb =  TransactionType.General.Builder(DUMMY_NOTARY).withItems(state, txCommand)
+
+        val tx = tb
+                .signWith(a.services.legalIdentityKey)
+                .signWith(b.services.legalIdentityKey)
+                .signWith(DUMMY_NOTARY_KEY)
+                .toSignedTransaction(true)
+
+        for (node in listOf(a, b))
+            node.services.recordTransactions(listOf(tx))
+
+        return StateRef(tx.id, 0)
+    }
+
+    @Test
+    fun flowReturnsTransactionSignedByTheInitiator() {
+        val stateRef = insertStandardIOUCreationTransaction()
+        val flow = IOUTransferFlow.Initiator(stateRef, c.info.legalIdentity)
+        val future = b.services.startFlow(flow).resultFuture
+        net.runNetwork(-1)
+
+        val signedTx = future.get()
+        signedTx.verifySignatures(a.info.legalIdentity.owningKey, c.info.legalIdentity.owningKey, DUMMY_NOTARY.owningKey)
+    }
+
+    @Test
+    fun onlyCurrentIOURecipientCanInitiateFlow() {
+        val stateRef = insertStandardIOUCreationTransaction()
+        val flow = IOUTransferFlow.Initiator(stateRef, b.info.legalIdentity)
+        val future = a.services.startFlow(flow).resultFuture
+
+        assertFailsWith<IllegalArgumentException> { future.getOrThrow() }
+    }
+
+    @Test
+    fun flowRejectsInvalidIOUStates() {
+        val state = IOUState(-1, a.info.legalIdentity, b.info.legalIdentity, IOUContract())
+        val stateRef = insertIOUCreationTransaction(state)
+        val flow = IOUTransferFlow.Initiator(stateRef, c.info.legalIdentity)
+        val future = b.services.startFlow(flow).resultFuture
+        net.runNetwork(-1)
+
+        assertFailsWith<TransactionVerificationException> { future.getOrThrow() }
+    }
+
+    @Test
+    fun flowReturnsTransactionSignedByTheOldRecipient() {
+        val stateRef = insertStandardIOUCreationTransaction()
+        val flow = IOUTransferFlow.Initiator(stateRef, c.info.legalIdentity)
+        val future = b.services.startFlow(flow).resultFuture
+        net.runNetwork(-1)
+
+        val signedTx = future.get()
+        signedTx.verifySignatures(a.info.legalIdentity.owningKey, c.info.legalIdentity.owningKey, DUMMY_NOTARY.owningKey)
+    }
+
+    @Test
+    fun flowReturnsTransactionSignedByTheNewRecipient() {
+        val stateRef = insertStandardIOUCreationTransaction()
+        val flow = IOUTransferFlow.Initiator(stateRef, c.info.legalIdentity)
+        val future = b.services.startFlow(flow).resultFuture
+        net.runNetwork(-1)
+
+        val signedTx = future.get()
+        signedTx.verifySignatures(a.info.legalIdentity.owningKey, b.info.legalIdentity.owningKey, DUMMY_NOTARY.owningKey)
+    }
+
+    @Test
+    fun flowRecordsATransactionInAllPartiesVaults() {
+        val stateRef = insertStandardIOUCreationTransaction()
+        val flow = IOUTransferFlow.Initiator(stateRef, c.info.legalIdentity)
+        val future = b.services.startFlow(flow).resultFuture
+        net.runNetwork(-1)
+        val signedTx = future.get()
+
+        for (node in listOf(a, b, c)) {
+            val recordedTxA = node.storage.validatedTransactions.getTransaction(signedTx.id)
+            assertEquals(signedTx.id, recordedTxA?.id)
+        }
+    }
+
+    @Test
+    fun recordedTransactionHasNoInputsAndASingleOutputTheInputIOU() {
+        val inputState = IOUState(1, a.info.legalIdentity, b.info.legalIdentity, IOUContract())
+        val stateRef = insertIOUCreationTransaction(inputState)
+        val flow = IOUTransferFlow.Initiator(stateRef, c.info.legalIdentity)
+        val future = b.services.startFlow(flow).resultFuture
+        net.runNetwork(-1)
+        val signedTx = future.get()
+
+        for (node in listOf(a, b, c)) {
+            val recordedTx = node.storage.validatedTransactions.getTransaction(signedTx.id)
+
+            // Test on the number of inputs.
+            val txInputs = recordedTx?.tx?.inputs
+            assert(txInputs?.size == 1)
+
+            // Test on the number of outputs.
+            val txOutputs = recordedTx?.tx?.outputs
+            assert(txOutputs?.size == 1)
+
+            // Tests on the output's attributes.
+            val outputState = txOutputs?.first()?.data as IOUState
+            assertEquals(inputState.iouValue, outputState.iouValue)
+            assertEquals(inputState.sender, outputState.sender)
+            assertEquals(inputState.linearId, outputState.linearId)
+            assertNotEquals(inputState.recipient, outputState.recipient)
+        }
+    }
+
+    @Test
+    fun newRecipientRemembersTheResolvedBackchain() {
+        val stateRef = insertStandardIOUCreationTransaction()
+        assertEquals(setOf(stateRef.txhash), ResolutionCache.of(c.services).missing(listOf(stateRef.txhash)))
+
+        val flow = IOUTransferFlow.Initiator(stateRef, c.info.legalIdentity)
+        val future = b.services.startFlow(flow).resultFuture
+        net.runNetwork(-1)
+        val signedTx = future.getOrThrow()
+
+        val cache = ResolutionCache.of(c.services)
+        assert(cache.missing(listOf(stateRef.txhash, signedTx.id)).isEmpty())
+    }
+
+    @Test
+    fun transferTimeWindowClosesANotarisationSlackAfterTheSigningDeadline() {
+        val stateRef = insertStandardIOUCreationTransaction()
+        val timeout = Duration.ofSeconds(5)
+        val flow = IOUTransferFlow.Initiator(stateRef, c.info.legalIdentity, timeout)
+        val future = b.services.startFlow(flow).resultFuture
+        net.runNetwork(-1)
+        val signedTx = future.getOrThrow()
+
+        val timestamp = signedTx.tx.timestamp!!
+        assertEquals(timeout + IOUTransferFlow.NOTARISATION_SLACK, Duration.between(timestamp.after, timestamp.before))
+    }
+
+    @Test
+    fun signaturesArrivingAfterTheDeadlineAreRejected() {
+        val stateRef = insertStandardIOUCreationTransaction()
+        val timeout = Duration.ofSeconds(5)
+        val future = b.services.startFlow(IOUTransferFlow.Initiator(stateRef, c.info.legalIdentity, timeout)).resultFuture
+        // The signers answer in time by their own clocks, but only after the deadline by ours.
+        (b.services.clock as TestClock).advanceBy(timeout.multipliedBy(2))
+        net.runNetwork(-1)
+
+        val error = assertFailsWith<FlowException> { future.getOrThrow() }
+        assert("did not sign within" in error.message!!)
+        assertTransferNotRecorded(stateRef)
+    }
+
+    @Test
+    fun signersRefuseToSignAfterTheDeadline() {
+        val stateRef = insertStandardIOUCreationTransaction()
+        val timeout = Duration.ofSeconds(5)
+        // Still inside the time-window, but past the deadline for signing it.
+        (c.services.clock as TestClock).advanceBy(timeout.multipliedBy(2))
+        val future = b.services.startFlow(IOUTransferFlow.Initiator(stateRef, c.info.legalIdentity, timeout)).resultFuture
+        net.runNetwork(-1)
+
+        assertFailsWith<FlowException> { future.getOrThrow() }
+        assertTransferNotRecorded(stateRef)
+    }
+
+    private fun assertTransferNotRecorded(stateRef: StateRef) {
+        assert(c.services.vaultService.currentVault.states.none())
+        assertEquals(listOf(stateRef), b.services.vaultService.currentVault.states.map { it.ref })
+    }
+}
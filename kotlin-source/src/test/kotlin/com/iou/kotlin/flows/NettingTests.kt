@@ -0,0 +1,59 @@
+package com.iou.kotlin.flows
+
+import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.flow.IOUNetting.Netting
+import com.iou.kotlin.state.IOUState
+import net.corda.core.crypto.Party
+import net.corda.testing.*
+import org.junit.Test
+import java.util.*
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class NettingTests {
+    private fun iou(value: Int, sender: Party, recipient: Party) = IOUState(value, sender, recipient, IOUContract())
+
+    @Test
+    fun reciprocalIOUsNetToOneResidual() {
+        val positions = Netting.netPositions(listOf(iou(10, ALICE, BOB), iou(4, BOB, ALICE), iou(3, ALICE, BOB)))
+
+        assertEquals(listOf(Netting.Obligation(ALICE, BOB, 9)), Netting.residuals(positions))
+    }
+
+    @Test
+    fun onlyOutstandingAmountsAreNetted() {
+        val positions = Netting.netPositions(listOf(iou(10, ALICE, BOB).pay(6), iou(4, BOB, ALICE)))
+
+        assert(Netting.residuals(positions).isEmpty())
+    }
+
+    @Test
+    fun chainsCollapseToASingleObligation() {
+        val positions = Netting.netPositions(listOf(iou(5, ALICE, BOB), iou(5, BOB, CHARLIE)))
+
+        assertEquals(listOf(Netting.Obligation(ALICE, CHARLIE, 5)), Netting.residuals(positions))
+    }
+
+    @Test
+    fun residualsSettleEveryPositionWithAtMostOnePerPair() {
+        val parties = listOf(ALICE, BOB, CHARLIE, MEGA_CORP, MINI_CORP)
+        val random = Random(42)
+        val ious = ArrayList((1..20000).map {
+            val sender = parties[random.nextInt(parties.size)]
+            val recipient = parties.filter { it != sender }[random.nextInt(parties.size - 1)]
+            iou(random.nextInt(1000) + 1, sender, recipient)
+        })
+        val positions = Netting.netPositions(ious)
+        val residuals = Netting.residuals(positions)
+
+        val settled = Netting.netPositions(residuals.map { iou(it.amount.toInt(), it.debtor, it.creditor) })
+        assertEquals(positions.filterValues { it != 0L }, settled.filterValues { it != 0L })
+        assertEquals(residuals.size, residuals.map { setOf(it.debtor, it.creditor) }.toSet().size)
+        assert(residuals.size < parties.size)
+    }
+
+    @Test
+    fun positionsMustBalance() {
+        assertFailsWith<IllegalArgumentException> { Netting.residuals(mapOf(ALICE to 5L, BOB to -4L)) }
+    }
+}
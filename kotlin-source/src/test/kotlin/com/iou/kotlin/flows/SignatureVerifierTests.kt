@@ -0,0 +1,45 @@
+package com.iou.kotlin.flows
+
+import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.flow.SignatureVerifier
+import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.Command
+import net.corda.core.contracts.TransactionType
+import net.corda.core.crypto.signWithECDSA
+import net.corda.core.transactions.SignedTransaction
+import net.corda.core.utilities.DUMMY_NOTARY
+import net.corda.testing.*
+import org.junit.Test
+import java.security.SignatureException
+import kotlin.test.assertFailsWith
+
+class SignatureVerifierTests {
+    val content = "IOU".toByteArray()
+    val keys = listOf(ALICE_KEY, BOB_KEY, MEGA_CORP_KEY, MINI_CORP_KEY)
+
+    private fun partSignedIssuance(): SignedTransaction {
+        val iou = IOUState(1, ALICE, BOB, IOUContract())
+        return TransactionType.General.Builder(DUMMY_NOTARY)
+                .withItems(iou, Command(IOUContract.Commands.Create(), iou.participants))
+                .signWith(ALICE_KEY)
+                .toSignedTransaction(false)
+    }
+
+    @Test
+    fun validSignaturesVerify() {
+        SignatureVerifier.verify(content, keys.map { it.signWithECDSA(content) })
+    }
+
+    @Test
+    fun anyInvalidSignatureFailsTheWholeCheck() {
+        val signatures = keys.map { it.signWithECDSA(content) } + BOB_KEY.signWithECDSA("Something else".toByteArray())
+        assertFailsWith<SignatureException> { SignatureVerifier.verify(content, signatures) }
+    }
+
+    @Test
+    fun missingSignaturesMustBeAllowed() {
+        val stx = partSignedIssuance()
+        assertFailsWith<SignedTransaction.SignaturesMissingException> { SignatureVerifier.verifySignatures(stx) }
+        SignatureVerifier.verifySignatures(stx, BOB_PUBKEY)
+    }
+}
@@ -0,0 +1,309 @@
+package com.iou.kotlin.load
+
+import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.MoreExecutors
+import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.flow.IOUCreation.IOUCreationFlow
+import com.iou.kotlin.flow.IOUSettle.IOUSettleFlow
+import com.iou.kotlin.flow.IOUSettle.SelfIssueCashFlow
+import com.iou.kotlin.flow.IOUTransfer.IOUTransferFlow
+import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.contracts.StateRef
+import net.corda.core.crypto.Party
+import net.corda.core.getOrThrow
+import net.corda.node.utilities.databaseTransaction
+import net.corda.testing.node.MockNetwork
+import java.util.*
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Drives a mix of IOU creation, transfer and settlement flows across the party nodes of a [MockNetwork], set up as in
+ * [IOUFlowTests] but with a thread per node so that flows on different nodes really run concurrently.
+ *
+ * Flows are started at [Config.ratePerSecond], with at most [Config.concurrency] in flight at once. A flow's latency
+ * is measured from when it was due to start rather than when it did, so a run which cannot keep up with the target
+ * rate shows up in the latencies instead of being hidden by the harness waiting for a free slot.
+ *
+ * Neither waiting for a free slot nor waiting for the run to end takes longer than [Config.timeoutSeconds]. A flow
+ * which could not be started in time, or which had not completed when the run ended, counts as failed, so flows which
+ * never complete fail the rest of the run rather than hanging it.
+ *
+ * Transfers and settlements need an IOU to act on. Each uses one which both its sender and its recipient have
+ * recorded and which no other flow of the run is using; when there is none, an IOU is created instead.
+ */
+class LoadHarness(val config: Config) {
+    enum class FlowType { CREATION, TRANSFER, SETTLEMENT }
+
+    /** What to run. [mix] weighs how often each type of flow is started. */
+    data class Config(val nodes: Int = 3,
+                      val flows: Int = 300,
+                      val ratePerSecond: Double = 100.0,
+                      val concurrency: Int = 16,
+                      val mix: Map<FlowType, Int> = mapOf(FlowType.CREATION to 50, FlowType.TRANSFER to 30, FlowType.SETTLEMENT to 20),
+                      val seed: Long = 0,
+                      val timeoutSeconds: Long = 60) {
+        init {
+            require(nodes >= 3) { "A transfer needs three parties, so at least three nodes are needed." }
+            require(flows > 0) { "At least one flow must be run." }
+            require(ratePerSecond > 0) { "The rate must be positive." }
+            require(concurrency > 0) { "At least one flow must be allowed in flight." }
+            require(mix.values.all { it >= 0 } && mix.values.sum() > 0) { "The mix must weigh at least one flow type." }
+            require(timeoutSeconds > 0) { "The timeout must be positive." }
+        }
+
+        companion object {
+            /** The default configuration, overridden by the `iou.load.*` system properties for runs from [main]. */
+            fun fromSystemProperties(): Config {
+                val defaults = Config()
+                return Config(
+                        nodes = Integer.getInteger("iou.load.nodes", defaults.nodes),
+                        flows = Integer.getInteger("iou.load.flows", defaults.flows),
+                        ratePerSecond = System.getProperty("iou.load.rate")?.toDouble() ?: defaults.ratePerSecond,
+                        concurrency = Integer.getInteger("iou.load.concurrency", defaults.concurrency),
+                        mix = FlowType.values().associate {
+                            it to Integer.getInteger("iou.load.mix.${it.name.toLowerCase()}", defaults.mix[it] ?: 0)
+                        },
+                        seed = java.lang.Long.getLong("iou.load.seed", defaults.seed),
+                        timeoutSeconds = java.lang.Long.getLong("iou.load.timeoutSeconds", defaults.timeoutSeconds))
+            }
+        }
+    }
+
+    data class FlowStats(val type: FlowType,
+                         val completed: Int,
+                         val failed: Int,
+                         val p50Millis: Double,
+                         val p99Millis: Double,
+                         val p999Millis: Double)
+
+    /**
+     * The outcome of a run. [peakCheckpoints] is the most flow checkpoints held across all nodes at once, and
+     * [remainingCheckpoints] those still held once every flow had completed, which should be none.
+     */
+    data class Report(val elapsedSeconds: Double,
+                      val stats: List<FlowStats>,
+                      val peakCheckpoints: Int,
+                      val remainingCheckpoints: Int) {
+        val completed: Int get() = stats.sumBy { it.completed }
+        val failed: Int get() = stats.sumBy { it.failed }
+        val throughput: Double get() = completed / elapsedSeconds
+
+        override fun toString(): String {
+            val lines = ArrayList<String>()
+            lines.add(String.format("%-12s %10s %8s %10s %10s %10s", "flow", "completed", "failed", "p50 ms", "p99 ms", "p999 ms"))
+            for (s in stats) {
+                lines.add(String.format("%-12s %10d %8d %10.1f %10.1f %10.1f", s.type, s.completed, s.failed, s.p50Millis, s.p99Millis, s.p999Millis))
+            }
+            lines.add(String.format("%.1f flows/s over %.1f s; checkpoints: peak %d, remaining %d",
+                    throughput, elapsedSeconds, peakCheckpoints, remainingCheckpoints))
+            return lines.joinToString("\n")
+        }
+    }
+
+    fun run(): Report {
+        val net = MockNetwork(threadPerNode = true)
+        try {
+            val nodes = net.createSomeNodes(config.nodes).partyNodes
+            val ious = IOUPool(nodes)
+            issueCash(nodes)
+
+            val recorders = FlowType.values().associate { it to LatencyRecorder() }
+            val sampler = CheckpointSampler(net.nodes)
+            val random = Random(config.seed)
+            val inFlight = Semaphore(config.concurrency)
+            val done = CountDownLatch(config.flows)
+            // The flows started and not yet counted, so that each is counted once, by its listener or at the timeout.
+            val outstanding = ConcurrentHashMap<Int, FlowType>()
+            val interval = (TimeUnit.SECONDS.toNanos(1) / config.ratePerSecond).toLong()
+            sampler.start()
+            val start = System.nanoTime()
+            for (i in 0 until config.flows) {
+                val due = start + i * interval
+                val wait = due - System.nanoTime()
+                if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait)
+                val picked = pickType(random)
+                if (!inFlight.tryAcquire(config.timeoutSeconds, TimeUnit.SECONDS)) {
+                    recorders[picked]!!.fail()
+                    done.countDown()
+                    continue
+                }
+                val started = startFlow(picked, nodes, ious, random)
+                val type = started.first
+                val future = started.second
+                outstanding[i] = type
+                future.addListener(Runnable {
+                    try {
+                        future.get()
+                        if (outstanding.remove(i) != null) recorders[type]!!.record(System.nanoTime() - due)
+                    } catch (e: ExecutionException) {
+                        if (outstanding.remove(i) != null) recorders[type]!!.fail()
+                    } finally {
+                        inFlight.release()
+                        done.countDown()
+                    }
+                }, MoreExecutors.directExecutor())
+            }
+            done.await(config.timeoutSeconds, TimeUnit.SECONDS)
+            val elapsed = System.nanoTime() - start
+            for (i in outstanding.keys) {
+                val type = outstanding.remove(i) ?: continue
+                recorders[type]!!.fail()
+            }
+            sampler.stop()
+
+            return Report(elapsed / 1e9, FlowType.values().map { recorders[it]!!.stats(it) }, sampler.peak, sampler.count())
+        } finally {
+            net.stopNodes()
+        }
+    }
+
+    /** Gives every node cash to settle with, in enough coins that concurrent settlements need not wait on each other. */
+    private fun issueCash(nodes: List<MockNetwork.MockNode>) {
+        val futures = nodes.flatMap { node ->
+            (1..config.concurrency).map { node.services.startFlow(SelfIssueCashFlow(CASH_PER_COIN)).resultFuture }
+        }
+        futures.forEach { it.getOrThrow() }
+    }
+
+    private fun pickType(random: Random): FlowType {
+        var pick = random.nextInt(config.mix.values.sum())
+        for (type in FlowType.values()) {
+            pick -= config.mix[type] ?: 0
+            if (pick < 0) return type
+        }
+        throw IllegalStateException("The mix does not cover $pick.")
+    }
+
+    private fun startFlow(type: FlowType,
+                          nodes: List<MockNetwork.MockNode>,
+                          ious: IOUPool,
+                          random: Random): Pair<FlowType, ListenableFuture<*>> {
+        fun nodeOf(party: Party) = nodes.single { it.info.legalIdentity == party }
+
+        val iouRef = if (type == FlowType.CREATION) null else ious.claim()
+        if (iouRef == null) {
+            val sender = nodes[random.nextInt(nodes.size)]
+            val others = nodes.filter { it != sender }
+            val recipient = others[random.nextInt(others.size)].info.legalIdentity
+            val iou = IOUState(random.nextInt(MAX_IOU_VALUE) + 1, sender.info.legalIdentity, recipient, IOUContract())
+            return Pair(FlowType.CREATION, sender.services.startFlow(IOUCreationFlow.Initiator(iou, recipient)).resultFuture)
+        }
+
+        val iou = iouRef.state.data
+        if (type == FlowType.TRANSFER) {
+            val others = nodes.map { it.info.legalIdentity }.filter { it != iou.sender && it != iou.recipient }
+            val newRecipient = others[random.nextInt(others.size)]
+            val flow = IOUTransferFlow.Initiator(iouRef.ref, newRecipient)
+            return Pair(type, nodeOf(iou.recipient).services.startFlow(flow).resultFuture)
+        }
+        val flow = IOUSettleFlow.Initiator(iou.linearId, iou.outstanding)
+        return Pair(type, nodeOf(iou.sender).services.startFlow(flow).resultFuture)
+    }
+
+    /**
+     * The IOUs free for a transfer or settlement to use: those which both their sender and recipient have recorded, in
+     * the order they were recorded. Claiming an IOU takes it out of the pool, and its next version, if any, is added
+     * once it has been recorded in turn.
+     */
+    private class IOUPool(nodes: List<MockNetwork.MockNode>) {
+        private val recordedBy = ConcurrentHashMap<StateRef, Int>()
+        private val available = ConcurrentLinkedQueue<StateAndRef<IOUState>>()
+
+        init {
+            for (node in nodes) {
+                val me = node.info.legalIdentity
+                node.services.vaultService.updates.subscribe { update ->
+                    for (produced in update.produced) {
+                        val iou = produced.state.data as? IOUState ?: continue
+                        if (me != iou.sender && me != iou.recipient) continue
+                        if (recordedBy.merge(produced.ref, 1) { a, b -> a + b } < 2) continue
+                        recordedBy.remove(produced.ref)
+                        @Suppress("UNCHECKED_CAST")
+                        available.add(produced as StateAndRef<IOUState>)
+                    }
+                }
+            }
+        }
+
+        fun claim(): StateAndRef<IOUState>? = available.poll()
+    }
+
+    private class LatencyRecorder {
+        private val latencies = ConcurrentLinkedQueue<Long>()
+        private val failures = AtomicInteger()
+
+        fun record(nanos: Long) {
+            latencies.add(nanos)
+        }
+
+        fun fail() {
+            failures.incrementAndGet()
+        }
+
+        fun stats(type: FlowType): FlowStats {
+            val sorted = latencies.toLongArray()
+            Arrays.sort(sorted)
+            return FlowStats(type, sorted.size, failures.get(),
+                    percentile(sorted, 0.5) / 1e6, percentile(sorted, 0.99) / 1e6, percentile(sorted, 0.999) / 1e6)
+        }
+    }
+
+    /** Samples how many checkpoints [nodes] hold between them, keeping the peak. */
+    private class CheckpointSampler(private val nodes: List<MockNetwork.MockNode>) {
+        @Volatile private var running = true
+        @Volatile var peak = 0
+            private set
+        private val thread = Thread {
+            while (running) {
+                peak = Math.max(peak, count())
+                Thread.sleep(SAMPLE_INTERVAL_MILLIS)
+            }
+        }
+
+        fun start() {
+            thread.isDaemon = true
+            thread.start()
+        }
+
+        fun stop() {
+            running = false
+            thread.join()
+        }
+
+        fun count(): Int {
+            return nodes.sumBy { node ->
+                var checkpoints = 0
+                databaseTransaction(node.database) {
+                    node.checkpointStorage.forEach {
+                        checkpoints++
+                        true
+                    }
+                }
+                checkpoints
+            }
+        }
+    }
+
+    companion object {
+        const val CASH_PER_COIN = 100000
+        const val MAX_IOU_VALUE = 100
+        const val SAMPLE_INTERVAL_MILLIS = 10L
+
+        /** The nearest-rank [fraction] percentile of [sorted], or zero if it is empty. */
+        fun percentile(sorted: LongArray, fraction: Double): Long {
+            if (sorted.isEmpty()) return 0
+            val rank = Math.ceil(fraction * sorted.size).toInt()
+            return sorted[Math.min(Math.max(rank, 1), sorted.size) - 1]
+        }
+    }
+}
+
+/**
+ * Runs the harness with the configuration given by the `iou.load.*` system properties, e.g.
+ * `-Diou.load.nodes=5 -Diou.load.flows=2000 -Diou.load.rate=200`, and prints its report.
+ */
+fun main(args: Array<String>) {
+    println(LoadHarness(LoadHarness.Config.fromSystemProperties()).run())
+}
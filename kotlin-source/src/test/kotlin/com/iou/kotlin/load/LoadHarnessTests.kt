@@ -0,0 +1,35 @@
+package com.iou.kotlin.load
+
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class LoadHarnessTests {
+    @Test
+    fun runsEveryFlowAndReleasesEveryCheckpoint() {
+        val config = LoadHarness.Config(flows = 60, ratePerSecond = 50.0, concurrency = 8)
+        val report = LoadHarness(config).run()
+
+        assertEquals(config.flows, report.completed)
+        assertEquals(0, report.failed)
+        assertEquals(0, report.remainingCheckpoints)
+        assert(report.stats.single { it.type == LoadHarness.FlowType.CREATION }.completed > 0)
+        for (stats in report.stats.filter { it.completed > 0 }) {
+            assert(stats.p50Millis <= stats.p99Millis && stats.p99Millis <= stats.p999Millis)
+        }
+    }
+
+    @Test
+    fun percentilesUseTheNearestRank() {
+        val sorted = (1L..1000L).toList().toLongArray()
+        assertEquals(500, LoadHarness.percentile(sorted, 0.5))
+        assertEquals(990, LoadHarness.percentile(sorted, 0.99))
+        assertEquals(999, LoadHarness.percentile(sorted, 0.999))
+        assertEquals(0, LoadHarness.percentile(LongArray(0), 0.5))
+    }
+
+    @Test
+    fun transfersNeedThreeNodes() {
+        assertFailsWith<IllegalArgumentException> { LoadHarness.Config(nodes = 2) }
+    }
+}
@@ -0,0 +1,59 @@
+package com.iou.kotlin.plugin
+
+import com.esotericsoftware.kryo.Kryo
+import com.esotericsoftware.kryo.io.Input
+import com.esotericsoftware.kryo.io.Output
+import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.UniqueIdentifier
+import net.corda.core.serialization.createKryo
+import net.corda.testing.MEGA_CORP
+import net.corda.testing.MINI_CORP
+import org.junit.Before
+import org.junit.Test
+import java.util.*
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class IOUSerializersTests {
+    lateinit var kryo: Kryo
+
+    @Before
+    fun setup() {
+        kryo = createKryo(Kryo())
+        IOUKotlinPlugin().registerRPCKryoTypes(kryo)
+    }
+
+    private fun serialize(obj: Any): ByteArray {
+        val output = Output(1024, -1)
+        kryo.writeClassAndObject(output, obj)
+        return output.toBytes()
+    }
+
+    private fun deserialize(bytes: ByteArray): Any = kryo.readClassAndObject(Input(bytes))
+
+    @Test
+    fun iouStateRoundTrips() {
+        val iou = IOUState(10, MINI_CORP, MEGA_CORP, IOUContract(), 4, UniqueIdentifier("external"))
+        assertEquals(iou, deserialize(serialize(iou)))
+    }
+
+    @Test
+    fun commandsRoundTrip() {
+        for (command in listOf(IOUContract.Commands.Create(), IOUContract.Commands.Transfer(), IOUContract.Commands.Settle(),
+                IOUContract.Commands.Compact(), IOUContract.Commands.Net())) {
+            assertEquals(command.javaClass, deserialize(serialize(command)).javaClass)
+        }
+    }
+
+    @Test
+    fun repeatedPartiesAreWrittenOnce() {
+        val one = serialize(arrayListOf(IOUState(1, MINI_CORP, MEGA_CORP, IOUContract())))
+        val many = serialize(ArrayList((1..10).map { IOUState(it, MINI_CORP, MEGA_CORP, IOUContract()) }))
+        val ious = deserialize(many) as List<*>
+        assertEquals(10, ious.size)
+        assertEquals(MINI_CORP, (ious.last() as IOUState).sender)
+        // Each further IOU costs little more than its value and linearId.
+        assertTrue(many.size - one.size < 9 * 40)
+    }
+}
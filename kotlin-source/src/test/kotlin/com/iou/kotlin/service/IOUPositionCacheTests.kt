@@ -0,0 +1,81 @@
+package com.iou.kotlin.service
+
+import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.ContractState
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.contracts.StateRef
+import net.corda.core.contracts.TransactionState
+import net.corda.core.crypto.Party
+import net.corda.core.crypto.SecureHash
+import net.corda.core.node.services.Vault
+import net.corda.testing.*
+import org.junit.Before
+import org.junit.Test
+import kotlin.test.assertEquals
+
+class IOUPositionCacheTests {
+    lateinit var cache: IOUPositionCache
+
+    private fun iou(value: Int, sender: Party, recipient: Party) = stateAndRef(IOUState(value, sender, recipient, IOUContract()))
+
+    private fun stateAndRef(iou: IOUState): StateAndRef<ContractState> {
+        return StateAndRef(TransactionState(iou, DUMMY_NOTARY), StateRef(SecureHash.randomSHA256(), 0))
+    }
+
+    @Before
+    fun setup() {
+        cache = IOUPositionCache(MEGA_CORP)
+    }
+
+    @Test
+    fun aggregatesOutstandingAmountsPerCounterparty() {
+        cache.add(listOf(iou(10, MINI_CORP, MEGA_CORP), iou(5, MINI_CORP, MEGA_CORP), iou(3, MEGA_CORP, MINI_CORP), iou(7, MEGA_CORP, ALICE)))
+        assertEquals(IOUPositionCache.Position(15, 3, 3), cache[MINI_CORP])
+        assertEquals(12, cache[MINI_CORP].net)
+        assertEquals(IOUPositionCache.Position(0, 7, 1), cache[ALICE])
+        assertEquals(IOUPositionCache.Position.ZERO, cache[BOB])
+    }
+
+    @Test
+    fun ignoresIOUsWeAreNotPartyTo() {
+        cache.add(listOf(iou(10, ALICE, BOB)))
+        assert(cache.all().isEmpty())
+    }
+
+    @Test
+    fun followsPaymentsAndSettlement() {
+        val original = iou(10, MINI_CORP, MEGA_CORP)
+        cache.add(listOf(original))
+        val paid = stateAndRef((original.state.data as IOUState).pay(4))
+        cache.update(Vault.Update(setOf(original), setOf(paid)))
+        assertEquals(IOUPositionCache.Position(6, 0, 1), cache[MINI_CORP])
+
+        cache.update(Vault.Update(setOf(paid), emptySet()))
+        assertEquals(IOUPositionCache.Position.ZERO, cache[MINI_CORP])
+        assert(cache.all().isEmpty())
+    }
+
+    @Test
+    fun checkFindsPositionsWhichDifferFromTheVault() {
+        val vault = listOf(iou(10, MINI_CORP, MEGA_CORP), iou(3, MEGA_CORP, ALICE))
+        cache.add(vault)
+        assert(cache.check(vault).isEmpty())
+
+        val missed = iou(4, MEGA_CORP, MINI_CORP)
+        val mismatches = cache.check(vault + missed)
+        assertEquals(listOf(IOUPositionCache.Mismatch(MINI_CORP, IOUPositionCache.Position(10, 0, 1), IOUPositionCache.Position(10, 4, 2))), mismatches)
+    }
+
+    @Test
+    fun concurrentUpdatesAreNotLost() {
+        val ious = (1..10000).map { iou(1, if (it % 2 == 0) MINI_CORP else ALICE, MEGA_CORP) }
+        val threads = (0..3).map { t ->
+            Thread { cache.add(ious.filterIndexed { i, iou -> i % 4 == t }) }
+        }
+        threads.forEach { it.start() }
+        threads.forEach { it.join() }
+        assertEquals(IOUPositionCache.Position(5000, 0, 5000), cache[MINI_CORP])
+        assertEquals(IOUPositionCache.Position(5000, 0, 5000), cache[ALICE])
+    }
+}
@@ -0,0 +1,142 @@
+package com.iou.kotlin.service
+
+import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.state.IOUState
+import net.corda.core.contracts.*
+import net.corda.core.crypto.Party
+import net.corda.core.crypto.SecureHash
+import net.corda.core.node.services.Vault
+import net.corda.testing.*
+import org.junit.Before
+import org.junit.Test
+import java.util.*
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class IOUQueryServiceTests {
+    lateinit var index: IOUQueryService
+
+    private fun iou(value: Int, sender: Party = MEGA_CORP, recipient: Party = MINI_CORP): StateAndRef<ContractState> {
+        return stateAndRef(IOUState(value, sender, recipient, IOUContract()))
+    }
+
+    private fun stateAndRef(iou: IOUState): StateAndRef<ContractState> {
+        return StateAndRef(TransactionState(iou, DUMMY_NOTARY), StateRef(SecureHash.randomSHA256(), 0))
+    }
+
+    private fun page(sender: Party? = null,
+                     recipient: Party? = null,
+                     minValue: Int? = null,
+                     maxValue: Int? = null,
+                     cursor: UUID? = null,
+                     limit: Int = 100,
+                     filter: (IOUState) -> Boolean = { true }): List<StateAndRef<IOUState>> {
+        return index.page(sender, recipient, minValue, maxValue, cursor, limit, filter)
+    }
+
+    @Before
+    fun setup() {
+        index = IOUQueryService()
+    }
+
+    @Test
+    fun findsIOUsByLinearId() {
+        val first = iou(10)
+        index.add(listOf(first, iou(20)))
+        val linearId = (first.state.data as IOUState).linearId
+        assertEquals(first.ref, index.byLinearId(linearId)?.ref)
+        assertNull(index.byLinearId(UniqueIdentifier()))
+    }
+
+    @Test
+    fun pagesByPartyAndValueRange() {
+        val small = iou(5)
+        val large = iou(50)
+        val other = iou(20, ALICE, BOB)
+        index.add(listOf(small, large, other))
+        assertEquals(setOf(small.ref, large.ref), page(sender = MEGA_CORP).map { it.ref }.toSet())
+        assertEquals(listOf(large.ref), page(recipient = MINI_CORP, minValue = 10).map { it.ref })
+        assertEquals(setOf(small.ref, other.ref), page(maxValue = 20).map { it.ref }.toSet())
+        assert(page(sender = CHARLIE).isEmpty())
+        assert(page(minValue = 30, maxValue = 10).isEmpty())
+    }
+
+    @Test
+    fun valueRangePagesAreInLinearIdOrderFromTheCursor() {
+        val ious = (1..10).map { iou(it % 3) } + iou(100)
+        index.add(ious)
+        val ordered = ious.map { it.state.data as IOUState }.filter { it.iouValue <= 1 }.map { it.linearId.id }.sorted()
+
+        val first = page(maxValue = 1, limit = 3)
+        assertEquals(ordered.subList(0, 3), first.map { it.state.data.linearId.id })
+        val rest = page(maxValue = 1, cursor = ordered[2], limit = 100)
+        assertEquals(ordered.subList(3, ordered.size), rest.map { it.state.data.linearId.id })
+    }
+
+    @Test
+    fun newVersionsReplaceTheOldOnes() {
+        val original = iou(10)
+        index.add(listOf(original))
+        val paid = stateAndRef((original.state.data as IOUState).pay(4))
+        index.update(Vault.Update(setOf(original), setOf(paid)))
+
+        val head = index.byLinearId((original.state.data as IOUState).linearId)!!
+        assertEquals(paid.ref, head.ref)
+        assertEquals(listOf(paid.ref), page(sender = MEGA_CORP).map { it.ref })
+        assertEquals(listOf(paid.ref), page(minValue = 10).map { it.ref })
+    }
+
+    @Test
+    fun consumedIOUsAreDropped() {
+        val iou = iou(10)
+        index.add(listOf(iou))
+        index.update(Vault.Update(setOf(iou), emptySet()))
+        assertNull(index.byLinearId((iou.state.data as IOUState).linearId))
+        assert(page(minValue = 0).isEmpty())
+        assert(page(recipient = MINI_CORP).isEmpty())
+    }
+
+    @Test
+    fun findsIOUsBetweenMembers() {
+        val aToB = iou(1, ALICE, BOB)
+        val bToA = iou(2, BOB, ALICE)
+        index.add(listOf(aToB, bToA, iou(3, ALICE, CHARLIE)))
+        assertEquals(setOf(aToB.ref, bToA.ref), index.between(setOf(ALICE, BOB)).map { it.ref }.toSet())
+    }
+
+    @Test
+    fun pagesInLinearIdOrderFromTheCursor() {
+        val ious = (1..10).map { iou(it) }
+        index.add(ious + iou(100, ALICE, BOB))
+        val ordered = ious.map { (it.state.data as IOUState).linearId.id }.sorted()
+
+        val first = page(sender = MEGA_CORP, limit = 4)
+        assertEquals(ordered.subList(0, 4), first.map { it.state.data.linearId.id })
+        val rest = page(sender = MEGA_CORP, cursor = ordered[3])
+        assertEquals(ordered.subList(4, 10), rest.map { it.state.data.linearId.id })
+        assertEquals(11, page().size)
+    }
+
+    @Test
+    fun pagesOnlyVisitTheGivenPartysIOUs() {
+        index.add(listOf(iou(1), iou(2, ALICE, BOB), iou(3, BOB, MINI_CORP)))
+
+        assertEquals(listOf(2), page(sender = ALICE).map { it.state.data.iouValue })
+        assertEquals(listOf(1, 3), page(recipient = MINI_CORP).map { it.state.data.iouValue }.sorted())
+        assertEquals(listOf(3), page(recipient = MINI_CORP) { it.iouValue > 1 }.map { it.state.data.iouValue })
+        assert(page(sender = CHARLIE).isEmpty())
+    }
+
+    @Test
+    fun pagesFollowNewVersionsAndDropConsumedIOUs() {
+        val original = iou(10)
+        val consumed = iou(20)
+        index.add(listOf(original, consumed))
+        val paid = stateAndRef((original.state.data as IOUState).pay(4))
+        index.update(Vault.Update(setOf(original, consumed), setOf(paid)))
+
+        assertEquals(listOf(paid.ref), page(sender = MEGA_CORP).map { it.ref })
+        assertEquals(listOf(paid.ref), page(recipient = MINI_CORP).map { it.ref })
+        assertEquals(listOf(paid.ref), page().map { it.ref })
+    }
+}
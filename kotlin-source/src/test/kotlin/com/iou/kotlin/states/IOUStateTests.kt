@@ -4,6 +4,7 @@ import com.iou.kotlin.contract.IOUContract
 import com.iou.kotlin.state.IOUState
 import net.corda.core.contracts.LinearState
 import net.corda.core.crypto.Party
+import net.corda.testing.ALICE_PUBKEY
 import net.corda.testing.MEGA_CORP
 import net.corda.testing.MEGA_CORP_PUBKEY
 import net.corda.testing.MINI_CORP
@@ -70,4 +71,13 @@ class IOUStateTests {
         val iouState = IOUState(1, miniCorp, megaCorp, IOUContract())
         assert(iouState.isRelevant(setOf(megaCorpKey.singleKey)))
     }
-}
\ No newline at end of file
+
+    @Test
+    fun isNotRelevantToOtherParties() {
+        val iouState = IOUState(1, miniCorp, megaCorp, IOUContract())
+        assert(!iouState.isRelevant(setOf(ALICE_PUBKEY.singleKey)))
+        // The cached keys must give the same answer on later calls.
+        assert(!iouState.isRelevant(setOf(ALICE_PUBKEY.singleKey)))
+        assert(iouState.isRelevant(setOf(ALICE_PUBKEY.singleKey, megaCorpKey.singleKey)))
+    }
+}
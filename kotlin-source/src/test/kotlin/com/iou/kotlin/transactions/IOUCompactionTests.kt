@@ -0,0 +1,72 @@
+package com.iou.kotlin.transactions
+
+import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.state.IOUState
+import net.corda.testing.*
+import org.junit.Test
+
+class IOUCompactionTests {
+    val iou = IOUState(10, ALICE, BOB, IOUContract()).pay(3)
+
+    @Test
+    fun exitConsumesTheIOU() {
+        ledger {
+            transaction {
+                input { iou }
+                command(ALICE_PUBKEY, BOB_PUBKEY) { IOUContract.Commands.Compact() }
+                verifies()
+            }
+        }
+    }
+
+    @Test
+    fun reissueCreatesTheIOUWithoutInputs() {
+        ledger {
+            transaction {
+                output { iou }
+                command(ALICE_PUBKEY, BOB_PUBKEY) { IOUContract.Commands.Compact() }
+                verifies()
+            }
+        }
+    }
+
+    @Test
+    fun cannotConsumeAndReissueInOneTransaction() {
+        ledger {
+            transaction {
+                input { iou }
+                output { iou }
+                command(ALICE_PUBKEY, BOB_PUBKEY) { IOUContract.Commands.Compact() }
+                failsWith("Each IOU must be either consumed or reissued.")
+            }
+        }
+    }
+
+    @Test
+    fun cannotMixExitsAndReissues() {
+        ledger {
+            transaction {
+                input { iou }
+                output { IOUState(5, ALICE, BOB, IOUContract()) }
+                command(ALICE_PUBKEY, BOB_PUBKEY) { IOUContract.Commands.Compact() }
+                failsWith("IOUs must either all be consumed or all be reissued.")
+            }
+        }
+    }
+
+    @Test
+    fun senderAndRecipientMustSign() {
+        ledger {
+            transaction {
+                input { iou }
+                command(ALICE_PUBKEY) { IOUContract.Commands.Compact() }
+                failsWith("All of the participants must be signers.")
+            }
+            transaction {
+                output { iou }
+                command(BOB_PUBKEY) { IOUContract.Commands.Compact() }
+                failsWith("All of the participants must be signers.")
+            }
+        }
+    }
+}
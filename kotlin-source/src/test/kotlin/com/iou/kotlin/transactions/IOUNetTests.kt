@@ -0,0 +1,79 @@
+package com.iou.kotlin.transactions
+
+import com.iou.kotlin.contract.IOUContract
+import com.iou.kotlin.state.IOUState
+import net.corda.testing.*
+import org.junit.Test
+
+class IOUNetTests {
+    val aliceOwesBob = IOUState(10, ALICE, BOB, IOUContract())
+    val bobOwesAlice = IOUState(4, BOB, ALICE, IOUContract())
+
+    @Test
+    fun reciprocalIOUsNetToTheirDifference() {
+        ledger {
+            transaction {
+                input { aliceOwesBob }
+                input { bobOwesAlice }
+                output { IOUState(6, ALICE, BOB, IOUContract()) }
+                command(ALICE_PUBKEY, BOB_PUBKEY) { IOUContract.Commands.Net() }
+                verifies()
+            }
+        }
+    }
+
+    @Test
+    fun netPositionsMustBePreserved() {
+        ledger {
+            transaction {
+                input { aliceOwesBob }
+                input { bobOwesAlice }
+                output { IOUState(5, ALICE, BOB, IOUContract()) }
+                command(ALICE_PUBKEY, BOB_PUBKEY) { IOUContract.Commands.Net() }
+                failsWith("Netting must preserve every party's net position.")
+            }
+        }
+    }
+
+    @Test
+    fun atMostOneResidualPerPair() {
+        ledger {
+            transaction {
+                input { aliceOwesBob }
+                input { bobOwesAlice }
+                output { IOUState(3, ALICE, BOB, IOUContract()) }
+                output { IOUState(3, ALICE, BOB, IOUContract()) }
+                command(ALICE_PUBKEY, BOB_PUBKEY) { IOUContract.Commands.Net() }
+                failsWith("There must be at most one residual IOU per pair of parties.")
+            }
+        }
+    }
+
+    @Test
+    fun residualsMustBeBetweenNettedParties() {
+        ledger {
+            transaction {
+                input { aliceOwesBob }
+                input { IOUState(10, BOB, ALICE, IOUContract()) }
+                output { IOUState(1, CHARLIE, MEGA_CORP, IOUContract()) }
+                output { IOUState(1, MEGA_CORP, MINI_CORP, IOUContract()) }
+                output { IOUState(1, MINI_CORP, CHARLIE, IOUContract()) }
+                command(ALICE_PUBKEY, BOB_PUBKEY, CHARLIE_PUBKEY, MEGA_CORP_PUBKEY, MINI_CORP_PUBKEY) { IOUContract.Commands.Net() }
+                failsWith("Residual IOUs must be between parties to the netted IOUs.")
+            }
+        }
+    }
+
+    @Test
+    fun allPartiesMustSign() {
+        ledger {
+            transaction {
+                input { aliceOwesBob }
+                input { bobOwesAlice }
+                output { IOUState(6, ALICE, BOB, IOUContract()) }
+                command(ALICE_PUBKEY) { IOUContract.Commands.Net() }
+                failsWith("All of the participants must be signers.")
+            }
+        }
+    }
+}
@@ -41,13 +41,42 @@ class IOUTransactionTests {
     }
 
     @Test
-    fun createTransactionMustHaveOneOutput() {
+    fun createTransactionMustHaveAnOutput() {
+        ledger {
+            transaction {
+                command(MINI_CORP_PUBKEY, MEGA_CORP_PUBKEY) { IOUContract.Commands.Create() }
+                failsWith("At least one output state should be created.")
+            }
+        }
+    }
+
+    @Test
+    fun createTransactionMayHaveManyOutputs() {
+        ledger {
+            transaction {
+                output { IOUState(1, MINI_CORP, MEGA_CORP, IOUContract()) }
+                output { IOUState(2, MINI_CORP, MEGA_CORP, IOUContract()) }
+                output { IOUState(3, MEGA_CORP, MINI_CORP, IOUContract()) }
+                command(MINI_CORP_PUBKEY, MEGA_CORP_PUBKEY) { IOUContract.Commands.Create() }
+                verifies()
+            }
+        }
+    }
+
+    @Test
+    fun everyOutputOfABatchMustBeValid() {
         ledger {
             transaction {
                 output { IOUState(1, MINI_CORP, MEGA_CORP, IOUContract()) }
+                output { IOUState(-1, MINI_CORP, MEGA_CORP, IOUContract()) }
+                command(MINI_CORP_PUBKEY, MEGA_CORP_PUBKEY) { IOUContract.Commands.Create() }
+                failsWith("The IOU's value must be non-negative.")
+            }
+            transaction {
                 output { IOUState(1, MINI_CORP, MEGA_CORP, IOUContract()) }
+                output { IOUState(1, MINI_CORP, ALICE, IOUContract()) }
                 command(MINI_CORP_PUBKEY, MEGA_CORP_PUBKEY) { IOUContract.Commands.Create() }
-                failsWith("Only one output state should be created.")
+                failsWith("All of the participants must be signers.")
             }
         }
     }
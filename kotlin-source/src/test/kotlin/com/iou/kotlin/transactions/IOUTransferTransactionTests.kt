@@ -6,13 +6,15 @@ import net.corda.testing.*
 import org.junit.Test
 
 class IOUTransferTransactionTests {
+    // Outputs are built with copy() so that they share the input's linearId and form one group.
+    val iou = IOUState(1, ALICE, BOB, IOUContract())
 
     @Test
     fun mustIncludeCommand() {
         ledger {
             transaction {
-                input { IOUState(1, ALICE, BOB, IOUContract()) }
-                output { IOUState(1, ALICE, CHARLIE, IOUContract()) }
+                input { iou }
+                output { iou.copy(recipient = CHARLIE) }
                 fails()
             }
         }
@@ -22,8 +24,8 @@ class IOUTransferTransactionTests {
     fun cannotCreateNegativeValueIOUs() {
         ledger {
             transaction {
-                input { IOUState(-1, ALICE, BOB, IOUContract()) }
-                output { IOUState(-1, ALICE, CHARLIE, IOUContract()) }
+                input { iou.copy(iouValue = -1) }
+                output { iou.copy(iouValue = -1, recipient = CHARLIE) }
                 command (ALICE_PUBKEY, BOB_PUBKEY, CHARLIE_PUBKEY) { IOUContract.Commands.Transfer() }
                 failsWith("The IOU's value must be non-negative.")
             }
@@ -34,7 +36,7 @@ class IOUTransferTransactionTests {
     fun transferTransactionMustHaveOneInput() {
         ledger {
             transaction {
-                output { IOUState(1, ALICE, CHARLIE, IOUContract()) }
+                output { iou.copy(recipient = CHARLIE) }
                 command(ALICE_PUBKEY, BOB_PUBKEY, CHARLIE_PUBKEY) { IOUContract.Commands.Transfer() }
                 failsWith("One input should be consumed when transferring an IOU.")
             }
@@ -51,9 +53,9 @@ class IOUTransferTransactionTests {
     fun transferTransactionMustHaveOneOutput() {
         ledger {
             transaction {
-                input { IOUState(1, ALICE, BOB, IOUContract()) }
-                output { IOUState(1, ALICE, CHARLIE, IOUContract()) }
-                output { IOUState(1, ALICE, CHARLIE, IOUContract()) }
+                input { iou }
+                output { iou.copy(recipient = CHARLIE) }
+                output { iou.copy(recipient = CHARLIE) }
                 command(ALICE_PUBKEY, BOB_PUBKEY, CHARLIE_PUBKEY) { IOUContract.Commands.Transfer() }
                 failsWith("Failed requirement: Only one output state should be created.")
             }
@@ -64,8 +66,8 @@ class IOUTransferTransactionTests {
     fun transferTransactionDoesNotChangeIOUValue() {
         ledger {
             transaction {
-                input { IOUState(1, ALICE, BOB, IOUContract()) }
-                output { IOUState(2, ALICE, CHARLIE, IOUContract()) }
+                input { iou }
+                output { iou.copy(iouValue = 2, recipient = CHARLIE) }
                 command(ALICE_PUBKEY, BOB_PUBKEY, CHARLIE_PUBKEY) { IOUContract.Commands.Transfer() }
                 failsWith("The input and output IOUs must have the same value.")
             }
@@ -76,8 +78,8 @@ class IOUTransferTransactionTests {
     fun transferTransactionDoesNotChangeIOUSender() {
         ledger {
             transaction {
-                input { IOUState(1, ALICE, BOB, IOUContract()) }
-                output { IOUState(1, BOB, CHARLIE, IOUContract()) }
+                input { iou }
+                output { iou.copy(sender = BOB, recipient = CHARLIE) }
                 command(ALICE_PUBKEY, BOB_PUBKEY, CHARLIE_PUBKEY) { IOUContract.Commands.Transfer() }
                 failsWith("The input and output IOUs must have the same sender.")
             }
@@ -88,8 +90,8 @@ class IOUTransferTransactionTests {
     fun transferTransactionChangesIOURecipient() {
         ledger {
             transaction {
-                input { IOUState(1, ALICE, BOB, IOUContract()) }
-                output { IOUState(1, ALICE, BOB, IOUContract()) }
+                input { iou }
+                output { iou }
                 command(ALICE_PUBKEY, BOB_PUBKEY, CHARLIE_PUBKEY) { IOUContract.Commands.Transfer() }
                 failsWith("The input and output IOUs must have different recipients.")
             }
@@ -100,8 +102,8 @@ class IOUTransferTransactionTests {
     fun senderMustSignCreateTransaction() {
         ledger {
             transaction {
-                input { IOUState(1, ALICE, BOB, IOUContract()) }
-                output { IOUState(1, ALICE, CHARLIE, IOUContract()) }
+                input { iou }
+                output { iou.copy(recipient = CHARLIE) }
                 command(BOB_PUBKEY, CHARLIE_PUBKEY) { IOUContract.Commands.Transfer() }
                 failsWith("All of the participants must be signers.")
             }
@@ -112,8 +114,8 @@ class IOUTransferTransactionTests {
     fun oldRecipientMustSignCreateTransaction() {
         ledger {
             transaction {
-                input { IOUState(1, ALICE, BOB, IOUContract()) }
-                output { IOUState(1, ALICE, CHARLIE, IOUContract()) }
+                input { iou }
+                output { iou.copy(recipient = CHARLIE) }
                 command(ALICE_PUBKEY, CHARLIE_PUBKEY) { IOUContract.Commands.Transfer() }
                 failsWith("All of the participants must be signers.")
             }
@@ -124,11 +126,38 @@ class IOUTransferTransactionTests {
     fun newRecipientMustSignCreateTransaction() {
         ledger {
             transaction {
-                input { IOUState(1, ALICE, BOB, IOUContract()) }
-                output { IOUState(1, ALICE, CHARLIE, IOUContract()) }
+                input { iou }
+                output { iou.copy(recipient = CHARLIE) }
                 command(ALICE_PUBKEY, BOB_PUBKEY) { IOUContract.Commands.Transfer() }
                 failsWith("All of the participants must be signers.")
             }
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    fun severalIOUsMayBeTransferredTogether() {
+        val other = IOUState(2, ALICE, BOB, IOUContract())
+        ledger {
+            transaction {
+                input { iou }
+                input { other }
+                output { iou.copy(recipient = CHARLIE) }
+                output { other.copy(recipient = CHARLIE) }
+                command(ALICE_PUBKEY, BOB_PUBKEY, CHARLIE_PUBKEY) { IOUContract.Commands.Transfer() }
+                verifies()
+            }
+        }
+    }
+
+    @Test
+    fun everyTransferredIOUMustKeepItsLinearId() {
+        ledger {
+            transaction {
+                input { iou }
+                output { IOUState(1, ALICE, CHARLIE, IOUContract()) }
+                command(ALICE_PUBKEY, BOB_PUBKEY, CHARLIE_PUBKEY) { IOUContract.Commands.Transfer() }
+                failsWith("One input should be consumed when transferring an IOU.")
+            }
+        }
+    }
+}